@@ -0,0 +1,107 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Name and listing lookups against a synthetic {@link Catalog} of growing size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CatalogLookupBenchmark {
+
+    @Param({ "10", "100" })
+    public int workspaces;
+
+    @Param({ "10", "100" })
+    public int layers;
+
+    Catalog catalog;
+
+    String[] prefixedNames;
+
+    String[] workspaceNames;
+
+    String[] layerNames;
+
+    int counter;
+
+    @Setup
+    public void setUp() {
+        catalog = SyntheticCatalog.create(workspaces, layers);
+
+        // pre-compute a random sequence of lookups
+        Random random = new Random(0);
+        int size = 1024;
+        prefixedNames = new String[size];
+        workspaceNames = new String[size];
+        layerNames = new String[size];
+        for (int i = 0; i < size; i++) {
+            workspaceNames[i] = SyntheticCatalog.workspaceName(random.nextInt(workspaces));
+            layerNames[i] = SyntheticCatalog.layerName(random.nextInt(layers));
+            prefixedNames[i] = workspaceNames[i] + ":" + layerNames[i];
+        }
+    }
+
+    int next() {
+        return (counter++) & (prefixedNames.length - 1);
+    }
+
+    @Benchmark
+    public LayerInfo getLayerByName() {
+        return catalog.getLayerByName(prefixedNames[next()]);
+    }
+
+    @Benchmark
+    public FeatureTypeInfo getFeatureTypeByName() {
+        int i = next();
+        return catalog.getFeatureTypeByName(workspaceNames[i], layerNames[i]);
+    }
+
+    @Benchmark
+    public LayerGroupInfo getLayerGroupByName() {
+        int i = next();
+        return catalog.getLayerGroupByName(workspaceNames[i], workspaceNames[i] + "_group");
+    }
+
+    @Benchmark
+    public StyleInfo getStyleByName() {
+        return catalog.getStyleByName(SyntheticCatalog.STYLE);
+    }
+
+    @Benchmark
+    public List<LayerInfo> getLayers() {
+        return catalog.getLayers();
+    }
+
+    @Benchmark
+    public List<FeatureTypeInfo> getFeatureTypesByNamespace() {
+        return catalog.getFeatureTypesByNamespace(catalog.getNamespaceByPrefix(workspaceNames[next()]));
+    }
+}
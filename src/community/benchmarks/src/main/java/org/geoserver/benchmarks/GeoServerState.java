@@ -0,0 +1,99 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmarks;
+
+import java.io.File;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.config.GeoServer;
+import org.geoserver.data.test.SystemTestData;
+import org.geoserver.data.util.IOUtils;
+import org.geoserver.platform.ContextLoadedEvent;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.GeoServerExtensionsHelper;
+import org.geoserver.test.GeoServerTestApplicationContext;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.web.context.WebApplicationContext;
+
+import com.mockrunner.mock.web.MockServletContext;
+
+/**
+ * Base class for the benchmarks that need a running GeoServer. Starts up the full Spring context
+ * against the default system test data directory, the same way
+ * {@link org.geoserver.test.GeoServerSystemTestSupport} does, once per trial.
+ */
+@State(Scope.Benchmark)
+public abstract class GeoServerState {
+
+    protected SystemTestData testData;
+
+    protected GeoServerTestApplicationContext applicationContext;
+
+    @Setup(Level.Trial)
+    public void startGeoServer() throws Exception {
+        File root = new File(System.getProperty("java.io.tmpdir"));
+        File data = IOUtils.createRandomDirectory(root.getPath(), "benchmark", "data");
+        testData = new SystemTestData(data);
+        testData.setUp();
+        setUpTestData(testData);
+
+        MockServletContext servletContext = new MockServletContext();
+        servletContext.setInitParameter("GEOSERVER_DATA_DIR", data.getPath());
+        servletContext.setInitParameter("serviceStrategy", "SPEED");
+        File webinf = new File(data, "WEB-INF");
+        webinf.mkdir();
+        servletContext.setRealPath("WEB-INF", webinf.getAbsolutePath());
+
+        applicationContext = new GeoServerTestApplicationContext(new String[] {
+                "classpath*:/applicationContext.xml",
+                "classpath*:/applicationSecurityContext.xml" }, servletContext);
+        applicationContext.setUseLegacyGeoServerLoader(false);
+        applicationContext.refresh();
+        applicationContext.publishEvent(new ContextLoadedEvent(applicationContext));
+        servletContext.setAttribute(WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE,
+                applicationContext);
+
+        onSetUp();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopGeoServer() throws Exception {
+        try {
+            if (applicationContext != null) {
+                applicationContext.destroy();
+            }
+            GeoServerExtensionsHelper.init(null);
+        } finally {
+            applicationContext = null;
+            testData.tearDown();
+        }
+    }
+
+    /**
+     * Sets up the data directory, by default with the default vector layers and security
+     * configuration
+     */
+    protected void setUpTestData(SystemTestData testData) throws Exception {
+        testData.setUpDefault();
+    }
+
+    /**
+     * Hook called once GeoServer is up and running
+     */
+    protected void onSetUp() throws Exception {
+    }
+
+    protected GeoServer getGeoServer() {
+        return GeoServerExtensions.bean(GeoServer.class);
+    }
+
+    protected Catalog getCatalog() {
+        return (Catalog) GeoServerExtensions.bean("catalog");
+    }
+}
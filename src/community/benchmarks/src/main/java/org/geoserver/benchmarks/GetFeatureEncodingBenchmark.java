@@ -0,0 +1,134 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+
+import net.opengis.wfs.GetFeatureType;
+import net.opengis.wfs.QueryType;
+import net.opengis.wfs.WfsFactory;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
+import org.geoserver.wfs.WFSGetFeatureOutputFormat;
+import org.geoserver.wfs.json.GeoJSONGetFeatureResponse;
+import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Encoding of a WFS GetFeature response in GML 3 and GeoJSON. The features are generated in
+ * memory, with the feature type of <code>cite:BasicPolygons</code>, so that only the encoding cost
+ * is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class GetFeatureEncodingBenchmark extends GeoServerState {
+
+    @Param({ "1000", "10000" })
+    public int features;
+
+    @Param({ "32" })
+    public int vertices;
+
+    WFSGetFeatureOutputFormat gml3;
+
+    WFSGetFeatureOutputFormat geojson;
+
+    SimpleFeatureCollection collection;
+
+    Operation operation;
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024 * 1024);
+
+    @Override
+    protected void onSetUp() throws Exception {
+        gml3 = (WFSGetFeatureOutputFormat) GeoServerExtensions.bean("gml3OutputFormat");
+        geojson = new GeoJSONGetFeatureResponse(getGeoServer(), "application/json");
+
+        FeatureTypeInfo info = getCatalog().getFeatureTypeByName(
+                getLayerName(MockData.BASIC_POLYGONS));
+        SimpleFeatureType type = (SimpleFeatureType) info.getFeatureType();
+        ListFeatureCollection list = new ListFeatureCollection(type);
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(type);
+        GeometryFactory gf = new GeometryFactory();
+        Random random = new Random(0);
+        for (int i = 0; i < features; i++) {
+            double cx = random.nextDouble() * 360 - 180;
+            double cy = random.nextDouble() * 180 - 90;
+            Coordinate[] ring = new Coordinate[vertices + 1];
+            for (int j = 0; j < vertices; j++) {
+                double angle = 2 * Math.PI * j / vertices;
+                double radius = 0.5 + random.nextDouble() * 0.5;
+                ring[j] = new Coordinate(cx + Math.cos(angle) * radius, cy
+                        + Math.sin(angle) * radius);
+            }
+            ring[vertices] = ring[0];
+            Polygon polygon = gf.createPolygon(gf.createLinearRing(ring), null);
+            fb.add(gf.createMultiPolygon(new Polygon[] { polygon }));
+            fb.add("feature " + i);
+            list.add(fb.buildFeature(type.getTypeName() + "." + i));
+        }
+        collection = list;
+
+        Service service = (Service) GeoServerExtensions.bean("wfsService-1.1.0");
+        GetFeatureType request = WfsFactory.eINSTANCE.createGetFeatureType();
+        request.setBaseUrl("http://localhost:8080/geoserver");
+        QueryType query = WfsFactory.eINSTANCE.createQueryType();
+        query.setTypeName(Collections.singletonList(MockData.BASIC_POLYGONS));
+        request.getQuery().add(query);
+        operation = new Operation("GetFeature", service, null, new Object[] { request });
+    }
+
+    String getLayerName(QName name) {
+        return name.getPrefix() + ":" + name.getLocalPart();
+    }
+
+    FeatureCollectionResponse response() {
+        FeatureCollectionResponse response = FeatureCollectionResponse
+                .adapt(WfsFactory.eINSTANCE.createFeatureCollectionType());
+        response.getFeature().add(collection);
+        return response;
+    }
+
+    @Benchmark
+    public int encodeGML3() throws Exception {
+        out.reset();
+        gml3.write(response(), out, operation);
+        return out.size();
+    }
+
+    @Benchmark
+    public int encodeGeoJSON() throws Exception {
+        out.reset();
+        geojson.write(response(), out, operation);
+        return out.size();
+    }
+}
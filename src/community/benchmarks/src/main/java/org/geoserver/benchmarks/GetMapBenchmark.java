@@ -0,0 +1,106 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.JAIInfo;
+import org.geoserver.ows.util.KvpUtils;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wms.GetMap;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.RasterCleaner;
+import org.geoserver.wms.WebMap;
+import org.geoserver.wms.map.GetMapKvpRequestReader;
+import org.geoserver.wms.map.PNGMapResponse;
+import org.geoserver.wms.map.RenderedImageMap;
+import org.geoserver.wms.map.RenderedImageMapOutputFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rendering of a GetMap request with the {@link RenderedImageMapOutputFormat}, on its own and
+ * followed by the PNG encoding with each of the configurable PNG encoders.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class GetMapBenchmark extends GeoServerState {
+
+    static final String GETMAP = "service=WMS&version=1.1.1&request=GetMap"
+            + "&layers=cite:BasicPolygons,cite:Lakes,cite:Forests,cite:Streams,cite:Bridges"
+            + "&styles=&bbox=-180,-90,180,90&srs=EPSG:4326&format=image/png";
+
+    @Param({ "PNGJ", "JDK" })
+    public String encoder;
+
+    @Param({ "256", "1024" })
+    public int size;
+
+    GetMap getMap;
+
+    PNGMapResponse response;
+
+    RasterCleaner cleaner;
+
+    GetMapRequest request;
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(1024 * 1024);
+
+    @Override
+    protected void onSetUp() throws Exception {
+        GeoServer gs = getGeoServer();
+        GeoServerInfo global = gs.getGlobal();
+        global.getJAI().setPngEncoderType(JAIInfo.PngEncoderType.valueOf(encoder));
+        gs.save(global);
+
+        getMap = (GetMap) GeoServerExtensions.bean("wmsGetMap");
+        response = GeoServerExtensions.bean(PNGMapResponse.class);
+        cleaner = GeoServerExtensions.bean(RasterCleaner.class);
+
+        Map raw = KvpUtils.parseQueryString(GETMAP + "&width=" + size + "&height=" + size);
+        Map kvp = KvpUtils.normalize(raw);
+        KvpUtils.parse(kvp);
+        GetMapKvpRequestReader reader = (GetMapKvpRequestReader) GeoServerExtensions
+                .bean("getMapKvpReader");
+        request = reader.read(reader.createRequest(), kvp, raw);
+    }
+
+    @Benchmark
+    public Object render() throws Exception {
+        WebMap map = getMap.run(request);
+        try {
+            return ((RenderedImageMap) map).getImage();
+        } finally {
+            map.dispose();
+            cleaner.finished(null);
+        }
+    }
+
+    @Benchmark
+    public int renderAndEncode() throws Exception {
+        RenderedImageMap map = (RenderedImageMap) getMap.run(request);
+        try {
+            out.reset();
+            response.formatImageOutputStream(map.getImage(), out, map.getMapContext());
+            return out.size();
+        } finally {
+            map.dispose();
+            cleaner.finished(null);
+        }
+    }
+}
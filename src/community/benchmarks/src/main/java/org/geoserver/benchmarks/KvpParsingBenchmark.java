@@ -0,0 +1,66 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.ows.util.KvpUtils;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.map.GetMapKvpRequestReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of a GetMap request the way the dispatcher does it: query string splitting, key
+ * normalization, parsing of the values with the registered KVP parsers, and the
+ * {@link GetMapKvpRequestReader} binding them to a {@link GetMapRequest}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class KvpParsingBenchmark extends GeoServerState {
+
+    static final String GETMAP = "service=WMS&version=1.1.1&request=GetMap"
+            + "&layers=cite:BasicPolygons,cite:Lakes&styles=&bbox=-180,-90,180,90"
+            + "&width=768&height=384&srs=EPSG:4326&format=image/png&transparent=true"
+            + "&format_options=antialias:full;dpi:90";
+
+    GetMapKvpRequestReader reader;
+
+    @Override
+    protected void onSetUp() throws Exception {
+        reader = (GetMapKvpRequestReader) GeoServerExtensions.bean("getMapKvpReader");
+    }
+
+    @Benchmark
+    public Map parseQueryString() {
+        return KvpUtils.parseQueryString(GETMAP);
+    }
+
+    @Benchmark
+    public Map parseKvp() {
+        Map raw = KvpUtils.parseQueryString(GETMAP);
+        Map kvp = KvpUtils.normalize(raw);
+        KvpUtils.parse(kvp);
+        return kvp;
+    }
+
+    @Benchmark
+    public GetMapRequest readGetMap() throws Exception {
+        Map raw = KvpUtils.parseQueryString(GETMAP);
+        Map kvp = KvpUtils.normalize(raw);
+        KvpUtils.parse(kvp);
+        return reader.read(reader.createRequest(), kvp, raw);
+    }
+}
@@ -0,0 +1,113 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmarks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.security.SecureCatalogImpl;
+import org.geoserver.security.impl.DefaultResourceAccessManager;
+import org.geoserver.security.impl.GeoServerRole;
+import org.geoserver.security.impl.MemoryDataAccessRuleDAO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Filtering of a synthetic catalog through {@link SecureCatalogImpl}, with half of the workspaces
+ * restricted to a role the benchmark user does not have.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SecureCatalogBenchmark {
+
+    @Param({ "10", "100" })
+    public int workspaces;
+
+    @Param({ "100" })
+    public int layers;
+
+    SecureCatalogImpl catalog;
+
+    Authentication user;
+
+    String[] prefixedNames;
+
+    int counter;
+
+    @Setup
+    public void setUp() throws Exception {
+        Catalog rawCatalog = SyntheticCatalog.create(workspaces, layers);
+
+        Properties rules = new Properties();
+        rules.put("mode", "HIDE");
+        rules.put("*.*.r", "*");
+        rules.put("*.*.w", "*");
+        for (int i = 0; i < workspaces; i += 2) {
+            rules.put(SyntheticCatalog.workspaceName(i) + ".*.r", "RESTRICTED");
+        }
+        DefaultResourceAccessManager manager = new DefaultResourceAccessManager(
+                new MemoryDataAccessRuleDAO(rawCatalog, rules));
+        catalog = new SecureCatalogImpl(rawCatalog, manager);
+
+        user = new TestingAuthenticationToken("reader", "secret",
+                Arrays.asList(new GrantedAuthority[] { new GeoServerRole("READER") }));
+
+        prefixedNames = new String[1024];
+        for (int i = 0; i < prefixedNames.length; i++) {
+            prefixedNames[i] = SyntheticCatalog.workspaceName(i % workspaces) + ":"
+                    + SyntheticCatalog.layerName(i % layers);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void login() {
+        // the security context is thread local, set it on the benchmark thread
+        SecurityContextHolder.getContext().setAuthentication(user);
+    }
+
+    @TearDown(Level.Iteration)
+    public void logout() {
+        SecurityContextHolder.getContext().setAuthentication(null);
+    }
+
+    @Benchmark
+    public List<LayerInfo> getLayers() {
+        return catalog.getLayers();
+    }
+
+    @Benchmark
+    public List<LayerGroupInfo> getLayerGroups() {
+        return catalog.getLayerGroups();
+    }
+
+    @Benchmark
+    public LayerInfo getLayerByName() {
+        return catalog.getLayerByName(prefixedNames[(counter++) & (prefixedNames.length - 1)]);
+    }
+}
@@ -0,0 +1,110 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmarks;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogFactory;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.Keyword;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+
+/**
+ * Builds in memory catalogs of arbitrary size, with no data behind them, for the benchmarks that
+ * only exercise the configuration objects.
+ * <p>
+ * The catalog contains <code>workspaces</code> workspaces named <code>ws0, ws1, ...</code>, each
+ * with its namespace, a single data store, <code>layers</code> feature types and layers named
+ * <code>layer0, layer1, ...</code> and a layer group containing all of them.
+ * </p>
+ */
+public class SyntheticCatalog {
+
+    public static final String STYLE = "synthetic";
+
+    /**
+     * Creates a new synthetic catalog
+     */
+    public static Catalog create(int workspaces, int layers) {
+        Catalog catalog = new CatalogImpl();
+        CatalogFactory factory = catalog.getFactory();
+
+        StyleInfo style = factory.createStyle();
+        style.setName(STYLE);
+        style.setFilename(STYLE + ".sld");
+        catalog.add(style);
+
+        ReferencedEnvelope bounds = new ReferencedEnvelope(-180, 180, -90, 90,
+                DefaultGeographicCRS.WGS84);
+        for (int i = 0; i < workspaces; i++) {
+            String prefix = workspaceName(i);
+            WorkspaceInfo ws = factory.createWorkspace();
+            ws.setName(prefix);
+            catalog.add(ws);
+
+            NamespaceInfo ns = factory.createNamespace();
+            ns.setPrefix(prefix);
+            ns.setURI("http://www.geoserver.org/" + prefix);
+            catalog.add(ns);
+
+            DataStoreInfo store = factory.createDataStore();
+            store.setName(prefix + "_store");
+            store.setWorkspace(ws);
+            store.setEnabled(true);
+            store.getConnectionParameters().put("namespace", ns.getURI());
+            catalog.add(store);
+
+            LayerGroupInfo group = factory.createLayerGroup();
+            group.setName(prefix + "_group");
+            group.setWorkspace(ws);
+            for (int j = 0; j < layers; j++) {
+                FeatureTypeInfo ft = factory.createFeatureType();
+                ft.setName(layerName(j));
+                ft.setNativeName(ft.getName());
+                ft.setTitle("Layer " + j + " of " + prefix);
+                ft.setAbstract("A synthetic layer");
+                ft.getKeywords().add(new Keyword("synthetic"));
+                ft.setNamespace(ns);
+                ft.setStore(store);
+                ft.setSRS("EPSG:4326");
+                ft.setNativeCRS(DefaultGeographicCRS.WGS84);
+                ft.setNativeBoundingBox(bounds);
+                ft.setLatLonBoundingBox(bounds);
+                ft.setEnabled(true);
+                catalog.add(ft);
+
+                LayerInfo layer = factory.createLayer();
+                layer.setResource(ft);
+                layer.setDefaultStyle(style);
+                layer.setEnabled(true);
+                catalog.add(layer);
+
+                group.getLayers().add(layer);
+                group.getStyles().add(null);
+            }
+            if (layers > 0) {
+                group.setBounds(bounds);
+                catalog.add(group);
+            }
+        }
+
+        return catalog;
+    }
+
+    public static String workspaceName(int i) {
+        return "ws" + i;
+    }
+
+    public static String layerName(int i) {
+        return "layer" + i;
+    }
+}
@@ -0,0 +1,120 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Saving and loading of catalog objects with the {@link XStreamPersister}, both one object at a
+ * time and for all the feature types and layers of a synthetic catalog, as done when loading the
+ * data directory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class XStreamPersisterBenchmark {
+
+    @Param({ "10" })
+    public int workspaces;
+
+    @Param({ "100" })
+    public int layers;
+
+    XStreamPersister xp;
+
+    List<FeatureTypeInfo> featureTypes;
+
+    List<LayerInfo> layerList;
+
+    byte[][] featureTypeBytes;
+
+    byte[][] layerBytes;
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+
+    @Setup
+    public void setUp() throws Exception {
+        Catalog catalog = SyntheticCatalog.create(workspaces, layers);
+        xp = new XStreamPersisterFactory().createXMLPersister();
+        xp.setCatalog(catalog);
+
+        featureTypes = catalog.getFeatureTypes();
+        layerList = catalog.getLayers();
+        featureTypeBytes = new byte[featureTypes.size()][];
+        for (int i = 0; i < featureTypeBytes.length; i++) {
+            featureTypeBytes[i] = save(featureTypes.get(i));
+        }
+        layerBytes = new byte[layerList.size()][];
+        for (int i = 0; i < layerBytes.length; i++) {
+            layerBytes[i] = save(layerList.get(i));
+        }
+    }
+
+    byte[] save(Object info) throws Exception {
+        out.reset();
+        xp.save(info, out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public int saveFeatureType() throws Exception {
+        out.reset();
+        xp.save(featureTypes.get(0), out);
+        return out.size();
+    }
+
+    @Benchmark
+    public FeatureTypeInfo loadFeatureType() throws Exception {
+        return xp.load(new ByteArrayInputStream(featureTypeBytes[0]), FeatureTypeInfo.class);
+    }
+
+    @Benchmark
+    public void saveCatalog(Blackhole bh) throws Exception {
+        for (FeatureTypeInfo ft : featureTypes) {
+            out.reset();
+            xp.save(ft, out);
+            bh.consume(out.size());
+        }
+        for (LayerInfo layer : layerList) {
+            out.reset();
+            xp.save(layer, out);
+            bh.consume(out.size());
+        }
+    }
+
+    @Benchmark
+    public void loadCatalog(Blackhole bh) throws Exception {
+        for (byte[] bytes : featureTypeBytes) {
+            bh.consume(xp.load(new ByteArrayInputStream(bytes), FeatureTypeInfo.class));
+        }
+        for (byte[] bytes : layerBytes) {
+            bh.consume(xp.load(new ByteArrayInputStream(bytes), LayerInfo.class));
+        }
+    }
+}
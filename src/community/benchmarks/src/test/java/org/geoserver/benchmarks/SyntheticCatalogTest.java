@@ -0,0 +1,34 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmarks;
+
+import static org.junit.Assert.*;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.junit.Test;
+
+public class SyntheticCatalogTest {
+
+    @Test
+    public void testCreate() {
+        Catalog catalog = SyntheticCatalog.create(3, 5);
+        assertEquals(3, catalog.getWorkspaces().size());
+        assertEquals(3, catalog.getNamespaces().size());
+        assertEquals(3, catalog.getDataStores().size());
+        assertEquals(15, catalog.getFeatureTypes().size());
+        assertEquals(15, catalog.getLayers().size());
+        assertEquals(3, catalog.getLayerGroups().size());
+
+        LayerInfo layer = catalog.getLayerByName("ws2:layer4");
+        assertNotNull(layer);
+        assertEquals(SyntheticCatalog.STYLE, layer.getDefaultStyle().getName());
+
+        LayerGroupInfo group = catalog.getLayerGroupByName("ws1", "ws1_group");
+        assertNotNull(group);
+        assertEquals(5, group.getLayers().size());
+    }
+}
@@ -0,0 +1,127 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow;
+
+import java.beans.ConstructorProperties;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.geoserver.flow.controller.AdaptiveFlowController;
+import org.geoserver.flow.controller.OWSRequestMatcher;
+
+/**
+ * A snapshot of the state of an {@link AdaptiveFlowController}, as reported over JMX and REST
+ */
+public class AdaptiveLimitInfo {
+
+    String name;
+
+    int limit;
+
+    int minLimit;
+
+    int maxLimit;
+
+    int running;
+
+    int queueDepth;
+
+    long rejectedCount;
+
+    long completedCount;
+
+    double minLatency;
+
+    @ConstructorProperties({ "name", "limit", "minLimit", "maxLimit", "running", "queueDepth",
+            "rejectedCount", "completedCount", "minLatency" })
+    public AdaptiveLimitInfo(String name, int limit, int minLimit, int maxLimit, int running,
+            int queueDepth, long rejectedCount, long completedCount, double minLatency) {
+        this.name = name;
+        this.limit = limit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.running = running;
+        this.queueDepth = queueDepth;
+        this.rejectedCount = rejectedCount;
+        this.completedCount = completedCount;
+        this.minLatency = minLatency;
+    }
+
+    public AdaptiveLimitInfo(AdaptiveFlowController controller) {
+        this(name(controller.getMatcher()), controller.getLimit(), controller.getMinLimit(),
+                controller.getMaxLimit(), controller.getRunning(), controller.getQueueDepth(),
+                controller.getRejectedCount(), controller.getCompletedCount(), controller
+                        .getMinLatency());
+    }
+
+    /**
+     * Names the controller after its rule, e.g. <code>ows.wms.getmap</code>
+     */
+    static String name(OWSRequestMatcher matcher) {
+        StringBuilder sb = new StringBuilder("ows");
+        if (matcher.getService() != null) {
+            sb.append('.').append(matcher.getService());
+            if (matcher.getMethod() != null) {
+                sb.append('.').append(matcher.getMethod());
+                if (matcher.getOutputFormat() != null) {
+                    sb.append('.').append(matcher.getOutputFormat());
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public int getRunning() {
+        return running;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public long getCompletedCount() {
+        return completedCount;
+    }
+
+    /**
+     * The minimum latency observed in the current estimation window, in milliseconds
+     */
+    public double getMinLatency() {
+        return minLatency;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("limit", limit);
+        map.put("minLimit", minLimit);
+        map.put("maxLimit", maxLimit);
+        map.put("running", running);
+        map.put("queueDepth", queueDepth);
+        map.put("rejectedCount", rejectedCount);
+        map.put("completedCount", completedCount);
+        map.put("minLatency", minLatency);
+        return map;
+    }
+}
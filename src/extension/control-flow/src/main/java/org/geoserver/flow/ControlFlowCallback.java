@@ -5,14 +5,18 @@
  */
 package org.geoserver.flow;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.geoserver.flow.controller.AdaptiveFlowController;
 import org.geoserver.ows.AbstractDispatcherCallback;
 import org.geoserver.ows.HttpErrorCodeException;
 import org.geoserver.ows.Request;
+import org.geoserver.ows.SingleFlightCallback;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.Operation;
 import org.geotools.util.logging.Logging;
@@ -74,6 +78,35 @@ public class ControlFlowCallback extends AbstractDispatcherCallback implements
         return runningRequests.get();
     }
 
+    /**
+     * Returns the flow controllers currently in use, as returned by the provider for a generic
+     * request, or an empty list if they cannot be determined
+     */
+    public List<FlowController> getFlowControllers() {
+        if (provider == null) {
+            return Collections.emptyList();
+        }
+        try {
+            return provider.getFlowControllers(new Request());
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not get the flow controllers", e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the state of the adaptive flow controllers in use
+     */
+    public List<AdaptiveLimitInfo> getAdaptiveLimits() {
+        List<AdaptiveLimitInfo> result = new ArrayList<AdaptiveLimitInfo>();
+        for (FlowController controller : getFlowControllers()) {
+            if (controller instanceof AdaptiveFlowController) {
+                result.add(new AdaptiveLimitInfo((AdaptiveFlowController) controller));
+            }
+        }
+        return result;
+    }
+
     public void finished(Request request) {
         if (SENTINEL.isOutermostRequest() && REQUEST_CONTROLLERS.get() != null) {
             runningRequests.decrementAndGet();
@@ -105,7 +138,8 @@ public class ControlFlowCallback extends AbstractDispatcherCallback implements
     public Operation operationDispatched(Request request, Operation operation) {
         // tell the recursion sentinel we're starting a request
         SENTINEL.start();
-        if (SENTINEL.isOutermostRequest()) {
+        // requests writing out the output of an identical one do not need throttling
+        if (SENTINEL.isOutermostRequest() && !SingleFlightCallback.isShared(operation)) {
             blockedRequests.incrementAndGet();
             long start = System.currentTimeMillis();
             try {
@@ -133,10 +167,16 @@ public class ControlFlowCallback extends AbstractDispatcherCallback implements
                     CallbackContext context = new CallbackContext(controllers, timeout);
                     REQUEST_CONTROLLERS.set(context);
                     long maxTime = timeout > 0 ? System.currentTimeMillis() + timeout : -1;
+                    // do not queue a request past its deadline, if it has one
+                    long deadline = request != null ? request.getDeadline() : 0;
+                    if (deadline > 0 && (maxTime < 0 || deadline < maxTime)) {
+                        maxTime = deadline;
+                    }
                     for (FlowController flowController : controllers) {
-                        if (timeout > 0) {
+                        if (maxTime > 0) {
                             long maxWait = maxTime - System.currentTimeMillis();
-                            if (!flowController.requestIncoming(requestWithOperation, maxWait)) {
+                            if (maxWait <= 0
+                                    || !flowController.requestIncoming(requestWithOperation, maxWait)) {
                                 throw new HttpErrorCodeException(503,
                                         "Requested timeout out while waiting to be executed, please lower your request rate");
                             }
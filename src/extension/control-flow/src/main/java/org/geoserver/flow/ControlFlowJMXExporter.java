@@ -0,0 +1,89 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Registers the control flow state in the platform MBean server, under the
+ * <tt>org.geoserver:type=ControlFlow</tt> object name.
+ */
+public class ControlFlowJMXExporter implements InitializingBean, DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(ControlFlowJMXExporter.class);
+
+    static final String OBJECT_NAME = "org.geoserver:type=ControlFlow";
+
+    ControlFlowCallback callback;
+
+    ObjectName registered;
+
+    public ControlFlowJMXExporter(ControlFlowCallback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                // another GeoServer in the same JVM, or a leftover from a previous startup
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new ControlFlowBean(), name);
+            registered = name;
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to register the control flow JMX bean", e);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (registered == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(registered)) {
+                server.unregisterMBean(registered);
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Failed to unregister " + registered, e);
+        }
+        registered = null;
+    }
+
+    /**
+     * Delegates to the callback, so that configuration reloads are reflected
+     */
+    class ControlFlowBean implements ControlFlowMXBean {
+
+        @Override
+        public long getRunningRequests() {
+            return callback.getRunningRequests();
+        }
+
+        @Override
+        public long getBlockedRequests() {
+            return callback.getBlockedRequests();
+        }
+
+        @Override
+        public List<AdaptiveLimitInfo> getAdaptiveLimits() {
+            return callback.getAdaptiveLimits();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow;
+
+import java.util.List;
+
+/**
+ * JMX view of the control flow state
+ */
+public interface ControlFlowMXBean {
+
+    long getRunningRequests();
+
+    long getBlockedRequests();
+
+    List<AdaptiveLimitInfo> getAdaptiveLimits();
+}
@@ -15,22 +15,31 @@ import java.util.regex.Pattern;
 
 import org.geoserver.flow.ControlFlowConfigurator;
 import org.geoserver.flow.FlowController;
+import org.geoserver.flow.controller.AdaptiveFlowController;
+import org.geoserver.flow.controller.AuthenticationRequestMatcher;
 import org.geoserver.flow.controller.BasicOWSController;
 import org.geoserver.flow.controller.CookieKeyGenerator;
 import org.geoserver.flow.controller.GlobalFlowController;
+import org.geoserver.flow.controller.HeaderRequestMatcher;
 import org.geoserver.flow.controller.IpFlowController;
 import org.geoserver.flow.controller.IpKeyGenerator;
 import org.geoserver.flow.controller.KeyGenerator;
 import org.geoserver.flow.controller.OWSRequestMatcher;
 import org.geoserver.flow.controller.RateFlowController;
+import org.geoserver.flow.controller.RequestClass;
+import org.geoserver.flow.controller.RequestCostEstimator;
 import org.geoserver.flow.controller.SingleIpFlowController;
 import org.geoserver.flow.controller.UserConcurrentFlowController;
+import org.geoserver.flow.controller.WeightedFairFlowController;
+import org.geoserver.ows.Request;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geoserver.platform.resource.Resource;
 import org.geoserver.security.PropertyFileWatcher;
 import org.geotools.util.logging.Logging;
 
+import com.google.common.base.Predicate;
+
 /**
  * Basic property file based {@link ControlFlowConfigurator} implementation
  * 
@@ -43,6 +52,8 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
     static final Logger LOGGER = Logging.getLogger(DefaultControlFlowConfigurator.class);
     static final String PROPERTYFILENAME="controlflow.properties";
 
+    static final String FAIR_CLASS_PREFIX = "fair.class.";
+
     /**
      * Factors out the code to build a rate flow controller
      * 
@@ -101,10 +112,15 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
 
         Properties p = configFile.getProperties();
         List<FlowController> newControllers = new ArrayList<FlowController>();
+        List<RequestClass> requestClasses = buildRequestClasses(p);
         for (Object okey : p.keySet()) {
             String key = ((String) okey).trim();
             String value = (String) p.get(okey);
             LOGGER.info("Loading control-flow configuration: " + key + "=" + value);
+            if (key.startsWith(FAIR_CLASS_PREFIX)) {
+                // already parsed
+                continue;
+            }
 
             String[] keys = key.split("\\s*\\.\\s*");
 
@@ -158,6 +174,14 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
 
                     }.build(keys, value);
                 }
+            } else if ("adaptive".equals(keys[0]) && keys.length > 1 && "ows".equals(keys[1])) {
+                controller = buildAdaptiveController(keys, value);
+            } else if ("fair".equals(keys[0]) && keys.length > 1 && "ows".equals(keys[1])) {
+                String service = keys.length >= 3 ? keys[2] : null;
+                String request = keys.length >= 4 ? keys[3] : null;
+                String format = keys.length >= 5 ? keys[4] : null;
+                controller = new WeightedFairFlowController(new OWSRequestMatcher(service,
+                        request, format), queueSize, requestClasses, new RequestCostEstimator());
             } else if ("ip".equals(keys[0])) {
                 if (keys.length == 1) {
                     controller = new IpFlowController(queueSize);
@@ -187,6 +211,97 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
         return newControllers;
     }
 
+    /**
+     * Builds an adaptive flow controller out of a
+     * <code>adaptive.ows[.service[.request[.outputFormat]]]=min,max</code> rule
+     */
+    FlowController buildAdaptiveController(String[] keys, String value) {
+        String[] limits = value.split("\\s*,\\s*");
+        if (limits.length != 2) {
+            LOGGER.severe("Adaptive rules should be expressed as <min>,<max>, "
+                    + "this one is invalid: " + value);
+            return null;
+        }
+        try {
+            int min = Integer.parseInt(limits[0].trim());
+            int max = Integer.parseInt(limits[1].trim());
+            String service = keys.length >= 3 ? keys[2] : null;
+            String request = keys.length >= 4 ? keys[3] : null;
+            String format = keys.length >= 5 ? keys[4] : null;
+            return new AdaptiveFlowController(new OWSRequestMatcher(service, request, format),
+                    min, max);
+        } catch (IllegalArgumentException e) {
+            LOGGER.severe("Invalid adaptive rule " + value + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Builds the request classes used by the weighted fair queues out of the
+     * <code>fair.class.&lt;name&gt;=&lt;weight&gt;[;&lt;selector&gt;[,&lt;selector&gt;...]]</code>
+     * rules, where a selector is one of <code>ows.&lt;service&gt;[.&lt;request&gt;]</code>,
+     * <code>role.&lt;role&gt;</code>, <code>user.&lt;user&gt;</code> or
+     * <code>header.&lt;name&gt;[=&lt;value&gt;]</code>
+     */
+    List<RequestClass> buildRequestClasses(Properties p) {
+        List<RequestClass> result = new ArrayList<RequestClass>();
+        for (Object okey : p.keySet()) {
+            String key = ((String) okey).trim();
+            if (!key.startsWith(FAIR_CLASS_PREFIX)) {
+                continue;
+            }
+            String name = key.substring(FAIR_CLASS_PREFIX.length());
+            String value = ((String) p.get(okey)).trim();
+            String[] parts = value.split("\\s*;\\s*", 2);
+            try {
+                double weight = Double.parseDouble(parts[0]);
+                List<Predicate<Request>> selectors = new ArrayList<Predicate<Request>>();
+                if (parts.length > 1) {
+                    for (String selector : parts[1].split("\\s*,\\s*")) {
+                        Predicate<Request> predicate = buildSelector(selector);
+                        if (predicate == null) {
+                            throw new IllegalArgumentException("unknown selector " + selector);
+                        }
+                        selectors.add(predicate);
+                    }
+                }
+                result.add(new RequestClass(name, weight, selectors));
+            } catch (IllegalArgumentException e) {
+                LOGGER.severe("Request class rules should be expressed as "
+                        + "<weight>[;<selector>[,<selector>...]], " + key + "=" + value
+                        + " is invalid: " + e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    Predicate<Request> buildSelector(String selector) {
+        int idx = selector.indexOf('.');
+        if (idx <= 0 || idx == selector.length() - 1) {
+            return null;
+        }
+        String type = selector.substring(0, idx);
+        String spec = selector.substring(idx + 1);
+        if ("ows".equals(type)) {
+            String[] keys = spec.split("\\s*\\.\\s*");
+            String request = keys.length >= 2 ? keys[1] : null;
+            String format = keys.length >= 3 ? keys[2] : null;
+            return new OWSRequestMatcher(keys[0], request, format);
+        } else if ("role".equals(type)) {
+            return AuthenticationRequestMatcher.role(spec);
+        } else if ("user".equals(type)) {
+            return AuthenticationRequestMatcher.user(spec);
+        } else if ("header".equals(type)) {
+            int eq = spec.indexOf('=');
+            if (eq < 0) {
+                return new HeaderRequestMatcher(spec, null);
+            }
+            return new HeaderRequestMatcher(spec.substring(0, eq).trim(), spec.substring(eq + 1)
+                    .trim());
+        }
+        return null;
+    }
+
     public boolean isStale() {
         return configFile.isStale();
     }
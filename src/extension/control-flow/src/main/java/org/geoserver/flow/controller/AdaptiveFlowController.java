@@ -0,0 +1,275 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.flow.FlowController;
+import org.geoserver.ows.Request;
+import org.geotools.util.logging.Logging;
+
+/**
+ * A flow controller whose concurrency limit adapts to the observed latency of the requests it
+ * matches, between a minimum and a maximum.
+ * <p>
+ * The controller tracks the minimum latency seen over a window of requests, as an estimate of the
+ * latency without queueing. After each request the limit moves towards
+ * <code>limit * min(1, minLatency * tolerance / latency) + sqrt(limit)</code>: as long as the
+ * latency stays close to the minimum the limit grows, when the data stores or the CPUs saturate and
+ * the latency grows the limit shrinks, down to half at each step. The limit does not grow while
+ * less than half of it is in use, as the latency tells nothing about higher concurrency then.
+ * </p>
+ * <p>
+ * Requests exceeding the limit wait for a slot, and are rejected if the control flow timeout
+ * expires in the meantime.
+ * </p>
+ */
+public class AdaptiveFlowController implements FlowController {
+
+    static final Logger LOGGER = Logging.getLogger(ControlFlowCallback.class);
+
+    /**
+     * How much the latency can exceed the minimum before the limit starts shrinking
+     */
+    static final double TOLERANCE = 1.5;
+
+    /**
+     * Weight of each new sample in the limit
+     */
+    static final double SMOOTHING = 0.2;
+
+    /**
+     * Number of requests after which the minimum latency is estimated again, so that a permanent
+     * change in the data store latency is eventually followed
+     */
+    static final int MIN_LATENCY_WINDOW = 1000;
+
+    OWSRequestMatcher matcher;
+
+    int minLimit;
+
+    int maxLimit;
+
+    final ReentrantLock lock = new ReentrantLock();
+
+    final Condition slotAvailable = lock.newCondition();
+
+    double limit;
+
+    int running;
+
+    int waiting;
+
+    long minLatency = Long.MAX_VALUE;
+
+    long windowMinLatency = Long.MAX_VALUE;
+
+    int windowSamples;
+
+    long lastLatency;
+
+    AtomicLong rejected = new AtomicLong();
+
+    AtomicLong completed = new AtomicLong();
+
+    Map<Request, Long> startTimes = new ConcurrentHashMap<Request, Long>();
+
+    public AdaptiveFlowController(OWSRequestMatcher matcher, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid limits, the minimum must be positive "
+                    + "and the maximum at least as large: " + minLimit + ", " + maxLimit);
+        }
+        this.matcher = matcher;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = minLimit;
+    }
+
+    @Override
+    public int getPriority() {
+        return maxLimit;
+    }
+
+    @Override
+    public boolean requestIncoming(Request request, long timeout) {
+        if (!matcher.apply(request)) {
+            return true;
+        }
+        lock.lock();
+        try {
+            waiting++;
+            try {
+                long nanos = timeout > 0 ? TimeUnit.MILLISECONDS.toNanos(timeout) : -1;
+                while (running >= (int) limit) {
+                    if (timeout > 0) {
+                        if (nanos <= 0) {
+                            rejected.incrementAndGet();
+                            return false;
+                        }
+                        nanos = slotAvailable.awaitNanos(nanos);
+                    } else {
+                        slotAvailable.await();
+                    }
+                }
+            } catch (InterruptedException e) {
+                LOGGER.log(Level.WARNING,
+                        "Unexpected interruption while waiting for the adaptive limit");
+                // restore the flag, the caller might need to know about the interruption
+                Thread.currentThread().interrupt();
+                rejected.incrementAndGet();
+                return false;
+            } finally {
+                waiting--;
+            }
+            running++;
+        } finally {
+            lock.unlock();
+        }
+        startTimes.put(request, System.nanoTime());
+        return true;
+    }
+
+    @Override
+    public void requestComplete(Request request) {
+        Long start = startTimes.remove(request);
+        if (start == null) {
+            // not matched, or rejected
+            return;
+        }
+        long latency = Math.max(1, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        completed.incrementAndGet();
+        lock.lock();
+        try {
+            running--;
+            update(latency);
+            slotAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Updates the limit with a new latency sample, in microseconds. Must be called holding the
+     * lock.
+     */
+    void update(long latency) {
+        lastLatency = latency;
+        windowMinLatency = Math.min(windowMinLatency, latency);
+        minLatency = Math.min(minLatency, latency);
+        if (++windowSamples >= MIN_LATENCY_WINDOW) {
+            minLatency = windowMinLatency;
+            windowMinLatency = Long.MAX_VALUE;
+            windowSamples = 0;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, minLatency * TOLERANCE / latency));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        if (newLimit > limit && running + 1 < limit / 2) {
+            // not using the current limit, cannot tell if more would be fine
+            return;
+        }
+        newLimit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+
+    public OWSRequestMatcher getMatcher() {
+        return matcher;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * The current concurrency limit
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of requests currently running through this controller
+     */
+    public int getRunning() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of requests waiting for the limit to allow them through
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of requests that timed out waiting
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * The number of requests that went through this controller
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * The minimum latency in the current estimation window, in milliseconds
+     */
+    public double getMinLatency() {
+        lock.lock();
+        try {
+            return minLatency == Long.MAX_VALUE ? 0 : minLatency / 1000d;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The latency of the last completed request, in milliseconds
+     */
+    public double getLastLatency() {
+        lock.lock();
+        try {
+            return lastLatency / 1000d;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveFlowController(" + matcher + "," + minLimit + "," + maxLimit + ")";
+    }
+}
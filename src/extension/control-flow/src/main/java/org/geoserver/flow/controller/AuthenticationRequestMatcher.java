@@ -0,0 +1,58 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import org.geoserver.ows.Request;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.google.common.base.Predicate;
+
+/**
+ * Matches requests made by a given user, or by any user having a given role, as found in the
+ * security context of the thread handling the request
+ */
+public class AuthenticationRequestMatcher implements Predicate<Request> {
+
+    private final String user;
+
+    private final String role;
+
+    private AuthenticationRequestMatcher(String user, String role) {
+        this.user = user;
+        this.role = role;
+    }
+
+    public static AuthenticationRequestMatcher user(String user) {
+        return new AuthenticationRequestMatcher(user, null);
+    }
+
+    public static AuthenticationRequestMatcher role(String role) {
+        return new AuthenticationRequestMatcher(null, role);
+    }
+
+    @Override
+    public boolean apply(Request request) {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth == null) {
+            return false;
+        }
+        if (user != null) {
+            return user.equals(auth.getName());
+        }
+        for (GrantedAuthority authority : auth.getAuthorities()) {
+            if (role.equals(authority.getAuthority())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return user != null ? "user=" + user : "role=" + role;
+    }
+}
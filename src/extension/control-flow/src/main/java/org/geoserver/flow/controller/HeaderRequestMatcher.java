@@ -0,0 +1,49 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import org.geoserver.ows.Request;
+
+import com.google.common.base.Predicate;
+
+/**
+ * Matches requests carrying a given HTTP header, optionally with a given value (case insensitive)
+ */
+public class HeaderRequestMatcher implements Predicate<Request> {
+
+    private final String name;
+
+    private final String value;
+
+    public HeaderRequestMatcher(String name, String value) {
+        this.name = name;
+        this.value = value;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public boolean apply(Request request) {
+        if (request.getHttpRequest() == null) {
+            return false;
+        }
+        String header = request.getHttpRequest().getHeader(name);
+        if (header == null) {
+            return false;
+        }
+        return value == null || value.equalsIgnoreCase(header.trim());
+    }
+
+    @Override
+    public String toString() {
+        return "header=" + name + (value != null ? ":" + value : "");
+    }
+}
@@ -0,0 +1,71 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.geoserver.ows.Request;
+
+import com.google.common.base.Predicate;
+
+/**
+ * A class of requests sharing the capacity of a {@link WeightedFairFlowController}. Requests are
+ * assigned to a class by its selectors, and each class receives a share of the capacity
+ * proportional to its weight.
+ */
+public class RequestClass {
+
+    /**
+     * Name of the class collecting the requests not matched by any other one
+     */
+    public static final String DEFAULT = "default";
+
+    String name;
+
+    double weight;
+
+    List<Predicate<Request>> selectors;
+
+    public RequestClass(String name, double weight, List<Predicate<Request>> selectors) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("The weight of request class " + name
+                    + " must be positive: " + weight);
+        }
+        this.name = name;
+        this.weight = weight;
+        this.selectors = new ArrayList<Predicate<Request>>(selectors);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getWeight() {
+        return weight;
+    }
+
+    public List<Predicate<Request>> getSelectors() {
+        return Collections.unmodifiableList(selectors);
+    }
+
+    /**
+     * Returns true if any of the selectors matches the request
+     */
+    public boolean matches(Request request) {
+        for (Predicate<Request> selector : selectors) {
+            if (selector.apply(request)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestClass(" + name + "," + weight + "," + selectors + ")";
+    }
+}
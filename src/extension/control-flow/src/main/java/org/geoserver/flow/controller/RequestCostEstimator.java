@@ -0,0 +1,66 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.Map;
+
+import org.geoserver.ows.Request;
+
+/**
+ * Estimates the relative cost of a request out of its parameters, before it is executed. A
+ * request with no better estimate costs 1, which is also the cost of a 256x256 map.
+ * <ul>
+ * <li>GetMap costs its area in 256x256 tiles</li>
+ * <li>GetFeature costs one every 1000 features requested, or {@link #UNBOUNDED_FEATURES_COST}
+ * when no limit is set</li>
+ * </ul>
+ * Costs are capped at {@link #MAX_COST}.
+ */
+public class RequestCostEstimator {
+
+    static final int MAX_COST = 1000;
+
+    static final int UNBOUNDED_FEATURES_COST = 100;
+
+    static final double TILE_AREA = 256 * 256;
+
+    static final double FEATURES_UNIT = 1000;
+
+    public int getCost(Request request) {
+        double cost = 1;
+        Map rawKvp = request.getRawKvp();
+        if (rawKvp != null && request.getRequest() != null) {
+            if ("GetMap".equalsIgnoreCase(request.getRequest())) {
+                long width = getLong(rawKvp, "WIDTH");
+                long height = getLong(rawKvp, "HEIGHT");
+                if (width > 0 && height > 0) {
+                    cost = width * height / TILE_AREA;
+                }
+            } else if ("GetFeature".equalsIgnoreCase(request.getRequest())) {
+                long features = getLong(rawKvp, "COUNT");
+                if (features <= 0) {
+                    features = getLong(rawKvp, "MAXFEATURES");
+                }
+                cost = features > 0 ? features / FEATURES_UNIT : UNBOUNDED_FEATURES_COST;
+            }
+        }
+        return (int) Math.max(1, Math.min(MAX_COST, Math.ceil(cost)));
+    }
+
+    static long getLong(Map rawKvp, String key) {
+        Object value = rawKvp.get(key);
+        if (value == null) {
+            value = rawKvp.get(key.toLowerCase());
+        }
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.toString().trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.flow.FlowController;
+import org.geoserver.ows.Request;
+import org.geotools.util.logging.Logging;
+
+import com.google.common.base.Predicate;
+
+/**
+ * A flow controller that lets a fixed number of matching requests run in parallel, and serves the
+ * queued ones by start-time fair queueing instead of arrival order.
+ * <p>
+ * Each request is assigned to a {@link RequestClass}, the one with the highest weight among those
+ * matching it, or the default class, and its cost is estimated by a {@link RequestCostEstimator}.
+ * The request is tagged with a virtual start time, the later of the current virtual time and the
+ * finish tag of the previous request of its class, and a finish tag, the start tag plus the cost
+ * divided by the class weight. Whenever a slot frees up the queued request with the lowest start
+ * tag runs, and the virtual time moves to its start tag. As a result, when all classes are
+ * backlogged each one gets a share of the slots proportional to its weight and inversely
+ * proportional to the cost of its requests, so a client issuing many large requests cannot starve
+ * the others, while an idle class does not accumulate credit.
+ * </p>
+ */
+public class WeightedFairFlowController implements FlowController {
+
+    static final Logger LOGGER = Logging.getLogger(ControlFlowCallback.class);
+
+    /**
+     * Per class scheduling state
+     */
+    static class ClassState {
+        final RequestClass requestClass;
+
+        double lastFinish;
+
+        int waiting;
+
+        ClassState(RequestClass requestClass) {
+            this.requestClass = requestClass;
+        }
+    }
+
+    /**
+     * A queued request
+     */
+    static class Waiter {
+        final ClassState state;
+
+        final double startTag;
+
+        final double finishTag;
+
+        final long sequence;
+
+        final Condition condition;
+
+        boolean granted;
+
+        Waiter(ClassState state, double startTag, double finishTag, long sequence,
+                Condition condition) {
+            this.state = state;
+            this.startTag = startTag;
+            this.finishTag = finishTag;
+            this.sequence = sequence;
+            this.condition = condition;
+        }
+    }
+
+    static final Comparator<Waiter> TAG_ORDER = new Comparator<Waiter>() {
+
+        @Override
+        public int compare(Waiter w1, Waiter w2) {
+            int result = Double.compare(w1.startTag, w2.startTag);
+            if (result == 0) {
+                result = Long.compare(w1.sequence, w2.sequence);
+            }
+            return result;
+        }
+    };
+
+    Predicate<Request> matcher;
+
+    int queueSize;
+
+    RequestCostEstimator costEstimator;
+
+    /**
+     * Classes in decreasing weight order, the default one excluded
+     */
+    List<ClassState> classes = new ArrayList<ClassState>();
+
+    ClassState defaultClass;
+
+    final ReentrantLock lock = new ReentrantLock();
+
+    final PriorityQueue<Waiter> queue = new PriorityQueue<Waiter>(16, TAG_ORDER);
+
+    double virtualTime;
+
+    long sequence;
+
+    int running;
+
+    AtomicLong rejected = new AtomicLong();
+
+    Map<Request, Boolean> admitted = new ConcurrentHashMap<Request, Boolean>();
+
+    public WeightedFairFlowController(Predicate<Request> matcher, int queueSize,
+            List<RequestClass> requestClasses, RequestCostEstimator costEstimator) {
+        this.matcher = matcher;
+        this.queueSize = queueSize;
+        this.costEstimator = costEstimator;
+
+        List<RequestClass> sorted = new ArrayList<RequestClass>(requestClasses);
+        Collections.sort(sorted, new Comparator<RequestClass>() {
+
+            @Override
+            public int compare(RequestClass c1, RequestClass c2) {
+                return Double.compare(c2.getWeight(), c1.getWeight());
+            }
+        });
+        for (RequestClass rc : sorted) {
+            if (RequestClass.DEFAULT.equals(rc.getName())) {
+                defaultClass = new ClassState(rc);
+            } else {
+                classes.add(new ClassState(rc));
+            }
+        }
+        if (defaultClass == null) {
+            defaultClass = new ClassState(new RequestClass(RequestClass.DEFAULT, 1,
+                    Collections.<Predicate<Request>> emptyList()));
+        }
+    }
+
+    @Override
+    public int getPriority() {
+        return queueSize;
+    }
+
+    ClassState classify(Request request) {
+        for (ClassState state : classes) {
+            if (state.requestClass.matches(request)) {
+                return state;
+            }
+        }
+        return defaultClass;
+    }
+
+    @Override
+    public boolean requestIncoming(Request request, long timeout) {
+        if (!matcher.apply(request)) {
+            return true;
+        }
+        ClassState state = classify(request);
+        int cost = costEstimator.getCost(request);
+
+        lock.lock();
+        try {
+            double startTag = Math.max(virtualTime, state.lastFinish);
+            double finishTag = startTag + cost / state.requestClass.getWeight();
+            double previousFinish = state.lastFinish;
+            state.lastFinish = finishTag;
+
+            if (running < queueSize && queue.isEmpty()) {
+                running++;
+                virtualTime = startTag;
+            } else {
+                Waiter waiter = new Waiter(state, startTag, finishTag, sequence++,
+                        lock.newCondition());
+                queue.add(waiter);
+                state.waiting++;
+                try {
+                    long nanos = timeout > 0 ? TimeUnit.MILLISECONDS.toNanos(timeout) : -1;
+                    while (!waiter.granted) {
+                        if (timeout > 0) {
+                            if (nanos <= 0) {
+                                break;
+                            }
+                            nanos = waiter.condition.awaitNanos(nanos);
+                        } else {
+                            waiter.condition.await();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    LOGGER.log(Level.WARNING,
+                            "Unexpected interruption while waiting in the fair queue");
+                    Thread.currentThread().interrupt();
+                } finally {
+                    state.waiting--;
+                }
+                if (!waiter.granted) {
+                    queue.remove(waiter);
+                    // give back the virtual time reserved, unless a later request built on it
+                    if (state.lastFinish == finishTag) {
+                        state.lastFinish = previousFinish;
+                    }
+                    rejected.incrementAndGet();
+                    return false;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        admitted.put(request, Boolean.TRUE);
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(this + " admitted request of class " + state.requestClass.getName()
+                    + " with cost " + cost);
+        }
+        return true;
+    }
+
+    @Override
+    public void requestComplete(Request request) {
+        if (admitted.remove(request) == null) {
+            // not matched, or rejected
+            return;
+        }
+        lock.lock();
+        try {
+            running--;
+            while (running < queueSize && !queue.isEmpty()) {
+                Waiter next = queue.poll();
+                next.granted = true;
+                running++;
+                virtualTime = next.startTag;
+                next.condition.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Predicate<Request> getMatcher() {
+        return matcher;
+    }
+
+    /**
+     * The number of requests currently running through this controller
+     */
+    public int getRunning() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of requests waiting for a slot
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of queued requests, by class name
+     */
+    public Map<String, Integer> getQueueDepthByClass() {
+        Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+        lock.lock();
+        try {
+            for (ClassState state : classes) {
+                result.put(state.requestClass.getName(), state.waiting);
+            }
+            result.put(defaultClass.requestClass.getName(), defaultClass.waiting);
+        } finally {
+            lock.unlock();
+        }
+        return result;
+    }
+
+    /**
+     * The number of requests that timed out waiting
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    @Override
+    public String toString() {
+        return "WeightedFairFlowController(" + matcher + "," + queueSize + ")";
+    }
+}
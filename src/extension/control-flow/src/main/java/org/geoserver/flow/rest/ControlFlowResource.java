@@ -0,0 +1,39 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.rest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.geoserver.flow.AdaptiveLimitInfo;
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.rest.MapResource;
+
+/**
+ * Reports the number of running and blocked requests, along with the current state of the
+ * adaptive concurrency limits
+ */
+public class ControlFlowResource extends MapResource {
+
+    ControlFlowCallback callback;
+
+    public ControlFlowResource(ControlFlowCallback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public Map getMap() throws Exception {
+        Map<String, Object> adaptive = new LinkedHashMap<String, Object>();
+        for (AdaptiveLimitInfo info : callback.getAdaptiveLimits()) {
+            adaptive.put(info.getName(), info.toMap());
+        }
+
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("runningRequests", callback.getRunningRequests());
+        map.put("blockedRequests", callback.getBlockedRequests());
+        map.put("adaptiveLimits", adaptive);
+        return map;
+    }
+}
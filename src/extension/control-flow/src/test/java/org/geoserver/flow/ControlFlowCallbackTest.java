@@ -60,6 +60,51 @@ public class ControlFlowCallbackTest {
         callback.finished(null);
     }
     
+    @Test
+    public void testExpiredDeadline() {
+        ControlFlowCallback callback = new ControlFlowCallback();
+        TestingConfigurator tc = new TestingConfigurator();
+        tc.timeout = Integer.MAX_VALUE;
+        CountingController controller = new CountingController(1, 0);
+        tc.controllers.add(controller);
+        callback.provider = new DefaultFlowControllerProvider(tc);
+
+        Request request = new Request();
+        request.setDeadline(System.currentTimeMillis() - 1);
+        try {
+            callback.operationDispatched(request, null);
+            fail("A HTTP 503 should have been raised!");
+        } catch (HttpErrorCodeException e) {
+            assertEquals(503, e.getErrorCode());
+        }
+        // the request did not even get queued
+        assertEquals(0, controller.requestIncomingCalls);
+        callback.finished(null);
+    }
+
+    @Test
+    public void testDeadlineBoundsWait() {
+        ControlFlowCallback callback = new ControlFlowCallback();
+        TestingConfigurator tc = new TestingConfigurator();
+        tc.timeout = Integer.MAX_VALUE;
+        CountingController controller = new CountingController(1, 500);
+        tc.controllers.add(controller);
+        callback.provider = new DefaultFlowControllerProvider(tc);
+
+        // the deadline is earlier than the configured timeout, the controller gets less time
+        // than it needs
+        Request request = new Request();
+        request.setDeadline(System.currentTimeMillis() + 200);
+        try {
+            callback.operationDispatched(request, null);
+            fail("A HTTP 503 should have been raised!");
+        } catch (HttpErrorCodeException e) {
+            assertEquals(503, e.getErrorCode());
+        }
+        assertEquals(1, controller.requestIncomingCalls);
+        callback.finished(null);
+    }
+
     @Test
     public void testDelayHeader() {
         ControlFlowCallback callback = new ControlFlowCallback();
@@ -14,13 +14,16 @@ import java.util.Properties;
 
 import org.geoserver.flow.ControllerPriorityComparator;
 import org.geoserver.flow.FlowController;
+import org.geoserver.flow.controller.AdaptiveFlowController;
 import org.geoserver.flow.controller.BasicOWSController;
 import org.geoserver.flow.controller.GlobalFlowController;
 import org.geoserver.flow.controller.IpFlowController;
 import org.geoserver.flow.controller.IpRequestMatcher;
 import org.geoserver.flow.controller.RateFlowController;
+import org.geoserver.flow.controller.RequestClass;
 import org.geoserver.flow.controller.SingleIpFlowController;
 import org.geoserver.flow.controller.UserConcurrentFlowController;
+import org.geoserver.flow.controller.WeightedFairFlowController;
 import org.geoserver.platform.resource.Resource;
 import org.geoserver.security.PropertyFileWatcher;
 import org.junit.Test;
@@ -108,6 +111,60 @@ public class DefaultControlFlowConfigurationTest {
         assertEquals(100, gc.getPriority());
     }
 
+    @Test
+    public void testAdaptive() throws Exception {
+        Properties p = new Properties();
+        p.put("adaptive.ows.wms.getmap", "4, 32");
+        p.put("adaptive.ows", "10,5");
+
+        DefaultControlFlowConfigurator configurator = new DefaultControlFlowConfigurator(
+                new FixedWatcher(p));
+        List<FlowController> controllers = configurator.buildFlowControllers();
+
+        // the second rule has the limits inverted and is skipped
+        assertEquals(1, controllers.size());
+        assertTrue(controllers.get(0) instanceof AdaptiveFlowController);
+        AdaptiveFlowController afc = (AdaptiveFlowController) controllers.get(0);
+        assertEquals("wms.getmap", afc.getMatcher().toString());
+        assertEquals(4, afc.getMinLimit());
+        assertEquals(32, afc.getMaxLimit());
+        assertEquals(4, afc.getLimit());
+    }
+
+    @Test
+    public void testWeightedFair() throws Exception {
+        Properties p = new Properties();
+        p.put("fair.ows.wms", "16");
+        p.put("fair.class.interactive", "4;ows.wms.getmap, role.ROLE_VIEWER");
+        p.put("fair.class.seed", "1; header.X-Seed=true");
+        p.put("fair.class.invalid", "abc");
+
+        DefaultControlFlowConfigurator configurator = new DefaultControlFlowConfigurator(
+                new FixedWatcher(p));
+        List<FlowController> controllers = configurator.buildFlowControllers();
+
+        assertEquals(1, controllers.size());
+        assertTrue(controllers.get(0) instanceof WeightedFairFlowController);
+        WeightedFairFlowController wfc = (WeightedFairFlowController) controllers.get(0);
+        assertEquals(16, wfc.getPriority());
+        assertEquals("wms", wfc.getMatcher().toString());
+
+        List<RequestClass> classes = configurator.buildRequestClasses(p);
+        assertEquals(2, classes.size());
+        for (RequestClass rc : classes) {
+            if ("interactive".equals(rc.getName())) {
+                assertEquals(4, rc.getWeight(), 0d);
+                assertEquals(2, rc.getSelectors().size());
+                assertEquals("wms.getmap", rc.getSelectors().get(0).toString());
+                assertEquals("role=ROLE_VIEWER", rc.getSelectors().get(1).toString());
+            } else {
+                assertEquals("seed", rc.getName());
+                assertEquals(1, rc.getWeight(), 0d);
+                assertEquals("header=X-Seed:true", rc.getSelectors().get(0).toString());
+            }
+        }
+    }
+
     static class FixedWatcher extends PropertyFileWatcher {
         boolean stale = true;
 
@@ -0,0 +1,119 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import static org.junit.Assert.*;
+
+import org.geoserver.flow.controller.FlowControllerTestingThread.ThreadState;
+import org.geoserver.ows.Request;
+import org.junit.Test;
+
+public class AdaptiveFlowControllerTest extends AbstractFlowControllerTest {
+
+    @Test
+    public void testPriority() {
+        AdaptiveFlowController controller = new AdaptiveFlowController(new OWSRequestMatcher(),
+                2, 20);
+        // priority == max limit
+        assertEquals(20, controller.getPriority());
+        assertEquals(2, controller.getLimit());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLimits() {
+        new AdaptiveFlowController(new OWSRequestMatcher(), 10, 5);
+    }
+
+    @Test
+    public void testGrowAndShrink() {
+        AdaptiveFlowController controller = new AdaptiveFlowController(new OWSRequestMatcher(),
+                2, 50);
+
+        // steady latency with the limit in use, grows up to the max
+        for (int i = 0; i < 200; i++) {
+            controller.running = controller.getLimit();
+            controller.update(1000);
+        }
+        assertEquals(50, controller.getLimit());
+        assertEquals(1, controller.getMinLatency(), 0d);
+
+        // latency ten times the minimum, shrinks until the headroom term balances the halving
+        for (int i = 0; i < 200; i++) {
+            controller.running = controller.getLimit();
+            controller.update(10000);
+        }
+        assertTrue(controller.getLimit() <= 4);
+        assertEquals(10, controller.getLastLatency(), 0d);
+    }
+
+    @Test
+    public void testNoGrowthWhenUnused() {
+        AdaptiveFlowController controller = new AdaptiveFlowController(new OWSRequestMatcher(),
+                10, 50);
+        for (int i = 0; i < 100; i++) {
+            controller.running = 0;
+            controller.update(1000);
+        }
+        assertEquals(10, controller.getLimit());
+    }
+
+    @Test
+    public void testNotMatching() {
+        AdaptiveFlowController controller = new AdaptiveFlowController(new OWSRequestMatcher(
+                "wms"), 1, 1);
+        Request request = new Request();
+        request.setService("WFS");
+        assertTrue(controller.requestIncoming(request, 0));
+        assertEquals(0, controller.getRunning());
+        controller.requestComplete(request);
+        assertEquals(0, controller.getCompletedCount());
+    }
+
+    @Test
+    public void testQueueAndReject() throws Exception {
+        AdaptiveFlowController controller = new AdaptiveFlowController(new OWSRequestMatcher(),
+                1, 1);
+
+        // t1 processes until interrupted, t2 gives up after 100ms, t3 waits forever
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(new Request(), 0,
+                Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(new Request(), 100,
+                Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t3 = new FlowControllerTestingThread(new Request(), 0,
+                Long.MAX_VALUE, controller);
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            assertEquals(ThreadState.PROCESSING, t1.state);
+            assertEquals(1, controller.getRunning());
+
+            t2.start();
+            waitTerminated(t2, MAX_WAIT);
+            assertEquals(ThreadState.TIMED_OUT, t2.state);
+            assertEquals(1, controller.getRejectedCount());
+
+            t3.start();
+            waitBlocked(t3, MAX_WAIT);
+            assertEquals(ThreadState.STARTED, t3.state);
+            assertEquals(1, controller.getQueueDepth());
+
+            // let t1 complete, t3 goes through
+            t1.interrupt();
+            waitTerminated(t1, MAX_WAIT);
+            waitState(ThreadState.PROCESSING, t3, MAX_WAIT);
+            assertEquals(0, controller.getQueueDepth());
+            assertEquals(1, controller.getCompletedCount());
+
+            t3.interrupt();
+            waitTerminated(t3, MAX_WAIT);
+            assertEquals(0, controller.getRunning());
+            assertEquals(2, controller.getCompletedCount());
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+            waitAndKill(t3, MAX_WAIT);
+        }
+    }
+}
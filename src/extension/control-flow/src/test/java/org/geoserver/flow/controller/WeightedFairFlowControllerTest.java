@@ -0,0 +1,175 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geoserver.flow.controller.FlowControllerTestingThread.ThreadState;
+import org.geoserver.ows.Request;
+import org.junit.Test;
+
+import com.google.common.base.Predicate;
+import com.mockrunner.mock.web.MockHttpServletRequest;
+
+public class WeightedFairFlowControllerTest extends AbstractFlowControllerTest {
+
+    Request buildHeaderRequest(String header) {
+        Request request = new Request();
+        MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        if (header != null) {
+            httpRequest.setHeader(header, "true");
+        }
+        request.setHttpRequest(httpRequest);
+        return request;
+    }
+
+    WeightedFairFlowController buildController(int queueSize) {
+        RequestClass bulk = new RequestClass("bulk", 1,
+                Collections.<Predicate<Request>> singletonList(new HeaderRequestMatcher(
+                        "X-Bulk", null)));
+        RequestClass interactive = new RequestClass("interactive", 4,
+                Collections.<Predicate<Request>> singletonList(new HeaderRequestMatcher(
+                        "X-Interactive", null)));
+        return new WeightedFairFlowController(new OWSRequestMatcher(), queueSize, Arrays.asList(
+                bulk, interactive), new RequestCostEstimator());
+    }
+
+    @Test
+    public void testPriority() {
+        assertEquals(3, buildController(3).getPriority());
+    }
+
+    @Test
+    public void testClassify() {
+        WeightedFairFlowController controller = buildController(1);
+        assertEquals("bulk", controller.classify(buildHeaderRequest("X-Bulk")).requestClass
+                .getName());
+        assertEquals("interactive",
+                controller.classify(buildHeaderRequest("X-Interactive")).requestClass.getName());
+        assertEquals(RequestClass.DEFAULT,
+                controller.classify(buildHeaderRequest(null)).requestClass.getName());
+    }
+
+    @Test
+    public void testInteractiveOvertakesBulk() throws Exception {
+        WeightedFairFlowController controller = buildController(1);
+
+        // occupy the only slot
+        Request first = buildHeaderRequest(null);
+        assertTrue(controller.requestIncoming(first, 0));
+
+        // queue three bulk requests, then an interactive one
+        FlowControllerTestingThread b1 = new FlowControllerTestingThread(
+                buildHeaderRequest("X-Bulk"), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread b2 = new FlowControllerTestingThread(
+                buildHeaderRequest("X-Bulk"), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread b3 = new FlowControllerTestingThread(
+                buildHeaderRequest("X-Bulk"), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread i1 = new FlowControllerTestingThread(
+                buildHeaderRequest("X-Interactive"), 0, Long.MAX_VALUE, controller);
+        try {
+            for (FlowControllerTestingThread t : Arrays.asList(b1, b2, b3, i1)) {
+                t.start();
+                waitBlocked(t, MAX_WAIT);
+            }
+            assertEquals(4, controller.getQueueDepth());
+            assertEquals(Integer.valueOf(3), controller.getQueueDepthByClass().get("bulk"));
+
+            // the first bulk request goes, then the interactive one overtakes the other two
+            controller.requestComplete(first);
+            waitState(ThreadState.PROCESSING, b1, MAX_WAIT);
+            assertEquals(ThreadState.STARTED, i1.state);
+
+            b1.interrupt();
+            waitTerminated(b1, MAX_WAIT);
+            waitState(ThreadState.PROCESSING, i1, MAX_WAIT);
+            assertEquals(ThreadState.STARTED, b2.state);
+            assertEquals(ThreadState.STARTED, b3.state);
+
+            i1.interrupt();
+            waitTerminated(i1, MAX_WAIT);
+            waitState(ThreadState.PROCESSING, b2, MAX_WAIT);
+
+            b2.interrupt();
+            waitTerminated(b2, MAX_WAIT);
+            waitState(ThreadState.PROCESSING, b3, MAX_WAIT);
+            b3.interrupt();
+            waitTerminated(b3, MAX_WAIT);
+            assertEquals(0, controller.getRunning());
+        } finally {
+            waitAndKill(b1, MAX_WAIT);
+            waitAndKill(b2, MAX_WAIT);
+            waitAndKill(b3, MAX_WAIT);
+            waitAndKill(i1, MAX_WAIT);
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        WeightedFairFlowController controller = buildController(1);
+        Request first = buildHeaderRequest(null);
+        assertTrue(controller.requestIncoming(first, 0));
+
+        Request second = buildHeaderRequest("X-Bulk");
+        assertFalse(controller.requestIncoming(second, 50));
+        assertEquals(1, controller.getRejectedCount());
+        assertEquals(0, controller.getQueueDepth());
+        // the rejected request does not need to be released
+        controller.requestComplete(second);
+        assertEquals(1, controller.getRunning());
+
+        controller.requestComplete(first);
+        assertEquals(0, controller.getRunning());
+    }
+
+    @Test
+    public void testInterrupted() throws Exception {
+        WeightedFairFlowController controller = buildController(1);
+        Request first = buildHeaderRequest(null);
+        assertTrue(controller.requestIncoming(first, 0));
+
+        // an interrupted request gets rejected, and the thread stays interrupted
+        Thread.currentThread().interrupt();
+        try {
+            Request second = buildHeaderRequest("X-Bulk");
+            assertFalse(controller.requestIncoming(second, 0));
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+        assertEquals(1, controller.getRejectedCount());
+        assertEquals(0, controller.getQueueDepth());
+
+        controller.requestComplete(first);
+        assertEquals(0, controller.getRunning());
+    }
+
+    @Test
+    public void testCost() {
+        RequestCostEstimator estimator = new RequestCostEstimator();
+        Request request = new Request();
+        assertEquals(1, estimator.getCost(request));
+
+        Map<String, Object> kvp = new HashMap<String, Object>();
+        kvp.put("WIDTH", "1024");
+        kvp.put("HEIGHT", "512");
+        request.setRawKvp(kvp);
+        request.setRequest("GetMap");
+        assertEquals(8, estimator.getCost(request));
+
+        kvp.clear();
+        request.setRequest("GetFeature");
+        assertEquals(RequestCostEstimator.UNBOUNDED_FEATURES_COST, estimator.getCost(request));
+        kvp.put("MAXFEATURES", "50");
+        assertEquals(1, estimator.getCost(request));
+        kvp.put("COUNT", "5000000");
+        assertEquals(RequestCostEstimator.MAX_COST, estimator.getCost(request));
+    }
+}
@@ -76,8 +76,13 @@ public class MemoryMonitorDAO implements MonitorDAO {
     }
         
     public List<RequestData> getRequests(Query q) {
-        List<RequestData> requests = getRequests();
-       
+        return query(getRequests(), q);
+    }
+
+    /**
+     * Returns the requests matching the query, paged and sorted
+     */
+    static List<RequestData> query(Iterable<RequestData> requests, Query q) {
         List<Predicate> predicates = new ArrayList();
         if (q.getFilter() != null) {
             Filter f = q.getFilter();
@@ -87,35 +92,32 @@ public class MemoryMonitorDAO implements MonitorDAO {
             predicates.add(new DateRange(q.getFromDate(), q.getToDate()));
         }
         
-        int i = 1, count = 0;
+        List<RequestData> result = new ArrayList<RequestData>();
+        int i = 1;
         
-O:      for (Iterator<RequestData> it = requests.iterator(); it.hasNext();) {
-            RequestData r = it.next();
+O:      for (RequestData r : requests) {
             for (Predicate p : predicates) {
                 if (!p.matches(r)) {
-                    it.remove();
                     continue O;
                 }
             }
         
             if (q.getOffset() != null && q.getOffset() >= i++) {
-                it.remove();
                 continue;
             }
-            if (q.getCount() != null && q.getCount() <= count) {
-                it.remove();
-                continue;       
+            if (q.getCount() != null && q.getCount() <= result.size()) {
+                break;
             }
-            count++;
+            result.add(r);
         }
         
         if (q.getSortBy() != null) {
-            Collections.sort(requests, new Sorter(q.getSortBy(), q.getSortOrder()));
+            Collections.sort(result, new Sorter(q.getSortBy(), q.getSortOrder()));
         }
         else if (q.getFromDate() != null || q.getToDate() != null) {
-            Collections.sort(requests, new Sorter("startTime", SortOrder.DESC));
+            Collections.sort(result, new Sorter("startTime", SortOrder.DESC));
         }
-        return requests;
+        return result;
     }
     
     public void getRequests(Query query, RequestDataVisitor visitor) {
@@ -0,0 +1,119 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running counters and latency histogram for a group of requests, such as all the requests to a
+ * service, operation or layer.
+ * <p>
+ * Updates do not lock, so that many threads can record completed requests concurrently. The
+ * histogram has fixed buckets, each holding the number of requests whose total time was at most
+ * the bucket {@link #BOUNDS bound}, in milliseconds, and more than the previous bound.
+ * </p>
+ */
+public class RequestStats {
+
+    /**
+     * Upper bounds of the histogram buckets, in milliseconds, the last bucket is unbounded
+     */
+    public static final long[] BOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000,
+            10000, 20000, 50000, Long.MAX_VALUE };
+
+    LongAdder count = new LongAdder();
+
+    LongAdder errors = new LongAdder();
+
+    LongAdder totalTime = new LongAdder();
+
+    AtomicLong maxTime = new AtomicLong();
+
+    AtomicLongArray histogram = new AtomicLongArray(BOUNDS.length);
+
+    /**
+     * Records a completed request
+     */
+    public void add(RequestData data) {
+        long time = Math.max(0, data.getTotalTime());
+        count.increment();
+        totalTime.add(time);
+        if (data.getStatus() == RequestData.Status.FAILED || data.getError() != null) {
+            errors.increment();
+        }
+        long max = maxTime.get();
+        while (time > max && !maxTime.compareAndSet(max, time)) {
+            max = maxTime.get();
+        }
+        histogram.incrementAndGet(bucket(time));
+    }
+
+    static int bucket(long time) {
+        for (int i = 0; i < BOUNDS.length; i++) {
+            if (time <= BOUNDS[i]) {
+                return i;
+            }
+        }
+        return BOUNDS.length - 1;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    public long getTotalTime() {
+        return totalTime.sum();
+    }
+
+    public long getMaxTime() {
+        return maxTime.get();
+    }
+
+    public double getAverageTime() {
+        long n = count.sum();
+        return n == 0 ? 0 : ((double) totalTime.sum()) / n;
+    }
+
+    /**
+     * Returns a copy of the histogram, with one count for each of the {@link #BOUNDS}
+     */
+    public long[] getHistogram() {
+        long[] result = new long[BOUNDS.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = histogram.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile (between 0 and 100) of
+     * the request times, or 0 if no request has been recorded
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = getHistogram();
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(total * percentile / 100d);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target && counts[i] > 0) {
+                return i == BOUNDS.length - 1 ? getMaxTime() : BOUNDS[i];
+            }
+        }
+        return getMaxTime();
+    }
+}
@@ -0,0 +1,324 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.geoserver.monitor.Query.Comparison;
+
+/**
+ * In memory monitor storage meant for high request rates.
+ * <p>
+ * The running requests are kept in a concurrent map, the completed ones in a fixed capacity ring
+ * buffer where each new request overwrites the oldest one, neither of them requiring locks.
+ * Completed requests are also accounted for in {@link RequestStats} kept per service, per
+ * operation and per layer, which are used to answer the queries counting requests grouped by
+ * <code>service</code>, <code>operation</code> or <code>resource</code> without scanning the
+ * requests, for example:
+ *
+ * <pre>
+ * new Query().properties(&quot;operation&quot;).aggregate(&quot;count()&quot;)
+ *         .group(&quot;operation&quot;).filter(&quot;service&quot;, &quot;WMS&quot;, Comparison.EQ)
+ * </pre>
+ *
+ * The statistics cover all the requests completed since startup, or since the last
+ * {@link #clear()}, and not only the ones still in the ring buffer. Other queries are answered by
+ * scanning the running requests and the ring buffer.
+ * </p>
+ * <p>
+ * The DAO is selected with <code>storage=ring</code> in <code>monitor.properties</code>, the
+ * ring buffer capacity is set by <code>ring.capacity</code>, 1000 by default.
+ * </p>
+ */
+public class RingBufferMonitorDAO implements MonitorDAO {
+
+    public static final String NAME = "ring";
+
+    static final int DEFAULT_CAPACITY = 1000;
+
+    static final String COUNT = "count()";
+
+    /**
+     * A completed request along with its position in the sequence of completed requests, used to
+     * tell apart slots overwritten while being read
+     */
+    static final class Entry {
+        final long sequence;
+
+        final RequestData data;
+
+        Entry(long sequence, RequestData data) {
+            this.sequence = sequence;
+            this.data = data;
+        }
+    }
+
+    AtomicLong REQUEST_ID_GEN = new AtomicLong(1);
+
+    Map<Long, RequestData> live = new ConcurrentHashMap<Long, RequestData>();
+
+    volatile AtomicReferenceArray<Entry> history = new AtomicReferenceArray<Entry>(
+            DEFAULT_CAPACITY);
+
+    AtomicLong sequence = new AtomicLong();
+
+    ConcurrentHashMap<String, RequestStats> serviceStats =
+            new ConcurrentHashMap<String, RequestStats>();
+
+    ConcurrentHashMap<String, RequestStats> operationStats =
+            new ConcurrentHashMap<String, RequestStats>();
+
+    ConcurrentHashMap<String, RequestStats> layerStats =
+            new ConcurrentHashMap<String, RequestStats>();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void init(MonitorConfig config) {
+        Integer capacity = config.getProperty(NAME, "capacity", Integer.class);
+        if (capacity != null && capacity > 0) {
+            history = new AtomicReferenceArray<Entry>(capacity);
+            sequence.set(0);
+        }
+    }
+
+    public int getCapacity() {
+        return history.length();
+    }
+
+    public RequestData init(RequestData data) {
+        data.setId(REQUEST_ID_GEN.getAndIncrement());
+        return data;
+    }
+
+    public void add(RequestData data) {
+        live.put(data.getId(), data);
+    }
+
+    public void update(RequestData data) {
+    }
+
+    public void save(RequestData data) {
+        live.remove(data.getId());
+
+        AtomicReferenceArray<Entry> ring = history;
+        long seq = sequence.getAndIncrement();
+        ring.set((int) (seq % ring.length()), new Entry(seq, data));
+
+        String service = data.getService();
+        if (service != null) {
+            stats(serviceStats, service).add(data);
+            if (data.getOperation() != null) {
+                stats(operationStats, operationKey(service, data.getOperation())).add(data);
+            }
+        }
+        if (data.getResources() != null) {
+            for (String layer : data.getResources()) {
+                stats(layerStats, layer).add(data);
+            }
+        }
+    }
+
+    static RequestStats stats(ConcurrentHashMap<String, RequestStats> map, String key) {
+        RequestStats stats = map.get(key);
+        if (stats == null) {
+            stats = new RequestStats();
+            RequestStats existing = map.putIfAbsent(key, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        return stats;
+    }
+
+    static String operationKey(String service, String operation) {
+        return service.toUpperCase() + "." + operation.toUpperCase();
+    }
+
+    /**
+     * Returns the statistics of the completed requests, by service
+     */
+    public Map<String, RequestStats> getServiceStats() {
+        return Collections.unmodifiableMap(serviceStats);
+    }
+
+    /**
+     * Returns the statistics of the completed requests, by operation, keyed by
+     * <code>SERVICE.OPERATION</code>
+     */
+    public Map<String, RequestStats> getOperationStats() {
+        return Collections.unmodifiableMap(operationStats);
+    }
+
+    /**
+     * Returns the statistics of the completed requests, by layer
+     */
+    public Map<String, RequestStats> getLayerStats() {
+        return Collections.unmodifiableMap(layerStats);
+    }
+
+    /**
+     * Returns the statistics of an operation, or null if no such request completed yet
+     */
+    public RequestStats getStats(String service, String operation) {
+        return operationStats.get(operationKey(service, operation));
+    }
+
+    public RequestData getRequest(long id) {
+        RequestData data = live.get(id);
+        if (data != null) {
+            return data;
+        }
+        for (RequestData r : completed()) {
+            if (r.getId() == id) {
+                return r;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the completed requests still in the ring buffer, from the oldest to the newest
+     */
+    List<RequestData> completed() {
+        AtomicReferenceArray<Entry> ring = history;
+        long end = sequence.get();
+        long start = Math.max(0, end - ring.length());
+        List<RequestData> result = new ArrayList<RequestData>((int) (end - start));
+        for (long seq = start; seq < end; seq++) {
+            Entry entry = ring.get((int) (seq % ring.length()));
+            // skip slots not written yet, or already overwritten by a newer request
+            if (entry != null && entry.sequence == seq) {
+                result.add(entry.data);
+            }
+        }
+        return result;
+    }
+
+    public List<RequestData> getRequests() {
+        List<RequestData> requests = new ArrayList<RequestData>(live.values());
+        requests.addAll(completed());
+        return requests;
+    }
+
+    public List<RequestData> getRequests(Query q) {
+        return MemoryMonitorDAO.query(getRequests(), q);
+    }
+
+    public void getRequests(Query query, RequestDataVisitor visitor) {
+        if (visitAggregates(query, visitor)) {
+            return;
+        }
+        for (RequestData r : getRequests(query)) {
+            visitor.visit(r);
+        }
+    }
+
+    /**
+     * Answers the query from the statistics if it counts requests grouped by service, operation
+     * or layer, optionally filtering on a single service. Returns false if the query needs a scan
+     * of the requests.
+     */
+    boolean visitAggregates(Query q, RequestDataVisitor visitor) {
+        if (q.getAggregates().size() != 1 || !COUNT.equals(q.getAggregates().get(0))
+                || q.getGroupBy().size() != 1 || q.getFromDate() != null
+                || q.getToDate() != null || q.getOffset() != null || q.getCount() != null
+                || q.getSortBy() != null) {
+            return false;
+        }
+
+        // only a filter on the service is supported, the statistics do not include requests
+        // without a service, so filtering those out is a no-op
+        String service = null;
+        Filter filter = q.getFilter();
+        if (filter != null) {
+            if (filter.getClass() != Filter.class || !"service".equals(filter.getLeft())) {
+                return false;
+            }
+            if (filter.getType() == Comparison.EQ && filter.getRight() instanceof String) {
+                service = (String) filter.getRight();
+            } else if (filter.getType() != Comparison.NEQ || filter.getRight() != null) {
+                return false;
+            }
+        }
+
+        String group = q.getGroupBy().get(0);
+        if ("service".equals(group) && service == null) {
+            for (Map.Entry<String, RequestStats> e : serviceStats.entrySet()) {
+                RequestData data = new RequestData();
+                data.setService(e.getKey());
+                visitor.visit(data, e.getValue().getCount());
+            }
+            return true;
+        } else if ("operation".equals(group) && service != null) {
+            String prefix = service.toUpperCase() + ".";
+            for (Map.Entry<String, RequestStats> e : operationStats.entrySet()) {
+                if (e.getKey().startsWith(prefix)) {
+                    RequestData data = new RequestData();
+                    data.setService(service);
+                    data.setOperation(e.getKey().substring(prefix.length()));
+                    visitor.visit(data, e.getValue().getCount());
+                }
+            }
+            return true;
+        } else if ("resource".equals(group) && service == null) {
+            for (Map.Entry<String, RequestStats> e : layerStats.entrySet()) {
+                RequestData data = new RequestData();
+                data.getResources().add(e.getKey());
+                visitor.visit(data, e.getValue().getCount());
+            }
+            return true;
+        }
+        return false;
+    }
+
+    public long getCount(Query query) {
+        return getRequests(query).size();
+    }
+
+    public Iterator<RequestData> getIterator(Query query) {
+        return getRequests(query).iterator();
+    }
+
+    public List<RequestData> getOwsRequests() {
+        return getRequests(new Query().filter("service", null, Comparison.NEQ));
+    }
+
+    public List<RequestData> getOwsRequests(String service, String operation, String version) {
+        Query q = new Query().filter("service", null, Comparison.NEQ);
+        List<RequestData> result = new ArrayList<RequestData>();
+        for (RequestData r : getRequests(q)) {
+            if ((service == null || service.equalsIgnoreCase(r.getService()))
+                    && (operation == null || operation.equalsIgnoreCase(r.getOperation()))
+                    && (version == null || version.equals(r.getOwsVersion()))) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    public void clear() {
+        history = new AtomicReferenceArray<Entry>(history.length());
+        sequence.set(0);
+        serviceStats.clear();
+        operationStats.clear();
+        layerStats.clear();
+    }
+
+    public void dispose() {
+        live.clear();
+        clear();
+    }
+}
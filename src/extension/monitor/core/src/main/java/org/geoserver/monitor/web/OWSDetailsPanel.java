@@ -30,8 +30,8 @@ public class OWSDetailsPanel extends OWSSummaryChartBasePanel {
     @Override
     protected Map<String, Integer> gatherData(Monitor monitor) {
         DataGatherer g = new DataGatherer();
-        monitor.query(new Query().properties("operation")
-            .filter("service", owsService, Comparison.EQ), g);
+        monitor.query(new Query().properties("operation").aggregate("count()")
+            .group("operation").filter("service", owsService, Comparison.EQ), g);
         
         return g.getData();
     }
@@ -44,10 +44,10 @@ public class OWSDetailsPanel extends OWSSummaryChartBasePanel {
             String op = req.getOperation().toLowerCase();
             Integer count = data.get(op);
             if (count == null) {
-                count = new Integer(1);
+                count = new Integer(count(aggregates));
             }
             else {
-                count = new Integer(count+1);
+                count = new Integer(count+count(aggregates));
             }
             
             data.put(op, count);
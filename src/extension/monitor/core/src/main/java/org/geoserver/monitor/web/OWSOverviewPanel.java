@@ -30,7 +30,8 @@ public class OWSOverviewPanel extends OWSSummaryChartBasePanel {
     @Override
     protected Map<String,Integer> gatherData(Monitor monitor) {
         Query q = new Query();
-        q.properties("service").filter("service", null, Comparison.NEQ);
+        q.properties("service").aggregate("count()").group("service")
+            .filter("service", null, Comparison.NEQ);
         
         DataGatherer g = new DataGatherer();
         monitor.query(q, g);
@@ -46,10 +47,10 @@ public class OWSOverviewPanel extends OWSSummaryChartBasePanel {
             String service = req.getService();
             Integer count = data.get(service);
             if (count == null) {
-                count = new Integer(1);
+                count = new Integer(count(aggregates));
             }
             else {
-                count = new Integer(count+1);
+                count = new Integer(count+count(aggregates));
             }
             
             data.put(service, count);
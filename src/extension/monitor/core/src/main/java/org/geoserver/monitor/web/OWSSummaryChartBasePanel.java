@@ -45,6 +45,18 @@ public abstract class OWSSummaryChartBasePanel extends Panel {
     }
 
     protected abstract Map<String, Integer> gatherData(Monitor monitor);
+
+    /**
+     * Returns the number of requests a visited item stands for, that is, the
+     * <code>count()</code> aggregate for storages grouping the requests, or 1 for the ones
+     * visiting each request
+     */
+    protected static int count(Object... aggregates) {
+        if (aggregates != null && aggregates.length > 0 && aggregates[0] instanceof Number) {
+            return ((Number) aggregates[0]).intValue();
+        }
+        return 1;
+    }
     
     protected abstract String getChartTitle();
 
@@ -0,0 +1,117 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.geoserver.monitor.Query.Comparison;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class RingBufferMonitorDAOTest extends MonitorDAOTestSupport {
+
+    @BeforeClass
+    public static void createDAO() throws Exception {
+        dao = new RingBufferMonitorDAO();
+        setUpData();
+    }
+
+    Map<String, Long> counts(Query q, final String property) {
+        final Map<String, Long> counts = new HashMap<String, Long>();
+        dao.getRequests(q, new RequestDataVisitor() {
+
+            public void visit(RequestData data, Object... aggregates) {
+                String key = "resource".equals(property) ? data.getResources().get(0)
+                        : (String) ("service".equals(property) ? data.getService()
+                                : data.getOperation());
+                counts.put(key, ((Number) aggregates[0]).longValue());
+            }
+        });
+        return counts;
+    }
+
+    @Test
+    public void testCountByService() throws Exception {
+        Map<String, Long> counts = counts(new Query().properties("service").aggregate("count()")
+                .group("service").filter("service", null, Comparison.NEQ), "service");
+        assertEquals(4, counts.size());
+        assertEquals(Long.valueOf(4), counts.get("foo"));
+        assertEquals(Long.valueOf(2), counts.get("bar"));
+        assertEquals(Long.valueOf(1), counts.get("baz"));
+        assertEquals(Long.valueOf(3), counts.get("bam"));
+    }
+
+    @Test
+    public void testCountByOperation() throws Exception {
+        Map<String, Long> counts = counts(new Query().properties("operation")
+                .aggregate("count()").group("operation")
+                .filter("service", "bam", Comparison.EQ), "operation");
+        assertEquals(2, counts.size());
+        assertEquals(Long.valueOf(1), counts.get("X"));
+        assertEquals(Long.valueOf(2), counts.get("Y"));
+    }
+
+    @Test
+    public void testCountByLayer() throws Exception {
+        Map<String, Long> counts = counts(new Query().properties("resource")
+                .aggregate("count()").group("resource"), "resource");
+        assertEquals(Long.valueOf(3), counts.get("widgets"));
+        assertEquals(Long.valueOf(5), counts.get("things"));
+        assertEquals(Long.valueOf(5), counts.get("stuff"));
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        RequestStats stats = ((RingBufferMonitorDAO) dao).getStats("foo", "x");
+        assertNotNull(stats);
+        assertEquals(4, stats.getCount());
+        assertEquals(0, stats.getErrorCount());
+
+        stats = ((RingBufferMonitorDAO) dao).getServiceStats().get("bam");
+        assertEquals(3, stats.getCount());
+        assertEquals(2, stats.getErrorCount());
+    }
+
+    @Test
+    public void testHistogram() throws Exception {
+        RequestStats stats = new RequestStats();
+        for (long time : new long[] { 1, 3, 40, 40, 700 }) {
+            RequestData data = new RequestData();
+            data.setTotalTime(time);
+            stats.add(data);
+        }
+        assertEquals(5, stats.getCount());
+        assertEquals(700, stats.getMaxTime());
+        assertEquals(156.8, stats.getAverageTime(), 1e-6);
+        long[] histogram = stats.getHistogram();
+        assertEquals(1, histogram[RequestStats.bucket(1)]);
+        assertEquals(1, histogram[RequestStats.bucket(3)]);
+        assertEquals(2, histogram[RequestStats.bucket(40)]);
+        assertEquals(50, stats.getPercentile(50));
+        assertEquals(1000, stats.getPercentile(100));
+    }
+
+    @Test
+    public void testRingOverwrite() throws Exception {
+        RingBufferMonitorDAO ring = new RingBufferMonitorDAO();
+        ring.history = new AtomicReferenceArray<RingBufferMonitorDAO.Entry>(5);
+        for (int i = 0; i < 12; i++) {
+            RequestData data = ring.init(new RequestData());
+            ring.add(data);
+            ring.save(data);
+        }
+        List<RequestData> requests = ring.getRequests();
+        assertEquals(5, requests.size());
+        assertEquals(8, requests.get(0).getId());
+        assertEquals(12, requests.get(4).getId());
+        assertNull(ring.getRequest(7));
+        assertNotNull(ring.getRequest(12));
+    }
+}
@@ -212,8 +212,17 @@ public class GeoServerMetaTile extends MetaTile {
         return tile;
     }
 
+    /**
+     * Synchronized, as the tiles of a metatile can be encoded in parallel by the
+     * {@link MetaTileEncoder}
+     */
+    @Override
+    protected synchronized void disposeLater(RenderedImage tile) {
+        super.disposeLater(tile);
+    }
+
     @Override
-    public void dispose() {
+    public synchronized void dispose() {
         if (metaTileMap != null) {
             metaTileMap.dispose();
             metaTileMap = null;
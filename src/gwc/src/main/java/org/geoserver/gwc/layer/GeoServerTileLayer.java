@@ -551,14 +551,28 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         }
 
         final GeoServerMetaTile metaTile = createMetaTile(tile, metaX, metaY);
+        final String lockKey = buildLockKey(tile, metaTile);
+        // the metatile might be getting encoded in parallel already
+        MetaTileEncoder encoder = tryCache ? MetaTileEncoder.getPending(lockKey) : null;
+        if (encoder != null && encoder.await(tile)) {
+            metaTile.dispose();
+            return finalizeTile(tile);
+        }
+
+        encoder = null;
+        boolean encoderOwnsMetaTile = false;
         Lock lock = null;
         try {
             /** ****************** Acquire lock ******************* */
-            lock = GWC.get().getLockProvider().getLock(buildLockKey(tile, metaTile));
+            lock = GWC.get().getLockProvider().getLock(lockKey);
             // got the lock on the meta tile, try again
             if (tryCache && tryCacheFetch(tile)) {
                 LOGGER.finest("--> " + Thread.currentThread().getName() + " returns cache hit for "
                         + Arrays.toString(metaTile.getMetaGridPos()));
+            } else if (tryCache && (encoder = MetaTileEncoder.getPending(lockKey)) != null) {
+                LOGGER.finest("--> " + Thread.currentThread().getName()
+                        + " waits for the parallel encoding of "
+                        + Arrays.toString(metaTile.getMetaGridPos()));
             } else {
                 LOGGER.finer("--> " + Thread.currentThread().getName()
                         + " submitting getMap request for meta grid location "
@@ -569,7 +583,17 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
                     map = dispatchGetMap(tile, metaTile);
                     checkNotNull(map, "Did not obtain a WebMap from GeoServer's Dispatcher");
                     metaTile.setWebMap(map);
-                    saveTiles(metaTile, tile, requestTime);
+                    if (MetaTileEncoder.getExecutor() != null && map instanceof RenderedImageMap
+                            && metaTile.getTilesGridPositions().length > 1) {
+                        // encode the tiles in parallel, and release the lock as soon as they
+                        // are submitted, the encoder disposes the metatile once done
+                        boolean store = getExpireCache(zLevel) != GWCVars.CACHE_DISABLE_CACHE;
+                        encoder = MetaTileEncoder.start(lockKey, metaTile, this, tile, store,
+                                requestTime);
+                        encoderOwnsMetaTile = true;
+                    } else {
+                        saveTiles(metaTile, tile, requestTime);
+                    }
                 } catch (Exception e) {
                     Throwables.propagateIfInstanceOf(e, GeoWebCacheException.class);
                     throw new GeoWebCacheException("Problem communicating with GeoServer", e);
@@ -580,9 +604,15 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
             if(lock != null) {
                 lock.release();
             }
-            metaTile.dispose();
+            if (!encoderOwnsMetaTile) {
+                metaTile.dispose();
+            }
         }
 
+        if (encoder != null && !encoder.await(tile)) {
+            throw new GeoWebCacheException("Tile " + Arrays.toString(tile.getTileIndex())
+                    + " was not encoded as part of its metatile");
+        }
 
         return finalizeTile(tile);
     }
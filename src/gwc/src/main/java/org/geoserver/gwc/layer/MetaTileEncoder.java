@@ -0,0 +1,243 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.layer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.conveyor.ConveyorTile;
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.io.Resource;
+import org.geowebcache.storage.StorageBroker;
+import org.geowebcache.storage.TileObject;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Crops, encodes and stores the tiles of a rendered {@link GeoServerMetaTile} in parallel, on a
+ * bounded pool of encoder threads shared by all the tile layers.
+ * <p>
+ * The encodings in progress are registered by metatile lock key, so that the requests for the
+ * other tiles of the same metatile, that were waiting on the metatile lock, can pick up their
+ * tile as soon as it's encoded, instead of waiting for the whole metatile to be written. The
+ * metatile is disposed once all of its tiles have been encoded.
+ * </p>
+ * <p>
+ * Parallel encoding is disabled by default, set the {@link #THREADS_KEY} system property,
+ * environment or servlet context variable to the number of encoder threads to enable it.
+ * </p>
+ */
+class MetaTileEncoder {
+
+    static final Logger LOGGER = Logging.getLogger(MetaTileEncoder.class);
+
+    public static final String THREADS_KEY = "GEOSERVER_GWC_METATILE_ENCODER_THREADS";
+
+    /**
+     * Encodings in progress, by metatile lock key
+     */
+    static final ConcurrentMap<String, MetaTileEncoder> PENDING = new ConcurrentHashMap<String, MetaTileEncoder>();
+
+    static ExecutorService executor;
+
+    static volatile boolean executorInitialized;
+
+    /**
+     * Returns the shared encoder pool, or null if parallel encoding is disabled
+     */
+    static ExecutorService getExecutor() {
+        if (!executorInitialized) {
+            synchronized (MetaTileEncoder.class) {
+                if (!executorInitialized) {
+                    int threads = 0;
+                    String value = GeoServerExtensions.getProperty(THREADS_KEY);
+                    if (value != null) {
+                        try {
+                            threads = Integer.parseInt(value.trim());
+                        } catch (NumberFormatException e) {
+                            LOGGER.warning("Invalid value '" + value + "' for " + THREADS_KEY
+                                    + ", metatile encoding will not be parallel");
+                        }
+                    }
+                    if (threads > 0) {
+                        CustomizableThreadFactory factory = new CustomizableThreadFactory(
+                                "GWCMetaTileEncoder-");
+                        factory.setDaemon(true);
+                        // bounded queue, once full the submitting thread encodes the tile itself
+                        executor = new ThreadPoolExecutor(threads, threads, 0L,
+                                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(
+                                        threads * 64), factory,
+                                new ThreadPoolExecutor.CallerRunsPolicy());
+                    }
+                    executorInitialized = true;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Returns the encoding in progress for the given metatile lock key, if any
+     */
+    static MetaTileEncoder getPending(String lockKey) {
+        return PENDING.get(lockKey);
+    }
+
+    final String lockKey;
+
+    final GeoServerMetaTile metaTile;
+
+    final long[][] positions;
+
+    final FutureTask<Resource>[] tasks;
+
+    final AtomicInteger remaining;
+
+    /**
+     * Starts encoding the tiles of the rendered metatile. The returned encoder owns the metatile,
+     * and will dispose it once done.
+     *
+     * @param lockKey The metatile lock key
+     * @param metaTile The metatile, with the rendered map already set
+     * @param layer The layer the metatile belongs to
+     * @param tileProto The requested tile
+     * @param store Whether the tiles should be stored
+     * @param requestTime The time the metatile has been requested
+     */
+    static MetaTileEncoder start(String lockKey, GeoServerMetaTile metaTile,
+            GeoServerTileLayer layer, ConveyorTile tileProto, boolean store, long requestTime) {
+        MetaTileEncoder encoder = new MetaTileEncoder(lockKey, metaTile, layer, tileProto, store,
+                requestTime);
+        PENDING.put(lockKey, encoder);
+        encoder.submit(getExecutor(), tileProto.getTileIndex());
+        return encoder;
+    }
+
+    @SuppressWarnings("unchecked")
+    MetaTileEncoder(String lockKey, final GeoServerMetaTile metaTile,
+            final GeoServerTileLayer layer, final ConveyorTile tileProto, final boolean store,
+            final long requestTime) {
+        this.lockKey = lockKey;
+        this.metaTile = metaTile;
+        this.positions = metaTile.getTilesGridPositions();
+        this.tasks = new FutureTask[positions.length];
+        this.remaining = new AtomicInteger(positions.length);
+
+        final String layerName = layer.getName();
+        final String gridSetId = tileProto.getGridSetId();
+        final String format = tileProto.getMimeType().getFormat();
+        final Map<String, String> parameters = tileProto.getParameters();
+        final StorageBroker storageBroker = tileProto.getStorageBroker();
+        final boolean cacheOnly = tileProto.isMetaTileCacheOnly();
+        final boolean[] covered = new boolean[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            covered[i] = layer.getGridSubset(gridSetId).covers(positions[i]);
+        }
+
+        for (int i = 0; i < positions.length; i++) {
+            final int tileIdx = i;
+            tasks[i] = new FutureTask<Resource>(new Callable<Resource>() {
+
+                @Override
+                public Resource call() throws Exception {
+                    if (!covered[tileIdx]) {
+                        return null;
+                    }
+                    Resource resource = new ByteArrayResource(16 * 1024);
+                    if (!metaTile.writeTileToStream(tileIdx, resource)) {
+                        throw new IOException("Failed to encode tile "
+                                + Arrays.toString(positions[tileIdx]));
+                    }
+                    if (store) {
+                        TileObject tile = TileObject.createCompleteTileObject(layerName,
+                                positions[tileIdx], gridSetId, format, parameters, resource);
+                        tile.setCreated(requestTime);
+                        if (cacheOnly) {
+                            storageBroker.putTransient(tile);
+                        } else {
+                            storageBroker.put(tile);
+                        }
+                    }
+                    return resource;
+                }
+            }) {
+                @Override
+                protected void done() {
+                    if (remaining.decrementAndGet() == 0) {
+                        PENDING.remove(MetaTileEncoder.this.lockKey, MetaTileEncoder.this);
+                        metaTile.dispose();
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Submits all the tiles, the requested one first
+     */
+    void submit(ExecutorService executor, long[] requested) {
+        int first = indexOf(requested);
+        if (first >= 0) {
+            executor.execute(tasks[first]);
+        }
+        for (int i = 0; i < tasks.length; i++) {
+            if (i != first) {
+                executor.execute(tasks[i]);
+            }
+        }
+    }
+
+    int indexOf(long[] tileIndex) {
+        for (int i = 0; i < positions.length; i++) {
+            if (Arrays.equals(positions[i], tileIndex)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Waits for the given tile to be encoded and sets it as its blob
+     *
+     * @return false if the tile is not part of this metatile
+     */
+    boolean await(ConveyorTile tile) throws GeoWebCacheException {
+        int idx = indexOf(tile.getTileIndex());
+        if (idx < 0) {
+            return false;
+        }
+        try {
+            Resource resource = tasks[idx].get();
+            if (resource == null) {
+                return false;
+            }
+            tile.setBlob(resource);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeoWebCacheException("Interrupted while waiting for tile "
+                    + Arrays.toString(tile.getTileIndex()));
+        } catch (ExecutionException e) {
+            LOGGER.log(Level.FINE, "Failed to encode tile " + Arrays.toString(tile.getTileIndex()),
+                    e.getCause());
+            throw new GeoWebCacheException("Problem encoding the tile", e.getCause());
+        }
+    }
+}
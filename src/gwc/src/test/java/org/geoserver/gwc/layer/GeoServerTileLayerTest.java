@@ -19,6 +19,7 @@ import static org.mockito.Matchers.isA;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -32,6 +33,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletResponse;
@@ -548,6 +551,56 @@ public class GeoServerTileLayerTest {
         verify(mockGWC, times(1)).getResponseEncoder(eq(mimeType), isA(RenderedImageMap.class));
     }
 
+    @Test
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void testGetTileParallelEncoding() throws Exception {
+
+        Resource mockResult = mock(Resource.class);
+        ArgumentCaptor<Map> argument = ArgumentCaptor.forClass(Map.class);
+        Mockito.when(mockGWC.dispatchOwsRequest(argument.capture(), (Cookie[]) anyObject()))
+                .thenReturn(mockResult);
+
+        BufferedImage image = new BufferedImage(512, 256, BufferedImage.TYPE_INT_ARGB);
+        RenderedImageMap fakeDispatchedMap = new RenderedImageMap(new WMSMapContent(), image,
+                "image/png");
+
+        RenderedImageMapResponse fakeResponseEncoder = mock(RenderedImageMapResponse.class);
+        MimeType mimeType = MimeType.createFromFormat("image/png");
+        when(mockGWC.getResponseEncoder(eq(mimeType), (RenderedImageMap) anyObject())).thenReturn(
+                fakeResponseEncoder);
+
+        StorageBroker storageBroker = mock(StorageBroker.class);
+        when(storageBroker.get((TileObject) anyObject())).thenReturn(false);
+
+        layerInfoTileLayer = new GeoServerTileLayer(layerInfo, defaults, gridSetBroker);
+
+        MockHttpServletRequest servletReq = new MockHttpServletRequest();
+        HttpServletResponse servletResp = new MockHttpServletResponse();
+        long[] tileIndex = { 0, 0, 0 };
+
+        ConveyorTile tile = new ConveyorTile(storageBroker, layerInfoTileLayer.getName(),
+                "EPSG:4326", tileIndex, mimeType, null, servletReq, servletResp);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        MetaTileEncoder.executor = executor;
+        MetaTileEncoder.executorInitialized = true;
+        try {
+            GeoServerTileLayer.WEB_MAP.set(fakeDispatchedMap);
+            ConveyorTile returned = layerInfoTileLayer.getTile(tile);
+            assertNotNull(returned);
+            assertNotNull(returned.getBlob());
+            assertEquals(CacheResult.MISS, returned.getCacheResult());
+            assertEquals(200, returned.getStatus());
+
+            // the tiles get stored, possibly after the requested one is returned
+            verify(storageBroker, timeout(5000).atLeastOnce()).put((TileObject) anyObject());
+        } finally {
+            MetaTileEncoder.executor = null;
+            MetaTileEncoder.executorInitialized = false;
+            executor.shutdown();
+        }
+    }
+
     @Test
     public void testGetMimeTypes() throws Exception {
 
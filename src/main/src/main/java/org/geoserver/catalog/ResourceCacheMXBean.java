@@ -0,0 +1,37 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+/**
+ * JMX view of the statistics of a {@link ResourcePool} cache
+ * 
+ * @see ResourceCacheStatistics
+ */
+public interface ResourceCacheMXBean {
+
+    String getName();
+
+    int getSize();
+
+    int getHardReferences();
+
+    int getMaxSize();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRatio();
+
+    long getLoadCount();
+
+    long getTotalLoadTime();
+
+    double getAverageLoadTime();
+
+    long getEvictionCount();
+
+    void reset();
+}
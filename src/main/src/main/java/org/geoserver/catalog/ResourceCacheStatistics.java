@@ -0,0 +1,176 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Usage statistics for one of the {@link ResourcePool} caches.
+ * <p>
+ * A hit is a lookup that found the resource in the cache, a miss is a lookup that did not find
+ * it, an eviction is a resource that got dropped from the cache either
+ * because the cache grew past its maximum size, or because the garbage collector reclaimed it.
+ * </p>
+ * 
+ */
+public class ResourceCacheStatistics {
+
+    final String name;
+
+    final AtomicLong hits = new AtomicLong();
+
+    final AtomicLong misses = new AtomicLong();
+
+    final AtomicLong loads = new AtomicLong();
+
+    final AtomicLong loadTime = new AtomicLong();
+
+    final AtomicLong evictions = new AtomicLong();
+
+    volatile int size;
+
+    volatile int hardReferences;
+
+    volatile int maxSize;
+
+    public ResourceCacheStatistics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * The cache name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Number of lookups that found the resource in the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Number of lookups that did not find the resource in the cache
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Ratio between hits and total requests, or 1 if the cache has not been used yet
+     */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 1 : ((double) h) / total;
+    }
+
+    /**
+     * Number of timed resource loads
+     */
+    public long getLoadCount() {
+        return loads.get();
+    }
+
+    /**
+     * Total time spent loading resources, in milliseconds
+     */
+    public long getTotalLoadTime() {
+        return TimeUnit.NANOSECONDS.toMillis(loadTime.get());
+    }
+
+    /**
+     * Average time spent loading a resource, in milliseconds
+     */
+    public double getAverageLoadTime() {
+        long count = loads.get();
+        return count == 0 ? 0 : loadTime.get() / 1e6 / count;
+    }
+
+    /**
+     * Number of resources dropped from the cache due to size limits or memory pressure
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Number of entries in the cache
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Number of entries the cache keeps strong references to, the others can be reclaimed by the
+     * garbage collector under memory pressure
+     */
+    public int getHardReferences() {
+        return hardReferences;
+    }
+
+    /**
+     * Maximum number of entries in the cache, or zero if only bounded by memory
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Resets the counters
+     */
+    public void reset() {
+        hits.set(0);
+        misses.set(0);
+        loads.set(0);
+        loadTime.set(0);
+        evictions.set(0);
+    }
+
+    void hit() {
+        hits.incrementAndGet();
+    }
+
+    void miss() {
+        misses.incrementAndGet();
+    }
+
+    void loaded(long nanos) {
+        loads.incrementAndGet();
+        loadTime.addAndGet(nanos);
+    }
+
+    void evicted() {
+        evictions.incrementAndGet();
+    }
+
+    /**
+     * Returns the statistics as a map, suitable for encoding in REST responses
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("size", getSize());
+        map.put("hardReferences", getHardReferences());
+        map.put("maxSize", getMaxSize());
+        map.put("hitCount", getHitCount());
+        map.put("missCount", getMissCount());
+        map.put("hitRatio", getHitRatio());
+        map.put("loadCount", getLoadCount());
+        map.put("totalLoadTime", getTotalLoadTime());
+        map.put("averageLoadTime", getAverageLoadTime());
+        map.put("evictionCount", getEvictionCount());
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return "ResourceCacheStatistics[" + name + ", " + toMap() + "]";
+    }
+}
@@ -27,6 +27,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -135,6 +136,14 @@ import org.vfny.geoserver.util.DataStoreUtils;
  * <li>{@link #hintCoverageReaderCache} </li>
  * <li>{@link #styleCache} </li>
  * </p>
+ * <p>
+ * All caches keep a configurable number of strong references, while the other entries are only
+ * softly referenced and can be reclaimed by the garbage collector. Each cache can also be given
+ * a maximum number of entries, past which the least recently used ones are evicted, by setting
+ * the <tt>org.geoserver.catalog.cache.&lt;cacheName&gt;.maxSize</tt> system/context variable.
+ * Hit, miss, load time and eviction statistics for each cache are available from
+ * {@link #getCacheStatistics()}.
+ * </p>
  * 
  * @author Justin Deoliveira, Boundless
  */
@@ -179,6 +188,38 @@ public class ResourcePool {
      * Default number of hard references
      */
     static int FEATURETYPE_CACHE_SIZE_DEFAULT = 100;
+
+    /**
+     * Default maximum number of entries in the CRS cache
+     */
+    static int CRS_CACHE_MAX_SIZE_DEFAULT = 2000;
+
+    /**
+     * Default maximum number of entries in the style cache
+     */
+    static int STYLE_CACHE_MAX_SIZE_DEFAULT = 1000;
+
+    /**
+     * Prefix of the system/context variables used to configure the cache sizes, the full name is
+     * <tt>org.geoserver.catalog.cache.&lt;cacheName&gt;.maxSize</tt>
+     */
+    static final String CACHE_SIZE_PREFIX = "org.geoserver.catalog.cache.";
+
+    static final String CRS_CACHE = "crs";
+
+    static final String DATASTORE_CACHE = "dataStore";
+
+    static final String FEATURETYPE_CACHE = "featureType";
+
+    static final String FEATURETYPE_ATTRIBUTE_CACHE = "featureTypeAttribute";
+
+    static final String COVERAGE_READER_CACHE = "coverageReader";
+
+    static final String HINT_COVERAGE_READER_CACHE = "hintCoverageReader";
+
+    static final String WMS_CACHE = "wms";
+
+    static final String STYLE_CACHE = "style";
     
     private static final String IMAGE_PYRAMID = "ImagePyramid";
     private static final String IMAGE_MOSAIC = "ImageMosaic";
@@ -271,7 +312,7 @@ public class ResourcePool {
     }
 
     protected Map<String,CoordinateReferenceSystem> createCrsCache() {
-        return new HashMap<String, CoordinateReferenceSystem>();
+        return new CRSCache();
     }
 
     /**
@@ -377,7 +418,69 @@ public class ResourcePool {
     }
 
     protected Map<StyleInfo, Style> createStyleCache() {
-        return new HashMap<StyleInfo, Style>();
+        return new StyleCache();
+    }
+
+    /**
+     * Returns the usage statistics of the caches, keyed by cache name.
+     * <p>
+     * Only the caches created by this class are reported, custom {@link Map} implementations
+     * returned by subclasses overriding the cache factory methods are skipped.
+     * </p>
+     */
+    public Map<String, ResourceCacheStatistics> getCacheStatistics() {
+        Map<String, ResourceCacheStatistics> result = new LinkedHashMap<String, ResourceCacheStatistics>();
+        for (Map<?, ?> cache : Arrays.asList(crsCache, dataStoreCache, featureTypeCache,
+                featureTypeAttributeCache, coverageReaderCache, hintCoverageReaderCache,
+                wmsCache, styleCache)) {
+            if (cache instanceof CatalogResourceCache) {
+                ResourceCacheStatistics statistics = ((CatalogResourceCache<?, ?>) cache)
+                        .getStatistics();
+                result.put(statistics.getName(), statistics);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Records the time it took to load a resource in the specified cache
+     * 
+     * @param cache The cache the resource is going to be put in
+     * @param start The load start time, as returned by {@link System#nanoTime()}
+     */
+    void loaded(Map<?, ?> cache, long start) {
+        if (cache instanceof CatalogResourceCache) {
+            ((CatalogResourceCache<?, ?>) cache).getStatistics().loaded(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Looks up a key again after acquiring the cache lock. For the caches created by this class
+     * the lookup is not counted in the statistics, the first lookup already counted the miss.
+     */
+    <V> V recheck(Map<?, V> cache, Object key) {
+        if (cache instanceof CatalogResourceCache) {
+            return ((CatalogResourceCache<?, V>) cache).peek(key);
+        }
+        return cache.get(key);
+    }
+
+    /**
+     * Returns the maximum number of entries for the specified cache, as configured by the
+     * <tt>org.geoserver.catalog.cache.&lt;cacheName&gt;.maxSize</tt> system/context variable.
+     */
+    static int getCacheMaxSize(String cacheName, int defaultValue) {
+        String property = CACHE_SIZE_PREFIX + cacheName + ".maxSize";
+        String value = GeoServerExtensions.getProperty(property);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.log(Level.WARNING, "Invalid value for " + property + ": " + value
+                        + ", using the default of " + defaultValue, e);
+            }
+        }
+        return defaultValue;
     }
 
     /**
@@ -464,10 +567,12 @@ public class ResourcePool {
         CoordinateReferenceSystem crs = crsCache.get( srsName );
         if ( crs == null ) {
             synchronized (crsCache) {
-                crs = crsCache.get( srsName );
+                crs = recheck(crsCache, srsName);
                 if ( crs == null ) {
                     try {
+                        long start = System.nanoTime();
                         crs = CRS.decode( srsName );
+                        loaded(crsCache, start);
                         crsCache.put( srsName, crs );
                     }
                     catch( Exception e) {
@@ -525,8 +630,9 @@ public class ResourcePool {
             dataStore = dataStoreCache.get(id);
             if ( dataStore == null ) {
                 synchronized (dataStoreCache) {
-                    dataStore = dataStoreCache.get( id );
+                    dataStore = recheck(dataStoreCache, id);
                     if ( dataStore == null ) {
+                        long start = System.nanoTime();
                         //create data store
                         Map<String, Serializable> connectionParameters = info.getConnectionParameters();
                         
@@ -608,6 +714,7 @@ public class ResourcePool {
                         // returned from un-saved DataStoreInfo objects (it would be actually
                         // harmful, NPE when trying to dispose of them)
                         if(id != null) {
+                            loaded(dataStoreCache, start);
                             dataStoreCache.put( id, dataStore );
                         }
                     }
@@ -712,8 +819,9 @@ public class ResourcePool {
         List<AttributeTypeInfo> atts = featureTypeAttributeCache.get(info.getId());
         if (atts == null) {
             synchronized (featureTypeAttributeCache) {
-                atts = featureTypeAttributeCache.get(info.getId());
+                atts = recheck(featureTypeAttributeCache, info.getId());
                 if (atts == null) {
+                    long start = System.nanoTime();
                     //load from feature type
                     atts = loadAttributes(info);
                     
@@ -728,6 +836,7 @@ public class ResourcePool {
                     
                     // cache attributes only if the id is not null -> the feature type is not new
                     if(info.getId() != null) {
+                        loaded(featureTypeAttributeCache, start);
                         featureTypeAttributeCache.put(info.getId(), atts);
                     }
                 }
@@ -890,8 +999,9 @@ public class ResourcePool {
         FeatureType ft = featureTypeCache.get( key );
         if ( ft == null ) {
             synchronized ( featureTypeCache ) {
-                ft = featureTypeCache.get( key );
+                ft = recheck(featureTypeCache, key);
                 if ( ft == null ) {
+                    long start = System.nanoTime();
 
                     //grab the underlying feature type
                     DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
@@ -903,6 +1013,7 @@ public class ResourcePool {
                     ft = dataAccess.getSchema(info.getQualifiedNativeName());
                     ft = buildFeatureType(info, handleProjectionPolicy, ft);
 
+                    loaded(featureTypeCache, start);
                     featureTypeCache.put( key, ft );
                 }
             }
@@ -1419,12 +1530,13 @@ public class ResourcePool {
             synchronized ( hints != null ? hintCoverageReaderCache : coverageReaderCache ) {
                 if (key != null) {
                     if (hints != null) {
-                        reader = hintCoverageReaderCache.get(key);
+                        reader = recheck(hintCoverageReaderCache, key);
                     } else {
-                        reader = coverageReaderCache.get(key);
+                        reader = recheck(coverageReaderCache, key);
                     }
                 }
                 if (reader == null) {
+                    long start = System.nanoTime();
                     /////////////////////////////////////////////////////////
                     //
                     // Getting coverage reader using the format and the real path.
@@ -1444,8 +1556,10 @@ public class ResourcePool {
                     }
                     if(key != null) {
                         if(hints != null) {
+                            loaded(hintCoverageReaderCache, start);
                             hintCoverageReaderCache.put((CoverageHintReaderKey) key, reader);
                         } else {
+                            loaded(coverageReaderCache, start);
                             coverageReaderCache.put((String) key, reader);
                         }
                     }
@@ -1645,13 +1759,15 @@ public class ResourcePool {
             WebMapServer wms = wmsCache.get(id);
             if (wms == null) {
                 synchronized (wmsCache) {
-                    wms = wmsCache.get(id);
+                    wms = recheck(wmsCache, id);
                     if (wms == null) {
+                        long start = System.nanoTime();
                         HTTPClient client = getHTTPClient(info);
                         String capabilitiesURL = info.getCapabilitiesURL();
                         URL serverURL = new URL(capabilitiesURL);
                         wms = new WebMapServer(serverURL, client);
                         
+                        loaded(wmsCache, start);
                         wmsCache.put(id, wms);
                     }
                 }
@@ -1746,8 +1862,9 @@ public class ResourcePool {
         Style style = styleCache.get( info );
         if ( style == null ) {
             synchronized (styleCache) {
-                style = styleCache.get( info );
+                style = recheck(styleCache, info);
                 if ( style == null ) {
+                    long start = System.nanoTime();
                     style = dataDir().parsedStyle(info);
 
                     if (style == null) {
@@ -1757,6 +1874,7 @@ public class ResourcePool {
 
                     // remove this when wms works off style info
                     style.setName( info.getName() );
+                    loaded(styleCache, start);
                     styleCache.put( info, style );
                     
                     final Resource styleResource = dataDir().style(info);
@@ -1904,7 +2022,18 @@ public class ResourcePool {
     
     /**
      * Base class for all the resource caches, ensures type safety and provides
-     * an easier way to handle with resource disposal 
+     * an easier way to handle with resource disposal.
+     * <p>
+     * The cache keeps strong references to the most recently used entries, and soft references
+     * to the others. If a maximum size is set, the least recently used entries past it are
+     * evicted and disposed. Usage statistics are collected in a {@link ResourceCacheStatistics}.
+     * </p>
+     * <p>
+     * The maximum size is a number of entries, not a weight: the cached resources (data stores,
+     * coverage readers, feature types, styles) have no meaningful size estimate, and the ones
+     * holding most memory are the store connections, which are better bounded by count. The
+     * soft references are what protects the heap from large entries.
+     * </p>
      * @author Andrea Aime
      *
      * @param <K>
@@ -1912,24 +2041,105 @@ public class ResourcePool {
      */
     abstract class CatalogResourceCache<K, V> extends SoftValueHashMap<K, V> {
 
-        public CatalogResourceCache() {
-            this(100);
+        final ResourceCacheStatistics statistics;
+
+        final int maxSize;
+
+        /**
+         * The keys in access order, used to evict the least recently used entries when a
+         * maximum size is set
+         */
+        final LinkedHashMap<K, Boolean> accessOrder;
+
+        public CatalogResourceCache(String name) {
+            this(name, 100);
         }
 
-        public CatalogResourceCache(int hardReferences) {
+        public CatalogResourceCache(String name, int hardReferences) {
+            this(name, hardReferences, getCacheMaxSize(name, 0));
+        }
+
+        public CatalogResourceCache(String name, int hardReferences, int maxSize) {
             super(hardReferences);
+            this.maxSize = maxSize;
+            this.accessOrder = maxSize > 0 ? new LinkedHashMap<K, Boolean>(16, 0.75f, true) : null;
+            this.statistics = new ResourceCacheStatistics(name);
+            this.statistics.hardReferences = hardReferences;
+            this.statistics.maxSize = maxSize;
             super.cleaner = new ValueCleaner() {
 
                 @Override
                 public void clean(Object key, Object object) {
+                    // the garbage collector reclaimed the value
+                    statistics.evicted();
+                    forget((K) key);
                     dispose((K) key, (V) object);
                 }
             };
         }
 
+        public ResourceCacheStatistics getStatistics() {
+            statistics.size = size();
+            return statistics;
+        }
+
+        @Override
+        public V get(Object key) {
+            V object = peek(key);
+            if (object != null) {
+                statistics.hit();
+            } else {
+                statistics.miss();
+            }
+            return object;
+        }
+
+        /**
+         * Same as {@link #get(Object)}, but not counted in the statistics
+         */
+        V peek(Object key) {
+            V object = super.get(key);
+            if (object != null && accessOrder != null) {
+                synchronized (accessOrder) {
+                    accessOrder.get(key);
+                }
+            }
+            return object;
+        }
+
+        @Override
+        public V put(K key, V value) {
+            V old = super.put(key, value);
+            if (accessOrder != null) {
+                List<K> evicted = new ArrayList<K>();
+                synchronized (accessOrder) {
+                    accessOrder.put(key, Boolean.TRUE);
+                    Iterator<K> it = accessOrder.keySet().iterator();
+                    while (accessOrder.size() - evicted.size() > maxSize && it.hasNext()) {
+                        K eldest = it.next();
+                        if (!eldest.equals(key)) {
+                            evicted.add(eldest);
+                        }
+                    }
+                    for (K k : evicted) {
+                        accessOrder.remove(k);
+                    }
+                }
+                for (K k : evicted) {
+                    V object = super.remove(k);
+                    if (object != null) {
+                        statistics.evicted();
+                        dispose(k, object);
+                    }
+                }
+            }
+            return old;
+        }
+
         @Override
         public V remove(Object key) {
             V object = super.remove(key);
+            forget((K) key);
             if (object != null) {
                 dispose((K) key, object);
             }
@@ -1947,15 +2157,52 @@ public class ResourcePool {
                 }
             }
             super.clear();
+            if (accessOrder != null) {
+                synchronized (accessOrder) {
+                    accessOrder.clear();
+                }
+            }
+        }
+
+        void forget(K key) {
+            if (accessOrder != null) {
+                synchronized (accessOrder) {
+                    accessOrder.remove(key);
+                }
+            }
         }
 
         protected abstract void dispose(K key, V object);
     }
     
+    class CRSCache extends CatalogResourceCache<String, CoordinateReferenceSystem> {
+
+        public CRSCache() {
+            super(CRS_CACHE, 100, getCacheMaxSize(CRS_CACHE, CRS_CACHE_MAX_SIZE_DEFAULT));
+        }
+
+        @Override
+        protected void dispose(String key, CoordinateReferenceSystem object) {
+            // nothing to do
+        }
+    }
+
+    class StyleCache extends CatalogResourceCache<StyleInfo, Style> {
+
+        public StyleCache() {
+            super(STYLE_CACHE, 100, getCacheMaxSize(STYLE_CACHE, STYLE_CACHE_MAX_SIZE_DEFAULT));
+        }
+
+        @Override
+        protected void dispose(StyleInfo key, Style object) {
+            // nothing to do
+        }
+    }
+
     class FeatureTypeCache extends CatalogResourceCache<String, FeatureType> {
         
         public FeatureTypeCache(int maxSize) {
-            super(maxSize);
+            super(FEATURETYPE_CACHE, maxSize);
         }
         
         protected void dispose(String key, FeatureType featureType) {
@@ -1980,6 +2227,11 @@ public class ResourcePool {
      */
     @SuppressWarnings("rawtypes")
     class DataStoreCache extends CatalogResourceCache<String, DataAccess> {
+
+        public DataStoreCache() {
+            super(DATASTORE_CACHE);
+        }
+
         /**
          * Ensure data access entry is removed from catalog, and
          * ensure DataAccess dispose is called to return system resources.
@@ -2013,7 +2265,11 @@ public class ResourcePool {
     }
     
     class CoverageReaderCache extends CatalogResourceCache<String, GridCoverageReader> {
-        
+
+        public CoverageReaderCache() {
+            super(COVERAGE_READER_CACHE);
+        }
+
         protected void dispose(String id, GridCoverageReader reader) {
         	CoverageStoreInfo info = catalog.getCoverageStore(id);
         	if(info != null) {
@@ -2033,7 +2289,11 @@ public class ResourcePool {
     }
     
     class CoverageHintReaderCache extends CatalogResourceCache<CoverageHintReaderKey, GridCoverageReader> {
-        
+
+        public CoverageHintReaderCache() {
+            super(HINT_COVERAGE_READER_CACHE);
+        }
+
         protected void dispose(CoverageHintReaderKey key, GridCoverageReader reader) {
         	CoverageStoreInfo info = catalog.getCoverageStore(key.id);
         	if(info != null) {
@@ -2103,7 +2363,7 @@ public class ResourcePool {
     class FeatureTypeAttributeCache extends CatalogResourceCache<String, List<AttributeTypeInfo>> {
 
         FeatureTypeAttributeCache(int size) {
-            super(size);
+            super(FEATURETYPE_ATTRIBUTE_CACHE, size);
         }
 
         @Override
@@ -2114,6 +2374,10 @@ public class ResourcePool {
 
     class WMSCache extends CatalogResourceCache<String, WebMapServer> {
 
+        public WMSCache() {
+            super(WMS_CACHE);
+        }
+
         @Override
         protected void dispose(String key, WebMapServer server) {
             HTTPClient client = server.getHTTPClient();
@@ -0,0 +1,154 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Registers the {@link ResourcePool} cache statistics in the platform MBean server, under the
+ * <tt>org.geoserver:type=ResourcePoolCache,name=&lt;cacheName&gt;</tt> object names.
+ * <p>
+ * The registered beans look up the resource pool of the catalog at each call, so they keep on
+ * working when the pool or its caches are replaced.
+ * </p>
+ */
+public class ResourcePoolJMXExporter implements InitializingBean, DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(ResourcePoolJMXExporter.class);
+
+    static final String DOMAIN = "org.geoserver";
+
+    Catalog catalog;
+
+    List<ObjectName> registered = new ArrayList<ObjectName>();
+
+    public ResourcePoolJMXExporter(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (String cacheName : catalog.getResourcePool().getCacheStatistics().keySet()) {
+            try {
+                ObjectName name = new ObjectName(DOMAIN + ":type=ResourcePoolCache,name="
+                        + cacheName);
+                if (server.isRegistered(name)) {
+                    // another GeoServer in the same JVM, or a leftover from a previous startup
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(new CacheBean(cacheName), name);
+                registered.add(name);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to register the JMX bean for the "
+                        + cacheName + " resource pool cache", e);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Failed to unregister " + name, e);
+            }
+        }
+        registered.clear();
+    }
+
+    /**
+     * Delegates to the current statistics of a named cache
+     */
+    class CacheBean implements ResourceCacheMXBean {
+
+        String cacheName;
+
+        CacheBean(String cacheName) {
+            this.cacheName = cacheName;
+        }
+
+        ResourceCacheStatistics statistics() {
+            ResourceCacheStatistics statistics = catalog.getResourcePool().getCacheStatistics()
+                    .get(cacheName);
+            return statistics != null ? statistics : new ResourceCacheStatistics(cacheName);
+        }
+
+        @Override
+        public String getName() {
+            return cacheName;
+        }
+
+        @Override
+        public int getSize() {
+            return statistics().getSize();
+        }
+
+        @Override
+        public int getHardReferences() {
+            return statistics().getHardReferences();
+        }
+
+        @Override
+        public int getMaxSize() {
+            return statistics().getMaxSize();
+        }
+
+        @Override
+        public long getHitCount() {
+            return statistics().getHitCount();
+        }
+
+        @Override
+        public long getMissCount() {
+            return statistics().getMissCount();
+        }
+
+        @Override
+        public double getHitRatio() {
+            return statistics().getHitRatio();
+        }
+
+        @Override
+        public long getLoadCount() {
+            return statistics().getLoadCount();
+        }
+
+        @Override
+        public long getTotalLoadTime() {
+            return statistics().getTotalLoadTime();
+        }
+
+        @Override
+        public double getAverageLoadTime() {
+            return statistics().getAverageLoadTime();
+        }
+
+        @Override
+        public long getEvictionCount() {
+            return statistics().getEvictionCount();
+        }
+
+        @Override
+        public void reset() {
+            statistics().reset();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.geoserver.catalog.Predicates;
+import org.geotools.filter.visitor.SimplifyingFilterVisitor;
+import org.opengis.filter.And;
+import org.opengis.filter.BinaryComparisonOperator;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterVisitor;
+import org.opengis.filter.Or;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsNotEqualTo;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+
+/**
+ * Rewrites catalog filters so that they can be evaluated quickly against the in memory catalog.
+ * <p>
+ * Security filters such as the ones built by
+ * {@link org.geoserver.security.ResourceAccessManager#getSecurityFilter} are made of long lists
+ * of equality comparisons of the same property, like
+ * <code>resource.store.workspace.name = 'a' OR resource.store.workspace.name = 'b' OR ...</code>,
+ * or the negated version in AND. Evaluating them as is extracts the same nested property once per
+ * comparison, the optimizer replaces each list with a single {@link PropertyIn} filter extracting
+ * the property once and checking it against a hash set, which can also be used by
+ * {@link IndexedCatalogFacade} to narrow down the candidates thru its indexes.
+ * </p>
+ */
+public class CatalogFilterOptimizer extends SimplifyingFilterVisitor {
+
+    /**
+     * Returns an optimized filter equivalent to the one provided
+     */
+    public static Filter optimize(Filter filter) {
+        if (filter == null || filter == Filter.INCLUDE || filter == Filter.EXCLUDE) {
+            return filter;
+        }
+        return (Filter) filter.accept(new CatalogFilterOptimizer(), null);
+    }
+
+    @Override
+    public Object visit(And filter, Object extraData) {
+        Object result = super.visit(filter, extraData);
+        if (result instanceof And) {
+            return group(((And) result).getChildren(), PropertyIsNotEqualTo.class, true);
+        }
+        return result;
+    }
+
+    @Override
+    public Object visit(Or filter, Object extraData) {
+        Object result = super.visit(filter, extraData);
+        if (result instanceof Or) {
+            return group(((Or) result).getChildren(), PropertyIsEqualTo.class, false);
+        }
+        return result;
+    }
+
+    /**
+     * Groups the comparisons of the same property against a string, leaving the other children
+     * alone
+     */
+    Filter group(List<Filter> children, Class<? extends BinaryComparisonOperator> comparison,
+            boolean negated) {
+        Map<String, List<Filter>> groups = new LinkedHashMap<String, List<Filter>>();
+        List<Filter> others = new ArrayList<Filter>();
+        for (Filter child : children) {
+            String property = comparedProperty(child, comparison);
+            if (property == null) {
+                others.add(child);
+            } else {
+                List<Filter> group = groups.get(property);
+                if (group == null) {
+                    group = new ArrayList<Filter>();
+                    groups.put(property, group);
+                }
+                group.add(child);
+            }
+        }
+
+        List<Filter> result = new ArrayList<Filter>();
+        for (List<Filter> group : groups.values()) {
+            if (group.size() == 1) {
+                result.add(group.get(0));
+            } else {
+                result.add(new PropertyIn(group, negated));
+            }
+        }
+        result.addAll(others);
+
+        if (result.size() == 1) {
+            return result.get(0);
+        }
+        return negated ? Predicates.and(result) : Predicates.or(result);
+    }
+
+    /**
+     * Returns the property name if the filter is a case sensitive comparison of the given type
+     * between a property and a string, null otherwise
+     */
+    static String comparedProperty(Filter filter,
+            Class<? extends BinaryComparisonOperator> comparison) {
+        if (!comparison.isInstance(filter)) {
+            return null;
+        }
+        BinaryComparisonOperator op = (BinaryComparisonOperator) filter;
+        if (!op.isMatchingCase() || !(op.getExpression1() instanceof PropertyName)
+                || !(op.getExpression2() instanceof Literal)
+                || !(((Literal) op.getExpression2()).getValue() instanceof String)) {
+            return null;
+        }
+        return ((PropertyName) op.getExpression1()).getPropertyName();
+    }
+
+    /**
+     * Checks whether a property value is (or, if negated, is not) one of a set of strings.
+     * <p>
+     * Only string values are checked against the set, other values (null, collections, ...) are
+     * handed over to the original comparisons, so that the results are the same. Visitors are
+     * handed over to the original comparisons too, so the filter can still be encoded by any
+     * code understanding them.
+     * </p>
+     */
+    public static class PropertyIn implements Filter {
+
+        final PropertyName property;
+
+        final Set<String> values;
+
+        final boolean negated;
+
+        final Filter original;
+
+        PropertyIn(List<Filter> comparisons, boolean negated) {
+            this.property = (PropertyName) ((BinaryComparisonOperator) comparisons.get(0))
+                    .getExpression1();
+            Set<String> values = new LinkedHashSet<String>();
+            for (Filter f : comparisons) {
+                Literal literal = (Literal) ((BinaryComparisonOperator) f).getExpression2();
+                values.add((String) literal.getValue());
+            }
+            this.values = Collections.unmodifiableSet(values);
+            this.negated = negated;
+            this.original = negated ? Predicates.and(comparisons) : Predicates.or(comparisons);
+        }
+
+        public String getPropertyName() {
+            return property.getPropertyName();
+        }
+
+        /**
+         * The values the property is compared to
+         */
+        public Set<String> getValues() {
+            return values;
+        }
+
+        /**
+         * True if the filter selects the objects whose property is not in the values
+         */
+        public boolean isNegated() {
+            return negated;
+        }
+
+        /**
+         * The comparisons this filter replaces
+         */
+        public Filter getOriginal() {
+            return original;
+        }
+
+        @Override
+        public boolean evaluate(Object object) {
+            Object value = property.evaluate(object);
+            if (value instanceof String) {
+                return values.contains(value) != negated;
+            }
+            return original.evaluate(object);
+        }
+
+        @Override
+        public Object accept(FilterVisitor visitor, Object extraData) {
+            return original.accept(visitor, extraData);
+        }
+
+        @Override
+        public String toString() {
+            return "[" + property + (negated ? " not in " : " in ") + values + "]";
+        }
+    }
+}
@@ -1011,6 +1011,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
             other.maps = maps;
             other.layerGroups = layerGroups;
             other.styles = styles;
+            other.synced();
         }
         else {
             //do a manual import
@@ -1063,6 +1064,14 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
     }
 
+    /**
+     * Called after the contents of another facade have been copied over this one by
+     * {@link #syncTo(CatalogFacade)}, allows subclasses to rebuild derived state
+     */
+    protected void synced() {
+        // nothing to do by default
+    }
+
     @Override
     public <T extends CatalogInfo> int count(final Class<T> of, final Filter filter) {
         return Iterables.size(iterable(of, filter, null));
@@ -1143,10 +1152,45 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
 
     public <T extends CatalogInfo> Iterable<T> iterable(final Class<? super T> of,
-            final Filter filter, final SortBy[] sortByList) {
+            Filter filter, final SortBy[] sortByList) {
+        // evaluate long lists of comparisons (e.g., security filters) as hash set lookups
+        final Filter optimized = CatalogFilterOptimizer.optimize(filter);
+        List<T> all = candidates(of, optimized);
+
+        if (null != sortByList) {
+            for (int i = sortByList.length - 1; i >=0 ; i--) {
+            	SortBy sortBy = sortByList[i];
+	            Ordering<Object> ordering = Ordering.from(comparator(sortBy));
+	            if (SortOrder.DESCENDING.equals(sortBy.getSortOrder())) {
+	                ordering = ordering.reverse();
+	            }
+	            all = ordering.sortedCopy(all);
+            }
+        }
+
+        if (Filter.INCLUDE.equals(optimized)) {
+            return all;
+        }
+
+        com.google.common.base.Predicate<T> filterAdapter = new com.google.common.base.Predicate<T>() {
+
+            @Override
+            public boolean apply(T input) {
+                return optimized.evaluate(input);
+            }
+        };
+
+        return Iterables.filter(all, filterAdapter);
+    }
+
+    /**
+     * Returns the objects of the given type that might match the filter, the filter will be
+     * evaluated on each of them. Subclasses can use the filter to narrow down the candidates.
+     */
+    protected <T extends CatalogInfo> List<T> candidates(final Class<? super T> of,
+            final Filter filter) {
         List<T> all;
 
-        T t = null;
         if (NamespaceInfo.class.isAssignableFrom(of)) {
             all = getNamespaces();
         } else if (WorkspaceInfo.class.isAssignableFrom(of)) {
@@ -1171,30 +1215,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
             throw new IllegalArgumentException("Unknown type: " + of);
         }
 
-        if (null != sortByList) {
-            for (int i = sortByList.length - 1; i >=0 ; i--) {
-            	SortBy sortBy = sortByList[i];
-	            Ordering<Object> ordering = Ordering.from(comparator(sortBy));
-	            if (SortOrder.DESCENDING.equals(sortBy.getSortOrder())) {
-	                ordering = ordering.reverse();
-	            }
-	            all = ordering.sortedCopy(all);
-            }
-        }
-
-        if (Filter.INCLUDE.equals(filter)) {
-            return all;
-        }
-
-        com.google.common.base.Predicate<T> filterAdapter = new com.google.common.base.Predicate<T>() {
-
-            @Override
-            public boolean apply(T input) {
-                return filter.evaluate(input);
-            }
-        };
-
-        return Iterables.filter(all, filterAdapter);
+        return all;
     }
 
     private Comparator<Object> comparator(final SortBy sortOrder) {
@@ -0,0 +1,1203 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogFacade;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.opengis.filter.And;
+import org.opengis.filter.Filter;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.expression.Literal;
+
+/**
+ * In memory catalog facade that maintains hash indexes on top of the {@link DefaultCatalogFacade}
+ * storage, so that lookups by id, name, workspace, namespace, store, resource and style do not
+ * require a linear scan of the whole catalog. Filtered listings restricting the workspace to a
+ * set of names, such as the ones produced by the security subsystem, are answered thru the indexes
+ * too.
+ * <p>
+ * Each index bucket is a concurrent map updated in place, index updates are serialized on a
+ * single lock while lookups never block. Index lookups are only used
+ * to narrow down the candidates, which are then checked against the very same conditions used by
+ * {@link DefaultCatalogFacade}, so the results of the two facades are the same.
+ * </p>
+ * <p>
+ * The facade can be plugged in a catalog via {@link CatalogImpl#setFacade(CatalogFacade)}, or
+ * enabled for the main catalog by setting the {@value #INDEXED_FACADE_KEY} system/context
+ * variable to true.
+ * </p>
+ */
+public class IndexedCatalogFacade extends DefaultCatalogFacade {
+
+    /**
+     * System/context variable enabling this facade in {@link CatalogImpl}
+     */
+    public static final String INDEXED_FACADE_KEY = "GEOSERVER_INDEXED_CATALOG";
+
+    /**
+     * Key used for null values (the indexes are backed by {@link ConcurrentHashMap}, that does
+     * not support null keys)
+     */
+    static final Object NULL_KEY = new Object();
+
+    /**
+     * Key used for references that have not been resolved yet (e.g., a store whose workspace has
+     * not been added to the catalog yet), candidates in this bucket are always checked
+     */
+    static final Object UNRESOLVED_KEY = new Object();
+
+    /**
+     * Serializes index updates
+     */
+    private final Object indexLock = new Object();
+
+    final Index<StoreInfo> storesById = new Index<StoreInfo>() {
+        protected Collection<?> keys(StoreInfo store) {
+            return Collections.singleton(store.getId());
+        }
+    };
+
+    final Index<StoreInfo> storesByName = new Index<StoreInfo>() {
+        protected Collection<?> keys(StoreInfo store) {
+            return Collections.singleton(store.getName());
+        }
+    };
+
+    final Index<StoreInfo> storesByWorkspace = new Index<StoreInfo>() {
+        protected Collection<?> keys(StoreInfo store) {
+            return Collections.singleton(reference(store.getWorkspace()));
+        }
+    };
+
+    final Index<ResourceInfo> resourcesById = new Index<ResourceInfo>() {
+        protected Collection<?> keys(ResourceInfo resource) {
+            return Collections.singleton(resource.getId());
+        }
+    };
+
+    final Index<ResourceInfo> resourcesByName = new Index<ResourceInfo>() {
+        protected Collection<?> keys(ResourceInfo resource) {
+            return Collections.singleton(resource.getName());
+        }
+    };
+
+    final Index<ResourceInfo> resourcesByNamespace = new Index<ResourceInfo>() {
+        protected Collection<?> keys(ResourceInfo resource) {
+            return Collections.singleton(reference(resource.getNamespace()));
+        }
+    };
+
+    final Index<ResourceInfo> resourcesByStore = new Index<ResourceInfo>() {
+        protected Collection<?> keys(ResourceInfo resource) {
+            return Collections.singleton(reference(resource.getStore()));
+        }
+    };
+
+    final Index<LayerInfo> layersById = new Index<LayerInfo>() {
+        protected Collection<?> keys(LayerInfo layer) {
+            return Collections.singleton(layer.getId());
+        }
+    };
+
+    final Index<LayerInfo> layersByName = new Index<LayerInfo>() {
+        protected Collection<?> keys(LayerInfo layer) {
+            return Collections.singleton(layer.getName());
+        }
+    };
+
+    final Index<LayerInfo> layersByResource = new Index<LayerInfo>() {
+        protected Collection<?> keys(LayerInfo layer) {
+            return Collections.singleton(reference(layer.getResource()));
+        }
+    };
+
+    final Index<LayerInfo> layersByStyle = new Index<LayerInfo>() {
+        protected Collection<?> keys(LayerInfo layer) {
+            Set<Object> keys = new LinkedHashSet<Object>();
+            if (layer.getDefaultStyle() != null) {
+                keys.add(reference(layer.getDefaultStyle()));
+            }
+            for (StyleInfo style : layer.getStyles()) {
+                if (style != null) {
+                    keys.add(reference(style));
+                }
+            }
+            return keys;
+        }
+    };
+
+    final Index<LayerGroupInfo> layerGroupsById = new Index<LayerGroupInfo>() {
+        protected Collection<?> keys(LayerGroupInfo layerGroup) {
+            return Collections.singleton(layerGroup.getId());
+        }
+    };
+
+    final Index<LayerGroupInfo> layerGroupsByName = new Index<LayerGroupInfo>() {
+        protected Collection<?> keys(LayerGroupInfo layerGroup) {
+            return Collections.singleton(layerGroup.getName());
+        }
+    };
+
+    final Index<LayerGroupInfo> layerGroupsByWorkspace = new Index<LayerGroupInfo>() {
+        protected Collection<?> keys(LayerGroupInfo layerGroup) {
+            return Collections.singleton(reference(layerGroup.getWorkspace()));
+        }
+    };
+
+    final Index<StyleInfo> stylesById = new Index<StyleInfo>() {
+        protected Collection<?> keys(StyleInfo style) {
+            return Collections.singleton(style.getId());
+        }
+    };
+
+    final Index<StyleInfo> stylesByName = new Index<StyleInfo>() {
+        protected Collection<?> keys(StyleInfo style) {
+            return Collections.singleton(style.getName());
+        }
+    };
+
+    final Index<StyleInfo> stylesByWorkspace = new Index<StyleInfo>() {
+        protected Collection<?> keys(StyleInfo style) {
+            return Collections.singleton(reference(style.getWorkspace()));
+        }
+    };
+
+    final Index<NamespaceInfo> namespacesById = new Index<NamespaceInfo>() {
+        protected Collection<?> keys(NamespaceInfo namespace) {
+            return Collections.singleton(namespace.getId());
+        }
+    };
+
+    final Index<NamespaceInfo> namespacesByURI = new Index<NamespaceInfo>() {
+        protected Collection<?> keys(NamespaceInfo namespace) {
+            return Collections.singleton(namespace.getURI());
+        }
+    };
+
+    final Index<WorkspaceInfo> workspacesById = new Index<WorkspaceInfo>() {
+        protected Collection<?> keys(WorkspaceInfo workspace) {
+            return Collections.singleton(workspace.getId());
+        }
+    };
+
+    public IndexedCatalogFacade(Catalog catalog) {
+        super(catalog);
+    }
+
+    //
+    // Stores
+    //
+    @Override
+    public StoreInfo add(StoreInfo store) {
+        StoreInfo added = super.add(store);
+        synchronized (indexLock) {
+            index(unwrap(store));
+        }
+        return added;
+    }
+
+    @Override
+    public void remove(StoreInfo store) {
+        super.remove(store);
+        synchronized (indexLock) {
+            deindex(unwrap(store));
+        }
+    }
+
+    @Override
+    public void save(StoreInfo store) {
+        super.save(store);
+        synchronized (indexLock) {
+            index(unwrap(store));
+        }
+    }
+
+    @Override
+    public <T extends StoreInfo> T getStore(String id, Class<T> clazz) {
+        for (StoreInfo store : storesById.get(id)) {
+            if (clazz.isInstance(store) && id.equals(store.getId())) {
+                return ModificationProxy.create((T) store, clazz);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public <T extends StoreInfo> T getStoreByName(WorkspaceInfo workspace, String name,
+            Class<T> clazz) {
+        Collection<StoreInfo> candidates = storesByName.get(name);
+        if (workspace == ANY_WORKSPACE) {
+            StoreInfo match = null;
+            for (StoreInfo store : candidates) {
+                if (clazz.isInstance(store) && name.equals(store.getName())) {
+                    if (match != null) {
+                        // ambiguous
+                        return null;
+                    }
+                    match = store;
+                }
+            }
+            return match != null ? ModificationProxy.create((T) match, clazz) : null;
+        } else {
+            for (StoreInfo store : candidates) {
+                if (clazz.isInstance(store) && name.equals(store.getName())
+                        && store.getWorkspace().equals(workspace)) {
+                    return ModificationProxy.create((T) store, clazz);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public <T extends StoreInfo> List<T> getStoresByWorkspace(WorkspaceInfo workspace,
+            Class<T> clazz) {
+        if (workspace == null) {
+            workspace = getDefaultWorkspace();
+        }
+        if (workspace == null || workspace.getId() == null) {
+            return super.getStoresByWorkspace(workspace, clazz);
+        }
+
+        List<T> matches = new ArrayList<T>();
+        for (StoreInfo store : storesByWorkspace.getReferenced(workspace.getId())) {
+            if (clazz.isInstance(store) && workspace.equals(store.getWorkspace())) {
+                matches.add((T) store);
+            }
+        }
+
+        return ModificationProxy.createList(matches, clazz);
+    }
+
+    //
+    // Resources
+    //
+    @Override
+    public ResourceInfo add(ResourceInfo resource) {
+        ResourceInfo added = super.add(resource);
+        synchronized (indexLock) {
+            index(unwrap(resource));
+        }
+        return added;
+    }
+
+    @Override
+    public void remove(ResourceInfo resource) {
+        super.remove(resource);
+        synchronized (indexLock) {
+            deindex(unwrap(resource));
+        }
+    }
+
+    @Override
+    public void save(ResourceInfo resource) {
+        super.save(resource);
+        synchronized (indexLock) {
+            ResourceInfo real = unwrap(resource);
+            index(real);
+            // layer names are derived from the resource ones
+            for (LayerInfo layer : layersByResource.get(real.getId())) {
+                layersByName.put(layer);
+            }
+        }
+    }
+
+    @Override
+    public <T extends ResourceInfo> T getResource(String id, Class<T> clazz) {
+        for (ResourceInfo resource : resourcesById.get(id)) {
+            if (clazz.isInstance(resource) && id.equals(resource.getId())) {
+                return ModificationProxy.create((T) resource, clazz);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public <T extends ResourceInfo> T getResourceByName(NamespaceInfo namespace, String name,
+            Class<T> clazz) {
+        Collection<ResourceInfo> candidates = resourcesByName.get(name);
+        if (namespace == ANY_NAMESPACE) {
+            ResourceInfo match = null;
+            for (ResourceInfo resource : candidates) {
+                if (clazz.isInstance(resource) && name.equals(resource.getName())) {
+                    if (match != null) {
+                        // ambiguous
+                        return null;
+                    }
+                    match = resource;
+                }
+            }
+            return match != null ? ModificationProxy.create((T) match, clazz) : null;
+        } else {
+            for (ResourceInfo resource : candidates) {
+                if (clazz.isInstance(resource) && name.equals(resource.getName())) {
+                    NamespaceInfo namespace1 = resource.getNamespace();
+                    if (namespace1 != null && namespace1.equals(namespace)) {
+                        return ModificationProxy.create((T) resource, clazz);
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public List getResourcesByNamespace(NamespaceInfo namespace, Class clazz) {
+        if (namespace == null) {
+            namespace = getDefaultNamespace();
+        }
+        if (namespace == null || namespace.getId() == null) {
+            return super.getResourcesByNamespace(namespace, clazz);
+        }
+
+        List matches = new ArrayList();
+        for (ResourceInfo resource : resourcesByNamespace.getReferenced(namespace.getId())) {
+            if (clazz.isInstance(resource) && namespace.equals(resource.getNamespace())) {
+                matches.add(resource);
+            }
+        }
+
+        return ModificationProxy.createList(matches, clazz);
+    }
+
+    @Override
+    public <T extends ResourceInfo> T getResourceByStore(StoreInfo store, String name,
+            Class<T> clazz) {
+        for (ResourceInfo resource : resourcesByName.get(name)) {
+            if (clazz.isInstance(resource) && name.equals(resource.getName())
+                    && store.equals(resource.getStore())) {
+                return ModificationProxy.create((T) resource, clazz);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public <T extends ResourceInfo> List<T> getResourcesByStore(StoreInfo store, Class<T> clazz) {
+        if (store.getId() == null) {
+            return super.getResourcesByStore(store, clazz);
+        }
+
+        List<T> matches = new ArrayList<T>();
+        for (ResourceInfo resource : resourcesByStore.getReferenced(store.getId())) {
+            if (clazz.isInstance(resource) && store.equals(resource.getStore())) {
+                matches.add((T) resource);
+            }
+        }
+
+        return ModificationProxy.createList(matches, clazz);
+    }
+
+    //
+    // Layers
+    //
+    @Override
+    public LayerInfo add(LayerInfo layer) {
+        LayerInfo added = super.add(layer);
+        synchronized (indexLock) {
+            index(unwrap(layer));
+        }
+        return added;
+    }
+
+    @Override
+    public void remove(LayerInfo layer) {
+        super.remove(layer);
+        synchronized (indexLock) {
+            deindex(unwrap(layer));
+        }
+    }
+
+    @Override
+    public void save(LayerInfo layer) {
+        super.save(layer);
+        synchronized (indexLock) {
+            index(unwrap(layer));
+        }
+    }
+
+    @Override
+    public LayerInfo getLayer(String id) {
+        for (LayerInfo layer : layersById.get(id)) {
+            if (id.equals(layer.getId())) {
+                return ModificationProxy.create(layer, LayerInfo.class);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public LayerInfo getLayerByName(String name) {
+        for (LayerInfo layer : layersByName.get(name)) {
+            if (name.equals(layer.getName())) {
+                return ModificationProxy.create(layer, LayerInfo.class);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public List<LayerInfo> getLayers(ResourceInfo resource) {
+        if (resource.getId() == null) {
+            return super.getLayers(resource);
+        }
+
+        List<LayerInfo> matches = new ArrayList<LayerInfo>();
+        for (LayerInfo layer : layersByResource.getReferenced(resource.getId())) {
+            if (resource.equals(layer.getResource())) {
+                matches.add(layer);
+            }
+        }
+
+        return ModificationProxy.createList(matches, LayerInfo.class);
+    }
+
+    @Override
+    public List<LayerInfo> getLayers(StyleInfo style) {
+        if (style.getId() == null) {
+            return super.getLayers(style);
+        }
+
+        List<LayerInfo> matches = new ArrayList<LayerInfo>();
+        for (LayerInfo layer : layersByStyle.getReferenced(style.getId())) {
+            if (style.equals(layer.getDefaultStyle()) || layer.getStyles().contains(style)) {
+                matches.add(layer);
+            }
+        }
+
+        return ModificationProxy.createList(matches, LayerInfo.class);
+    }
+
+    //
+    // Layer groups
+    //
+    @Override
+    public LayerGroupInfo add(LayerGroupInfo layerGroup) {
+        LayerGroupInfo added = super.add(layerGroup);
+        synchronized (indexLock) {
+            index(unwrap(layerGroup));
+        }
+        return added;
+    }
+
+    @Override
+    public void remove(LayerGroupInfo layerGroup) {
+        super.remove(layerGroup);
+        synchronized (indexLock) {
+            deindex(unwrap(layerGroup));
+        }
+    }
+
+    @Override
+    public void save(LayerGroupInfo layerGroup) {
+        super.save(layerGroup);
+        synchronized (indexLock) {
+            index(unwrap(layerGroup));
+        }
+    }
+
+    @Override
+    public List<LayerGroupInfo> getLayerGroupsByWorkspace(WorkspaceInfo workspace) {
+        if (workspace == null) {
+            workspace = getDefaultWorkspace();
+        }
+
+        List<LayerGroupInfo> matches = new ArrayList<LayerGroupInfo>();
+        if (workspace == NO_WORKSPACE) {
+            for (LayerGroupInfo layerGroup : layerGroupsByWorkspace.get(null)) {
+                if (layerGroup.getWorkspace() == null) {
+                    matches.add(layerGroup);
+                }
+            }
+        } else if (workspace == null || workspace.getId() == null) {
+            return super.getLayerGroupsByWorkspace(workspace);
+        } else {
+            for (LayerGroupInfo layerGroup : layerGroupsByWorkspace
+                    .getReferenced(workspace.getId())) {
+                if (workspace.equals(layerGroup.getWorkspace())) {
+                    matches.add(layerGroup);
+                }
+            }
+        }
+
+        return ModificationProxy.createList(matches, LayerGroupInfo.class);
+    }
+
+    @Override
+    public LayerGroupInfo getLayerGroup(String id) {
+        for (LayerGroupInfo layerGroup : layerGroupsById.get(id)) {
+            if (id.equals(layerGroup.getId())) {
+                return ModificationProxy.create(layerGroup, LayerGroupInfo.class);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public LayerGroupInfo getLayerGroupByName(WorkspaceInfo workspace, String name) {
+        LayerGroupInfo match = null;
+        for (LayerGroupInfo layerGroup : layerGroupsByName.get(name)) {
+            if (!name.equals(layerGroup.getName())) {
+                continue;
+            }
+            WorkspaceInfo lgWorkspace = layerGroup.getWorkspace();
+            boolean matches;
+            if (NO_WORKSPACE == workspace) {
+                matches = lgWorkspace == null;
+            } else if (ANY_WORKSPACE == workspace) {
+                matches = true;
+            } else {
+                matches = lgWorkspace != null && workspace.equals(lgWorkspace);
+            }
+            if (matches) {
+                if (match != null) {
+                    // ambiguous
+                    return null;
+                }
+                match = layerGroup;
+            }
+        }
+
+        return match != null ? ModificationProxy.create(match, LayerGroupInfo.class) : null;
+    }
+
+    //
+    // Namespaces
+    //
+    @Override
+    public NamespaceInfo add(NamespaceInfo namespace) {
+        NamespaceInfo added = super.add(namespace);
+        synchronized (indexLock) {
+            index(unwrap(namespace));
+        }
+        return added;
+    }
+
+    @Override
+    public void remove(NamespaceInfo namespace) {
+        NamespaceInfo real = namespaces.get(namespace.getPrefix());
+        super.remove(namespace);
+        synchronized (indexLock) {
+            if (real != null) {
+                namespacesById.remove(real);
+                namespacesByURI.remove(real);
+            }
+        }
+    }
+
+    @Override
+    public void save(NamespaceInfo namespace) {
+        super.save(namespace);
+        synchronized (indexLock) {
+            index(unwrap(namespace));
+        }
+    }
+
+    @Override
+    public NamespaceInfo getNamespace(String id) {
+        for (NamespaceInfo namespace : namespacesById.get(id)) {
+            if (id.equals(namespace.getId())) {
+                return ModificationProxy.create(namespace, NamespaceInfo.class);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public NamespaceInfo getNamespaceByURI(String uri) {
+        for (NamespaceInfo namespace : namespacesByURI.get(uri)) {
+            if (uri.equals(namespace.getURI())) {
+                return ModificationProxy.create(namespace, NamespaceInfo.class);
+            }
+        }
+
+        return null;
+    }
+
+    //
+    // Workspaces
+    //
+    @Override
+    public WorkspaceInfo add(WorkspaceInfo workspace) {
+        WorkspaceInfo added = super.add(workspace);
+        synchronized (indexLock) {
+            index(unwrap(workspace));
+        }
+        return added;
+    }
+
+    @Override
+    public void remove(WorkspaceInfo workspace) {
+        WorkspaceInfo real = workspaces.get(workspace.getName());
+        super.remove(workspace);
+        synchronized (indexLock) {
+            if (real != null) {
+                workspacesById.remove(real);
+            }
+        }
+    }
+
+    @Override
+    public void save(WorkspaceInfo workspace) {
+        super.save(workspace);
+        synchronized (indexLock) {
+            index(unwrap(workspace));
+        }
+    }
+
+    @Override
+    public WorkspaceInfo getWorkspace(String id) {
+        for (WorkspaceInfo workspace : workspacesById.get(id)) {
+            if (id.equals(workspace.getId())) {
+                return ModificationProxy.create(workspace, WorkspaceInfo.class);
+            }
+        }
+
+        return null;
+    }
+
+    //
+    // Styles
+    //
+    @Override
+    public StyleInfo add(StyleInfo style) {
+        StyleInfo added = super.add(style);
+        synchronized (indexLock) {
+            index(unwrap(style));
+        }
+        return added;
+    }
+
+    @Override
+    public void remove(StyleInfo style) {
+        super.remove(style);
+        synchronized (indexLock) {
+            deindex(unwrap(style));
+        }
+    }
+
+    @Override
+    public void save(StyleInfo style) {
+        super.save(style);
+        synchronized (indexLock) {
+            index(unwrap(style));
+        }
+    }
+
+    @Override
+    public StyleInfo getStyle(String id) {
+        for (StyleInfo style : stylesById.get(id)) {
+            if (id.equals(style.getId())) {
+                return ModificationProxy.create(style, StyleInfo.class);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public StyleInfo getStyleByName(String name) {
+        for (StyleInfo style : stylesByName.get(name)) {
+            if (name.equals(style.getName())) {
+                return ModificationProxy.create(style, StyleInfo.class);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public StyleInfo getStyleByName(WorkspaceInfo workspace, String name) {
+        if (null == workspace) {
+            throw new NullPointerException("workspace");
+        }
+        if (null == name) {
+            throw new NullPointerException("name");
+        }
+        Collection<StyleInfo> candidates = stylesByName.get(name);
+        if (workspace == ANY_WORKSPACE) {
+            StyleInfo match = null;
+            for (StyleInfo style : candidates) {
+                if (name.equals(style.getName())) {
+                    if (match != null) {
+                        // ambiguous
+                        return null;
+                    }
+                    match = style;
+                }
+            }
+            return match != null ? ModificationProxy.create(match, StyleInfo.class) : null;
+        } else {
+            for (StyleInfo style : candidates) {
+                if (name.equals(style.getName())) {
+                    if (style.getWorkspace() != null && style.getWorkspace().equals(workspace)
+                            || style.getWorkspace() == null && workspace == NO_WORKSPACE) {
+                        return ModificationProxy.create(style, StyleInfo.class);
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public List<StyleInfo> getStylesByWorkspace(WorkspaceInfo workspace) {
+        if (workspace == null) {
+            workspace = getDefaultWorkspace();
+        }
+
+        List<StyleInfo> matches = new ArrayList<StyleInfo>();
+        if (workspace == NO_WORKSPACE) {
+            for (StyleInfo style : stylesByWorkspace.get(null)) {
+                if (style.getWorkspace() == null) {
+                    matches.add(style);
+                }
+            }
+        } else if (workspace == null || workspace.getId() == null) {
+            return super.getStylesByWorkspace(workspace);
+        } else {
+            for (StyleInfo style : stylesByWorkspace.getReferenced(workspace.getId())) {
+                if (workspace.equals(style.getWorkspace())) {
+                    matches.add(style);
+                }
+            }
+        }
+
+        return ModificationProxy.createList(matches, StyleInfo.class);
+    }
+
+    //
+    // Filtered listings
+    //
+    /**
+     * Narrows down the candidates thru the workspace indexes when the filter restricts the
+     * workspace to a set of names, as the security filters do for users allowed to access only
+     * some workspaces. The filter is still evaluated on each candidate.
+     */
+    @Override
+    protected <T extends CatalogInfo> List<T> candidates(Class<? super T> of, Filter filter) {
+        String property = workspaceProperty(of);
+        Set<String> names = property == null ? null : workspaceNames(filter, property);
+        if (names == null) {
+            return super.candidates(of, filter);
+        }
+
+        List<Object> keys = new ArrayList<Object>();
+        for (String name : names) {
+            WorkspaceInfo ws = workspaces.get(name);
+            if (ws != null && ws.getId() == null) {
+                return super.candidates(of, filter);
+            } else if (ws != null) {
+                keys.add(ws.getId());
+            }
+        }
+        // objects whose workspace is not resolved yet are always candidates
+        keys.add(UNRESOLVED_KEY);
+
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        List<CatalogInfo> matches = new ArrayList<CatalogInfo>();
+        if (StyleInfo.class.isAssignableFrom(of)) {
+            collect(stylesByWorkspace, keys, of, seen, matches);
+        } else if (LayerGroupInfo.class.isAssignableFrom(of)) {
+            collect(layerGroupsByWorkspace, keys, of, seen, matches);
+        } else {
+            List<StoreInfo> stores = new ArrayList<StoreInfo>();
+            collect(storesByWorkspace, keys, StoreInfo.class, seen, stores);
+            if (StoreInfo.class.isAssignableFrom(of)) {
+                collect(stores, of, matches);
+            } else {
+                List<ResourceInfo> resources = new ArrayList<ResourceInfo>();
+                collect(resourcesByStore, references(stores), ResourceInfo.class, seen, resources);
+                if (ResourceInfo.class.isAssignableFrom(of)) {
+                    collect(resources, of, matches);
+                } else {
+                    collect(layersByResource, references(resources), of, seen, matches);
+                }
+            }
+        }
+
+        return ModificationProxy.createList((List) matches, (Class) of);
+    }
+
+    /**
+     * Returns the property holding the workspace name for the given type, null if the type cannot
+     * be looked up by workspace
+     */
+    static String workspaceProperty(Class<?> of) {
+        if (StoreInfo.class.isAssignableFrom(of) || StyleInfo.class.isAssignableFrom(of)
+                || LayerGroupInfo.class.isAssignableFrom(of)) {
+            return "workspace.name";
+        } else if (ResourceInfo.class.isAssignableFrom(of)) {
+            return "store.workspace.name";
+        } else if (LayerInfo.class.isAssignableFrom(of)) {
+            return "resource.store.workspace.name";
+        }
+        return null;
+    }
+
+    /**
+     * Returns the workspace names the filter restricts the objects to, or null if the filter does
+     * not restrict the workspace
+     */
+    static Set<String> workspaceNames(Filter filter, String property) {
+        if (filter instanceof CatalogFilterOptimizer.PropertyIn) {
+            CatalogFilterOptimizer.PropertyIn in = (CatalogFilterOptimizer.PropertyIn) filter;
+            if (!in.isNegated() && property.equals(in.getPropertyName())) {
+                return in.getValues();
+            }
+        } else if (filter instanceof PropertyIsEqualTo) {
+            if (property.equals(CatalogFilterOptimizer.comparedProperty(filter,
+                    PropertyIsEqualTo.class))) {
+                Literal literal = (Literal) ((PropertyIsEqualTo) filter).getExpression2();
+                return Collections.singleton((String) literal.getValue());
+            }
+        } else if (filter instanceof And) {
+            for (Filter child : ((And) filter).getChildren()) {
+                Set<String> names = workspaceNames(child, property);
+                if (names != null) {
+                    return names;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the index keys referencing the given objects, along with the unresolved references
+     */
+    static List<Object> references(List<? extends CatalogInfo> infos) {
+        List<Object> keys = new ArrayList<Object>(infos.size() + 1);
+        for (CatalogInfo info : infos) {
+            keys.add(reference(info));
+        }
+        keys.add(UNRESOLVED_KEY);
+        return keys;
+    }
+
+    static <T> void collect(Index<? extends T> index, List<Object> keys, Class<?> type,
+            Set<Object> seen, List<? super T> matches) {
+        for (Object key : keys) {
+            for (T candidate : index.get(key)) {
+                if (type.isInstance(candidate) && seen.add(candidate)) {
+                    matches.add(candidate);
+                }
+            }
+        }
+    }
+
+    static <T> void collect(List<? extends T> candidates, Class<?> type, List<? super T> matches) {
+        for (T candidate : candidates) {
+            if (type.isInstance(candidate)) {
+                matches.add(candidate);
+            }
+        }
+    }
+
+    //
+    // Lifecycle
+    //
+    @Override
+    public void dispose() {
+        super.dispose();
+        synchronized (indexLock) {
+            for (Index<?> index : indexes()) {
+                index.clear();
+            }
+        }
+    }
+
+    @Override
+    public void resolve() {
+        super.resolve();
+        reindex();
+    }
+
+    /**
+     * Rebuilds all the indexes from scratch, to be used when the underlying storage has been
+     * filled without going through the add methods
+     */
+    public void reindex() {
+        synchronized (indexLock) {
+            for (Index<?> index : indexes()) {
+                index.clear();
+            }
+            for (WorkspaceInfo ws : new ArrayList<WorkspaceInfo>(workspaces.values())) {
+                index(ws);
+            }
+            for (NamespaceInfo ns : new ArrayList<NamespaceInfo>(namespaces.values())) {
+                index(ns);
+            }
+            for (StoreInfo store : lookup(StoreInfo.class, stores)) {
+                index(store);
+            }
+            for (ResourceInfo resource : lookup(ResourceInfo.class, resources)) {
+                index(resource);
+            }
+            for (StyleInfo style : styles) {
+                index(style);
+            }
+            for (LayerInfo layer : layers) {
+                index(layer);
+            }
+            for (LayerGroupInfo layerGroup : layerGroups) {
+                index(layerGroup);
+            }
+        }
+    }
+
+    @Override
+    protected void synced() {
+        reindex();
+    }
+
+    List<Index<?>> indexes() {
+        List<Index<?>> result = new ArrayList<Index<?>>();
+        Collections.addAll(result, storesById, storesByName, storesByWorkspace, resourcesById,
+                resourcesByName, resourcesByNamespace, resourcesByStore, layersById, layersByName,
+                layersByResource, layersByStyle, layerGroupsById, layerGroupsByName,
+                layerGroupsByWorkspace, stylesById, stylesByName, stylesByWorkspace,
+                namespacesById, namespacesByURI, workspacesById);
+        return result;
+    }
+
+    void index(StoreInfo store) {
+        storesById.put(store);
+        storesByName.put(store);
+        storesByWorkspace.put(store);
+    }
+
+    void deindex(StoreInfo store) {
+        storesById.remove(store);
+        storesByName.remove(store);
+        storesByWorkspace.remove(store);
+    }
+
+    void index(ResourceInfo resource) {
+        resourcesById.put(resource);
+        resourcesByName.put(resource);
+        resourcesByNamespace.put(resource);
+        resourcesByStore.put(resource);
+    }
+
+    void deindex(ResourceInfo resource) {
+        resourcesById.remove(resource);
+        resourcesByName.remove(resource);
+        resourcesByNamespace.remove(resource);
+        resourcesByStore.remove(resource);
+    }
+
+    void index(LayerInfo layer) {
+        layersById.put(layer);
+        layersByName.put(layer);
+        layersByResource.put(layer);
+        layersByStyle.put(layer);
+    }
+
+    void deindex(LayerInfo layer) {
+        layersById.remove(layer);
+        layersByName.remove(layer);
+        layersByResource.remove(layer);
+        layersByStyle.remove(layer);
+    }
+
+    void index(LayerGroupInfo layerGroup) {
+        layerGroupsById.put(layerGroup);
+        layerGroupsByName.put(layerGroup);
+        layerGroupsByWorkspace.put(layerGroup);
+    }
+
+    void deindex(LayerGroupInfo layerGroup) {
+        layerGroupsById.remove(layerGroup);
+        layerGroupsByName.remove(layerGroup);
+        layerGroupsByWorkspace.remove(layerGroup);
+    }
+
+    void index(StyleInfo style) {
+        stylesById.put(style);
+        stylesByName.put(style);
+        stylesByWorkspace.put(style);
+    }
+
+    void deindex(StyleInfo style) {
+        stylesById.remove(style);
+        stylesByName.remove(style);
+        stylesByWorkspace.remove(style);
+    }
+
+    void index(NamespaceInfo namespace) {
+        namespacesById.put(namespace);
+        namespacesByURI.put(namespace);
+    }
+
+    void index(WorkspaceInfo workspace) {
+        workspacesById.put(workspace);
+    }
+
+    /**
+     * Returns the key to be used for a reference to another catalog object, that is, its id, or
+     * {@link #UNRESOLVED_KEY} if the reference is not resolved yet
+     */
+    static Object reference(CatalogInfo info) {
+        if (info == null) {
+            return null;
+        }
+        String id = info.getId();
+        return id == null ? UNRESOLVED_KEY : id;
+    }
+
+    /**
+     * A multi valued index from keys to catalog objects. Each bucket is a concurrent map sorted by
+     * the order in which the objects were first indexed, so that lookups can proceed without
+     * locking and return the objects in the same order as {@link DefaultCatalogFacade}.
+     * Modifications must be performed while holding the facade index lock.
+     *
+     * @param <T>
+     */
+    static abstract class Index<T> {
+
+        final ConcurrentHashMap<Object, ConcurrentSkipListMap<Long, T>> buckets = new ConcurrentHashMap<Object, ConcurrentSkipListMap<Long, T>>();
+
+        /**
+         * The keys each object has been indexed with, allows to remove/update objects whose
+         * properties have changed since they were indexed
+         */
+        final IdentityHashMap<T, Registration> registered = new IdentityHashMap<T, Registration>();
+
+        /**
+         * Insertion counter, used to sort the bucket contents
+         */
+        long sequence;
+
+        /**
+         * Returns the keys the object should be indexed with
+         */
+        protected abstract Collection<?> keys(T value);
+
+        /**
+         * Returns the objects indexed with the specified key, never null
+         */
+        Collection<T> get(Object key) {
+            ConcurrentSkipListMap<Long, T> bucket = buckets.get(key == null ? NULL_KEY : key);
+            return bucket == null ? Collections.<T> emptyList() : bucket.values();
+        }
+
+        /**
+         * Returns the objects indexed with the specified reference key, along with the ones whose
+         * references could not be resolved at indexing time
+         */
+        Collection<T> getReferenced(Object key) {
+            Collection<T> unresolved = get(UNRESOLVED_KEY);
+            if (unresolved.isEmpty()) {
+                return get(key);
+            }
+            List<T> result = new ArrayList<T>(get(key));
+            result.addAll(unresolved);
+            return result;
+        }
+
+        /**
+         * Adds the object to the index, or updates its keys if already indexed. Only the buckets
+         * whose key changed are touched, an object being updated never disappears from the
+         * buckets it stays in.
+         */
+        void put(T value) {
+            Set<Object> keys = new LinkedHashSet<Object>();
+            for (Object key : keys(value)) {
+                keys.add(key == null ? NULL_KEY : key);
+            }
+            Registration registration = registered.get(value);
+            if (registration == null) {
+                registration = new Registration(sequence++, keys);
+                registered.put(value, registration);
+            } else {
+                for (Object key : registration.keys) {
+                    if (!keys.contains(key)) {
+                        removeFromBucket(key, registration.sequence);
+                    }
+                }
+                registration.keys = keys;
+            }
+            for (Object key : keys) {
+                ConcurrentSkipListMap<Long, T> bucket = buckets.get(key);
+                if (bucket == null) {
+                    bucket = new ConcurrentSkipListMap<Long, T>();
+                    buckets.put(key, bucket);
+                }
+                bucket.put(registration.sequence, value);
+            }
+        }
+
+        /**
+         * Removes the object from the index
+         */
+        void remove(T value) {
+            Registration registration = registered.remove(value);
+            if (registration == null) {
+                return;
+            }
+            for (Object key : registration.keys) {
+                removeFromBucket(key, registration.sequence);
+            }
+        }
+
+        void removeFromBucket(Object key, Long sequence) {
+            ConcurrentSkipListMap<Long, T> bucket = buckets.get(key);
+            if (bucket != null) {
+                bucket.remove(sequence);
+                if (bucket.isEmpty()) {
+                    buckets.remove(key);
+                }
+            }
+        }
+
+        void clear() {
+            buckets.clear();
+            registered.clear();
+        }
+    }
+
+    /**
+     * The keys an object has been indexed with, and the position it was given in the buckets
+     */
+    static class Registration {
+
+        final Long sequence;
+
+        Set<Object> keys;
+
+        Registration(Long sequence, Set<Object> keys) {
+            this.sequence = sequence;
+            this.keys = keys;
+        }
+    }
+}
@@ -0,0 +1,635 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geoserver.platform.resource.Resource;
+import org.geoserver.platform.resource.Resource.Type;
+import org.geoserver.platform.resource.Resources;
+import org.geoserver.util.Filter;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.io.binary.BinaryStreamReader;
+import com.thoughtworks.xstream.io.binary.BinaryStreamWriter;
+
+/**
+ * A compact binary snapshot of the catalog, used to avoid parsing all the catalog configuration
+ * files on startup.
+ * <p>
+ * The snapshot contains the same catalog objects found in the data directory, encoded with the
+ * same XStream mappings used for the XML files, but using the XStream binary format and all in a
+ * single file, so that it can be read back with one sequential read. Along with the objects the
+ * snapshot stores the modification stamps of all the catalog configuration files and of the
+ * directories containing them, at the time the snapshot was taken: if any of them changed (e.g.,
+ * a hand edited XML file, a new workspace directory) the snapshot is ignored and the catalog is
+ * read from the XML files, which always win.
+ * </p>
+ * <p>
+ * The snapshot is disabled by default, it can be enabled by setting the {@link #SNAPSHOT_KEY}
+ * system property, environment or servlet context variable to <code>true</code>. When enabled, a
+ * new snapshot is written after reading the configuration files, and it is re-written shortly
+ * after each catalog change by an {@link Updater}.
+ * </p>
+ * <p>
+ * The snapshot does not cover the GeoServer global, logging, settings and service configuration,
+ * which are made of a small number of files not depending on the size of the catalog.
+ * </p>
+ */
+class CatalogSnapshot {
+
+    static final Logger LOGGER = GeoServerLoader.LOGGER;
+
+    /**
+     * The property used to enable the catalog snapshot
+     */
+    static final String SNAPSHOT_KEY = "GEOSERVER_CATALOG_SNAPSHOT";
+
+    /**
+     * The name of the snapshot file, in the root of the data directory
+     */
+    static final String SNAPSHOT_FILE = "catalog.snapshot";
+
+    static final int MAGIC = 0x47534353; // "GSCS"
+
+    static final int VERSION = 1;
+
+    /**
+     * The names of the catalog configuration files, besides the styles and layer groups ones
+     */
+    static final Set<String> CONFIG_FILES = new HashSet<String>();
+    static {
+        CONFIG_FILES.add("default.xml");
+        CONFIG_FILES.add("workspace.xml");
+        CONFIG_FILES.add("namespace.xml");
+        CONFIG_FILES.add("datastore.xml");
+        CONFIG_FILES.add("coveragestore.xml");
+        CONFIG_FILES.add("wmsstore.xml");
+        CONFIG_FILES.add("featuretype.xml");
+        CONFIG_FILES.add("coverage.xml");
+        CONFIG_FILES.add("wmslayer.xml");
+        CONFIG_FILES.add("layer.xml");
+    }
+
+    /**
+     * Returns true if the catalog snapshot has been enabled
+     */
+    static boolean isEnabled() {
+        return Boolean.valueOf(GeoServerExtensions.getProperty(SNAPSHOT_KEY));
+    }
+
+    /**
+     * The modification stamps of the catalog configuration files and directories, by path
+     */
+    static class Stamps {
+
+        Map<String, Long> stamps = new LinkedHashMap<String, Long>();
+
+        void add(Resource resource) {
+            stamps.put(resource.path(), resource.lastmodified());
+        }
+
+        /**
+         * Records the directory and the files in it accepted by the filter, if the directory
+         * exists. Returns the sub directories.
+         */
+        List<Resource> add(Resource dir, Filter<Resource> filter) {
+            add(dir);
+            List<Resource> directories = new ArrayList<Resource>();
+            if (dir.getType() != Type.DIRECTORY) {
+                return directories;
+            }
+            for (Resource child : dir.list()) {
+                if (child.getType() == Type.DIRECTORY) {
+                    directories.add(child);
+                } else if (filter.accept(child)) {
+                    add(child);
+                }
+            }
+            return directories;
+        }
+
+        /**
+         * Returns the path of the first resource whose stamp changed, or null if none did
+         */
+        String changed(GeoServerResourceLoader resourceLoader) {
+            for (Map.Entry<String, Long> entry : stamps.entrySet()) {
+                if (resourceLoader.get(entry.getKey()).lastmodified() != entry.getValue()) {
+                    return entry.getKey();
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Returns the path of the first resource whose stamp differs between these stamps and the
+         * current ones, without being explained by the specified written paths, or null if there
+         * is none. A written path explains the changes to itself, to the resources below it, and
+         * to the directory containing it.
+         */
+        String changed(Stamps current, Set<String> written) {
+            Set<String> paths = new LinkedHashSet<String>(stamps.keySet());
+            paths.addAll(current.stamps.keySet());
+            for (String path : paths) {
+                Long stamp = stamps.get(path);
+                if (stamp != null && stamp.equals(current.stamps.get(path))) {
+                    continue;
+                }
+                if (!explained(path, written)) {
+                    return path;
+                }
+            }
+            return null;
+        }
+
+        static boolean explained(String path, Set<String> written) {
+            for (String w : written) {
+                if (path.equals(w) || path.startsWith(w + "/")
+                        || (w.startsWith(path + "/") && w.lastIndexOf('/') == path.length())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(stamps.size());
+            for (Map.Entry<String, Long> entry : stamps.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+        }
+
+        static Stamps read(DataInputStream in) throws IOException {
+            Stamps result = new Stamps();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                result.stamps.put(in.readUTF(), in.readLong());
+            }
+            return result;
+        }
+    }
+
+    static final Filter<Resource> XML_FILTER = new Resources.ExtensionFilter(
+            "XML");
+
+    static final Filter<Resource> CONFIG_FILTER = new Filter<Resource>() {
+        @Override
+        public boolean accept(Resource resource) {
+            return CONFIG_FILES.contains(resource.name());
+        }
+    };
+
+    GeoServerResourceLoader resourceLoader;
+
+    CatalogSnapshot(GeoServerResourceLoader resourceLoader) {
+        this.resourceLoader = resourceLoader;
+    }
+
+    /**
+     * Collects the current stamps of the catalog configuration files, following the same layout
+     * the {@link GeoServerLoader} reads.
+     */
+    Stamps stamps() {
+        Stamps stamps = new Stamps();
+        stamps.add(resourceLoader.get("styles"), XML_FILTER);
+        for (Resource wsd : stamps.add(resourceLoader.get("workspaces"), CONFIG_FILTER)) {
+            for (Resource sd : stamps.add(wsd, CONFIG_FILTER)) {
+                if ("styles".equals(sd.name()) || "layergroups".equals(sd.name())) {
+                    stamps.add(sd, XML_FILTER);
+                } else {
+                    for (Resource rd : stamps.add(sd, CONFIG_FILTER)) {
+                        stamps.add(rd, CONFIG_FILTER);
+                    }
+                }
+            }
+        }
+        stamps.add(resourceLoader.get("layergroups"), XML_FILTER);
+        return stamps;
+    }
+
+    /**
+     * Reads the catalog from the snapshot, returns null if the snapshot is missing, out of date or
+     * cannot be read.
+     */
+    Catalog read(XStreamPersister xp) {
+        Resource file = resourceLoader.get(SNAPSHOT_FILE);
+        if (!Resources.exists(file)) {
+            LOGGER.info("No catalog snapshot found, reading the catalog configuration files");
+            return null;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(file.in(), 65536));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION
+                        || !geoserverVersion().equals(in.readUTF())) {
+                    LOGGER.info("Catalog snapshot was written by a different GeoServer version, "
+                            + "reading the catalog configuration files");
+                    return null;
+                }
+                String changed = Stamps.read(in).changed(resourceLoader);
+                if (changed != null) {
+                    LOGGER.info("Catalog snapshot is out of date, '" + changed
+                            + "' has been modified, reading the catalog configuration files");
+                    return null;
+                }
+
+                CatalogImpl catalog = new CatalogImpl();
+                catalog.setResourceLoader(resourceLoader);
+                xp.setCatalog(catalog);
+                xp.setUnwrapNulls(false);
+
+                String defaultWorkspace = in.readUTF();
+                String defaultNamespace = in.readUTF();
+                Set<String> failedStores = new HashSet<String>();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    failedStores.add(in.readUTF());
+                }
+
+                XStream xs = xp.getXStream();
+                byte[] buffer = new byte[8192];
+                count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    int length = in.readInt();
+                    if (buffer.length < length) {
+                        buffer = new byte[length];
+                    }
+                    in.readFully(buffer, 0, length);
+                    Object info = xs.unmarshal(new BinaryStreamReader(new ByteArrayInputStream(
+                            buffer, 0, length)));
+                    add(catalog, info, failedStores);
+                }
+
+                if (!defaultWorkspace.isEmpty()) {
+                    catalog.setDefaultWorkspace(catalog.getWorkspace(defaultWorkspace));
+                }
+                if (!defaultNamespace.isEmpty()) {
+                    catalog.setDefaultNamespace(catalog.getNamespace(defaultNamespace));
+                }
+
+                xp.setUnwrapNulls(true);
+                catalog.resolve();
+
+                LOGGER.info("Loaded " + count + " catalog objects from the catalog snapshot in "
+                        + (System.currentTimeMillis() - start) + " ms");
+                return catalog;
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to read the catalog snapshot, "
+                    + "reading the catalog configuration files", e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the stamps recorded in the snapshot, returns null if the snapshot is missing or cannot
+     * be read.
+     */
+    Stamps readStamps() {
+        Resource file = resourceLoader.get(SNAPSHOT_FILE);
+        if (!Resources.exists(file)) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(file.in()));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION
+                        || !geoserverVersion().equals(in.readUTF())) {
+                    return null;
+                }
+                return Stamps.read(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read the catalog snapshot stamps", e);
+            return null;
+        }
+    }
+
+    void add(Catalog catalog, Object info, Set<String> failedStores) {
+        if (info instanceof WorkspaceInfo) {
+            catalog.add((WorkspaceInfo) info);
+        } else if (info instanceof NamespaceInfo) {
+            catalog.add((NamespaceInfo) info);
+        } else if (info instanceof StyleInfo) {
+            catalog.add((StyleInfo) info);
+        } else if (info instanceof StoreInfo) {
+            StoreInfo store = (StoreInfo) info;
+            if (failedStores.contains(store.getId())) {
+                // was disabled on load, check again
+                store.setEnabled(true);
+            }
+            catalog.add(store);
+            if (store instanceof DataStoreInfo) {
+                GeoServerLoader.checkDataStore((DataStoreInfo) store);
+            }
+        } else if (info instanceof ResourceInfo) {
+            catalog.add((ResourceInfo) info);
+        } else if (info instanceof LayerInfo) {
+            catalog.add((LayerInfo) info);
+        } else if (info instanceof LayerGroupInfo) {
+            catalog.add((LayerGroupInfo) info);
+        } else {
+            throw new IllegalArgumentException("Unexpected object in catalog snapshot: " + info);
+        }
+    }
+
+    /**
+     * Writes the catalog snapshot, recording the specified stamps. Failures are logged and result
+     * in the snapshot being removed.
+     * 
+     * @return true if the snapshot was written
+     */
+    boolean write(Catalog catalog, XStreamPersister xp, Stamps stamps) {
+        long start = System.currentTimeMillis();
+        Resource file = resourceLoader.get(SNAPSHOT_FILE);
+        try {
+            List<CatalogInfo> infos = new ArrayList<CatalogInfo>();
+            infos.addAll(catalog.getWorkspaces());
+            infos.addAll(catalog.getNamespaces());
+            infos.addAll(catalog.getStyles());
+            List<StoreInfo> stores = catalog.getStores(StoreInfo.class);
+            infos.addAll(stores);
+            infos.addAll(catalog.getResources(ResourceInfo.class));
+            infos.addAll(catalog.getLayers());
+            infos.addAll(catalog.getLayerGroups());
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file.out(),
+                    65536));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(geoserverVersion());
+                stamps.write(out);
+
+                WorkspaceInfo defaultWorkspace = catalog.getDefaultWorkspace();
+                out.writeUTF(defaultWorkspace != null ? defaultWorkspace.getId() : "");
+                NamespaceInfo defaultNamespace = catalog.getDefaultNamespace();
+                out.writeUTF(defaultNamespace != null ? defaultNamespace.getId() : "");
+
+                // stores disabled because the connection failed on load
+                List<String> failedStores = new ArrayList<String>();
+                for (StoreInfo store : stores) {
+                    if (!store.isEnabled() && store.getError() != null) {
+                        failedStores.add(store.getId());
+                    }
+                }
+                out.writeInt(failedStores.size());
+                for (String id : failedStores) {
+                    out.writeUTF(id);
+                }
+
+                XStream xs = xp.getXStream();
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+                out.writeInt(infos.size());
+                for (CatalogInfo info : infos) {
+                    bytes.reset();
+                    BinaryStreamWriter writer = new BinaryStreamWriter(bytes);
+                    xs.marshal(XStreamPersister.unwrapProxies(info), writer);
+                    writer.flush();
+                    out.writeInt(bytes.size());
+                    bytes.writeTo(out);
+                }
+            } finally {
+                out.close();
+            }
+
+            LOGGER.info("Wrote catalog snapshot with " + infos.size() + " catalog objects in "
+                    + (System.currentTimeMillis() - start) + " ms");
+            return true;
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to write the catalog snapshot", e);
+            file.delete();
+            return false;
+        }
+    }
+
+    static String geoserverVersion() {
+        String version = GeoServerLoader.class.getPackage().getImplementationVersion();
+        return version != null ? version : "";
+    }
+
+    /**
+     * Catalog listener re-writing the snapshot after the catalog is modified. Changes are
+     * coalesced, the snapshot is written at most once every {@link #DELAY} seconds.
+     * <p>
+     * The updater starts from the stamps recorded in the snapshot when the catalog was loaded, and
+     * only accepts the stamp changes of the configuration files written for the catalog changes it
+     * has been notified of. Any other change (e.g., a hand edited XML file that has not been
+     * reloaded) means the files and the catalog in memory no longer match, in that case the
+     * snapshot is removed instead of being re-written, so that the next startup reads the files.
+     * </p>
+     */
+    static class Updater implements CatalogListener {
+
+        /**
+         * Delay in seconds between a catalog change and the snapshot update
+         */
+        static final long DELAY = 5;
+
+        /**
+         * Removes and disposes the updaters attached to the catalog
+         */
+        static void remove(Catalog catalog) {
+            for (CatalogListener listener : new ArrayList<CatalogListener>(
+                    catalog.getListeners())) {
+                if (listener instanceof Updater) {
+                    ((Updater) listener).dispose();
+                }
+            }
+            catalog.removeListeners(Updater.class);
+        }
+
+        final Catalog catalog;
+
+        final CatalogSnapshot snapshot;
+
+        final XStreamPersisterFactory xpf;
+
+        final GeoServerDataDirectory dataDirectory;
+
+        final ScheduledExecutorService executor;
+
+        ScheduledFuture<?> pending;
+
+        /**
+         * The stamps recorded in the snapshot, null once the snapshot has been removed
+         */
+        volatile Stamps stamps;
+
+        /**
+         * The paths of the configuration files and directories written for the catalog changes
+         * since the last update
+         */
+        Set<String> written = new HashSet<String>();
+
+        Updater(Catalog catalog, GeoServerResourceLoader resourceLoader,
+                XStreamPersisterFactory xpf) {
+            this.catalog = catalog;
+            this.snapshot = new CatalogSnapshot(resourceLoader);
+            this.xpf = xpf;
+            this.dataDirectory = new GeoServerDataDirectory(resourceLoader);
+            this.stamps = snapshot.readStamps();
+
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(
+                    "CatalogSnapshot-");
+            threadFactory.setDaemon(true);
+            this.executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        }
+
+        synchronized void schedule() {
+            // a pending update that has not started yet will pick up this change as well
+            if (pending != null && pending.getDelay(TimeUnit.MILLISECONDS) > 0) {
+                return;
+            }
+            pending = executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    update();
+                }
+            }, DELAY, TimeUnit.SECONDS);
+        }
+
+        /**
+         * Records the location of the configuration files the persister writes for the object
+         */
+        void record(Object source) {
+            Resource resource;
+            if (source instanceof WorkspaceInfo) {
+                resource = dataDirectory.get((WorkspaceInfo) source);
+            } else if (source instanceof NamespaceInfo) {
+                resource = dataDirectory.get((NamespaceInfo) source);
+            } else if (source instanceof StoreInfo) {
+                resource = dataDirectory.get((StoreInfo) source);
+            } else if (source instanceof ResourceInfo) {
+                resource = dataDirectory.get((ResourceInfo) source);
+            } else if (source instanceof LayerInfo) {
+                ResourceInfo layerResource = ((LayerInfo) source).getResource();
+                if (layerResource == null) {
+                    return;
+                }
+                resource = dataDirectory.get(layerResource);
+            } else if (source instanceof StyleInfo) {
+                resource = dataDirectory.config((StyleInfo) source);
+            } else if (source instanceof LayerGroupInfo) {
+                resource = dataDirectory.config((LayerGroupInfo) source);
+            } else if (source instanceof Catalog) {
+                resource = dataDirectory.getWorkspaces("default.xml");
+            } else {
+                return;
+            }
+            synchronized (this) {
+                written.add(resource.path());
+            }
+        }
+
+        void update() {
+            Set<String> paths;
+            synchronized (this) {
+                paths = written;
+                written = new HashSet<String>();
+            }
+            if (stamps == null) {
+                return;
+            }
+
+            // take the stamps before encoding the catalog, so that concurrent changes invalidate
+            // the snapshot instead of being lost
+            Stamps current = snapshot.stamps();
+            String changed = stamps.changed(current, paths);
+            if (changed != null) {
+                LOGGER.info("'" + changed + "' has been modified outside of the catalog, "
+                        + "removing the catalog snapshot");
+                snapshot.resourceLoader.get(SNAPSHOT_FILE).delete();
+                stamps = null;
+                return;
+            }
+
+            XStreamPersister xp = xpf.createXMLPersister();
+            xp.setCatalog(catalog);
+            stamps = snapshot.write(catalog, xp, current) ? current : null;
+        }
+
+        void dispose() {
+            executor.shutdownNow();
+        }
+
+        @Override
+        public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+            record(event.getSource());
+            schedule();
+        }
+
+        @Override
+        public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+            record(event.getSource());
+            schedule();
+        }
+
+        @Override
+        public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+            // record the location before a rename, wait for the post modify event to schedule
+            record(event.getSource());
+        }
+
+        @Override
+        public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+            record(event.getSource());
+            schedule();
+        }
+
+        @Override
+        public void reloaded() {
+            // the loader takes care of the snapshot on reload
+        }
+    }
+}
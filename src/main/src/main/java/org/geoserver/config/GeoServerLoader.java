@@ -213,6 +213,7 @@ public abstract class GeoServerLoader {
         // but these two fellas are attached to the new catalog as well
         catalog.removeListeners(ResourcePool.CacheClearingListener.class);
         catalog.removeListeners(GeoServerPersister.class);
+        CatalogSnapshot.Updater.remove(catalog);
         List<CatalogListener> listeners = new ArrayList<CatalogListener>(catalog.getListeners());
 
         //look for catalog.xml, if it exists assume we are dealing with 
@@ -234,12 +235,51 @@ public abstract class GeoServerLoader {
         for (CatalogListener listener : listeners) {
             catalog.addListener(listener);
         }
+
+        // keep the snapshot up to date with configuration changes
+        if (CatalogSnapshot.isEnabled() && !Resources.exists(f)) {
+            catalog.addListener(new CatalogSnapshot.Updater(catalog, resourceLoader, xpf));
+        }
     }
     
     /**
      * Reads the catalog from disk.
+     * <p>
+     * If the {@link CatalogSnapshot#SNAPSHOT_KEY} property is set the catalog is read from the
+     * binary snapshot when it is still up to date with the configuration files, otherwise the
+     * configuration files are read and a new snapshot is written.
+     * </p>
      */
     Catalog readCatalog( XStreamPersister xp ) throws Exception {
+        if ( !CatalogSnapshot.isEnabled() ) {
+            return readCatalogFiles( xp );
+        }
+
+        CatalogSnapshot snapshot = new CatalogSnapshot( resourceLoader );
+        Catalog catalog = snapshot.read( xp );
+        if ( catalog == null ) {
+            // take the stamps before reading, a file modified while loading will invalidate
+            // the snapshot
+            CatalogSnapshot.Stamps stamps = snapshot.stamps();
+            catalog = readCatalogFiles( xp );
+            snapshot.write( catalog, xp, stamps );
+        }
+        return catalog;
+    }
+
+    /**
+     * Reads the catalog from the configuration files.
+     * <p>
+     * If the {@link ParallelCatalogLoader#LOADING_THREADS_KEY} property is set the configuration
+     * files are parsed in parallel, see {@link ParallelCatalogLoader}.
+     * </p>
+     */
+    Catalog readCatalogFiles( XStreamPersister xp ) throws Exception {
+        int threads = ParallelCatalogLoader.getLoadingThreads();
+        if ( threads > 1 ) {
+            return new ParallelCatalogLoader( this, threads ).read( xp );
+        }
+
         CatalogImpl catalog = new CatalogImpl();
         catalog.setResourceLoader(resourceLoader);
         xp.setCatalog( catalog );
@@ -346,19 +386,7 @@ public abstract class GeoServerLoader {
                             
                             LOGGER.info( "Loaded data store '" + ds.getName() +"'");
                             
-                            if (ds.isEnabled()) {
-                                //connect to the datastore to determine if we should disable it
-                                try {
-                                    ds.getDataStore(null);
-                                }
-                                catch( Throwable t ) {
-                                    LOGGER.warning( "Error connecting to '" + ds.getName() + "'. Disabling." );
-                                    LOGGER.log( Level.INFO, "", t );
-                                    
-                                    ds.setError(t);
-                                    ds.setEnabled(false);
-                                }
-                            }
+                            checkDataStore(ds);
                         }
                         catch( Exception e ) {
                             LOGGER.log( Level.WARNING, "Failed to load data store '" + sd.name() + "'", e);
@@ -525,6 +553,24 @@ public abstract class GeoServerLoader {
         return catalog;
     }
     
+    /**
+     * Connects to an enabled data store to determine if it should be disabled.
+     */
+    static void checkDataStore(DataStoreInfo ds) {
+        if (ds.isEnabled()) {
+            try {
+                ds.getDataStore(null);
+            }
+            catch( Throwable t ) {
+                LOGGER.warning( "Error connecting to '" + ds.getName() + "'. Disabling." );
+                LOGGER.log( Level.INFO, "", t );
+                
+                ds.setError(t);
+                ds.setEnabled(false);
+            }
+        }
+    }
+
     /**
      * Some config directories in GeoServer are used to store workspace specific configurations, 
      * identify them so that we don't log complaints about their existence
@@ -0,0 +1,663 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CoverageInfo;
+import org.geoserver.catalog.CoverageStoreInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WMSLayerInfo;
+import org.geoserver.catalog.WMSStoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.resource.Resource;
+import org.geoserver.platform.resource.Resources;
+
+/**
+ * Reads a 2.x style data directory using a pool of threads.
+ * <p>
+ * The catalog is loaded in tiers following the dependencies between the catalog objects: global
+ * styles, workspaces and namespaces, workspace styles, stores, resources, layers and finally layer
+ * groups. Within each tier the directory scanning and the XML parsing of the configuration files
+ * happens in parallel, each thread using its own {@link XStreamPersister}, while the parsed objects
+ * are added to the catalog sequentially, in the same order the sequential loader would use. This
+ * way the catalog is never modified concurrently, and references to objects of the previous tiers
+ * can always be resolved.
+ * </p>
+ * <p>
+ * The connection check on enabled data stores is still performed sequentially, as the
+ * {@link org.geoserver.catalog.ResourcePool} serializes data store creation anyways.
+ * </p>
+ * <p>
+ * Parallel loading is disabled by default, it can be enabled by setting the
+ * {@link #LOADING_THREADS_KEY} system property, environment or servlet context variable to the
+ * number of threads to be used, or to <code>true</code> to use as many threads as available
+ * processors. The time spent in each loading phase is reported at INFO level.
+ * </p>
+ */
+class ParallelCatalogLoader {
+
+    static final Logger LOGGER = GeoServerLoader.LOGGER;
+
+    /**
+     * The property used to enable parallel catalog loading, and to control how many threads are
+     * used
+     */
+    static final String LOADING_THREADS_KEY = "GEOSERVER_CATALOG_LOADING_THREADS";
+
+    /**
+     * Returns the number of threads configured for parallel loading, or 1 if parallel loading has
+     * not been enabled
+     */
+    static int getLoadingThreads() {
+        String value = GeoServerExtensions.getProperty(LOADING_THREADS_KEY);
+        if (value == null || value.trim().isEmpty()) {
+            return 1;
+        }
+        value = value.trim();
+        if ("true".equalsIgnoreCase(value)) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        try {
+            return Math.max(1, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            LOGGER.warning("Invalid value '" + value + "' for " + LOADING_THREADS_KEY
+                    + ", should be a number of threads or true, loading the catalog sequentially");
+            return 1;
+        }
+    }
+
+    /**
+     * The outcome of reading a single configuration file
+     */
+    static class Loaded<T> {
+        /** The directory containing the file */
+        Resource dir;
+
+        /** The file read, or null if no configuration file was found in the directory */
+        Resource file;
+
+        T info;
+
+        Exception error;
+
+        Loaded(Resource dir, Resource file) {
+            this.dir = dir;
+            this.file = file;
+        }
+    }
+
+    /**
+     * A piece of work performed by the pool on each element of a list
+     */
+    static interface Task<S, T> {
+        T run(S input) throws Exception;
+    }
+
+    final GeoServerLoader loader;
+
+    final int threads;
+
+    ForkJoinPool pool;
+
+    ThreadLocal<XStreamPersister> persisters;
+
+    ParallelCatalogLoader(GeoServerLoader loader, int threads) {
+        this.loader = loader;
+        this.threads = threads;
+    }
+
+    /**
+     * Reads the catalog from disk.
+     */
+    Catalog read(XStreamPersister xp) throws Exception {
+        final CatalogImpl catalog = new CatalogImpl();
+        catalog.setResourceLoader(loader.resourceLoader);
+        xp.setCatalog(catalog);
+        xp.setUnwrapNulls(false);
+
+        persisters = new ThreadLocal<XStreamPersister>() {
+            @Override
+            protected XStreamPersister initialValue() {
+                XStreamPersister persister = loader.xpf.createXMLPersister();
+                persister.setCatalog(catalog);
+                persister.setUnwrapNulls(false);
+                return persister;
+            }
+        };
+        pool = new ForkJoinPool(threads);
+        long start = System.currentTimeMillis();
+        try {
+            read(catalog, xp);
+        } finally {
+            pool.shutdown();
+            pool = null;
+            persisters = null;
+        }
+
+        xp.setUnwrapNulls(true);
+        long resolveStart = System.currentTimeMillis();
+        catalog.resolve();
+        long end = System.currentTimeMillis();
+        LOGGER.info("Resolved catalog references in " + (end - resolveStart) + " ms");
+        LOGGER.info("Loaded catalog using " + threads + " threads in " + (end - start) + " ms");
+        return catalog;
+    }
+
+    void read(Catalog catalog, XStreamPersister xp) throws Exception {
+        // global styles
+        long start = System.currentTimeMillis();
+        int count = addStyles(loadStyles(loader.resourceLoader.get("styles")), catalog);
+        start = phase("global styles", count, start);
+
+        // workspaces, stores, and resources
+        Resource workspaces = loader.resourceLoader.get("workspaces");
+        List<Resource> workspaceDirs = Collections.emptyList();
+        if (Resources.exists(workspaces)) {
+            workspaceDirs = Resources.list(workspaces, Resources.DirectoryFilter.INSTANCE);
+            List<Resource> added = addWorkspaces(workspaces, workspaceDirs, catalog, xp);
+            start = phase("workspaces", added.size(), start);
+
+            // workspace styles
+            List<Resource> stylesDirs = new ArrayList<Resource>();
+            for (Resource wsd : added) {
+                stylesDirs.add(wsd.get("styles"));
+            }
+            List<List<Loaded<StyleInfo>>> styles = map(stylesDirs,
+                    new Task<Resource, List<Loaded<StyleInfo>>>() {
+                        @Override
+                        public List<Loaded<StyleInfo>> run(Resource styles) throws Exception {
+                            return loadStyles(styles);
+                        }
+                    });
+            count = 0;
+            for (List<Loaded<StyleInfo>> loaded : styles) {
+                count += addStyles(loaded, catalog);
+            }
+            start = phase("workspace styles", count, start);
+
+            // stores, the second pass goes over all directories as the sequential loader does
+            List<Loaded<StoreInfo>> stores = addStores(workspaceDirs, catalog);
+            start = phase("stores", stores.size(), start);
+
+            List<Loaded<ResourceInfo>> resources = addResources(stores, catalog);
+            start = phase("resources", resources.size(), start);
+
+            count = addLayers(resources, catalog);
+            start = phase("layers", count, start);
+        } else {
+            LOGGER.warning("No 'workspaces' directory found, unable to load any stores.");
+        }
+
+        // layer groups, workspace specific ones first, then the global ones
+        List<Resource> layerGroupDirs = new ArrayList<Resource>();
+        for (Resource wsd : workspaceDirs) {
+            layerGroupDirs.add(wsd.get("layergroups"));
+        }
+        layerGroupDirs.add(loader.resourceLoader.get("layergroups"));
+        List<List<Loaded<LayerGroupInfo>>> groups = map(layerGroupDirs,
+                new Task<Resource, List<Loaded<LayerGroupInfo>>>() {
+                    @Override
+                    public List<Loaded<LayerGroupInfo>> run(Resource dir) throws Exception {
+                        return depersist(
+                                Resources.list(dir, new Resources.ExtensionFilter("XML")),
+                                LayerGroupInfo.class);
+                    }
+                });
+        count = 0;
+        for (List<Loaded<LayerGroupInfo>> loaded : groups) {
+            for (Loaded<LayerGroupInfo> l : loaded) {
+                if (l.error != null) {
+                    LOGGER.log(Level.WARNING, "Failed to load layer group '" + l.file.name() + "'",
+                            l.error);
+                    continue;
+                }
+                LayerGroupInfo lg = l.info;
+                if (lg.getLayers() == null || lg.getLayers().size() == 0) {
+                    LOGGER.warning("Skipping empty layer group '" + lg.getName()
+                            + "', it is invalid");
+                    continue;
+                }
+                try {
+                    catalog.add(lg);
+                    count++;
+                    LOGGER.info("Loaded layer group '" + lg.getName() + "'");
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to load layer group '" + l.file.name() + "'",
+                            e);
+                }
+            }
+        }
+        phase("layer groups", count, start);
+    }
+
+    /**
+     * Logs the time taken by a loading phase, returns the start time for the next one
+     */
+    long phase(String name, int count, long start) {
+        long end = System.currentTimeMillis();
+        LOGGER.info("Loaded " + count + " " + name + " in " + (end - start) + " ms");
+        return end;
+    }
+
+    /**
+     * Parses the styles in the specified directory
+     */
+    List<Loaded<StyleInfo>> loadStyles(Resource styles) throws Exception {
+        List<Resource> files = new ArrayList<Resource>();
+        for (Resource sf : Resources.list(styles, new Resources.ExtensionFilter("XML"))) {
+            // handle the .xml.xml case
+            if (!Resources.exists(styles.get(sf.name() + ".xml"))) {
+                files.add(sf);
+            }
+        }
+        return depersist(files, StyleInfo.class);
+    }
+
+    int addStyles(List<Loaded<StyleInfo>> styles, Catalog catalog) {
+        int count = 0;
+        for (Loaded<StyleInfo> l : styles) {
+            try {
+                if (l.error != null) {
+                    throw l.error;
+                }
+                catalog.add(l.info);
+                count++;
+
+                LOGGER.info("Loaded style '" + l.info.getName() + "'");
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load style from file '" + l.file.name() + "'",
+                        e);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Loads the workspaces and namespaces, setting up the default workspace. Returns the directories
+     * of the workspaces successfully added.
+     */
+    List<Resource> addWorkspaces(Resource workspaces, List<Resource> workspaceDirs,
+            Catalog catalog, XStreamPersister xp) throws Exception {
+        // do a first quick scan over all workspaces, setting the default
+        Resource dws = workspaces.get("default.xml");
+        WorkspaceInfo defaultWorkspace = null;
+        if (Resources.exists(dws)) {
+            try {
+                defaultWorkspace = loader.depersist(xp, dws, WorkspaceInfo.class);
+                LOGGER.info("Loaded default workspace " + defaultWorkspace.getName());
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load default workspace", e);
+            }
+        } else {
+            LOGGER.warning("No default workspace was found.");
+        }
+
+        List<Loaded<WorkspaceInfo>> loadedWorkspaces = map(workspaceDirs,
+                new Task<Resource, Loaded<WorkspaceInfo>>() {
+                    @Override
+                    public Loaded<WorkspaceInfo> run(Resource wsd) throws Exception {
+                        return depersist(wsd, wsd.get("workspace.xml"), WorkspaceInfo.class);
+                    }
+                });
+        List<Loaded<NamespaceInfo>> loadedNamespaces = map(workspaceDirs,
+                new Task<Resource, Loaded<NamespaceInfo>>() {
+                    @Override
+                    public Loaded<NamespaceInfo> run(Resource wsd) throws Exception {
+                        return depersist(wsd, wsd.get("namespace.xml"), NamespaceInfo.class);
+                    }
+                });
+
+        List<Resource> added = new ArrayList<Resource>();
+        for (int i = 0; i < workspaceDirs.size(); i++) {
+            Resource wsd = workspaceDirs.get(i);
+            Loaded<WorkspaceInfo> lws = loadedWorkspaces.get(i);
+            if (lws.file == null) {
+                continue;
+            }
+
+            WorkspaceInfo ws = lws.info;
+            try {
+                if (lws.error != null) {
+                    throw lws.error;
+                }
+                catalog.add(ws);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load workspace '" + wsd.name() + "'", e);
+                continue;
+            }
+            added.add(wsd);
+
+            LOGGER.info("Loaded workspace '" + ws.getName() + "'");
+
+            // load the namespace
+            Loaded<NamespaceInfo> lns = loadedNamespaces.get(i);
+            NamespaceInfo ns = null;
+            if (lns.file != null) {
+                try {
+                    if (lns.error != null) {
+                        throw lns.error;
+                    }
+                    ns = lns.info;
+                    catalog.add(ns);
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to load namespace for '" + wsd.name() + "'",
+                            e);
+                }
+            }
+
+            // set the default workspace, this value might be null in the case of coming from a
+            // 2.0.0 data directory. See https://osgeo-org.atlassian.net/browse/GEOS-3440
+            if (defaultWorkspace != null) {
+                if (ws.getName().equals(defaultWorkspace.getName())) {
+                    catalog.setDefaultWorkspace(ws);
+                    if (ns != null) {
+                        catalog.setDefaultNamespace(ns);
+                    }
+                }
+            } else {
+                // create the default.xml file
+                defaultWorkspace = catalog.getDefaultWorkspace();
+                if (defaultWorkspace != null) {
+                    try {
+                        loader.persist(xp, defaultWorkspace, dws);
+                    } catch (Exception e) {
+                        LOGGER.log(Level.WARNING, "Failed to persist default workspace '"
+                                + wsd.name() + "'", e);
+                    }
+                }
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Loads the stores of all the workspaces, returns the stores successfully added
+     */
+    List<Loaded<StoreInfo>> addStores(List<Resource> workspaceDirs, Catalog catalog)
+            throws Exception {
+        List<List<Resource>> storeDirs = map(workspaceDirs,
+                new Task<Resource, List<Resource>>() {
+                    @Override
+                    public List<Resource> run(Resource wsd) throws Exception {
+                        return Resources.list(wsd, Resources.DirectoryFilter.INSTANCE);
+                    }
+                });
+        List<Loaded<StoreInfo>> loaded = map(flatten(storeDirs),
+                new Task<Resource, Loaded<StoreInfo>>() {
+                    @Override
+                    public Loaded<StoreInfo> run(Resource sd) throws Exception {
+                        Resource f = sd.get("datastore.xml");
+                        if (Resources.exists(f)) {
+                            return depersist(sd, f, DataStoreInfo.class);
+                        }
+                        f = sd.get("coveragestore.xml");
+                        if (Resources.exists(f)) {
+                            return depersist(sd, f, CoverageStoreInfo.class);
+                        }
+                        f = sd.get("wmsstore.xml");
+                        if (Resources.exists(f)) {
+                            return depersist(sd, f, WMSStoreInfo.class);
+                        }
+                        return new Loaded<StoreInfo>(sd, null);
+                    }
+                });
+
+        List<Loaded<StoreInfo>> added = new ArrayList<Loaded<StoreInfo>>();
+        for (Loaded<StoreInfo> l : loaded) {
+            Resource sd = l.dir;
+            if (l.file == null) {
+                if (!isConfigDirectory(sd)) {
+                    LOGGER.warning("Ignoring store directory '" + sd.name() + "'");
+                }
+                continue;
+            }
+
+            String type = storeType(l.file);
+            try {
+                if (l.error != null) {
+                    throw l.error;
+                }
+                catalog.add(l.info);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load " + type + " '" + sd.name() + "'", e);
+                continue;
+            }
+            LOGGER.info("Loaded " + type + " '" + l.info.getName() + "'");
+
+            if (l.info instanceof DataStoreInfo) {
+                GeoServerLoader.checkDataStore((DataStoreInfo) l.info);
+            }
+            added.add(l);
+        }
+        return added;
+    }
+
+    /**
+     * Loads the resources of the specified stores, returns the resources successfully added
+     */
+    List<Loaded<ResourceInfo>> addResources(final List<Loaded<StoreInfo>> stores, Catalog catalog)
+            throws Exception {
+        List<List<Loaded<ResourceInfo>>> perStore = map(stores,
+                new Task<Loaded<StoreInfo>, List<Loaded<ResourceInfo>>>() {
+                    @Override
+                    public List<Loaded<ResourceInfo>> run(Loaded<StoreInfo> store)
+                            throws Exception {
+                        String fileName = resourceFileName(store.info);
+                        Class<? extends ResourceInfo> clazz = resourceClass(store.info);
+                        List<Loaded<ResourceInfo>> result = new ArrayList<Loaded<ResourceInfo>>();
+                        for (Resource rd : Resources.list(store.dir,
+                                Resources.DirectoryFilter.INSTANCE)) {
+                            Resource f = rd.get(fileName);
+                            if (Resources.exists(f)) {
+                                result.add(depersist(rd, f, clazz));
+                            } else {
+                                result.add(new Loaded<ResourceInfo>(rd, null));
+                            }
+                        }
+                        return result;
+                    }
+                });
+
+        List<Loaded<ResourceInfo>> added = new ArrayList<Loaded<ResourceInfo>>();
+        for (int i = 0; i < stores.size(); i++) {
+            StoreInfo store = stores.get(i).info;
+            String type = resourceType(store);
+            for (Loaded<ResourceInfo> l : perStore.get(i)) {
+                if (l.file == null) {
+                    if (store instanceof DataStoreInfo) {
+                        LOGGER.warning("Ignoring feature type directory " + l.dir.path());
+                    } else {
+                        LOGGER.warning("Ignoring coverage directory " + l.dir.path());
+                    }
+                    continue;
+                }
+                try {
+                    if (l.error != null) {
+                        throw l.error;
+                    }
+                    catalog.add(l.info);
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to load " + type + " '" + l.dir.name() + "'",
+                            e);
+                    continue;
+                }
+                LOGGER.info("Loaded " + type + " '" + l.info.getName() + "'");
+                added.add(l);
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Loads the layers of the specified resources, returns the number of layers added
+     */
+    int addLayers(List<Loaded<ResourceInfo>> resources, Catalog catalog) throws Exception {
+        List<Loaded<LayerInfo>> layers = map(resources,
+                new Task<Loaded<ResourceInfo>, Loaded<LayerInfo>>() {
+                    @Override
+                    public Loaded<LayerInfo> run(Loaded<ResourceInfo> resource) throws Exception {
+                        return depersist(resource.dir, resource.dir.get("layer.xml"),
+                                LayerInfo.class);
+                    }
+                });
+
+        int count = 0;
+        for (int i = 0; i < resources.size(); i++) {
+            Loaded<LayerInfo> l = layers.get(i);
+            if (l.file == null) {
+                continue;
+            }
+            try {
+                if (l.error != null) {
+                    throw l.error;
+                }
+                catalog.add(l.info);
+                count++;
+
+                LOGGER.info("Loaded layer '" + l.info.getName() + "'");
+            } catch (Exception e) {
+                ResourceInfo resource = resources.get(i).info;
+                LOGGER.log(Level.WARNING, "Failed to load layer for " + resourceType(resource.getStore())
+                        + " '" + resource.getName() + "'", e);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Some config directories in GeoServer are used to store workspace specific configurations,
+     * identify them so that we don't log complaints about their existence
+     */
+    boolean isConfigDirectory(Resource dir) {
+        String name = dir.name();
+        return "styles".equals(name) || "layergroups".equals(name);
+    }
+
+    String storeType(Resource file) {
+        if ("datastore.xml".equals(file.name())) {
+            return "data store";
+        } else if ("coveragestore.xml".equals(file.name())) {
+            return "coverage store";
+        } else {
+            return "wms store";
+        }
+    }
+
+    String resourceType(StoreInfo store) {
+        if (store instanceof DataStoreInfo) {
+            return "feature type";
+        } else if (store instanceof CoverageStoreInfo) {
+            return "coverage";
+        } else {
+            return "wms layer";
+        }
+    }
+
+    String resourceFileName(StoreInfo store) {
+        if (store instanceof DataStoreInfo) {
+            return "featuretype.xml";
+        } else if (store instanceof CoverageStoreInfo) {
+            return "coverage.xml";
+        } else {
+            return "wmslayer.xml";
+        }
+    }
+
+    Class<? extends ResourceInfo> resourceClass(StoreInfo store) {
+        if (store instanceof DataStoreInfo) {
+            return FeatureTypeInfo.class;
+        } else if (store instanceof CoverageStoreInfo) {
+            return CoverageInfo.class;
+        } else {
+            return WMSLayerInfo.class;
+        }
+    }
+
+    /**
+     * Parses the specified files in parallel
+     */
+    <T> List<Loaded<T>> depersist(List<Resource> files, final Class<T> clazz) throws Exception {
+        return map(files, new Task<Resource, Loaded<T>>() {
+            @Override
+            public Loaded<T> run(Resource f) throws Exception {
+                return depersist(f.parent(), f, clazz);
+            }
+        });
+    }
+
+    /**
+     * Parses a single file with the persister bound to the current thread, the file not being
+     * there is reported as a {@link Loaded} with a null file
+     */
+    <T> Loaded<T> depersist(Resource dir, Resource f, Class<? extends T> clazz) {
+        if (!Resources.exists(f)) {
+            return new Loaded<T>(dir, null);
+        }
+        Loaded<T> result = new Loaded<T>(dir, f);
+        try {
+            result.info = loader.depersist(persisters.get(), f, clazz);
+        } catch (Exception e) {
+            result.error = e;
+        }
+        return result;
+    }
+
+    /**
+     * Runs the task on all the inputs using the thread pool, returns the results in the same order
+     * as the inputs
+     */
+    <S, T> List<T> map(List<S> inputs, final Task<S, T> task) throws Exception {
+        List<Callable<T>> callables = new ArrayList<Callable<T>>(inputs.size());
+        for (final S input : inputs) {
+            callables.add(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return task.run(input);
+                }
+            });
+        }
+        List<T> results = new ArrayList<T>(inputs.size());
+        for (Future<T> future : pool.invokeAll(callables)) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw e;
+            }
+        }
+        return results;
+    }
+
+    static <T> List<T> flatten(List<List<T>> lists) {
+        List<T> result = new ArrayList<T>();
+        for (List<T> list : lists) {
+            result.addAll(list);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,508 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.LoggingInfo;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.config.SettingsInfo;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.security.DataAccessManager;
+import org.geoserver.security.ResourceAccessManager;
+import org.geoserver.security.impl.DataAccessRuleDAO;
+import org.geotools.util.logging.Logging;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * Dispatcher callback caching the GetCapabilities documents of the WMS, WFS and WCS services.
+ * <p>
+ * Building a capabilities document requires walking the whole secured catalog, for large
+ * catalogs this is expensive, while the output only changes when the configuration does. This
+ * callback keeps the encoded documents in memory, keyed by:
+ * <ul>
+ * <li>the request parameters, which include service, version and any section/namespace filter</li>
+ * <li>the virtual service context (workspace and layer)</li>
+ * <li>the base URL, which is used to build all the links in the document</li>
+ * <li>the roles of the current user, or the user name as well if a custom
+ * {@link ResourceAccessManager} or {@link DataAccessManager} is in use, as those can make decisions
+ * based on more than the roles</li>
+ * <li>the {@link GeoServerInfo#getUpdateSequence() update sequence} and the data access rules
+ * modification stamp</li>
+ * </ul>
+ * The cache is cleared on any catalog or configuration change. Optionally, the documents that were
+ * in the cache at the time of the change are rendered again in the background, so that the first
+ * request after a change does not pay the full price.
+ * </p>
+ * <p>
+ * Only GET requests are cached. The operation itself is still executed on each request, only the
+ * encoding of its result is skipped when the document is found in the cache.
+ * </p>
+ * <p>
+ * The cache is disabled by default, it's controlled by the following system properties,
+ * environment or servlet context variables:
+ * <ul>
+ * <li>{@link #CACHE_KEY}: set to <code>true</code> to enable the cache</li>
+ * <li>{@link #MAX_SIZE_KEY}: the maximum size of the cache in MB, 50 by default</li>
+ * <li>{@link #TTL_KEY}: the time to live of the documents in seconds, 600 by default, 0 means no
+ * expiration. Capabilities documents can contain values computed from data, such as the values
+ * of the time and elevation dimensions, that will be refreshed only at expiration</li>
+ * <li>{@link #PRERENDER_KEY}: set to <code>true</code> to render the documents again in the
+ * background after changes</li>
+ * </ul>
+ * </p>
+ */
+public class CapabilitiesCacheCallback extends AbstractDispatcherCallback {
+
+    static final Logger LOGGER = Logging.getLogger(CapabilitiesCacheCallback.class);
+
+    public static final String CACHE_KEY = "GEOSERVER_CAPABILITIES_CACHE";
+
+    public static final String MAX_SIZE_KEY = "GEOSERVER_CAPABILITIES_CACHE_MAX_SIZE";
+
+    public static final String TTL_KEY = "GEOSERVER_CAPABILITIES_CACHE_TTL";
+
+    public static final String PRERENDER_KEY = "GEOSERVER_CAPABILITIES_CACHE_PRERENDER";
+
+    static final int DEFAULT_MAX_SIZE = 50;
+
+    static final int DEFAULT_TTL = 600;
+
+    /**
+     * Maximum number of distinct documents that are rendered again after a change
+     */
+    static final int MAX_PRERENDER = 100;
+
+    /**
+     * Delay in milliseconds between a change and the background rendering, to coalesce bursts of
+     * changes
+     */
+    static final long PRERENDER_DELAY = 1000;
+
+    static final Set<String> SERVICES = new HashSet<String>(Arrays.asList("WMS", "WFS", "WCS"));
+
+    /**
+     * All that is needed to render a cached document again
+     */
+    static class Recipe {
+        String prefix;
+
+        Object result;
+
+        Operation operation;
+
+        Response response;
+
+        Request request;
+
+        Authentication authentication;
+
+        WorkspaceInfo workspace;
+
+        LayerInfo layer;
+    }
+
+    GeoServer geoServer;
+
+    boolean enabled;
+
+    boolean prerender;
+
+    Cache<String, byte[]> documents;
+
+    Cache<String, Recipe> recipes;
+
+    ScheduledExecutorService executor;
+
+    ScheduledFuture<?> pending;
+
+    Boolean roleBasedAccess;
+
+    AtomicLong hits = new AtomicLong();
+
+    AtomicLong misses = new AtomicLong();
+
+    public CapabilitiesCacheCallback(GeoServer geoServer) {
+        this.geoServer = geoServer;
+        this.enabled = Boolean.valueOf(GeoServerExtensions.getProperty(CACHE_KEY));
+        if (!enabled) {
+            return;
+        }
+        this.prerender = Boolean.valueOf(GeoServerExtensions.getProperty(PRERENDER_KEY));
+
+        long maxSize = getProperty(MAX_SIZE_KEY, DEFAULT_MAX_SIZE) * 1024L * 1024L;
+        int ttl = getProperty(TTL_KEY, DEFAULT_TTL);
+        CacheBuilder<String, byte[]> builder = CacheBuilder.newBuilder().maximumWeight(maxSize)
+                .weigher(new Weigher<String, byte[]>() {
+                    @Override
+                    public int weigh(String key, byte[] value) {
+                        return key.length() + value.length;
+                    }
+                });
+        if (ttl > 0) {
+            builder.expireAfterWrite(ttl, TimeUnit.SECONDS);
+        }
+        this.documents = builder.build();
+        this.recipes = CacheBuilder.newBuilder().maximumSize(MAX_PRERENDER)
+                .<String, Recipe> build();
+
+        if (prerender) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(
+                    "CapabilitiesCache-");
+            threadFactory.setDaemon(true);
+            executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        }
+
+        geoServer.getCatalog().addListener(new CatalogListener() {
+            @Override
+            public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+                invalidate();
+            }
+
+            @Override
+            public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+                invalidate();
+            }
+
+            @Override
+            public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+                // we use the post event
+            }
+
+            @Override
+            public void handlePostModifyEvent(CatalogPostModifyEvent event)
+                    throws CatalogException {
+                invalidate();
+            }
+
+            @Override
+            public void reloaded() {
+                invalidate();
+            }
+        });
+        geoServer.addListener(new ConfigurationListenerAdapter() {
+            @Override
+            public void handlePostGlobalChange(GeoServerInfo global) {
+                invalidate();
+            }
+
+            @Override
+            public void handleSettingsPostModified(SettingsInfo settings) {
+                invalidate();
+            }
+
+            @Override
+            public void handleSettingsAdded(SettingsInfo settings) {
+                invalidate();
+            }
+
+            @Override
+            public void handleSettingsRemoved(SettingsInfo settings) {
+                invalidate();
+            }
+
+            @Override
+            public void handlePostLoggingChange(LoggingInfo logging) {
+                invalidate();
+            }
+
+            @Override
+            public void handlePostServiceChange(ServiceInfo service) {
+                invalidate();
+            }
+
+            @Override
+            public void handleServiceRemove(ServiceInfo service) {
+                invalidate();
+            }
+
+            @Override
+            public void reloaded() {
+                invalidate();
+            }
+        });
+    }
+
+    static int getProperty(String key, int defaultValue) {
+        String value = GeoServerExtensions.getProperty(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value '" + value + "' for " + key + ", using "
+                        + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Returns the number of requests served from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of cacheable requests that had to be encoded
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Clears the cache, scheduling the background rendering if enabled
+     */
+    public void invalidate() {
+        if (!enabled) {
+            return;
+        }
+        documents.invalidateAll();
+        if (prerender) {
+            schedulePrerender();
+        }
+    }
+
+    @Override
+    public Response responseDispatched(Request request, Operation operation, Object result,
+            Response response) {
+        if (!enabled || !isCacheable(request) || result == null) {
+            return response;
+        }
+
+        String prefix = keyPrefix(request);
+        String stamp = stamp();
+        if (prefix == null || stamp == null) {
+            return response;
+        }
+
+        String key = prefix + stamp;
+        byte[] document = documents.getIfPresent(key);
+        if (document != null) {
+            hits.incrementAndGet();
+            return new CachedResponse(response, document);
+        }
+
+        misses.incrementAndGet();
+        if (prerender) {
+            Recipe recipe = new Recipe();
+            recipe.prefix = prefix;
+            recipe.result = result;
+            recipe.operation = operation;
+            recipe.response = response;
+            recipe.request = new Request(request);
+            recipe.request.setHttpRequest(null);
+            recipe.request.setHttpResponse(null);
+            recipe.authentication = SecurityContextHolder.getContext().getAuthentication();
+            recipe.workspace = LocalWorkspace.get();
+            recipe.layer = LocalLayer.get();
+            recipes.put(prefix, recipe);
+        }
+        return new CachingResponse(response, key);
+    }
+
+    boolean isCacheable(Request request) {
+        return request.isGet() && !request.isSOAP() && request.getService() != null
+                && SERVICES.contains(request.getService().toUpperCase())
+                && "GetCapabilities".equalsIgnoreCase(request.getRequest());
+    }
+
+    /**
+     * Builds the part of the cache key that does not depend on the configuration state
+     */
+    String keyPrefix(Request request) {
+        return RequestKeys.build(request, isRoleBasedAccess());
+    }
+
+    /**
+     * Builds the part of the cache key that tracks the configuration state, or returns null if the
+     * data access rules are being reloaded
+     */
+    String stamp() {
+        long rules = 0;
+        DataAccessRuleDAO dao = DataAccessRuleDAO.get();
+        if (dao != null) {
+            if (dao.isModified()) {
+                return null;
+            }
+            rules = dao.getLastModified();
+        }
+        return geoServer.getGlobal().getUpdateSequence() + "|" + rules;
+    }
+
+    boolean isRoleBasedAccess() {
+        if (roleBasedAccess == null) {
+            roleBasedAccess = RequestKeys.isRoleBasedAccess();
+        }
+        return roleBasedAccess;
+    }
+
+    synchronized void schedulePrerender() {
+        // a pending rendering that has not started yet will pick up this change as well
+        if (pending != null && pending.getDelay(TimeUnit.MILLISECONDS) > 0) {
+            return;
+        }
+        pending = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                prerender();
+            }
+        }, PRERENDER_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    void prerender() {
+        List<Recipe> toRender = new ArrayList<Recipe>(recipes.asMap().values());
+        for (Recipe recipe : toRender) {
+            try {
+                SecurityContextHolder.getContext().setAuthentication(recipe.authentication);
+                if (recipe.workspace != null) {
+                    LocalWorkspace.set(recipe.workspace);
+                }
+                if (recipe.layer != null) {
+                    LocalLayer.set(recipe.layer);
+                }
+                Dispatcher.REQUEST.set(recipe.request);
+
+                String stamp = stamp();
+                if (stamp == null) {
+                    return;
+                }
+                String key = recipe.prefix + stamp;
+                if (documents.getIfPresent(key) == null) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    recipe.response.write(recipe.result, bytes, recipe.operation);
+                    documents.put(key, bytes.toByteArray());
+                }
+            } catch (Exception e) {
+                // the document will be built again by the next request
+                LOGGER.log(Level.FINE, "Failed to render capabilities document in background", e);
+                recipes.invalidate(recipe.prefix);
+            } finally {
+                Dispatcher.REQUEST.remove();
+                LocalLayer.remove();
+                LocalWorkspace.remove();
+                SecurityContextHolder.clearContext();
+            }
+        }
+    }
+
+    /**
+     * Base class for responses delegating everything but the encoding to the original response
+     */
+    abstract static class DelegatingResponse extends Response {
+
+        Response delegate;
+
+        DelegatingResponse(Response delegate) {
+            super(delegate.getBinding(), delegate.getOutputFormats());
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean canHandle(Operation operation) {
+            return delegate.canHandle(operation);
+        }
+
+        @Override
+        public String getMimeType(Object value, Operation operation) throws ServiceException {
+            return delegate.getMimeType(value, operation);
+        }
+
+        @Override
+        public String[][] getHeaders(Object value, Operation operation) throws ServiceException {
+            return delegate.getHeaders(value, operation);
+        }
+
+        @Override
+        public String getPreferredDisposition(Object value, Operation operation) {
+            return delegate.getPreferredDisposition(value, operation);
+        }
+
+        @Override
+        public String getAttachmentFileName(Object value, Operation operation) {
+            return delegate.getAttachmentFileName(value, operation);
+        }
+
+        @Override
+        public String getCharset(Operation operation) {
+            return delegate.getCharset(operation);
+        }
+    }
+
+    /**
+     * Writes out a cached document
+     */
+    static class CachedResponse extends DelegatingResponse {
+
+        byte[] document;
+
+        CachedResponse(Response delegate, byte[] document) {
+            super(delegate);
+            this.document = document;
+        }
+
+        @Override
+        public void write(Object value, OutputStream output, Operation operation)
+                throws IOException, ServiceException {
+            output.write(document);
+        }
+    }
+
+    /**
+     * Encodes the document in memory, caches it, and then writes it out
+     */
+    class CachingResponse extends DelegatingResponse {
+
+        String key;
+
+        CachingResponse(Response delegate, String key) {
+            super(delegate);
+            this.key = key;
+        }
+
+        @Override
+        public void write(Object value, OutputStream output, Operation operation)
+                throws IOException, ServiceException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            delegate.write(value, bytes, operation);
+            byte[] document = bytes.toByteArray();
+            documents.put(key, document);
+            output.write(document);
+        }
+    }
+}
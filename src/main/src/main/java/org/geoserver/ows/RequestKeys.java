@@ -0,0 +1,88 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.geoserver.ows.util.ResponseUtils;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.security.DataAccessManager;
+import org.geoserver.security.ResourceAccessManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Builds keys identifying the output of a GET request, for the caches sharing
+ * responses among requests. The key is made of:
+ * <ul>
+ * <li>the service and the request parameters, in a case insensitive, sorted form</li>
+ * <li>the virtual service context (workspace and layer)</li>
+ * <li>the base URL, which is used to build links in the output</li>
+ * <li>the roles of the current user, or the user name as well if the access decisions are not
+ * only role based</li>
+ * </ul>
+ */
+public class RequestKeys {
+
+    /**
+     * Returns the key of the request, or null if the request is not a HTTP one
+     *
+     * @param roleBasedAccess if false the user name is part of the key as well
+     */
+    public static String build(Request request, boolean roleBasedAccess) {
+        if (request.getHttpRequest() == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(request.getService().toUpperCase()).append('|');
+        sb.append(request.getContext()).append('|');
+        sb.append(ResponseUtils.baseURL(request.getHttpRequest())).append('|');
+
+        Map<String, Object> kvp = new TreeMap<String, Object>(String.CASE_INSENSITIVE_ORDER);
+        if (request.getRawKvp() != null) {
+            kvp.putAll(request.getRawKvp());
+        }
+        for (Map.Entry<String, Object> entry : kvp.entrySet()) {
+            Object value = entry.getValue();
+            sb.append(entry.getKey().toUpperCase()).append('=');
+            if (value instanceof Object[]) {
+                sb.append(Arrays.deepToString((Object[]) value));
+            } else {
+                sb.append(value);
+            }
+            sb.append('&');
+        }
+        sb.append('|');
+
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null) {
+            if (!roleBasedAccess) {
+                sb.append(auth.getName()).append(':');
+            }
+            Set<String> roles = new TreeSet<String>();
+            for (GrantedAuthority authority : auth.getAuthorities()) {
+                roles.add(authority.getAuthority());
+            }
+            sb.append(roles);
+        }
+        sb.append('|');
+        return sb.toString();
+    }
+
+    /**
+     * Returns true if the access decisions depend only on the user roles, that is, if no custom
+     * {@link ResourceAccessManager} or {@link DataAccessManager} is in use, as those can make
+     * decisions based on more than the roles
+     */
+    public static boolean isRoleBasedAccess() {
+        return GeoServerExtensions.bean(ResourceAccessManager.class) == null
+                && GeoServerExtensions.bean(DataAccessManager.class) == null;
+    }
+}
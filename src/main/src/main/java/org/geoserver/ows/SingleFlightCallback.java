@@ -0,0 +1,415 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.ows.CapabilitiesCacheCallback.DelegatingResponse;
+import org.geoserver.platform.ExtensionPriority;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
+import org.geoserver.platform.ServiceException;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Dispatcher callback coalescing identical concurrent WMS GetMap, GetLegendGraphic and
+ * GetFeatureInfo requests.
+ * <p>
+ * When a request arrives while an identical one is already being executed, it waits for the
+ * first one to complete instead of rendering the same output again, and then writes out a copy of
+ * the encoded bytes. This is common with tiled clients and with many users looking at the same
+ * map, and keeps the duplicate work from filling the control flow queues: the callback runs before
+ * any other callback, and the waiting requests are handed over an operation that control flow
+ * does not throttle.
+ * </p>
+ * <p>
+ * Two requests are identical if they have the same parameters, the same virtual service context
+ * and base URL, and they are made by users with the same roles (or by the same user, if a custom
+ * resource access manager is in use). Only GET requests are coalesced. If the first request fails,
+ * or if it takes longer than the configured timeout, the waiting requests are executed normally.
+ * </p>
+ * <p>
+ * The callback is disabled by default, it's controlled by the following system properties,
+ * environment or servlet context variables:
+ * <ul>
+ * <li>{@link #SINGLE_FLIGHT_KEY}: set to <code>true</code> to enable the callback</li>
+ * <li>{@link #TIMEOUT_KEY}: the maximum time in seconds a request waits for an identical one to
+ * complete, 60 by default</li>
+ * </ul>
+ * </p>
+ */
+public class SingleFlightCallback extends AbstractDispatcherCallback implements ExtensionPriority {
+
+    static final Logger LOGGER = Logging.getLogger(SingleFlightCallback.class);
+
+    public static final String SINGLE_FLIGHT_KEY = "GEOSERVER_SINGLE_FLIGHT";
+
+    public static final String TIMEOUT_KEY = "GEOSERVER_SINGLE_FLIGHT_TIMEOUT";
+
+    static final int DEFAULT_TIMEOUT = 60;
+
+    static final Set<String> REQUESTS = new HashSet<String>(Arrays.asList("GETMAP",
+            "GETLEGENDGRAPHIC", "GETFEATUREINFO"));
+
+    /**
+     * The output of a request, as shared with the identical requests waiting for it
+     */
+    public static class SharedResult {
+
+        byte[] bytes;
+
+        String mimeType;
+
+        String[][] headers;
+
+        String disposition;
+
+        String attachmentFileName;
+
+        String charset;
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+    }
+
+    /**
+     * A request being executed, along with the requests waiting for its output
+     */
+    static class Flight {
+
+        int waiters;
+
+        boolean closed;
+
+        boolean done;
+
+        SharedResult result;
+
+        /**
+         * Registers a waiting request, returns false if the flight is not sharing its output anymore
+         */
+        synchronized boolean join() {
+            if (closed) {
+                return false;
+            }
+            waiters++;
+            return true;
+        }
+
+        /**
+         * Stops accepting waiting requests if there are none yet, returns true in that case
+         */
+        synchronized boolean closeIfAlone() {
+            if (waiters == 0) {
+                closed = true;
+            }
+            return closed;
+        }
+
+        synchronized void complete(SharedResult result) {
+            this.result = result;
+            this.closed = true;
+            this.done = true;
+            notifyAll();
+        }
+
+        synchronized void fail() {
+            this.closed = true;
+            this.done = true;
+            notifyAll();
+        }
+
+        synchronized boolean isDone() {
+            return done;
+        }
+
+        /**
+         * Waits for the flight to complete, returns null if it failed or the timeout expired
+         */
+        synchronized SharedResult await(long timeout) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (!done) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    return null;
+                }
+                wait(wait);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The flight of the request being executed by the current thread, if any
+     */
+    static final ThreadLocal<Flight> FLIGHT = new ThreadLocal<Flight>();
+
+    static final ThreadLocal<String> FLIGHT_KEY = new ThreadLocal<String>();
+
+    ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+
+    boolean enabled;
+
+    long timeout;
+
+    Boolean roleBasedAccess;
+
+    AtomicLong shared = new AtomicLong();
+
+    public SingleFlightCallback() {
+        this.enabled = Boolean.valueOf(GeoServerExtensions.getProperty(SINGLE_FLIGHT_KEY));
+        this.timeout = TimeUnit.SECONDS.toMillis(getIntProperty(TIMEOUT_KEY, DEFAULT_TIMEOUT));
+    }
+
+    int getIntProperty(String key, int defaultValue) {
+        String value = GeoServerExtensions.getProperty(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + key + ": " + value + ", using "
+                        + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the number of requests that have been served with the output of an identical one
+     */
+    public long getSharedCount() {
+        return shared.get();
+    }
+
+    /**
+     * Returns true if the operation writes out the output of an identical request, rather than
+     * executing anything
+     */
+    public static boolean isShared(Operation operation) {
+        return operation != null && operation.getService() != null
+                && operation.getService().getService() instanceof SharedService;
+    }
+
+    @Override
+    public int getPriority() {
+        // run before control flow, waiting requests should not hold on a slot
+        return HIGHEST;
+    }
+
+    @Override
+    public Operation operationDispatched(Request request, Operation operation) {
+        if (!enabled || !isCoalescable(request) || FLIGHT.get() != null) {
+            return operation;
+        }
+        String key = RequestKeys.build(request, isRoleBasedAccess());
+        if (key == null) {
+            return operation;
+        }
+
+        Flight flight = new Flight();
+        while (true) {
+            Flight current = flights.putIfAbsent(key, flight);
+            if (current == null) {
+                // we lead, execute normally
+                FLIGHT.set(flight);
+                FLIGHT_KEY.set(key);
+                return operation;
+            } else if (current.join()) {
+                return follow(current, operation);
+            } else {
+                // not sharing anymore, replace it
+                flights.remove(key, current);
+            }
+        }
+    }
+
+    Operation follow(Flight flight, Operation operation) {
+        SharedResult result = null;
+        try {
+            result = flight.await(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (result == null) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Identical request did not complete, executing " + operation.getId());
+            }
+            return operation;
+        }
+
+        shared.incrementAndGet();
+        Service original = operation.getService();
+        Service service = new Service(original.getId(), original.getNamespace(),
+                new SharedService(result), original.getVersion(), original.getOperations());
+        return new Operation(operation.getId(), service, operation.getMethod(),
+                operation.getParameters());
+    }
+
+    @Override
+    public Response responseDispatched(Request request, Operation operation, Object result,
+            Response response) {
+        Flight flight = FLIGHT.get();
+        if (flight == null || isShared(operation)) {
+            return response;
+        }
+        return new SharingResponse(response, flight);
+    }
+
+    @Override
+    public void finished(Request request) {
+        Flight flight = FLIGHT.get();
+        if (flight == null) {
+            return;
+        }
+        String key = FLIGHT_KEY.get();
+        FLIGHT.remove();
+        FLIGHT_KEY.remove();
+        flights.remove(key, flight);
+        if (!flight.isDone()) {
+            flight.fail();
+        }
+    }
+
+    boolean isCoalescable(Request request) {
+        return request.isGet() && !request.isSOAP() && "WMS".equalsIgnoreCase(request.getService())
+                && request.getRequest() != null
+                && REQUESTS.contains(request.getRequest().toUpperCase());
+    }
+
+    boolean isRoleBasedAccess() {
+        if (roleBasedAccess == null) {
+            roleBasedAccess = RequestKeys.isRoleBasedAccess();
+        }
+        return roleBasedAccess;
+    }
+
+    /**
+     * Writes out the response directly if no identical request is waiting, otherwise encodes it
+     * in memory, shares it with the waiting requests, and then writes it out
+     */
+    class SharingResponse extends DelegatingResponse {
+
+        Flight flight;
+
+        SharingResponse(Response delegate, Flight flight) {
+            super(delegate);
+            this.flight = flight;
+        }
+
+        @Override
+        public void write(Object value, OutputStream output, Operation operation)
+                throws IOException, ServiceException {
+            if (flight.closeIfAlone()) {
+                delegate.write(value, output, operation);
+                return;
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            delegate.write(value, bytes, operation);
+            SharedResult result = new SharedResult();
+            result.bytes = bytes.toByteArray();
+            result.mimeType = delegate.getMimeType(value, operation);
+            result.headers = delegate.getHeaders(value, operation);
+            result.disposition = delegate.getPreferredDisposition(value, operation);
+            result.attachmentFileName = delegate.getAttachmentFileName(value, operation);
+            result.charset = delegate.getCharset(operation);
+            flight.complete(result);
+
+            output.write(result.bytes);
+        }
+    }
+
+    /**
+     * Service bean handing over the shared output in place of executing the operation
+     */
+    static class SharedService implements DirectInvocationService {
+
+        SharedResult result;
+
+        SharedService(SharedResult result) {
+            this.result = result;
+        }
+
+        @Override
+        public Object invokeDirect(String operationName, Object[] parameters) {
+            return result;
+        }
+    }
+
+    /**
+     * Writes out the output shared by an identical request
+     */
+    public static class SharedResponse extends Response {
+
+        public SharedResponse() {
+            super(SharedResult.class, Collections.<String> emptySet());
+        }
+
+        @Override
+        public boolean canHandle(Operation operation) {
+            return isShared(operation);
+        }
+
+        @Override
+        public String getMimeType(Object value, Operation operation) throws ServiceException {
+            return ((SharedResult) value).mimeType;
+        }
+
+        @Override
+        public String[][] getHeaders(Object value, Operation operation) throws ServiceException {
+            return ((SharedResult) value).headers;
+        }
+
+        @Override
+        public String getPreferredDisposition(Object value, Operation operation) {
+            return ((SharedResult) value).disposition;
+        }
+
+        @Override
+        public String getAttachmentFileName(Object value, Operation operation) {
+            return ((SharedResult) value).attachmentFileName;
+        }
+
+        @Override
+        public String getCharset(Operation operation) {
+            return ((SharedService) operation.getService().getService()).result.charset;
+        }
+
+        @Override
+        public void write(Object value, OutputStream output, Operation operation)
+                throws IOException, ServiceException {
+            output.write(((SharedResult) value).bytes);
+        }
+    }
+}
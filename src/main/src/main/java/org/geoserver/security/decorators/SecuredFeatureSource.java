@@ -57,6 +57,13 @@ public class SecuredFeatureSource<T extends FeatureType, F extends Feature>
         this.policy = policy;
     }
 
+    /**
+     * The policy this feature source enforces
+     */
+    public WrapperPolicy getPolicy() {
+        return policy;
+    }
+
     public DataAccess<T, F> getDataStore() {
         final DataAccess<T, F> store = delegate.getDataStore();
         if (store == null)
@@ -8,8 +8,10 @@ package org.geoserver.security.impl;
 import static org.geoserver.security.impl.DataAccessRule.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -19,18 +21,22 @@ import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
 import org.geoserver.catalog.Predicates;
 import org.geoserver.catalog.PublishedInfo;
 import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.security.AccessMode;
 import org.geoserver.security.AdminRequest;
 import org.geoserver.security.CatalogMode;
 import org.geoserver.security.CoverageAccessLimits;
 import org.geoserver.security.DataAccessLimits;
 import org.geoserver.security.DataAccessManager;
+import org.geoserver.security.GeoServerSecurityFilterChainProxy;
 import org.geoserver.security.InMemorySecurityFilter;
 import org.geoserver.security.LayerGroupAccessLimits;
 import org.geoserver.security.ResourceAccessManager;
@@ -41,6 +47,10 @@ import org.geoserver.security.WorkspaceAccessLimits;
 import org.geotools.util.logging.Logging;
 import org.opengis.filter.Filter;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * Default implementation of {@link DataAccessManager}, loads simple access
@@ -74,7 +84,68 @@ import org.springframework.security.core.Authentication;
 public class DefaultResourceAccessManager implements ResourceAccessManager, DataAccessManager {
     static final Logger LOGGER = Logging.getLogger(DefaultResourceAccessManager.class);
 
-    SecureTreeNode root;
+    /**
+     * System/context/env variable setting the max number of access decisions kept in memory
+     */
+    static final String CACHE_SIZE_KEY = "GEOSERVER_ACCESS_DECISION_CACHE_SIZE";
+
+    static final int DEFAULT_CACHE_SIZE = 100000;
+
+    /**
+     * Key of a cached access decision
+     */
+    static final class DecisionKey {
+        final String roles;
+
+        final String workspace;
+
+        final String layer;
+
+        final AccessMode mode;
+
+        DecisionKey(String roles, String workspace, String layer, AccessMode mode) {
+            this.roles = roles;
+            this.workspace = workspace;
+            this.layer = layer;
+            this.mode = mode;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = roles.hashCode();
+            result = 31 * result + (workspace == null ? 0 : workspace.hashCode());
+            result = 31 * result + (layer == null ? 0 : layer.hashCode());
+            return 31 * result + mode.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof DecisionKey)) {
+                return false;
+            }
+            DecisionKey other = (DecisionKey) obj;
+            return mode == other.mode && roles.equals(other.roles)
+                    && Objects.equals(workspace, other.workspace)
+                    && Objects.equals(layer, other.layer);
+        }
+    }
+
+    volatile SecureTreeNode root;
+
+    /**
+     * Decisions taken against the current tree, keyed by role set, workspace and layer name and
+     * access mode. Replaced along with the tree, and keyed by name rather than by catalog object
+     * id, so that renaming catalog objects needs no invalidation.
+     */
+    volatile Cache<DecisionKey, Boolean> decisions = buildDecisionCache();
+
+    /**
+     * The last user whose roles were fingerprinted, and the fingerprint
+     */
+    volatile Object[] lastFingerprint;
 
 //    Catalog catalog;
     
@@ -93,8 +164,7 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
 
     public boolean canAccess(Authentication user, WorkspaceInfo workspace, AccessMode mode) {
         checkPropertyFile();
-        SecureTreeNode node = root.getDeepestNode(new String[] { workspace.getName() });
-        return node.canAccess(user, mode);
+        return canAccess(user, workspace.getName(), null, mode);
     }
 
     public boolean canAccess(Authentication user, LayerInfo layer, AccessMode mode) {
@@ -122,18 +192,84 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
             return true;
         }
 
-        SecureTreeNode node = root.getDeepestNode(new String[] { workspace, resource.getName() });
-        return node.canAccess(user, mode);
+        return canAccess(user, workspace, resource.getName(), mode);
+    }
+
+    /**
+     * Looks up the decision for the given user, path and mode in the cache, computing it out of the
+     * rule tree on a miss
+     * 
+     * @param layer The layer name, or null for a workspace
+     */
+    boolean canAccess(Authentication user, String workspace, String layer, AccessMode mode) {
+        if (!GeoServerSecurityFilterChainProxy.isSecurityEnabledForCurrentRequest()) {
+            // not a decision that depends on the rules, do not cache it
+            return true;
+        }
+
+        // grab the cache before the tree, they are replaced in the opposite order
+        Cache<DecisionKey, Boolean> cache = decisions;
+        DecisionKey key = new DecisionKey(fingerprint(user), workspace, layer, mode);
+        Boolean result = cache.getIfPresent(key);
+        if (result == null) {
+            String[] path = layer == null ? new String[] { workspace } : new String[] {
+                    workspace, layer };
+            result = root.getDeepestNode(path).canAccess(user, mode);
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a key identifying the set of roles of the user, the decisions only depend on them.
+     * The last key computed is kept around, as the same user is checked against many catalog
+     * objects in a row.
+     */
+    String fingerprint(Authentication user) {
+        if (user == null || user.getAuthorities() == null) {
+            return "";
+        }
+        Object[] last = lastFingerprint;
+        if (last != null && last[0] == user) {
+            return (String) last[1];
+        }
+        List<String> roles = new ArrayList<String>();
+        for (GrantedAuthority authority : user.getAuthorities()) {
+            roles.add(authority.getAuthority());
+        }
+        Collections.sort(roles);
+        StringBuilder sb = new StringBuilder();
+        for (String role : roles) {
+            sb.append(role).append('\n');
+        }
+        String fingerprint = sb.toString();
+        lastFingerprint = new Object[] { user, fingerprint };
+        return fingerprint;
     }
 
     void checkPropertyFile() {
         long daoLastModified = dao.getLastModified();
         if(lastLoaded < daoLastModified) {
             root = buildAuthorizationTree(dao);
+            decisions = buildDecisionCache();
             lastLoaded = daoLastModified;
         }
     }
 
+    static Cache<DecisionKey, Boolean> buildDecisionCache() {
+        int size = DEFAULT_CACHE_SIZE;
+        String value = GeoServerExtensions.getProperty(CACHE_SIZE_KEY);
+        if (value != null) {
+            try {
+                size = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid " + CACHE_SIZE_KEY + " value " + value
+                        + ", using the default of " + DEFAULT_CACHE_SIZE);
+            }
+        }
+        return CacheBuilder.newBuilder().maximumSize(Math.max(0, size)).build();
+    }
+
     SecureTreeNode buildAuthorizationTree(DataAccessRuleDAO dao) {
         SecureTreeNode root = new SecureTreeNode();
         
@@ -251,34 +387,24 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
     @Override
     public Filter getSecurityFilter(Authentication user, Class<? extends CatalogInfo> clazz) {
         if(getMode() == CatalogMode.CHALLENGE) {
+            if (AdminRequest.get() == null) {
+                // outside of the admin requests nothing is hidden in CHALLENGE mode, objects
+                // that cannot be read are still listed, wrapped so that only metadata is exposed
+                return Filter.INCLUDE;
+            }
             // If we're in CHALLENGE mode, we cannot pre-filter
             // for the other types we have no clue, use the in memory filtering
             return InMemorySecurityFilter.buildUserAccessFilter(this, user);
         }
 
-        
         if (WorkspaceInfo.class.isAssignableFrom(clazz)) {
-            // base access
-            boolean rootAccess = canAccess(user, root);
-            List<Filter> exceptions = new ArrayList<>();
-            // exceptions
-            for (Map.Entry<String, SecureTreeNode> entry : root.getChildren().entrySet()) {
-                String wsName = entry.getKey();
-                SecureTreeNode node = entry.getValue();
-                boolean nodeAccess = canAccess(user, node);
-                if (nodeAccess != rootAccess) {
-                    if (rootAccess) {
-                        exceptions.add(Predicates.notEqual("name", wsName));
-                    } else {
-                        exceptions.add(Predicates.equal("name", wsName));
-                    }
-                }
-            }
-            if (exceptions.size() == 0) {
-                return rootAccess ? Filter.INCLUDE : Filter.EXCLUDE;
-            } else {
-                return rootAccess ? Predicates.and(exceptions) : Predicates.or(exceptions);
-            }
+            return workspaceFilter(user, "name");
+        } else if (NamespaceInfo.class.isAssignableFrom(clazz)) {
+            // namespaces are secured thru the workspace sharing their name
+            return workspaceFilter(user, "prefix");
+        } else if (StoreInfo.class.isAssignableFrom(clazz)) {
+            // stores are secured thru their workspace
+            return workspaceFilter(user, "workspace.name");
         } else if (PublishedInfo.class.isAssignableFrom(clazz)
                 || ResourceInfo.class.isAssignableFrom(clazz)
                 || CoverageInfo.class.isAssignableFrom(clazz)) {
@@ -353,32 +479,42 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
         } else if (StyleInfo.class.isAssignableFrom(clazz)
                 || LayerGroupInfo.class.isAssignableFrom(clazz)) {
             // we just check for workspace containment
-            boolean rootAccess = canAccess(user, root);
-            List<Filter> exceptions = new ArrayList<>();
-            // exceptions
-            for (Map.Entry<String, SecureTreeNode> entry : root.getChildren().entrySet()) {
-                String wsName = entry.getKey();
-                SecureTreeNode node = entry.getValue();
-                boolean nodeAccess = canAccess(user, node);
-                if (nodeAccess != rootAccess) {
-                    if (rootAccess) {
-                        exceptions.add(Predicates.notEqual("workspace.name", wsName));
-                    } else {
-                        exceptions.add(Predicates.equal("workspace.name", wsName));
-                    }
-                }
-            }
-            if (exceptions.size() == 0) {
-                return rootAccess ? Filter.INCLUDE : Filter.EXCLUDE;
-            } else {
-                return rootAccess ? Predicates.and(exceptions) : Predicates.or(exceptions);
-            }
+            return workspaceFilter(user, "workspace.name");
         } else {
             // for the other types we have no clue, use the in memory filtering
             return InMemorySecurityFilter.buildUserAccessFilter(this, user);
         }
     }
 
+    /**
+     * Builds a filter selecting the objects whose workspace can be accessed by the user, using
+     * only comparisons of the given workspace name property, so that the filter can be encoded by
+     * the catalog facades
+     */
+    Filter workspaceFilter(Authentication user, String wsNameProperty) {
+        // base access
+        boolean rootAccess = canAccess(user, root);
+        List<Filter> exceptions = new ArrayList<>();
+        // exceptions
+        for (Map.Entry<String, SecureTreeNode> entry : root.getChildren().entrySet()) {
+            String wsName = entry.getKey();
+            SecureTreeNode node = entry.getValue();
+            boolean nodeAccess = canAccess(user, node);
+            if (nodeAccess != rootAccess) {
+                if (rootAccess) {
+                    exceptions.add(Predicates.notEqual(wsNameProperty, wsName));
+                } else {
+                    exceptions.add(Predicates.equal(wsNameProperty, wsName));
+                }
+            }
+        }
+        if (exceptions.size() == 0) {
+            return rootAccess ? Filter.INCLUDE : Filter.EXCLUDE;
+        } else {
+            return rootAccess ? Predicates.and(exceptions) : Predicates.or(exceptions);
+        }
+    }
+
     private boolean canAccess(Authentication user, SecureTreeNode node) {
         boolean access = node.canAccess(user, AccessMode.READ);
         if (access && AdminRequest.get() != null) {
@@ -247,6 +247,18 @@ public final class Requests {
         //Conect to get the response headers
         conn.connect();
 
+        return getInputStream(conn);
+    }
+
+    /**
+     * Gets the correct input stream for an already connected URL connection, decoding the gzip
+     * or deflate response encoding of http/https connections.
+     *
+     * @param conn The connected url connection
+     * @return The InputStream used to read the response
+     * @throws IOException
+     */
+    public static InputStream getInputStream(URLConnection conn) throws IOException {
         //Return the correct inputstream
         //If the connection is a url, connection, check the response encoding.
         if (conn instanceof HttpURLConnection) {
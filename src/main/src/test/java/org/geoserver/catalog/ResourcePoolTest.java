@@ -360,4 +360,72 @@ public class ResourcePoolTest extends GeoServerSystemTestSupport {
         }
 
     }
+
+    @Test
+    public void testCacheStatistics() throws Exception {
+        ResourcePool pool = ResourcePool.create(getCatalog());
+        ResourceCacheStatistics crsStats = pool.getCacheStatistics().get(ResourcePool.CRS_CACHE);
+        assertNotNull(crsStats);
+        assertEquals(0, crsStats.getHitCount());
+        assertEquals(0, crsStats.getMissCount());
+
+        pool.getCRS("EPSG:4326");
+        pool.getCRS("EPSG:4326");
+        pool.getCRS("EPSG:4326");
+        assertEquals(1, crsStats.getMissCount());
+        assertEquals(2, crsStats.getHitCount());
+        assertEquals(1, crsStats.getLoadCount());
+        assertEquals(1, pool.getCacheStatistics().get(ResourcePool.CRS_CACHE).getSize());
+
+        StyleInfo styleInfo = getCatalog().getStyleByName("relative");
+        pool.getStyle(styleInfo);
+        pool.getStyle(styleInfo);
+        ResourceCacheStatistics styleStats = pool.getCacheStatistics().get(ResourcePool.STYLE_CACHE);
+        assertEquals(1, styleStats.getMissCount());
+        assertEquals(1, styleStats.getHitCount());
+
+        crsStats.reset();
+        assertEquals(0, crsStats.getHitCount());
+        assertEquals(0, crsStats.getMissCount());
+    }
+
+    @Test
+    public void testCacheStatisticsFailedLoad() throws Exception {
+        ResourcePool pool = ResourcePool.create(getCatalog());
+        try {
+            pool.getCRS("EPSG:-1");
+            fail("The code should not have been decoded");
+        } catch (IOException e) {
+            // expected
+        }
+        // the lookup missed even if nothing got loaded in the cache
+        ResourceCacheStatistics stats = pool.getCacheStatistics().get(ResourcePool.CRS_CACHE);
+        assertEquals(1, stats.getMissCount());
+        assertEquals(0, stats.getHitCount());
+        assertEquals(0, stats.getLoadCount());
+        assertEquals(0, stats.getSize());
+    }
+
+    @Test
+    public void testCacheMaxSize() throws Exception {
+        String property = ResourcePool.CACHE_SIZE_PREFIX + ResourcePool.CRS_CACHE + ".maxSize";
+        System.setProperty(property, "2");
+        try {
+            ResourcePool pool = ResourcePool.create(getCatalog());
+            pool.getCRS("EPSG:4326");
+            pool.getCRS("EPSG:3857");
+            // touch the first so that it becomes the most recently used
+            pool.getCRS("EPSG:4326");
+            pool.getCRS("EPSG:32632");
+
+            ResourceCacheStatistics stats = pool.getCacheStatistics().get(ResourcePool.CRS_CACHE);
+            assertEquals(2, stats.getMaxSize());
+            assertEquals(2, stats.getSize());
+            assertEquals(1, stats.getEvictionCount());
+            assertTrue(pool.getCrsCache().containsKey("EPSG:4326"));
+            assertFalse(pool.getCrsCache().containsKey("EPSG:3857"));
+        } finally {
+            System.clearProperty(property);
+        }
+    }
 }
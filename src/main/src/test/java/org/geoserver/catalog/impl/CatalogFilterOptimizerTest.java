@@ -0,0 +1,88 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.Predicates;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogFilterOptimizer.PropertyIn;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+import org.opengis.filter.Or;
+
+public class CatalogFilterOptimizerTest {
+
+    WorkspaceInfo workspace(String name) {
+        WorkspaceInfoImpl ws = new WorkspaceInfoImpl();
+        ws.setName(name);
+        return ws;
+    }
+
+    DataStoreInfo store(WorkspaceInfo ws) {
+        DataStoreInfoImpl store = new DataStoreInfoImpl(null);
+        store.setName("store");
+        store.setWorkspace(ws);
+        return store;
+    }
+
+    @Test
+    public void testOrOfEquals() {
+        Filter filter = Predicates.or(Predicates.equal("workspace.name", "a"),
+                Predicates.equal("workspace.name", "b"), Predicates.equal("workspace.name", "c"));
+        Filter optimized = CatalogFilterOptimizer.optimize(filter);
+
+        assertTrue(optimized instanceof PropertyIn);
+        PropertyIn in = (PropertyIn) optimized;
+        assertEquals("workspace.name", in.getPropertyName());
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b", "c")), in.getValues());
+        assertFalse(in.isNegated());
+
+        for (String name : new String[] { "a", "c", "d" }) {
+            DataStoreInfo store = store(workspace(name));
+            assertEquals(filter.evaluate(store), optimized.evaluate(store));
+        }
+        // no workspace, the original filter is used
+        DataStoreInfo global = store(null);
+        assertEquals(filter.evaluate(global), optimized.evaluate(global));
+    }
+
+    @Test
+    public void testAndOfNotEquals() {
+        Filter filter = Predicates.and(Filter.INCLUDE, Predicates.notEqual("name", "a"),
+                Predicates.notEqual("name", "b"));
+        Filter optimized = CatalogFilterOptimizer.optimize(filter);
+
+        assertTrue(optimized instanceof PropertyIn);
+        assertTrue(((PropertyIn) optimized).isNegated());
+        assertFalse(optimized.evaluate(workspace("a")));
+        assertFalse(optimized.evaluate(workspace("b")));
+        assertTrue(optimized.evaluate(workspace("c")));
+    }
+
+    @Test
+    public void testMixedProperties() {
+        Filter filter = Predicates.or(Predicates.equal("name", "a"),
+                Predicates.equal("workspace.name", "b"), Predicates.equal("name", "c"));
+        Filter optimized = CatalogFilterOptimizer.optimize(filter);
+
+        assertTrue(optimized instanceof Or);
+        Or or = (Or) optimized;
+        assertEquals(2, or.getChildren().size());
+        assertTrue(or.getChildren().get(0) instanceof PropertyIn);
+        assertEquals("name", ((PropertyIn) or.getChildren().get(0)).getPropertyName());
+    }
+
+    @Test
+    public void testSingleComparisonUntouched() {
+        Filter filter = Predicates.equal("name", "a");
+        assertEquals(filter, CatalogFilterOptimizer.optimize(filter));
+        assertSame(Filter.INCLUDE, CatalogFilterOptimizer.optimize(Filter.INCLUDE));
+    }
+}
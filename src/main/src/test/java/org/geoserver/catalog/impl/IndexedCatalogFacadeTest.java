@@ -0,0 +1,182 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogFacade;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.Predicates;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+
+/**
+ * Runs the whole {@link CatalogImplTest} suite against the {@link IndexedCatalogFacade}, plus a
+ * few checks on index maintenance
+ */
+public class IndexedCatalogFacadeTest extends CatalogImplTest {
+
+    @Override
+    protected Catalog createCatalog() {
+        CatalogImpl catalog = new CatalogImpl();
+        catalog.setFacade(new IndexedCatalogFacade(catalog));
+        return catalog;
+    }
+
+    @Test
+    public void testRenameResourceUpdatesLayerIndex() {
+        addLayer();
+
+        FeatureTypeInfo ft2 = catalog.getFeatureTypeByName(ft.getName());
+        String oldName = ft2.getName();
+        ft2.setName("renamed");
+        catalog.save(ft2);
+
+        assertNull(catalog.getFacade().getLayerByName(oldName));
+        LayerInfo layer = catalog.getFacade().getLayerByName("renamed");
+        assertNotNull(layer);
+        assertEquals(l.getId(), layer.getId());
+        assertEquals(1, catalog.getLayers(catalog.getFeatureTypeByName("renamed")).size());
+    }
+
+    @Test
+    public void testRenameStyleUpdatesIndex() {
+        addLayer();
+
+        StyleInfo s2 = catalog.getStyleByName(s.getName());
+        String oldName = s2.getName();
+        s2.setName("renamedStyle");
+        catalog.save(s2);
+
+        assertNull(catalog.getStyleByName(oldName));
+        StyleInfo renamed = catalog.getStyleByName("renamedStyle");
+        assertNotNull(renamed);
+        assertEquals(1, catalog.getLayers(renamed).size());
+    }
+
+    @Test
+    public void testChangeLayerStylesUpdatesIndex() {
+        addLayer();
+        StyleInfo s2 = newStyle("s2", "s2Filename");
+        catalog.add(s2);
+        assertTrue(catalog.getLayers(s2).isEmpty());
+
+        LayerInfo layer = catalog.getLayerByName(l.getName());
+        layer.getStyles().add(s2);
+        catalog.save(layer);
+        assertEquals(1, catalog.getLayers(s2).size());
+
+        layer = catalog.getLayerByName(l.getName());
+        layer.getStyles().clear();
+        catalog.save(layer);
+        assertTrue(catalog.getLayers(s2).isEmpty());
+    }
+
+    @Test
+    public void testRemoveLayerGroupUpdatesIndex() {
+        addLayerGroup();
+        assertNotNull(catalog.getLayerGroup(lg.getId()));
+        assertEquals(1, catalog.getLayerGroupsByWorkspace(CatalogFacade.NO_WORKSPACE).size());
+
+        catalog.remove(lg);
+        assertNull(catalog.getLayerGroup(lg.getId()));
+        assertNull(catalog.getLayerGroupByName(lg.getName()));
+        List<LayerGroupInfo> groups = catalog.getLayerGroupsByWorkspace(CatalogFacade.NO_WORKSPACE);
+        assertTrue(groups.isEmpty());
+    }
+
+    @Test
+    public void testReindex() {
+        addLayer();
+
+        IndexedCatalogFacade facade = (IndexedCatalogFacade) catalog.getFacade();
+        facade.reindex();
+        assertNotNull(facade.getLayer(l.getId()));
+        assertNotNull(facade.getLayerByName(l.getName()));
+        assertNotNull(facade.getStyle(s.getId()));
+        assertEquals(1, facade.getResourcesByStore(ds, FeatureTypeInfo.class).size());
+    }
+
+    @Test
+    public void testListWorkspaceFilterUsesIndexes() throws Exception {
+        addLayer();
+        catalog.add(wsA);
+        catalog.add(nsA);
+        catalog.add(dsA);
+        FeatureTypeInfo ftA = newFeatureType("ftA", dsA);
+        ftA.setNamespace(nsA);
+        catalog.add(ftA);
+        LayerInfo lA = newLayer(ftA, s);
+        catalog.add(lA);
+
+        // a security like filter for a user allowed to see only some workspaces
+        Filter filter = Predicates.or(Predicates.equal("resource.store.workspace.name", "aaa"),
+                Predicates.equal("resource.store.workspace.name", "ccc"));
+        IndexedCatalogFacade facade = (IndexedCatalogFacade) catalog.getFacade();
+        List<LayerInfo> candidates = facade.candidates(LayerInfo.class,
+                CatalogFilterOptimizer.optimize(filter));
+        assertEquals(1, candidates.size());
+        assertEquals(lA.getId(), candidates.get(0).getId());
+
+        CloseableIterator<LayerInfo> it = catalog.list(LayerInfo.class, filter);
+        try {
+            assertEquals(lA.getId(), it.next().getId());
+            assertFalse(it.hasNext());
+        } finally {
+            it.close();
+        }
+
+        filter = Predicates.equal("workspace.name", "wsName");
+        List<StoreInfo> stores = facade.candidates(StoreInfo.class,
+                CatalogFilterOptimizer.optimize(filter));
+        assertEquals(1, stores.size());
+        assertEquals(ds.getId(), stores.get(0).getId());
+        assertEquals(1, catalog.count(StoreInfo.class, filter));
+    }
+
+    @Test
+    public void testIndexBucketOrder() {
+        IndexedCatalogFacade.Index<String[]> index = new IndexedCatalogFacade.Index<String[]>() {
+            @Override
+            protected Collection<?> keys(String[] value) {
+                return Arrays.asList(value);
+            }
+        };
+        String[] a = { "k1" };
+        String[] b = { "k1", "k2" };
+        String[] c = { "k1" };
+        index.put(a);
+        index.put(b);
+        index.put(c);
+        assertEquals(Arrays.asList(a, b, c), new ArrayList<String[]>(index.get("k1")));
+
+        // updating keeps the original position, and drops the keys no longer used
+        b[1] = "k3";
+        index.put(b);
+        assertEquals(Arrays.asList(a, b, c), new ArrayList<String[]>(index.get("k1")));
+        assertTrue(index.get("k2").isEmpty());
+        assertFalse(index.buckets.containsKey("k2"));
+        assertEquals(Collections.singletonList(b), new ArrayList<String[]>(index.get("k3")));
+
+        index.remove(a);
+        index.remove(c);
+        assertEquals(Collections.singletonList(b), new ArrayList<String[]>(index.get("k1")));
+        index.remove(b);
+        assertTrue(index.buckets.isEmpty());
+        assertTrue(index.registered.isEmpty());
+    }
+}
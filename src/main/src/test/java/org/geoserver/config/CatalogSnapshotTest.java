@@ -0,0 +1,187 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.URL;
+
+import org.apache.commons.io.FileUtils;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.platform.GeoServerExtensionsHelper;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geoserver.platform.resource.Resources;
+import org.geotools.data.DataUtilities;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CatalogSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    GeoServerResourceLoader resourceLoader;
+
+    DefaultGeoServerLoader loader;
+
+    @Before
+    public void setUp() throws Exception {
+        URL url = CatalogSnapshotTest.class.getResource("/data_dir/nested_layer_groups");
+        File dataDir = folder.newFolder("data");
+        FileUtils.copyDirectory(DataUtilities.urlToFile(url), dataDir);
+
+        resourceLoader = new GeoServerResourceLoader(dataDir);
+        GeoServerExtensionsHelper.singleton("resourceLoader", resourceLoader,
+                GeoServerResourceLoader.class);
+        loader = new DefaultGeoServerLoader(resourceLoader);
+        System.setProperty(CatalogSnapshot.SNAPSHOT_KEY, "true");
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(CatalogSnapshot.SNAPSHOT_KEY);
+        GeoServerExtensionsHelper.clear();
+    }
+
+    Catalog load() throws Exception {
+        Catalog catalog = new CatalogImpl();
+        catalog.setResourceLoader(resourceLoader);
+        XStreamPersister xp = new XStreamPersisterFactory().createXMLPersister();
+        xp.setCatalog(catalog);
+        loader.readCatalog(catalog, xp);
+        CatalogSnapshot.Updater.remove(catalog);
+        return catalog;
+    }
+
+    Catalog readSnapshot() {
+        XStreamPersister xp = new XStreamPersisterFactory().createXMLPersister();
+        return new CatalogSnapshot(resourceLoader).read(xp);
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        assertNull(readSnapshot());
+        Catalog catalog = load();
+        assertTrue(Resources.exists(resourceLoader.get(CatalogSnapshot.SNAPSHOT_FILE)));
+
+        Catalog snapshot = readSnapshot();
+        assertNotNull(snapshot);
+        assertEquals(catalog.getWorkspaces().size(), snapshot.getWorkspaces().size());
+        assertEquals(catalog.getNamespaces().size(), snapshot.getNamespaces().size());
+        assertEquals(catalog.getStores(StoreInfo.class).size(),
+                snapshot.getStores(StoreInfo.class).size());
+        assertEquals(catalog.getResources(ResourceInfo.class).size(),
+                snapshot.getResources(ResourceInfo.class).size());
+        assertEquals(catalog.getLayers().size(), snapshot.getLayers().size());
+        assertEquals(catalog.getStyles().size(), snapshot.getStyles().size());
+        assertEquals(catalog.getLayerGroups().size(), snapshot.getLayerGroups().size());
+        assertEquals(catalog.getDefaultWorkspace().getId(), snapshot.getDefaultWorkspace()
+                .getId());
+
+        LayerGroupInfo nested = snapshot.getLayerGroupByName("topp", "nestedgroup");
+        assertNotNull(nested);
+        assertEquals(2, nested.getLayers().size());
+        assertTrue(nested.getLayers().get(0) instanceof LayerGroupInfo);
+        assertTrue(nested.getLayers().get(1) instanceof LayerInfo);
+
+        // loading again goes through the snapshot and gives the same result
+        Catalog reloaded = load();
+        assertEquals(catalog.getLayers().size(), reloaded.getLayers().size());
+        assertNotNull(reloaded.getLayerGroupByName("topp", "nestedgroup"));
+    }
+
+    @Test
+    public void testModifiedFileInvalidates() throws Exception {
+        load();
+        assertNotNull(readSnapshot());
+
+        File groups = resourceLoader.get("workspaces/topp/layergroups").dir();
+        File group = groups.listFiles()[0];
+        assertTrue(group.setLastModified(group.lastModified() - 10000));
+        assertNull(readSnapshot());
+
+        // a new load reads the files and writes an up to date snapshot
+        load();
+        assertNotNull(readSnapshot());
+    }
+
+    @Test
+    public void testNewFileInvalidates() throws Exception {
+        load();
+        assertNotNull(readSnapshot());
+
+        File groups = resourceLoader.get("workspaces/topp/layergroups").dir();
+        File dir = groups.getParentFile();
+        File newDir = new File(dir, "newstore");
+        assertTrue(newDir.mkdir());
+        assertTrue(dir.setLastModified(dir.lastModified() - 10000));
+        assertNull(readSnapshot());
+    }
+
+    @Test
+    public void testUpdaterAcceptsCatalogChanges() throws Exception {
+        Catalog catalog = load();
+        XStreamPersister xp = new XStreamPersisterFactory().createXMLPersister();
+        xp.setCatalog(catalog);
+        catalog.addListener(new GeoServerPersister(resourceLoader, xp));
+        CatalogSnapshot.Updater updater = new CatalogSnapshot.Updater(catalog, resourceLoader,
+                new XStreamPersisterFactory());
+        catalog.addListener(updater);
+        try {
+            LayerGroupInfo group = catalog.getLayerGroupByName("topp", "simplegroup");
+            group.setTitle("A new title");
+            catalog.save(group);
+            File file = resourceLoader.get("workspaces/topp/layergroups/simplegroup.xml").file();
+            assertTrue(file.setLastModified(file.lastModified() - 10000));
+
+            updater.update();
+            Catalog snapshot = readSnapshot();
+            assertNotNull(snapshot);
+            assertEquals("A new title", snapshot.getLayerGroupByName("topp", "simplegroup")
+                    .getTitle());
+        } finally {
+            updater.dispose();
+        }
+    }
+
+    @Test
+    public void testUpdaterRemovesSnapshotOnHandEdit() throws Exception {
+        Catalog catalog = load();
+        CatalogSnapshot.Updater updater = new CatalogSnapshot.Updater(catalog, resourceLoader,
+                new XStreamPersisterFactory());
+        catalog.addListener(updater);
+        try {
+            // a hand edited file the catalog in memory knows nothing about
+            File nested = resourceLoader.get("workspaces/topp/layergroups/nestedgroup.xml")
+                    .file();
+            assertTrue(nested.setLastModified(nested.lastModified() - 10000));
+
+            // followed by an unrelated catalog change
+            LayerGroupInfo group = catalog.getLayerGroupByName("topp", "simplegroup");
+            group.setTitle("A new title");
+            catalog.save(group);
+
+            updater.update();
+            assertFalse(Resources.exists(resourceLoader.get(CatalogSnapshot.SNAPSHOT_FILE)));
+
+            // the next load reads the hand edited file
+            load();
+            assertNotNull(readSnapshot());
+        } finally {
+            updater.dispose();
+        }
+    }
+}
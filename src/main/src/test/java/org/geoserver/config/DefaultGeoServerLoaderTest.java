@@ -14,6 +14,8 @@ import java.net.URL;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.impl.CatalogImpl;
 import org.geoserver.config.impl.GeoServerImpl;
@@ -129,6 +131,37 @@ public class DefaultGeoServerLoaderTest {
         assertTrue(nestedLayerGroup.getLayers().get(1) instanceof LayerInfo);
     }
 
+    @Test
+    public void testLoadParallel() throws Exception {
+        System.setProperty(ParallelCatalogLoader.LOADING_THREADS_KEY, "4");
+        try {
+            loader.readCatalog(catalog, xp);
+        } finally {
+            System.clearProperty(ParallelCatalogLoader.LOADING_THREADS_KEY);
+        }
+
+        Catalog sequential = new CatalogImpl();
+        sequential.setResourceLoader(catalog.getResourceLoader());
+        loader.readCatalog(sequential, new XStreamPersisterFactory().createXMLPersister());
+
+        assertEquals(sequential.getWorkspaces().size(), catalog.getWorkspaces().size());
+        assertEquals(sequential.getStores(StoreInfo.class).size(),
+                catalog.getStores(StoreInfo.class).size());
+        assertEquals(sequential.getResources(ResourceInfo.class).size(),
+                catalog.getResources(ResourceInfo.class).size());
+        assertEquals(sequential.getLayers().size(), catalog.getLayers().size());
+        assertEquals(sequential.getStyles().size(), catalog.getStyles().size());
+        assertEquals(sequential.getLayerGroups().size(), catalog.getLayerGroups().size());
+        assertEquals(sequential.getDefaultWorkspace().getName(),
+                catalog.getDefaultWorkspace().getName());
+
+        LayerGroupInfo nestedLayerGroup = catalog.getLayerGroupByName("topp", "nestedgroup");
+        assertNotNull(nestedLayerGroup);
+        assertEquals(2, nestedLayerGroup.getLayers().size());
+        assertTrue(nestedLayerGroup.getLayers().get(0) instanceof LayerGroupInfo);
+        assertTrue(nestedLayerGroup.getLayers().get(1) instanceof LayerInfo);
+    }
+
     @Test
     public void testLoadWithoutResaving() throws Exception {
         GeoServerImpl gs = new GeoServerImpl();
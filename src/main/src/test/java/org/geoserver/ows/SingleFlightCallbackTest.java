@@ -0,0 +1,233 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
+import org.geoserver.platform.ServiceException;
+import org.geotools.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mockrunner.mock.web.MockHttpServletRequest;
+
+public class SingleFlightCallbackTest {
+
+    SingleFlightCallback callback;
+
+    ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        callback = new SingleFlightCallback();
+        callback.setEnabled(true);
+        callback.setTimeout(10000);
+        callback.roleBasedAccess = true;
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    Request request(String requestName, String layers) {
+        MockHttpServletRequest http = new MockHttpServletRequest();
+        http.setScheme("http");
+        http.setServerName("localhost");
+        http.setServerPort(8080);
+        http.setContextPath("/geoserver");
+
+        Map<String, Object> kvp = new HashMap<String, Object>();
+        kvp.put("SERVICE", "WMS");
+        kvp.put("REQUEST", requestName);
+        kvp.put("LAYERS", layers);
+
+        Request request = new Request();
+        request.setHttpRequest(http);
+        request.setGet(true);
+        request.setService("WMS");
+        request.setRequest(requestName);
+        request.setRawKvp(kvp);
+        return request;
+    }
+
+    Operation operation(String requestName) {
+        Service service = new Service("wms", new Object(), new Version("1.1.1"),
+                Collections.singletonList(requestName));
+        return new Operation(requestName, service, null, new Object[0]);
+    }
+
+    static class TestResponse extends Response {
+
+        public TestResponse() {
+            super(String.class);
+        }
+
+        @Override
+        public String getMimeType(Object value, Operation operation) throws ServiceException {
+            return "text/plain";
+        }
+
+        @Override
+        public String[][] getHeaders(Object value, Operation operation) throws ServiceException {
+            return new String[][] { { "X-Test", "test" } };
+        }
+
+        @Override
+        public void write(Object value, OutputStream output, Operation operation)
+                throws IOException, ServiceException {
+            output.write(((String) value).getBytes("UTF-8"));
+        }
+    }
+
+    @Test
+    public void testDisabled() {
+        callback.setEnabled(false);
+        Request request = request("GetMap", "topp:states");
+        Operation operation = operation("GetMap");
+        assertSame(operation, callback.operationDispatched(request, operation));
+        assertNull(SingleFlightCallback.FLIGHT.get());
+    }
+
+    @Test
+    public void testNotCoalescable() {
+        Request request = request("GetCapabilities", "topp:states");
+        Operation operation = operation("GetCapabilities");
+        assertSame(operation, callback.operationDispatched(request, operation));
+        assertNull(SingleFlightCallback.FLIGHT.get());
+    }
+
+    @Test
+    public void testAlone() throws Exception {
+        Request request = request("GetMap", "topp:states");
+        Operation operation = operation("GetMap");
+        assertSame(operation, callback.operationDispatched(request, operation));
+        Response response = callback.responseDispatched(request, operation, "abc",
+                new TestResponse());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.write("abc", out, operation);
+        assertEquals("abc", out.toString("UTF-8"));
+        callback.finished(request);
+
+        assertTrue(callback.flights.isEmpty());
+        assertEquals(0, callback.getSharedCount());
+    }
+
+    @Test
+    public void testShared() throws Exception {
+        final Request leaderRequest = request("GetMap", "topp:states");
+        final Operation leaderOperation = operation("GetMap");
+        assertSame(leaderOperation, callback.operationDispatched(leaderRequest, leaderOperation));
+
+        // an identical request joins and waits
+        Future<Operation> follower = executor.submit(new Callable<Operation>() {
+            @Override
+            public Operation call() throws Exception {
+                Request request = request("GetMap", "topp:states");
+                return callback.operationDispatched(request, operation("GetMap"));
+            }
+        });
+        SingleFlightCallback.Flight flight = callback.flights.values().iterator().next();
+        while (true) {
+            synchronized (flight) {
+                if (flight.waiters > 0) {
+                    break;
+                }
+            }
+            Thread.sleep(10);
+        }
+
+        Response response = callback.responseDispatched(leaderRequest, leaderOperation, "abc",
+                new TestResponse());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.write("abc", out, leaderOperation);
+        assertEquals("abc", out.toString("UTF-8"));
+        callback.finished(leaderRequest);
+        assertTrue(callback.flights.isEmpty());
+
+        Operation shared = follower.get(10, TimeUnit.SECONDS);
+        assertTrue(SingleFlightCallback.isShared(shared));
+        assertEquals("GetMap", shared.getId());
+        assertEquals(1, callback.getSharedCount());
+
+        Object result = ((DirectInvocationService) shared.getService().getService())
+                .invokeDirect("GetMap", shared.getParameters());
+        SingleFlightCallback.SharedResponse sharedResponse = new SingleFlightCallback.SharedResponse();
+        assertTrue(sharedResponse.canHandle(shared));
+        assertEquals("text/plain", sharedResponse.getMimeType(result, shared));
+        assertEquals("X-Test", sharedResponse.getHeaders(result, shared)[0][0]);
+        out = new ByteArrayOutputStream();
+        sharedResponse.write(result, out, shared);
+        assertEquals("abc", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testLeaderFailure() throws Exception {
+        final Request leaderRequest = request("GetMap", "topp:states");
+        final Operation leaderOperation = operation("GetMap");
+        callback.operationDispatched(leaderRequest, leaderOperation);
+
+        final Operation followerOperation = operation("GetMap");
+        Future<Operation> follower = executor.submit(new Callable<Operation>() {
+            @Override
+            public Operation call() throws Exception {
+                Request request = request("GetMap", "topp:states");
+                return callback.operationDispatched(request, followerOperation);
+            }
+        });
+        SingleFlightCallback.Flight flight = callback.flights.values().iterator().next();
+        while (true) {
+            synchronized (flight) {
+                if (flight.waiters > 0) {
+                    break;
+                }
+            }
+            Thread.sleep(10);
+        }
+
+        // the leader ends without writing anything out, the follower executes on its own
+        callback.finished(leaderRequest);
+        assertSame(followerOperation, follower.get(10, TimeUnit.SECONDS));
+        assertEquals(0, callback.getSharedCount());
+    }
+
+    @Test
+    public void testDifferentRequests() throws Exception {
+        Request request = request("GetMap", "topp:states");
+        callback.operationDispatched(request, operation("GetMap"));
+        try {
+            final Operation other = operation("GetMap");
+            Future<Operation> future = executor.submit(new Callable<Operation>() {
+                @Override
+                public Operation call() throws Exception {
+                    Request request = request("GetMap", "topp:roads");
+                    Operation result = callback.operationDispatched(request, other);
+                    callback.finished(request);
+                    return result;
+                }
+            });
+            assertSame(other, future.get(10, TimeUnit.SECONDS));
+        } finally {
+            callback.finished(request);
+        }
+    }
+}
@@ -6,7 +6,11 @@
 package org.geoserver.security.impl;
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+
+import org.springframework.security.authentication.TestingAuthenticationToken;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.security.AccessMode;
 import org.geoserver.security.CatalogMode;
@@ -113,6 +117,29 @@ public class DefaultDataAccessManagerAuthTest extends AbstractAuthorizationTest
         assertTrue(wo.canAccess(milUser, arcGridLayer, AccessMode.WRITE));
     }
     
+    @Test
+    public void testDecisionCache() throws Exception {
+        DefaultResourceAccessManager manager = buildAccessManager("publicRead.properties");
+        assertTrue(manager.canAccess(roUser, statesLayer, AccessMode.READ));
+        assertTrue(manager.canAccess(roUser, statesLayer, AccessMode.READ));
+        assertFalse(manager.canAccess(roUser, statesLayer, AccessMode.WRITE));
+        assertEquals(2, manager.decisions.size());
+
+        // another user with the same roles shares the decisions
+        Authentication sameRoles = new TestingAuthenticationToken("ro2", "secret",
+                new ArrayList<GrantedAuthority>(roUser.getAuthorities()));
+        assertTrue(manager.canAccess(sameRoles, statesLayer, AccessMode.READ));
+        assertEquals(2, manager.decisions.size());
+
+        // changing the rules drops the cached decisions
+        manager.dao.addRule(new DataAccessRule("topp", "states", AccessMode.READ, "MILITARY"));
+        // the memory dao reports an unchanging modification time, force the reload
+        manager.lastLoaded = Long.MIN_VALUE;
+        assertFalse(manager.canAccess(roUser, statesLayer, AccessMode.READ));
+        assertTrue(manager.canAccess(milUser, statesLayer, AccessMode.READ));
+        assertEquals(2, manager.decisions.size());
+    }
+
     @Test
     public void testDefaultMode() throws Exception {
         DataAccessManager wo = buildAccessManager("lockedDown.properties");
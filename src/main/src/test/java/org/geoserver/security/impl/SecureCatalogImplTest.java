@@ -16,6 +16,7 @@ import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.everyItem;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
@@ -39,9 +40,11 @@ import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
 import org.geoserver.catalog.Predicates;
 import org.geoserver.catalog.PublishedInfo;
 import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.catalog.impl.AbstractCatalogDecorator;
@@ -51,8 +54,10 @@ import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.Request;
 import org.geoserver.platform.GeoServerExtensionsHelper;
 import org.geoserver.security.AbstractCatalogFilter;
+import org.geoserver.security.AdminRequest;
 import org.geoserver.security.CatalogFilterAccessManager;
 import org.geoserver.security.DataAccessManager;
+import org.geoserver.security.InMemorySecurityFilter;
 import org.geoserver.security.ResourceAccessManager;
 import org.geoserver.security.decorators.ReadOnlyDataStoreTest;
 import org.geoserver.security.decorators.SecuredCoverageInfo;
@@ -68,6 +73,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.opengis.filter.Filter;
+import org.opengis.filter.PropertyIsEqualTo;
 import org.opengis.filter.sort.SortBy;
 import org.springframework.security.core.context.SecurityContextHolder;
 
@@ -1309,6 +1315,47 @@ public class SecureCatalogImplTest extends AbstractAuthorizationTest {
         assertTrue(hasArcGridLayer);
     }
 
+    @Test
+    public void testSecurityFilterStoresNamespaces() throws Exception {
+        ResourceAccessManager resourceManager = getResourceAccessManager(buildAccessManager("wsLock.properties"));
+
+        // stores and namespaces get a filter on the workspace name, no in memory filtering
+        Filter security = resourceManager.getSecurityFilter(anonymous, StoreInfo.class);
+        assertFalse(isInMemory(security));
+        assertFalse(security.evaluate(statesStore));
+        assertTrue(security.evaluate(arcGridStore));
+        assertSame(Filter.INCLUDE, resourceManager.getSecurityFilter(milUser, StoreInfo.class));
+
+        security = resourceManager.getSecurityFilter(anonymous, NamespaceInfo.class);
+        assertFalse(isInMemory(security));
+        assertFalse(security.evaluate(states.getNamespace()));
+        assertTrue(security.evaluate(arcGrid.getNamespace()));
+        assertSame(Filter.INCLUDE, resourceManager.getSecurityFilter(milUser, NamespaceInfo.class));
+    }
+
+    @Test
+    public void testSecurityFilterChallenge() throws Exception {
+        ResourceAccessManager resourceManager = getResourceAccessManager(buildAccessManager("lockedDownChallenge.properties"));
+
+        // nothing gets hidden in challenge mode
+        assertSame(Filter.INCLUDE, resourceManager.getSecurityFilter(anonymous, LayerInfo.class));
+        assertSame(Filter.INCLUDE, resourceManager.getSecurityFilter(anonymous, WorkspaceInfo.class));
+
+        // unless it's an admin request
+        AdminRequest.start(new Object());
+        try {
+            Filter security = resourceManager.getSecurityFilter(anonymous, LayerInfo.class);
+            assertTrue(isInMemory(security));
+        } finally {
+            AdminRequest.finish();
+        }
+    }
+
+    static boolean isInMemory(Filter filter) {
+        return filter instanceof PropertyIsEqualTo
+                && ((PropertyIsEqualTo) filter).getExpression2() instanceof InMemorySecurityFilter;
+    }
+
     protected ResourceAccessManager getResourceAccessManager(DataAccessManager manager)
             throws Exception {
         // Getting the DefaultResourceAccessManager
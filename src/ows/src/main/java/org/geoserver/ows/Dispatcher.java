@@ -7,8 +7,6 @@ package org.geoserver.ows;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -33,12 +31,6 @@ import java.util.logging.Logger;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
 import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.fileupload.disk.DiskFileItemFactory;
@@ -60,12 +52,9 @@ import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.AbstractController;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 
 
@@ -156,18 +145,10 @@ public class Dispatcher extends AbstractController {
     static final String SOAP_MIME = "application/soap+xml";
 
     /**
-     * document builder, used to parse SOAP requests
+     * Pull parser factory, used to peek at the root element of XML requests. Looked up once, as
+     * the lookup scans the classpath
      */
-    DocumentBuilder db;
-    {
-        try {
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            dbf.setNamespaceAware(true);
-            db = dbf.newDocumentBuilder();
-        } catch (ParserConfigurationException e) {
-            throw new RuntimeException(e);
-        }
-    }
+    static volatile XmlPullParserFactory pullParserFactory;
 
     /**
      * Sets the flag to control wether the dispatcher is cite compliante.
@@ -444,47 +425,9 @@ public class Dispatcher extends AbstractController {
     }
 
     BufferedReader soapReader(HttpServletRequest httpRequest) throws IOException {
-        //in order to pull out the payload we have to parse the entire request and then reencode it
-        // not nice... but then again neither is using SOAP
-        Document dom = null;
-        try {
-            dom = db.parse(httpRequest.getInputStream());
-            
-        } catch (SAXException e) {
-            throw new IOException("Error parsing SOAP request", e);
-        }
-
-        //find the soap:Body element
-        NodeList list = dom.getElementsByTagNameNS(SOAP_NS, "Body");
-        if (list.getLength() != 1) {
-            throw new IOException("SOAP requests should specify a single Body element");
-        }
-        Element body = (Element) list.item(0);
-
-        //pull out the first element child
-        Element payload = null;
-        for (int i = 0; payload == null && i < body.getChildNodes().getLength(); i++) {
-            Node n = body.getChildNodes().item(i);
-            if (n instanceof Element) {
-                payload = (Element) n;
-            }
-        }
-
-        if (payload == null) {
-            throw new IOException("Could not find payload in SOAP request");
-        }
-
-        //transform the payload back into an input stream so we can parse it as usual
-        ByteArrayOutputStream bout = new ByteArrayOutputStream();
-        try {
-            TransformerFactory.newInstance().newTransformer().transform(
-                new DOMSource(payload), new StreamResult(bout));
-        } catch (Exception e) {
-            throw new IOException("Error encoding payload of SOAP request", e);
-        }
-
+        // stream out the payload, the first element in the body, as a document of its own
         return RequestUtils.getBufferedXMLReader(
-            new ByteArrayInputStream(bout.toByteArray()), XML_LOOKAHEAD);
+            new SOAPPayloadReader(httpRequest.getInputStream(), SOAP_NS), XML_LOOKAHEAD);
     }
 
     BufferedReader reader(HttpServletRequest httpRequest) throws IOException {
@@ -1509,13 +1452,8 @@ public class Dispatcher extends AbstractController {
             return null;
         }
 
-        //create stream parser
-        XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-        factory.setNamespaceAware(true);
-        factory.setValidating(false);
-
         //parse root element
-        XmlPullParser parser = factory.newPullParser();
+        XmlPullParser parser = pullParser();
         //parser.setInput(input, "UTF-8");
         parser.setInput(input);
         parser.nextTag();
@@ -1555,6 +1493,17 @@ public class Dispatcher extends AbstractController {
         return xmlReader.read( requestBean, input, request.getKvp() );
     }
 
+    static XmlPullParser pullParser() throws XmlPullParserException {
+        XmlPullParserFactory factory = pullParserFactory;
+        if (factory == null) {
+            factory = XmlPullParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setValidating(false);
+            pullParserFactory = factory;
+        }
+        return factory.newPullParser();
+    }
+
     Map readOpContext(Request request) {
         
         Map map = new HashMap();
@@ -1566,13 +1515,8 @@ public class Dispatcher extends AbstractController {
     }
 
     Map readOpPost(BufferedReader input) throws Exception {
-        //create stream parser
-        XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-        factory.setNamespaceAware(true);
-        factory.setValidating(false);
-
         //parse root element
-        XmlPullParser parser = factory.newPullParser();
+        XmlPullParser parser = pullParser();
         parser.setInput(input);
         parser.nextTag();
 
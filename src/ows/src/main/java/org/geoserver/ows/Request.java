@@ -114,6 +114,12 @@ public class Request {
      */
     protected UUID identifier;
 
+    /**
+     * Time by which the request should be completed, in milliseconds since the epoch, or 0 if
+     * there is none
+     */
+    protected long deadline;
+
     public Request() {
         timestamp = new Date(); 
         identifier = UUID.randomUUID();
@@ -144,6 +150,7 @@ public class Request {
         this.timestamp = other.timestamp;
         this.operation = other.operation;
         this.identifier = other.identifier;
+        this.deadline = other.deadline;
     }
 
     /**
@@ -466,6 +473,42 @@ public class Request {
     public void setTimestamp(Date timestamp) {
         this.timestamp = timestamp;
     }
+
+    /**
+     * The time by which the request should be completed, in milliseconds since the epoch, or 0 if
+     * there is none
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Sets the time by which the request should be completed, in milliseconds since the epoch, 0
+     * to remove it
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Returns the time by which the request should be completed given a time limit counted from
+     * the moment the request hit the server, so that any time spent waiting, for example in the
+     * control flow queues, is accounted for. The result is the earliest between the limit and the
+     * request {@link #getDeadline() deadline}, or 0 if there is neither.
+     * 
+     * @param limit The time limit in milliseconds, 0 or less means no limit
+     */
+    public long getDeadline(long limit) {
+        long result = deadline;
+        if (limit > 0) {
+            long start = timestamp != null ? timestamp.getTime() : System.currentTimeMillis();
+            long limitDeadline = start + limit;
+            if (result <= 0 || limitDeadline < result) {
+                result = limitDeadline;
+            }
+        }
+        return result;
+    }
     
     @Override
     public int hashCode() {
@@ -0,0 +1,277 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the payload of a SOAP request, that is, the first element inside the SOAP Body, as a
+ * stand alone XML document.
+ * <p>
+ * The envelope is scanned with StAX up to the payload, which is then written out as it's read,
+ * so that the request is never held in memory as a whole. The namespaces declared on the
+ * Envelope and Body elements are declared again on the payload root, as the payload commonly
+ * relies on them.
+ * </p>
+ */
+class SOAPPayloadReader extends Reader {
+
+    /**
+     * StAX factory, thread safe once configured
+     */
+    static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newFactory();
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        // SOAP messages cannot contain a DTD, no need to risk entity expansion
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    final XMLStreamReader reader;
+
+    /**
+     * Markup of the events read so far and not yet returned
+     */
+    final StringBuilder pending = new StringBuilder();
+
+    int position;
+
+    /**
+     * Nesting level inside the payload, zero once the payload has been fully read
+     */
+    int depth;
+
+    SOAPPayloadReader(InputStream input, String soapNamespace) throws IOException {
+        try {
+            reader = INPUT_FACTORY.createXMLStreamReader(input);
+            Map<String, String> namespaces = new LinkedHashMap<String, String>();
+            if (!moveToBody(soapNamespace, namespaces)) {
+                throw new IOException("SOAP requests should specify a single Body element");
+            }
+            if (!moveToPayload()) {
+                throw new IOException("Could not find payload in SOAP request");
+            }
+            startElement(namespaces);
+        } catch (XMLStreamException e) {
+            throw new IOException("Error parsing SOAP request", e);
+        }
+    }
+
+    /**
+     * Moves to the Body start tag, collecting the namespaces declared by it and by the envelope
+     */
+    boolean moveToBody(String soapNamespace, Map<String, String> namespaces)
+            throws XMLStreamException {
+        int level = 0;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                level++;
+                if (level == 1) {
+                    collectNamespaces(namespaces);
+                } else if (level == 2 && "Body".equals(reader.getLocalName())
+                        && soapNamespace.equals(reader.getNamespaceURI())) {
+                    collectNamespaces(namespaces);
+                    return true;
+                } else {
+                    // header, or some other element we are not interested into
+                    skipElement();
+                    level--;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                level--;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves to the first element inside the Body
+     */
+    boolean moveToPayload() throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    void collectNamespaces(Map<String, String> namespaces) {
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            namespaces.put(prefix(reader.getNamespacePrefix(i)), reader.getNamespaceURI(i));
+        }
+    }
+
+    void skipElement() throws XMLStreamException {
+        int level = 1;
+        while (level > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                level++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                level--;
+            }
+        }
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        try {
+            while (position == pending.length()) {
+                pending.setLength(0);
+                position = 0;
+                if (!next()) {
+                    return -1;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Error parsing SOAP request", e);
+        }
+        int count = Math.min(len, pending.length() - position);
+        pending.getChars(position, position + count, cbuf, off);
+        position += count;
+        return count;
+    }
+
+    /**
+     * Writes out the next event of the payload, returns false if the payload is over
+     */
+    boolean next() throws XMLStreamException {
+        if (depth == 0) {
+            return false;
+        }
+        switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+            startElement(null);
+            break;
+        case XMLStreamConstants.END_ELEMENT:
+            pending.append("</").append(qualify(reader.getPrefix(), reader.getLocalName()))
+                    .append('>');
+            depth--;
+            break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.SPACE:
+            escape(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength(),
+                    false);
+            break;
+        case XMLStreamConstants.CDATA:
+            pending.append("<![CDATA[").append(reader.getText()).append("]]>");
+            break;
+        case XMLStreamConstants.COMMENT:
+            pending.append("<!--").append(reader.getText()).append("-->");
+            break;
+        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+            pending.append("<?").append(reader.getPITarget());
+            if (reader.getPIData() != null && reader.getPIData().length() > 0) {
+                pending.append(' ').append(reader.getPIData());
+            }
+            pending.append("?>");
+            break;
+        default:
+            // nothing else can be found inside an element
+        }
+        return true;
+    }
+
+    /**
+     * Writes out the current start tag, along with the given inherited namespaces the element does
+     * not declare by itself
+     */
+    void startElement(Map<String, String> inherited) {
+        pending.append('<').append(qualify(reader.getPrefix(), reader.getLocalName()));
+        Map<String, String> namespaces = new LinkedHashMap<String, String>();
+        if (inherited != null) {
+            namespaces.putAll(inherited);
+        }
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            namespaces.put(prefix(reader.getNamespacePrefix(i)), reader.getNamespaceURI(i));
+        }
+        for (Map.Entry<String, String> ns : namespaces.entrySet()) {
+            pending.append(ns.getKey().length() == 0 ? " xmlns" : " xmlns:" + ns.getKey());
+            attributeValue(ns.getValue());
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            pending.append(' ').append(
+                    qualify(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)));
+            attributeValue(reader.getAttributeValue(i));
+        }
+        pending.append('>');
+        depth++;
+    }
+
+    void attributeValue(String value) {
+        pending.append("=\"");
+        if (value != null) {
+            escape(value.toCharArray(), 0, value.length(), true);
+        }
+        pending.append('"');
+    }
+
+    void escape(char[] text, int start, int length, boolean attribute) {
+        for (int i = start; i < start + length; i++) {
+            char c = text[i];
+            switch (c) {
+            case '&':
+                pending.append("&amp;");
+                break;
+            case '<':
+                pending.append("&lt;");
+                break;
+            case '>':
+                pending.append("&gt;");
+                break;
+            case '"':
+                pending.append(attribute ? "&quot;" : "\"");
+                break;
+            case '\n':
+            case '\r':
+            case '\t':
+                // preserve whitespace in attributes, it would be normalized otherwise
+                if (attribute) {
+                    pending.append("&#").append((int) c).append(';');
+                } else {
+                    pending.append(c);
+                }
+                break;
+            default:
+                pending.append(c);
+            }
+        }
+    }
+
+    static String prefix(String prefix) {
+        return prefix == null ? "" : prefix;
+    }
+
+    static String qualify(String prefix, String localName) {
+        return prefix == null || prefix.length() == 0 ? localName : prefix + ":" + localName;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+}
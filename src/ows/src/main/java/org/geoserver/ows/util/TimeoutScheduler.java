@@ -0,0 +1,324 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+
+/**
+ * Runs tasks when request timeouts expire, such as stopping a renderer that is taking too long.
+ * <p>
+ * All the timeouts are handled by a single daemon thread, using a hashed timing wheel: a circular
+ * array of buckets, each one holding the timeouts expiring in a given tick, so that scheduling and
+ * cancelling are constant time operations that do not lock. The price is precision, the tasks
+ * are run up to one {@link #TICK} after their expiration. The tasks are run in the scheduler
+ * thread, and must be quick.
+ * </p>
+ * <p>
+ * Code that needs to enforce a timeout is expected to schedule it when it starts, and cancel it
+ * when done, which is the common case:
+ *
+ * <pre>
+ * Timeout timeout = TimeoutScheduler.get().schedule(task, delay);
+ * try {
+ *     ...
+ * } finally {
+ *     timeout.cancel();
+ * }
+ * </pre>
+ *
+ * </p>
+ */
+public class TimeoutScheduler {
+
+    static final Logger LOGGER = Logging.getLogger(TimeoutScheduler.class);
+
+    /**
+     * Duration of a wheel tick, in milliseconds
+     */
+    public static final long TICK = 50;
+
+    /**
+     * Number of buckets in the wheel, a timeout further away than a full turn stays in its bucket
+     * for as many turns as needed
+     */
+    static final int WHEEL_SIZE = 512;
+
+    static final int PENDING = 0;
+
+    static final int CANCELLED = 1;
+
+    static final int EXPIRED = 2;
+
+    static final TimeoutScheduler INSTANCE = new TimeoutScheduler(TICK, WHEEL_SIZE);
+
+    /**
+     * Returns the scheduler shared by all the services
+     */
+    public static TimeoutScheduler get() {
+        return INSTANCE;
+    }
+
+    /**
+     * A scheduled task, that can be cancelled before it runs
+     */
+    public static final class Timeout {
+
+        final Runnable task;
+
+        final long deadline;
+
+        final AtomicInteger state = new AtomicInteger(PENDING);
+
+        final TimeoutScheduler scheduler;
+
+        // bucket list links and remaining wheel turns, only accessed by the scheduler thread
+        long rounds;
+
+        Timeout next;
+
+        Timeout prev;
+
+        Bucket bucket;
+
+        Timeout(TimeoutScheduler scheduler, Runnable task, long deadline) {
+            this.scheduler = scheduler;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the timeout, returns false if the task already ran, or is running
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) {
+                return false;
+            }
+            scheduler.cancelled.add(this);
+            return true;
+        }
+
+        /**
+         * Returns true if the task ran, or is running
+         */
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+        /**
+         * Returns true if the timeout was cancelled before running the task
+         */
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        /**
+         * The time at which the task is meant to run, in milliseconds since the epoch
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        void expire() {
+            if (!state.compareAndSet(PENDING, EXPIRED)) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (Throwable t) {
+                LOGGER.log(Level.WARNING, "Timeout task failed", t);
+            }
+        }
+    }
+
+    /**
+     * A doubly linked list of timeouts, only accessed by the scheduler thread
+     */
+    static final class Bucket {
+
+        Timeout head;
+
+        Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        Timeout remove(Timeout timeout) {
+            Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            return next;
+        }
+
+        /**
+         * Runs the tasks of the timeouts expired by the given time, moves the others one turn
+         * closer
+         */
+        void expire(long now) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                if (timeout.rounds <= 0 && timeout.deadline <= now) {
+                    Timeout next = remove(timeout);
+                    timeout.expire();
+                    timeout = next;
+                } else if (timeout.isCancelled()) {
+                    timeout = remove(timeout);
+                } else {
+                    if (timeout.rounds > 0) {
+                        timeout.rounds--;
+                    }
+                    timeout = timeout.next;
+                }
+            }
+        }
+    }
+
+    final long tick;
+
+    final Bucket[] wheel;
+
+    final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<Timeout>();
+
+    final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<Timeout>();
+
+    final long startTime;
+
+    volatile Thread worker;
+
+    long ticks;
+
+    TimeoutScheduler(long tick, int wheelSize) {
+        this.tick = tick;
+        this.wheel = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Schedules the task to run after the given delay
+     *
+     * @param delay The delay in milliseconds
+     */
+    public Timeout schedule(Runnable task, long delay) {
+        return scheduleAt(task, System.currentTimeMillis() + Math.max(0, delay));
+    }
+
+    /**
+     * Schedules the task to run at the given time, in milliseconds since the epoch
+     */
+    public Timeout scheduleAt(Runnable task, long deadline) {
+        if (task == null) {
+            throw new IllegalArgumentException("The task must be provided");
+        }
+        start();
+        Timeout timeout = new Timeout(this, task, deadline);
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    void start() {
+        if (worker == null) {
+            synchronized (this) {
+                if (worker == null) {
+                    Thread thread = new Thread(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            work();
+                        }
+                    }, "GeoServer timeout scheduler");
+                    thread.setDaemon(true);
+                    thread.start();
+                    worker = thread;
+                }
+            }
+        }
+    }
+
+    void work() {
+        while (true) {
+            long next = startTime + (ticks + 1) * tick;
+            long sleep = next - System.currentTimeMillis();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    // the thread is a daemon, keep going
+                }
+                continue;
+            }
+            try {
+                advance(System.currentTimeMillis());
+            } catch (Throwable t) {
+                LOGGER.log(Level.SEVERE, "Timeout scheduler failure", t);
+            }
+        }
+    }
+
+    /**
+     * Moves the wheel one tick forward, running the expired tasks
+     */
+    void advance(long now) {
+        removeCancelled();
+        transferScheduled();
+        wheel[(int) (ticks % wheel.length)].expire(now);
+        ticks++;
+    }
+
+    void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    void transferScheduled() {
+        // bound the work done in a single tick
+        for (int i = 0; i < 100000; i++) {
+            Timeout timeout = scheduled.poll();
+            if (timeout == null) {
+                break;
+            }
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            long expirationTick = (timeout.deadline - startTime) / tick;
+            // never place a timeout in the past, it would wait a full turn
+            long target = Math.max(expirationTick, ticks);
+            timeout.rounds = (target - ticks) / wheel.length;
+            wheel[(int) (target % wheel.length)].add(timeout);
+        }
+    }
+}
@@ -6,12 +6,14 @@
 package org.geoserver.ows;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.Collections;
@@ -23,6 +25,7 @@ import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMultipart;
 import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletResponse;
+import javax.xml.parsers.DocumentBuilderFactory;
 
 import junit.framework.TestCase;
 
@@ -33,6 +36,9 @@ import org.geoserver.test.CodeExpectingHttpServletResponse;
 import org.geotools.util.Version;
 import org.springframework.context.support.FileSystemXmlApplicationContext;
 import org.springframework.web.servlet.ModelAndView;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
 
 import com.mockrunner.mock.web.MockHttpServletRequest;
 import com.mockrunner.mock.web.MockHttpServletResponse;
@@ -944,4 +950,69 @@ public class DispatcherTest extends TestCase {
 
         assertEquals("Hello world!", response.getOutputStreamContent());
     }
+
+    public void testSOAPRequest() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setContextPath("/geoserver");
+        request.setRequestURI("/geoserver/hello");
+        request.setMethod("post");
+        request.setContentType("application/soap+xml");
+
+        String xml = "<soap:Envelope xmlns:soap='http://www.w3.org/2003/05/soap-envelope'>"
+                + "<soap:Header><skip><me/></skip></soap:Header><soap:Body>"
+                + "<Hello service='hello' message='Hello world!' version='1.0.0' />"
+                + "</soap:Body></soap:Envelope>";
+        request.setBodyContent(xml);
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        URL url = getClass().getResource("applicationContext.xml");
+        FileSystemXmlApplicationContext context = new FileSystemXmlApplicationContext(url.toString());
+        Dispatcher dispatcher = (Dispatcher) context.getBean("dispatcher");
+        dispatcher.handleRequestInternal(request, response);
+
+        assertTrue(response.getOutputStreamContent().contains("Hello world!"));
+    }
+
+    public void testSOAPPayloadInheritsNamespaces() throws Exception {
+        String xml = "<?xml version='1.0'?><soap:Envelope "
+                + "xmlns:soap='http://www.w3.org/2003/05/soap-envelope' xmlns:a='http://a'>"
+                + "<soap:Body xmlns:b='http://b'>"
+                + "<a:Payload b:att='x &amp; &quot;y&quot;'><!-- comment --><b:child>1 &lt; 2</b:child>"
+                + "<c:child xmlns:c='http://c'><![CDATA[<raw>]]></c:child></a:Payload>"
+                + "</soap:Body></soap:Envelope>";
+
+        BufferedReader reader = new BufferedReader(new SOAPPayloadReader(
+                new ByteArrayInputStream(xml.getBytes("UTF-8")), Dispatcher.SOAP_NS));
+        StringBuilder payload = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            payload.append(line);
+        }
+
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        Document doc = dbf.newDocumentBuilder().parse(
+                new InputSource(new StringReader(payload.toString())));
+        Element root = doc.getDocumentElement();
+        assertEquals("http://a", root.getNamespaceURI());
+        assertEquals("Payload", root.getLocalName());
+        assertEquals("x & \"y\"", root.getAttributeNS("http://b", "att"));
+        assertEquals("1 < 2", root.getElementsByTagNameNS("http://b", "child").item(0)
+                .getTextContent());
+        assertEquals("<raw>", root.getElementsByTagNameNS("http://c", "child").item(0)
+                .getTextContent());
+    }
+
+    public void testSOAPMissingBody() throws Exception {
+        String xml = "<soap:Envelope xmlns:soap='http://www.w3.org/2003/05/soap-envelope'>"
+                + "<soap:Header/></soap:Envelope>";
+        try {
+            new SOAPPayloadReader(new ByteArrayInputStream(xml.getBytes("UTF-8")),
+                    Dispatcher.SOAP_NS);
+            fail("Should have failed, there is no body");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("Body"));
+        }
+    }
 }
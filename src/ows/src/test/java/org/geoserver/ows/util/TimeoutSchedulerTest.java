@@ -0,0 +1,131 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows.util;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geoserver.ows.util.TimeoutScheduler.Timeout;
+import org.junit.Test;
+
+public class TimeoutSchedulerTest {
+
+    static class Counter implements Runnable {
+        AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public void run() {
+            count.incrementAndGet();
+        }
+    }
+
+    /**
+     * Moves the wheel forward by hand, without the worker thread
+     */
+    static class ManualScheduler extends TimeoutScheduler {
+
+        ManualScheduler() {
+            super(10, 8);
+        }
+
+        @Override
+        void start() {
+            // no worker thread
+        }
+
+        void advanceTo(long time) {
+            while (startTime + (ticks + 1) * tick <= time) {
+                advance(startTime + (ticks + 1) * tick);
+            }
+        }
+    }
+
+    @Test
+    public void testExpire() {
+        ManualScheduler scheduler = new ManualScheduler();
+        Counter counter = new Counter();
+        Timeout timeout = scheduler.scheduleAt(counter, scheduler.startTime + 35);
+
+        scheduler.advanceTo(scheduler.startTime + 30);
+        assertEquals(0, counter.count.get());
+        assertFalse(timeout.isExpired());
+
+        scheduler.advanceTo(scheduler.startTime + 40);
+        assertEquals(1, counter.count.get());
+        assertTrue(timeout.isExpired());
+        assertFalse(timeout.cancel());
+    }
+
+    @Test
+    public void testMultipleRounds() {
+        // the wheel covers 80ms, this timeout needs more than two turns
+        ManualScheduler scheduler = new ManualScheduler();
+        Counter counter = new Counter();
+        scheduler.scheduleAt(counter, scheduler.startTime + 205);
+
+        scheduler.advanceTo(scheduler.startTime + 200);
+        assertEquals(0, counter.count.get());
+
+        scheduler.advanceTo(scheduler.startTime + 210);
+        assertEquals(1, counter.count.get());
+    }
+
+    @Test
+    public void testCancel() {
+        ManualScheduler scheduler = new ManualScheduler();
+        Counter counter = new Counter();
+        Timeout first = scheduler.scheduleAt(counter, scheduler.startTime + 25);
+        Timeout second = scheduler.scheduleAt(counter, scheduler.startTime + 25);
+
+        scheduler.advanceTo(scheduler.startTime + 10);
+        assertTrue(first.cancel());
+        assertTrue(first.isCancelled());
+        assertFalse(first.cancel());
+
+        scheduler.advanceTo(scheduler.startTime + 40);
+        assertEquals(1, counter.count.get());
+        assertFalse(first.isExpired());
+        assertTrue(second.isExpired());
+        assertNull(first.bucket);
+    }
+
+    @Test
+    public void testCancelBeforeTransfer() {
+        ManualScheduler scheduler = new ManualScheduler();
+        Counter counter = new Counter();
+        Timeout timeout = scheduler.scheduleAt(counter, scheduler.startTime + 25);
+        timeout.cancel();
+
+        scheduler.advanceTo(scheduler.startTime + 40);
+        assertEquals(0, counter.count.get());
+    }
+
+    @Test
+    public void testPastDeadline() {
+        ManualScheduler scheduler = new ManualScheduler();
+        scheduler.advanceTo(scheduler.startTime + 100);
+        Counter counter = new Counter();
+        scheduler.scheduleAt(counter, scheduler.startTime);
+
+        scheduler.advanceTo(scheduler.startTime + 110);
+        assertEquals(1, counter.count.get());
+    }
+
+    @Test
+    public void testSharedScheduler() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        TimeoutScheduler.get().schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, 10);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,36 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.ResourceCacheStatistics;
+
+/**
+ * Reports the usage statistics of the {@link org.geoserver.catalog.ResourcePool} caches
+ */
+public class ResourcePoolCacheResource extends MapResource {
+
+    Catalog catalog;
+
+    public ResourcePoolCacheResource(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    @Override
+    public Map getMap() throws Exception {
+        Map<String, Object> caches = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, ResourceCacheStatistics> entry : catalog.getResourcePool()
+                .getCacheStatistics().entrySet()) {
+            caches.put(entry.getKey(), entry.getValue().toMap());
+        }
+
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("caches", caches);
+        return map;
+    }
+}
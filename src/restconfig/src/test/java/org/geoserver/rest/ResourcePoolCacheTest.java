@@ -0,0 +1,40 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import static org.junit.Assert.*;
+import net.sf.json.JSON;
+import net.sf.json.JSONObject;
+
+import org.geoserver.test.GeoServerSystemTestSupport;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Tests for {@link ResourcePoolCacheResource}
+ */
+public class ResourcePoolCacheTest extends GeoServerSystemTestSupport {
+
+    @Test
+    public void testGetAsXML() throws Exception {
+        getCatalog().getResourcePool().getCRS("EPSG:4326");
+        Document dom = getAsDOM("/rest/resourcepool/caches.xml");
+
+        assertNotNull(getFirstElementByTagName(dom, "caches"));
+        assertNotNull(getFirstElementByTagName(dom, "crs"));
+        assertNotNull(getFirstElementByTagName(dom, "hitCount"));
+    }
+
+    @Test
+    public void testGetAsJSON() throws Exception {
+        JSON json = getAsJSON("/rest/resourcepool/caches.json");
+
+        assertTrue(json instanceof JSONObject);
+        JSONObject caches = ((JSONObject) json).getJSONObject("caches");
+        assertTrue(caches.has("crs"));
+        assertTrue(caches.has("style"));
+        assertTrue(caches.getJSONObject("featureType").has("evictionCount"));
+    }
+}
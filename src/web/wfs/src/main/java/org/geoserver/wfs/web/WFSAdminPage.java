@@ -77,6 +77,7 @@ public class WFSAdminPage extends BaseServiceAdminPage<WFSInfo> {
         sl.add( new Radio( "basic", new Model( WFSInfo.ServiceLevel.BASIC ) ) );
         sl.add( new Radio( "transactional", new Model( WFSInfo.ServiceLevel.TRANSACTIONAL  ) ) );
         sl.add( new Radio( "complete", new Model( WFSInfo.ServiceLevel.COMPLETE ) ) );
+        form.add( new TextField<Integer>("insertBatchSize") );
         
         IModel gml2Model = new LoadableDetachableModel(){
             public Object load(){
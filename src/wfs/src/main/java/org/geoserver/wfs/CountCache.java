@@ -0,0 +1,394 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.security.AccessLimits;
+import org.geoserver.security.DataAccessLimits;
+import org.geoserver.security.decorators.SecuredFeatureSource;
+import org.geoserver.wfs.request.TransactionRequest;
+import org.geoserver.wfs.request.TransactionResponse;
+import org.geotools.data.DataAccess;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.data.Transaction;
+import org.geotools.factory.Hints;
+import org.geotools.filter.visitor.SimplifyingFilterVisitor;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.util.logging.Logging;
+import org.opengis.filter.Filter;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Caches the feature counts used to compute numberMatched, so that paging thru a large result
+ * set does not count all the matching features again for each page.
+ * <p>
+ * Counts are keyed by feature type, simplified filter, security limits of the feature source and
+ * SQL view parameters, and are dropped when they expire, or as soon as a transaction touching the
+ * feature type is committed. Changes made outside of WFS transactions (other applications
+ * writing in the store, other nodes of a cluster) are only picked up at expiration. Queries with
+ * joins are never cached.
+ * </p>
+ * <p>
+ * Optionally, the count of unfiltered queries against large PostGIS tables can be estimated from
+ * the table statistics gathered by <code>ANALYZE</code>, instead of being computed exactly.
+ * </p>
+ * <p>
+ * The cache is disabled by default, it's controlled by the following system properties,
+ * environment or servlet context variables:
+ * <ul>
+ * <li>{@link #CACHE_KEY}: set to <code>true</code> to enable the cache</li>
+ * <li>{@link #TTL_KEY}: the time to live of the counts in seconds, 300 by default</li>
+ * <li>{@link #MAX_ENTRIES_KEY}: the maximum number of counts kept, 1000 by default</li>
+ * <li>{@link #ESTIMATE_THRESHOLD_KEY}: the number of rows over which the count of unfiltered
+ * queries is estimated from the table statistics, if supported by the store. By default, 0, counts
+ * are never estimated</li>
+ * </ul>
+ * </p>
+ */
+public class CountCache implements TransactionCallback {
+
+    static final Logger LOGGER = Logging.getLogger(CountCache.class);
+
+    public static final String CACHE_KEY = "GEOSERVER_WFS_COUNT_CACHE";
+
+    public static final String TTL_KEY = "GEOSERVER_WFS_COUNT_CACHE_TTL";
+
+    public static final String MAX_ENTRIES_KEY = "GEOSERVER_WFS_COUNT_CACHE_MAX_ENTRIES";
+
+    public static final String ESTIMATE_THRESHOLD_KEY = "GEOSERVER_WFS_COUNT_ESTIMATE_THRESHOLD";
+
+    static final int DEFAULT_TTL = 300;
+
+    static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /**
+     * The feature types modified by the transaction running in the current thread
+     */
+    static final ThreadLocal<Set<QName>> PENDING = new ThreadLocal<Set<QName>>();
+
+    /**
+     * Identifies a count
+     */
+    static class Key {
+
+        final QName typeName;
+
+        final Object[] parts;
+
+        Key(QName typeName, Object... parts) {
+            this.typeName = typeName;
+            this.parts = parts;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * typeName.hashCode() + Arrays.hashCode(parts);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return typeName.equals(other.typeName) && Arrays.equals(parts, other.parts);
+        }
+
+        @Override
+        public String toString() {
+            return "Key[" + typeName + Arrays.toString(parts) + "]";
+        }
+    }
+
+    boolean enabled;
+
+    long estimateThreshold;
+
+    Cache<Key, Integer> counts;
+
+    AtomicLong hits = new AtomicLong();
+
+    AtomicLong misses = new AtomicLong();
+
+    public CountCache() {
+        this(Boolean.valueOf(GeoServerExtensions.getProperty(CACHE_KEY)),
+                getProperty(TTL_KEY, DEFAULT_TTL), getProperty(MAX_ENTRIES_KEY,
+                        DEFAULT_MAX_ENTRIES), getProperty(ESTIMATE_THRESHOLD_KEY, 0));
+    }
+
+    CountCache(boolean enabled, long ttl, long maxEntries, long estimateThreshold) {
+        this.enabled = enabled;
+        this.estimateThreshold = estimateThreshold;
+        if (enabled) {
+            CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().maximumSize(
+                    maxEntries);
+            if (ttl > 0) {
+                builder.expireAfterWrite(ttl, TimeUnit.SECONDS);
+            }
+            this.counts = builder.build();
+        }
+    }
+
+    static int getProperty(String key, int defaultValue) {
+        String value = GeoServerExtensions.getProperty(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value '" + value + "' for " + key + ", using "
+                        + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Returns the number of features matching the query, from the cache if possible
+     */
+    public int getCount(FeatureTypeInfo meta, final FeatureSource source, final Query query)
+            throws IOException {
+        Key key = enabled ? key(meta, source, query) : null;
+        if (key == null) {
+            return count(source, query);
+        }
+
+        Integer count = counts.getIfPresent(key);
+        if (count != null) {
+            hits.incrementAndGet();
+            return count;
+        }
+        misses.incrementAndGet();
+        try {
+            // concurrent requests for the same count (e.g., parallel page loads) wait for a
+            // single computation
+            final FeatureTypeInfo fti = meta;
+            return counts.get(key, new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    int estimate = estimate(fti, source, query);
+                    return estimate >= 0 ? estimate : count(source, query);
+                }
+            });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to count features", e.getCause());
+        }
+    }
+
+    /**
+     * Builds the cache key, or returns null if the query cannot be cached
+     */
+    Key key(FeatureTypeInfo meta, FeatureSource source, Query query) {
+        if (query.getJoins() != null && !query.getJoins().isEmpty()) {
+            return null;
+        }
+        QName typeName = new QName(meta.getNamespace().getURI(), meta.getName());
+        Filter filter = query.getFilter() == null ? Filter.INCLUDE : SimplifyingFilterVisitor
+                .simplify(query.getFilter());
+        Object viewParams = query.getHints() != null ? query.getHints().get(
+                Hints.VIRTUAL_TABLE_PARAMETERS) : null;
+        return new Key(typeName, filter, limits(source), viewParams, meta.getCqlFilter());
+    }
+
+    /**
+     * The security limits applied by the feature source, null if there are none
+     */
+    AccessLimits limits(FeatureSource source) {
+        if (source instanceof SecuredFeatureSource) {
+            return ((SecuredFeatureSource) source).getPolicy().getLimits();
+        }
+        return null;
+    }
+
+    int count(FeatureSource source, Query query) throws IOException {
+        // make sure we get a count by getting a feature collection
+        // FeatureSource.getCount(...) can return -1
+        return source.getFeatures(query).size();
+    }
+
+    /**
+     * Estimates the count from the table statistics if the query has no filter of any kind and the
+     * table is large enough, returns -1 otherwise
+     */
+    int estimate(FeatureTypeInfo meta, FeatureSource source, Query query) {
+        if (estimateThreshold <= 0 || !isUnfiltered(meta, source, query)) {
+            return -1;
+        }
+        try {
+            DataAccess store = meta.getStore().getDataStore(null);
+            if (!(store instanceof JDBCDataStore)) {
+                return -1;
+            }
+            JDBCDataStore jdbc = (JDBCDataStore) store;
+            if (!jdbc.getSQLDialect().getClass().getName().startsWith("org.geotools.data.postgis")
+                    || jdbc.getVirtualTables().containsKey(meta.getNativeName())) {
+                return -1;
+            }
+            long rows = tableStatistics(jdbc, meta.getNativeName());
+            if (rows >= estimateThreshold && rows <= Integer.MAX_VALUE) {
+                return (int) rows;
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not estimate the count of " + meta.getPrefixedName(), e);
+        }
+        return -1;
+    }
+
+    boolean isUnfiltered(FeatureTypeInfo meta, FeatureSource source, Query query) {
+        if (query.getFilter() != null && query.getFilter() != Filter.INCLUDE) {
+            return false;
+        }
+        if (meta.getCqlFilter() != null && !meta.getCqlFilter().trim().isEmpty()) {
+            return false;
+        }
+        AccessLimits limits = limits(source);
+        if (limits instanceof DataAccessLimits) {
+            Filter readFilter = ((DataAccessLimits) limits).getReadFilter();
+            if (readFilter != null && readFilter != Filter.INCLUDE) {
+                return false;
+            }
+        }
+        return query.getHints() == null
+                || query.getHints().get(Hints.VIRTUAL_TABLE_PARAMETERS) == null;
+    }
+
+    /**
+     * Returns the number of rows estimated by the PostgreSQL planner statistics, or -1 if the
+     * table was never analyzed
+     */
+    long tableStatistics(JDBCDataStore store, String tableName) throws SQLException,
+            IOException {
+        StringBuilder table = new StringBuilder();
+        if (store.getDatabaseSchema() != null) {
+            table.append(quote(store.getDatabaseSchema())).append('.');
+        }
+        table.append(quote(tableName));
+
+        Connection cx = null;
+        PreparedStatement st = null;
+        ResultSet rs = null;
+        try {
+            cx = store.getConnection(Transaction.AUTO_COMMIT);
+            st = cx.prepareStatement("SELECT reltuples FROM pg_class WHERE oid = ?::regclass");
+            st.setString(1, table.toString());
+            rs = st.executeQuery();
+            if (rs.next()) {
+                long rows = (long) rs.getDouble(1);
+                // tables never analyzed or vacuumed report zero (or -1 in recent versions)
+                return rows > 0 ? rows : -1;
+            }
+            return -1;
+        } finally {
+            store.closeSafe(rs);
+            store.closeSafe(st);
+            store.closeSafe(cx);
+        }
+    }
+
+    static String quote(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+
+    @Override
+    public void beforeTransaction(TransactionRequest request) throws WFSException {
+        // in case the previous transaction on this thread did not complete normally
+        PENDING.remove();
+    }
+
+    @Override
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        if (enabled && event.getLayerName() != null) {
+            // the changes are not committed yet, a count running now would still see the old
+            // data, so invalidate only after the commit
+            Set<QName> pending = PENDING.get();
+            if (pending == null) {
+                pending = new HashSet<QName>();
+                PENDING.set(pending);
+            }
+            pending.add(event.getLayerName());
+        }
+    }
+
+    @Override
+    public void afterTransaction(TransactionRequest request, TransactionResponse result,
+            boolean committed) {
+        if (committed) {
+            invalidatePending();
+        } else {
+            PENDING.remove();
+        }
+    }
+
+    void invalidatePending() {
+        Set<QName> pending = PENDING.get();
+        PENDING.remove();
+        if (pending != null) {
+            for (QName typeName : pending) {
+                invalidate(typeName);
+            }
+        }
+    }
+
+    /**
+     * Drops all the counts of the given feature type
+     */
+    public void invalidate(QName typeName) {
+        if (!enabled) {
+            return;
+        }
+        for (Iterator<Key> it = counts.asMap().keySet().iterator(); it.hasNext();) {
+            Key key = it.next();
+            if (key.typeName.equals(typeName)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops all the cached counts
+     */
+    public void clear() {
+        if (enabled) {
+            counts.invalidateAll();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -7,6 +7,7 @@ package org.geoserver.wfs;
 
 import java.io.IOException;
 
+import org.geoserver.catalog.FeatureTypeInfo;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
 
@@ -27,11 +28,25 @@ class CountExecutor {
 
     int providedCount = COUNT_UNSET;
 
+    FeatureTypeInfo meta;
+
+    CountCache cache;
+
     public CountExecutor(FeatureSource source, Query query) {
         this.source = source;
         this.query = query;
     }
 
+    /**
+     * Builds an executor looking up the count in the provided cache first
+     */
+    public CountExecutor(FeatureTypeInfo meta, FeatureSource source, Query query,
+            CountCache cache) {
+        this(source, query);
+        this.meta = meta;
+        this.cache = cache;
+    }
+
     public CountExecutor(int providedCount) {
         this.providedCount = providedCount;
     }
@@ -39,6 +54,8 @@ class CountExecutor {
     public int getCount() throws IOException {
         if(providedCount != COUNT_UNSET) {
             return providedCount;
+        } else if (cache != null) {
+            return cache.getCount(meta, source, query);
         } else {
             // make sure we get a count by getting a feature colleciton
             // FeatureSource.getCount(...) can return -1
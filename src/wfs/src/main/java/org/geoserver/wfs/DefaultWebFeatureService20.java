@@ -49,6 +49,9 @@ public class DefaultWebFeatureService20 implements WebFeatureService20, Applicat
     /** filter factory */
     protected FilterFactory2 filterFactory;
 
+    /** cache of the counts used to compute numberMatched */
+    protected CountCache countCache;
+
     /**
      * The spring application context, used to look up transaction listeners, plugins and
      * element handlers
@@ -62,6 +65,10 @@ public class DefaultWebFeatureService20 implements WebFeatureService20, Applicat
     public void setFilterFactory(FilterFactory2 filterFactory) {
         this.filterFactory = filterFactory;
     }
+
+    public void setCountCache(CountCache countCache) {
+        this.countCache = countCache;
+    }
     
     public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
         this.context = applicationContext;
@@ -93,6 +100,7 @@ public class DefaultWebFeatureService20 implements WebFeatureService20, Applicat
     public FeatureCollectionResponse getFeature(GetFeatureType request) throws WFSException {
         GetFeature gf = new GetFeature(getServiceInfo(), getCatalog());
         gf.setFilterFactory(filterFactory);
+        gf.setCountCache(countCache);
         gf.setStoredQueryProvider(getStoredQueryProvider());
         
         return gf.run(new GetFeatureRequest.WFS20(request));
@@ -13,8 +13,16 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.xml.namespace.QName;
@@ -34,6 +42,7 @@ import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.Request;
 import org.geoserver.ows.URLMangler.URLType;
 import org.geoserver.ows.util.KvpMap;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
 import org.geoserver.wfs.request.GetFeatureRequest;
 import org.geoserver.wfs.request.Lock;
@@ -102,6 +111,7 @@ import org.opengis.filter.temporal.TContains;
 import org.opengis.filter.temporal.TEquals;
 import org.opengis.metadata.extent.GeographicBoundingBox;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.xml.sax.helpers.NamespaceSupport;
 /**
  * Web Feature Service GetFeature operation.
@@ -168,12 +178,26 @@ public class GetFeature {
         joinFilterCapabilities.addType(Not.class);
     }
 
+    /**
+     * System/context/environment variable holding the number of threads used to run the queries
+     * of multi query requests in parallel, the queries are run sequentially if unset or not
+     * positive
+     */
+    public static final String QUERY_PARALLELISM = "GEOSERVER_WFS_QUERY_PARALLELISM";
+
+    static ExecutorService queryExecutor;
+
+    static volatile boolean queryExecutorInitialized;
+
     /** The catalog */
     protected Catalog catalog;
 
     /** The wfs configuration */
     protected WFSInfo wfs;
 
+    /** cache of the counts used to compute numberMatched, may be null */
+    protected CountCache countCache;
+
     /** filter factory */
     protected FilterFactory2 filterFactory;
 
@@ -218,6 +242,13 @@ public class GetFeature {
         this.filterFactory = filterFactory;
     }
     
+    /**
+     * Sets the cache of the counts used to compute numberMatched
+     */
+    public void setCountCache(CountCache countCache) {
+        this.countCache = countCache;
+    }
+
     /**
      * Sets the stored query provider
      */
@@ -318,9 +349,31 @@ public class GetFeature {
         boolean calculateSize = !(("1.0".equals(request.getVersion()) || "1.0.0".equals(request.getVersion())) && 
             (queries.size() == 1 || maxFeatures == Integer.MAX_VALUE));
 
+        // keyset paging, if enabled and applicable
+        KeysetPaging keyset = null;
+        KeysetPaging.Cursor cursor = null;
+        Request dispatcherRequest = Dispatcher.REQUEST.get();
+        if (queries.size() == 1 && !queries.get(0).getSortBy().isEmpty()
+                && dispatcherRequest != null && dispatcherRequest.isGet()
+                && KeysetPaging.isEnabled() && isKeysetPageable(queries.get(0))) {
+            keyset = new KeysetPaging(queries.get(0).getSortBy());
+            String encoded = dispatcherRequest.getRawKvp() != null ? (String) new KvpMap(
+                    dispatcherRequest.getRawKvp()).get(KeysetPaging.CURSOR_KEY) : null;
+            if (encoded != null && !encoded.isEmpty()) {
+                cursor = KeysetPaging.Cursor.decode(encoded);
+                // the cursor replaces the start index, only the features sharing the cursor
+                // sort keys need to be skipped
+                totalOffset = cursor.ties;
+                offset = totalOffset;
+            }
+        }
+        FeatureSource keysetSource = null;
+        org.geotools.data.Query keysetQuery = null;
+
         List results = new ArrayList();
         final List<CountExecutor> totalCountExecutors = new ArrayList<CountExecutor>();
         try {
+            openFeatureSources(queries, request);
             for (int i = 0; (i < queries.size()) && (count < maxFeatures); i++) {
 
                 Query query = queries.get(i);
@@ -506,6 +559,16 @@ public class GetFeature {
                         queryMaxFeatures, source, request, allPropNames.get(0), viewParam,
                             joins, primaryTypeName, primaryAlias);
 
+                if (keyset != null) {
+                    if (cursor != null) {
+                        List<Object> values = keyset.parse(cursor, source.getSchema());
+                        gtQuery.setFilter(filterFactory.and(gtQuery.getFilter(),
+                                keyset.startingAt(values)));
+                    }
+                    keysetSource = source;
+                    keysetQuery = gtQuery;
+                }
+
                 LOGGER.fine("Query is " + query + "\n To gt2: " + gtQuery);
 
                 FeatureCollection<? extends FeatureType, ? extends Feature> features = getFeatures(request, source, gtQuery);
@@ -565,13 +628,14 @@ public class GetFeature {
                 if (!isNumberMatchedSkipped) {
                         if (calculateSize
                                 && (queryMaxFeatures == Integer.MAX_VALUE || size < queryMaxFeatures)
-                                && offset <= 0) {
+                                && offset <= 0 && cursor == null) {
                         totalCountExecutors.add(new CountExecutor(size));
                     } else {
                         org.geotools.data.Query qTotal = toDataQuery(query, filter, 0,
                                 Integer.MAX_VALUE, source, request, allPropNames.get(0), viewParam,
                                 joins, primaryTypeName, primaryAlias);
-                        totalCountExecutors.add(new CountExecutor(source, qTotal));
+                        totalCountExecutors.add(new CountExecutor(primaryMeta, source, qTotal,
+                                countCache));
                     }
                 }
 
@@ -618,7 +682,7 @@ public class GetFeature {
             // where the client has limited the result set size, so we compute it lazily
             if (isNumberMatchedSkipped) {
                 totalCount = BigInteger.valueOf(-1);
-            } else if(count < maxFeatures && calculateSize) {
+            } else if(count < maxFeatures && calculateSize && cursor == null) {
                  // optimization: if count < max features then total count == count
                  totalCount = BigInteger.valueOf(count);
             } else {
@@ -632,8 +696,7 @@ public class GetFeature {
                     @Override
                     public Object loadObject() throws Exception {
                         long totalCount = 0;
-                        for (CountExecutor q : totalCountExecutors) {
-                            int result = q.getCount();
+                        for (int result : getCounts(totalCountExecutors)) {
                             // if the count is unknown for one, we don't know the total, period
                             if(result == -1) {
                                 totalCount = -1;
@@ -684,11 +747,173 @@ public class GetFeature {
             lockId = response.getLockId();
         }
 
-        return buildResults(request, totalOffset, maxFeatures, count, totalCount, results, lockId);
+        FeatureCollectionResponse result = buildResults(request, totalOffset, maxFeatures, count,
+                totalCount, results, lockId);
+        if (keysetQuery != null) {
+            setKeysetLinks(request, result, keyset, cursor, keysetSource, keysetQuery, count,
+                    maxFeatures);
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the start index based next link with a cursor based one
+     */
+    void setKeysetLinks(GetFeatureRequest request, FeatureCollectionResponse result,
+            KeysetPaging keyset, KeysetPaging.Cursor cursor, FeatureSource source,
+            org.geotools.data.Query page, int count, int maxFeatures) {
+        if (cursor != null) {
+            // going back would require reading the features in the opposite order
+            result.setPrevious(null);
+        }
+        if (result.getNext() == null) {
+            return;
+        }
+
+        KeysetPaging.Cursor next = null;
+        try {
+            next = keyset.next(source, page, count);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to compute the keyset paging cursor", e);
+        }
+        if (next == null) {
+            if (cursor != null) {
+                // the start index of the next page is unknown
+                LOGGER.warning("Could not build the next page cursor, null sort keys?");
+                result.setNext(null);
+            }
+            return;
+        }
+
+        Map<String, String> kvp = new KvpMap(Dispatcher.REQUEST.get().getRawKvp());
+        // KvpMap upper cases the keys
+        kvp.remove("STARTINDEX");
+        kvp.put(KeysetPaging.CURSOR_KEY, next.encode());
+        kvp.put("count", String.valueOf(maxFeatures));
+        result.setNext(buildURL(request.getBaseUrl(), "wfs", kvp, URLType.SERVICE));
     }
 
 
 
+    /**
+     * Returns the executor running the per query work of multi query requests in parallel, or
+     * null if parallel execution is disabled
+     */
+    static ExecutorService getQueryExecutor() {
+        if (!queryExecutorInitialized) {
+            synchronized (GetFeature.class) {
+                if (!queryExecutorInitialized) {
+                    int threads = 0;
+                    String value = GeoServerExtensions.getProperty(QUERY_PARALLELISM);
+                    if (value != null) {
+                        try {
+                            threads = Integer.parseInt(value.trim());
+                        } catch (NumberFormatException e) {
+                            LOGGER.warning("Invalid value for " + QUERY_PARALLELISM + ": " + value
+                                    + ", queries will be run sequentially");
+                        }
+                    }
+                    if (threads > 0) {
+                        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(
+                                "GetFeatureQuery-");
+                        threadFactory.setDaemon(true);
+                        queryExecutor = Executors.newFixedThreadPool(threads, threadFactory);
+                    }
+                    queryExecutorInitialized = true;
+                }
+            }
+        }
+        return queryExecutor;
+    }
+
+    /**
+     * Opens the feature sources of a multi query request in parallel, so that the data stores
+     * behind them, which might be slow to connect to, are ready by the time each query is run.
+     * Errors are ignored here, they will be reported in query order while running the queries.
+     */
+    void openFeatureSources(List<Query> queries, GetFeatureRequest request) {
+        ExecutorService executor = getQueryExecutor();
+        if (executor == null || queries.size() < 2) {
+            return;
+        }
+        Set<FeatureTypeInfo> metas = new LinkedHashSet<FeatureTypeInfo>();
+        for (Query query : queries) {
+            for (QName typeName : query.getTypeNames()) {
+                FeatureTypeInfo meta = catalog.getFeatureTypeByName(typeName.getNamespaceURI(),
+                        typeName.getLocalPart());
+                if (meta != null) {
+                    metas.add(meta);
+                }
+            }
+        }
+        if (metas.size() < 2) {
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (final FeatureTypeInfo meta : metas) {
+            futures.add(executor.submit(new Callable<Object>() {
+
+                @Override
+                public Object call() throws Exception {
+                    return meta.getFeatureSource(null, null);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.FINE, "Failed to open feature source in advance", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Runs the count executors, in parallel if enabled, returning the counts in the same order
+     */
+    static int[] getCounts(List<CountExecutor> executors) throws IOException {
+        int[] counts = new int[executors.size()];
+        ExecutorService executor = getQueryExecutor();
+        if (executor == null || executors.size() < 2) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = executors.get(i).getCount();
+            }
+            return counts;
+        }
+
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (final CountExecutor ce : executors) {
+            futures.add(executor.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    return ce.getCount();
+                }
+            }));
+        }
+        try {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = futures.get(i).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while counting features", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to count features", e.getCause());
+        } finally {
+            for (Future<Integer> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return counts;
+    }
+
     protected void processStoredQueries(GetFeatureRequest request) {
         List queries = request.getAdaptedQueries();
         for (int i = 0; i < queries.size(); i++) {
@@ -1105,6 +1330,29 @@ public class GetFeature {
         return visitor.getFilterPost() == null || visitor.getFilterPost() == Filter.INCLUDE;
     }
 
+    /**
+     * Returns true if the query can be paged with {@link KeysetPaging}, that is, it targets a
+     * single simple feature type, without joins. The cursor of other queries is ignored, and
+     * the start index is used instead.
+     */
+    boolean isKeysetPageable(Query query) {
+        if (query.getTypeNames().size() != 1) {
+            return false;
+        }
+        QName name = query.getTypeNames().get(0);
+        FeatureTypeInfo meta = catalog.getFeatureTypeByName(name.getNamespaceURI(),
+                name.getLocalPart());
+        if (meta == null) {
+            return false;
+        }
+        try {
+            return meta.getFeatureType() instanceof SimpleFeatureType;
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Could not check the feature type of " + name, e);
+            return false;
+        }
+    }
+
     FeatureTypeInfo featureTypeInfo(QName name, GetFeatureRequest request) throws WFSException, IOException {
         FeatureTypeInfo meta = catalog.getFeatureTypeByName(name.getNamespaceURI(), name.getLocalPart());
 
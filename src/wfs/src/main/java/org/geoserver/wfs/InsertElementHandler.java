@@ -10,6 +10,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -86,16 +87,27 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
         long inserted = response.getTotalInserted().longValue();
 
         try {
-            // group features by their schema
-            HashMap /* <SimpleFeatureType,FeatureCollection> */ schema2features = new HashMap();
+            // JD: change from set fo list because if inserting
+            // features into different feature stores, they could very well
+            // get given the same id
+            // JD: change from list to map so that the map can later be
+            // processed and we can report the fids back in the same order
+            // as they were supplied
+            Map<String, List<FeatureId>> schema2fids = new HashMap<String, List<FeatureId>>();
 
+            // group features by their schema, handing them over to the store every batchSize
+            // features. This only bounds the size of each addFeatures call and of the
+            // collections carried by the insert events, the parser has already built the whole
+            // Insert element, so memory use still grows with the request size
+            Map<SimpleFeatureType, DefaultFeatureCollection> schema2features = 
+                new LinkedHashMap<SimpleFeatureType, DefaultFeatureCollection>();
+            Integer batchSize = getInfo().getInsertBatchSize();
             
             List featureList = insert.getFeatures();
             for (Iterator f = featureList.iterator(); f.hasNext();) {
                 SimpleFeature feature = (SimpleFeature) f.next();
                 SimpleFeatureType schema = feature.getFeatureType();
-                DefaultFeatureCollection collection = 
-                    (DefaultFeatureCollection) schema2features.get(schema);
+                DefaultFeatureCollection collection = schema2features.get(schema);
 
                 if (collection == null) {
                     collection = new DefaultFeatureCollection(null, schema);
@@ -109,90 +121,15 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
                 }
 
                 collection.add(feature);
-            }
-
-            // JD: change from set fo list because if inserting
-            // features into different feature stores, they could very well
-            // get given the same id
-            // JD: change from list to map so that the map can later be
-            // processed and we can report the fids back in the same order
-            // as they were supplied
-            Map<String, List<FeatureId>> schema2fids = new HashMap<String, List<FeatureId>>();
-
-            for (Iterator c = schema2features.values().iterator(); c.hasNext();) {
-                SimpleFeatureCollection collection = (SimpleFeatureCollection) c.next();
-                SimpleFeatureType schema = collection.getSchema();
-
-                final QName elementName = new QName(schema.getName().getNamespaceURI(), schema.getTypeName());
-                SimpleFeatureStore store;
-                store = DataUtilities.simple((FeatureStore) featureStores.get(elementName));
-
-                if (store == null) {
-                    throw new WFSException(request, "Could not locate FeatureStore for '" + elementName
-                        + "'");
+                
+                if (batchSize != null && batchSize > 0 && collection.size() >= batchSize) {
+                    insert(collection, insert, request, featureStores, schema2fids, listener);
+                    schema2features.remove(schema);
                 }
+            }
 
-                if (collection != null) {
-                    // if we really need to, make sure we are inserting coordinates that do
-                    // match the CRS area of validity
-                    if(getInfo().isCiteCompliant()) {
-                        checkFeatureCoordinatesRange(collection);
-                    }
-                    
-                    // reprojection
-                    final GeometryDescriptor defaultGeometry = store.getSchema().getGeometryDescriptor();
-                    if(defaultGeometry != null) {
-                        CoordinateReferenceSystem target = defaultGeometry.getCoordinateReferenceSystem();
-                        if (target != null) {
-                            collection = new ReprojectingFeatureCollection(collection, target);
-                        }
-                    }
-                    
-                    // Need to use the namespace here for the
-                    // lookup, due to our weird
-                    // prefixed internal typenames. see
-                    // https://osgeo-org.atlassian.net/browse/GEOS-143
-
-                    // Once we get our datastores making features
-                    // with the correct namespaces
-                    // we can do something like this:
-                    // FeatureTypeInfo typeInfo =
-                    // catalog.getFeatureTypeInfo(schema.getTypeName(),
-                    // schema.getNamespace());
-                    // until then (when geos-144 is resolved) we're
-                    // stuck with:
-                    // QName qName = (QName) typeNames.get( i );
-                    // FeatureTypeInfo typeInfo =
-                    // catalog.featureType( qName.getPrefix(),
-                    // qName.getLocalPart() );
-
-                    // this is possible with the insert hack above.
-                    LOGGER.finer("Use featureValidation to check contents of insert");
-
-                    // featureValidation(
-                    // typeInfo.getDataStore().getId(), schema,
-                    // collection );
-                    List<FeatureId> fids = schema2fids.get(schema.getTypeName());
-
-                    if (fids == null) {
-                        fids = new LinkedList<FeatureId>();
-                        schema2fids.put(schema.getTypeName(), fids);
-                    }
-
-                    //fire pre insert event
-                    TransactionEvent event = new TransactionEvent(TransactionEventType.PRE_INSERT,
-                            request, elementName, collection);
-                    event.setSource(Insert.WFS11.unadapt(insert));
-                    
-                    listener.dataStoreChange( event );
-                    fids.addAll(store.addFeatures(collection));
-                    
-                    //fire post insert event
-                    SimpleFeatureCollection features = store.getFeatures(filterFactory.id(new HashSet<FeatureId>(fids)));
-                    event = new TransactionEvent(TransactionEventType.POST_INSERT, request, 
-                        elementName, features, Insert.WFS11.unadapt(insert));
-                    listener.dataStoreChange( event );
-                }
+            for (DefaultFeatureCollection collection : schema2features.values()) {
+                insert(collection, insert, request, featureStores, schema2fids, listener);
             }
 
             // report back fids, we need to keep the same order the
@@ -219,6 +156,86 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
         response.setTotalInserted(BigInteger.valueOf(inserted));
     }
 
+
+    /**
+     * Inserts a batch of features sharing the same schema, firing the pre and post insert events
+     * around it
+     */
+    void insert(SimpleFeatureCollection collection, Insert insert, TransactionRequest request,
+            Map featureStores, Map<String, List<FeatureId>> schema2fids,
+            TransactionListener listener) throws Exception {
+        SimpleFeatureType schema = collection.getSchema();
+
+        final QName elementName = new QName(schema.getName().getNamespaceURI(), schema.getTypeName());
+        SimpleFeatureStore store;
+        store = DataUtilities.simple((FeatureStore) featureStores.get(elementName));
+
+        if (store == null) {
+            throw new WFSException(request, "Could not locate FeatureStore for '" + elementName
+                + "'");
+        }
+
+        // if we really need to, make sure we are inserting coordinates that do
+        // match the CRS area of validity
+        if(getInfo().isCiteCompliant()) {
+            checkFeatureCoordinatesRange(collection);
+        }
+        
+        // reprojection
+        final GeometryDescriptor defaultGeometry = store.getSchema().getGeometryDescriptor();
+        if(defaultGeometry != null) {
+            CoordinateReferenceSystem target = defaultGeometry.getCoordinateReferenceSystem();
+            if (target != null) {
+                collection = new ReprojectingFeatureCollection(collection, target);
+            }
+        }
+        
+        // Need to use the namespace here for the
+        // lookup, due to our weird
+        // prefixed internal typenames. see
+        // https://osgeo-org.atlassian.net/browse/GEOS-143
+
+        // Once we get our datastores making features
+        // with the correct namespaces
+        // we can do something like this:
+        // FeatureTypeInfo typeInfo =
+        // catalog.getFeatureTypeInfo(schema.getTypeName(),
+        // schema.getNamespace());
+        // until then (when geos-144 is resolved) we're
+        // stuck with:
+        // QName qName = (QName) typeNames.get( i );
+        // FeatureTypeInfo typeInfo =
+        // catalog.featureType( qName.getPrefix(),
+        // qName.getLocalPart() );
+
+        // this is possible with the insert hack above.
+        LOGGER.finer("Use featureValidation to check contents of insert");
+
+        // featureValidation(
+        // typeInfo.getDataStore().getId(), schema,
+        // collection );
+        List<FeatureId> fids = schema2fids.get(schema.getTypeName());
+
+        if (fids == null) {
+            fids = new LinkedList<FeatureId>();
+            schema2fids.put(schema.getTypeName(), fids);
+        }
+
+        //fire pre insert event
+        TransactionEvent event = new TransactionEvent(TransactionEventType.PRE_INSERT,
+                request, elementName, collection);
+        event.setSource(Insert.WFS11.unadapt(insert));
+        
+        listener.dataStoreChange( event );
+        List<FeatureId> batchFids = store.addFeatures(collection);
+        fids.addAll(batchFids);
+        
+        //fire post insert event, for the features of this batch only
+        SimpleFeatureCollection features = store.getFeatures(filterFactory.id(new HashSet<FeatureId>(batchFids)));
+        event = new TransactionEvent(TransactionEventType.POST_INSERT, request, 
+            elementName, features, Insert.WFS11.unadapt(insert));
+        listener.dataStoreChange( event );
+    }
     
     /**
      * Checks that all features coordinates are within the expected coordinate range
@@ -0,0 +1,285 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Base64;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.util.Converters;
+import org.opengis.feature.Feature;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.FeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+
+/**
+ * Keyset (seek) paging for GetFeature.
+ * <p>
+ * When enabled, the next link of a sorted GetFeature GET request carries an opaque
+ * {@link #CURSOR_KEY cursor} instead of a start index. The cursor holds the values of the sort
+ * keys of the last feature of the page, and the number of features sharing those same values
+ * that were already returned. The next page is then read with a filter selecting the features
+ * sorted after the cursor, so the store does not need to skip all the features of the previous
+ * pages, only the few that share the cursor values.
+ * </p>
+ * <p>
+ * The mode is disabled by default, set the {@link #ENABLED_KEY} system property, environment or
+ * servlet context variable to <code>true</code> to enable it. It applies to GET requests with a
+ * single query on a simple feature type, without joins, sorted by at least one property, on
+ * other requests the cursor is ignored and the start index is used. The sort properties are
+ * expected not to contain null values: if the last feature of a page has a null sort key the
+ * next link falls back to the start index, or is omitted if the page was read thru a cursor.
+ * The previous link is not available when paging thru cursors.
+ * </p>
+ */
+public class KeysetPaging {
+
+    public static final String ENABLED_KEY = "GEOSERVER_WFS_KEYSET_PAGING";
+
+    /**
+     * The request parameter holding the cursor
+     */
+    public static final String CURSOR_KEY = "CURSOR";
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
+    /**
+     * Returns true if keyset paging is enabled
+     */
+    public static boolean isEnabled() {
+        return Boolean.valueOf(GeoServerExtensions.getProperty(ENABLED_KEY));
+    }
+
+    /**
+     * A position in the sorted result
+     */
+    static class Cursor {
+
+        /**
+         * The sort properties, used to check the cursor is used with the same sorting
+         */
+        List<String> properties = new ArrayList<String>();
+
+        /**
+         * The sort key values of the last feature returned
+         */
+        List<String> values = new ArrayList<String>();
+
+        /**
+         * The number of features with the same sort key values already returned
+         */
+        int ties;
+
+        String encode() {
+            try {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                DataOutputStream dos = new DataOutputStream(bos);
+                dos.writeInt(ties);
+                dos.writeInt(properties.size());
+                for (int i = 0; i < properties.size(); i++) {
+                    dos.writeUTF(properties.get(i));
+                    dos.writeUTF(values.get(i));
+                }
+                dos.close();
+                return Base64.encodeBase64URLSafeString(bos.toByteArray());
+            } catch (IOException e) {
+                // cannot happen writing in memory
+                throw new RuntimeException(e);
+            }
+        }
+
+        static Cursor decode(String encoded) throws WFSException {
+            try {
+                DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+                        Base64.decodeBase64(encoded)));
+                Cursor cursor = new Cursor();
+                cursor.ties = dis.readInt();
+                int size = dis.readInt();
+                if (cursor.ties < 0 || size <= 0 || size > 100) {
+                    throw new IOException("Invalid cursor contents");
+                }
+                for (int i = 0; i < size; i++) {
+                    cursor.properties.add(dis.readUTF());
+                    cursor.values.add(dis.readUTF());
+                }
+                return cursor;
+            } catch (IOException e) {
+                throw new WFSException("Invalid paging cursor: " + encoded, e,
+                        "InvalidParameterValue", CURSOR_KEY);
+            }
+        }
+    }
+
+    final List<SortBy> sortBy;
+
+    public KeysetPaging(List<SortBy> sortBy) {
+        this.sortBy = sortBy;
+    }
+
+    /**
+     * Parses the cursor values into the types of the sort properties
+     */
+    List<Object> parse(Cursor cursor, FeatureType schema) throws WFSException {
+        if (cursor.properties.size() != sortBy.size()) {
+            throw new WFSException("The paging cursor does not match the requested sorting",
+                    "InvalidParameterValue", CURSOR_KEY);
+        }
+        List<Object> values = new ArrayList<Object>();
+        for (int i = 0; i < sortBy.size(); i++) {
+            PropertyName name = sortBy.get(i).getPropertyName();
+            if (!name.getPropertyName().equals(cursor.properties.get(i))) {
+                throw new WFSException("The paging cursor does not match the requested sorting",
+                        "InvalidParameterValue", CURSOR_KEY);
+            }
+            Class<?> binding = String.class;
+            Object descriptor = name.evaluate(schema);
+            if (descriptor instanceof AttributeDescriptor) {
+                binding = ((AttributeDescriptor) descriptor).getType().getBinding();
+            }
+            Object value = parse(cursor.values.get(i), binding);
+            if (value == null) {
+                throw new WFSException("Invalid paging cursor value for "
+                        + name.getPropertyName(), "InvalidParameterValue", CURSOR_KEY);
+            }
+            values.add(value);
+        }
+        return values;
+    }
+
+    Object parse(String value, Class<?> binding) {
+        try {
+            if (java.sql.Date.class.isAssignableFrom(binding)) {
+                return java.sql.Date.valueOf(value);
+            } else if (Time.class.isAssignableFrom(binding)) {
+                return Time.valueOf(value);
+            } else if (Date.class.isAssignableFrom(binding)) {
+                return Timestamp.valueOf(value);
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return Converters.convert(value, binding);
+    }
+
+    static String format(Object value) {
+        if (value instanceof Date && !(value instanceof java.sql.Date)
+                && !(value instanceof Time) && !(value instanceof Timestamp)) {
+            return new Timestamp(((Date) value).getTime()).toString();
+        }
+        return value.toString();
+    }
+
+    /**
+     * Builds the filter selecting the features sorted at or after the given sort key values
+     */
+    public Filter startingAt(List<Object> values) {
+        return compare(values, 0, true);
+    }
+
+    /**
+     * Builds the filter selecting the features sorted strictly before the given sort key values
+     */
+    public Filter before(List<Object> values) {
+        return compare(values, 0, false);
+    }
+
+    /**
+     * Builds key[i] after value[i] OR (key[i] = value[i] AND (...)), ending with an inclusive
+     * comparison, or the opposite when looking for the features before the values
+     */
+    Filter compare(List<Object> values, int i, boolean after) {
+        SortBy sort = sortBy.get(i);
+        PropertyName name = sort.getPropertyName();
+        Literal value = FF.literal(values.get(i));
+        boolean greater = (sort.getSortOrder() == SortOrder.DESCENDING) != after;
+        if (i == values.size() - 1) {
+            if (after) {
+                return greater ? FF.greaterOrEqual(name, value) : FF.lessOrEqual(name, value);
+            } else {
+                return greater ? FF.greater(name, value) : FF.less(name, value);
+            }
+        }
+        Filter strict = greater ? FF.greater(name, value) : FF.less(name, value);
+        return FF.or(strict, FF.and(FF.equals(name, value), compare(values, i + 1, after)));
+    }
+
+    /**
+     * Computes the cursor pointing after the page read with the given query, or returns null if
+     * the cursor cannot be built (e.g., the last feature has null sort keys)
+     *
+     * @param source The source the page was read from
+     * @param page The query used to read the page
+     * @param count The number of features in the page
+     */
+    Cursor next(FeatureSource source, Query page, int count) throws IOException {
+        int pageOffset = page.getStartIndex() != null ? page.getStartIndex() : 0;
+
+        // read the sort keys of the last feature in the page
+        Query lastQuery = new Query(page);
+        lastQuery.setStartIndex(pageOffset + count - 1);
+        lastQuery.setMaxFeatures(1);
+        List<PropertyName> properties = new ArrayList<PropertyName>();
+        for (SortBy sort : sortBy) {
+            properties.add(sort.getPropertyName());
+        }
+        lastQuery.setProperties(properties);
+        List<Object> values = new ArrayList<Object>();
+        FeatureIterator it = source.getFeatures(lastQuery).features();
+        try {
+            if (!it.hasNext()) {
+                return null;
+            }
+            Feature last = it.next();
+            for (SortBy sort : sortBy) {
+                Object value = sort.getPropertyName().evaluate(last);
+                if (value == null) {
+                    return null;
+                }
+                values.add(value);
+            }
+        } finally {
+            it.close();
+        }
+
+        // the features sharing the last sort keys are contiguous and end the page, count how
+        // many were returned by looking for where they start
+        Query beforeQuery = new Query(page);
+        beforeQuery.setFilter(FF.and(page.getFilter(), before(values)));
+        beforeQuery.setStartIndex(null);
+        beforeQuery.setMaxFeatures(Query.DEFAULT_MAX);
+        beforeQuery.setSortBy(null);
+        beforeQuery.setProperties(Query.NO_PROPERTIES);
+        int before = source.getCount(beforeQuery);
+        if (before < 0) {
+            before = source.getFeatures(beforeQuery).size();
+        }
+
+        Cursor cursor = new Cursor();
+        for (int i = 0; i < sortBy.size(); i++) {
+            cursor.properties.add(sortBy.get(i).getPropertyName().getPropertyName());
+            cursor.values.add(format(values.get(i)));
+        }
+        cursor.ties = pageOffset + count - before;
+        return cursor;
+    }
+}
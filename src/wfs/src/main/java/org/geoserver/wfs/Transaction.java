@@ -74,6 +74,7 @@ public class Transaction {
     protected List transactionElementHandlers = new ArrayList();
     protected List transactionListeners = new ArrayList();
     protected List transactionPlugins = new ArrayList();
+    protected List<TransactionCallback> transactionCallbacks = new ArrayList<TransactionCallback>();
     
     public Transaction(WFSInfo wfs, Catalog catalog, ApplicationContext context) {
         this.wfs = wfs;
@@ -83,6 +84,8 @@ public class Transaction {
         transactionElementHandlers.addAll(GeoServerExtensions.extensions(TransactionElementHandler.class));
         transactionListeners.addAll(GeoServerExtensions.extensions(TransactionListener.class));
         transactionPlugins.addAll(GeoServerExtensions.extensions(TransactionPlugin.class));
+        // callbacks are listeners too, they get the change events along with the other listeners
+        transactionCallbacks.addAll(GeoServerExtensions.extensions(TransactionCallback.class));
         // plugins are listeners too, but I want to make sure they are notified
         // of
         // changes in the same order as the other plugin callbacks
@@ -161,6 +164,9 @@ public class Transaction {
             TransactionPlugin tp = (TransactionPlugin) it.next();
             fireBeforeTransaction(request, tp);
         }
+        for (TransactionCallback callback : transactionCallbacks) {
+            callback.beforeTransaction(request);
+        }
 
         // setup the transaction listener multiplexer
         TransactionListenerMux multiplexer = new TransactionListenerMux();
@@ -391,6 +397,9 @@ public class Transaction {
             TransactionPlugin tp = (TransactionPlugin) it.next();
             fireAfterTransaction(request, result, committed, tp);
         }
+        for (TransactionCallback callback : transactionCallbacks) {
+            callback.afterTransaction(request, result, committed);
+        }
 
         //        
         // if ( result.getTransactionResult().getStatus().getPARTIAL() != null )
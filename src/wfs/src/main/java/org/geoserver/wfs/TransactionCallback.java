@@ -0,0 +1,35 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import org.geoserver.wfs.request.TransactionRequest;
+import org.geoserver.wfs.request.TransactionResponse;
+
+/**
+ * Listens to the evolution of a transaction, for all WFS versions.
+ * <p>
+ * Unlike {@link TransactionPlugin}, whose callbacks receive WFS 1.1 objects and are skipped when
+ * the request or response cannot be converted to them (as it happens with WFS 2.0 responses), the
+ * callbacks are always invoked, with the version independent request and response.
+ * </p>
+ */
+public interface TransactionCallback extends TransactionListener {
+
+    /**
+     * Notification a transaction is about to start
+     */
+    void beforeTransaction(TransactionRequest request) throws WFSException;
+
+    /**
+     * Notification the transaction ended
+     *
+     * @param request the originating transaction request
+     * @param result the transaction result object to be sent back to the client
+     * @param committed true if the transaction was successful, false if the transaction was
+     *        rolled back
+     */
+    void afterTransaction(TransactionRequest request, TransactionResponse result,
+            boolean committed);
+}
@@ -258,6 +258,22 @@ public interface WFSInfo extends ServiceInfo {
      * Set the maximum number of features to be displayed in a layer preview
      */
     void setMaxNumberOfFeaturesForPreview(Integer maxNumberOfFeaturesForPreview);
+
+    /**
+     * Get the number of features a transaction insert hands over to the store in a single call,
+     * each call with its own pre and post insert events. By default, 0, meaning all the features
+     * of each type are inserted at once.
+     * <p>
+     * The batches only split the store calls, the Insert element is always parsed as a whole
+     * before the first batch is written.
+     * </p>
+     */
+    Integer getInsertBatchSize();
+
+    /**
+     * Set the number of features a transaction insert hands over to the store in a single call
+     */
+    void setInsertBatchSize(Integer insertBatchSize);
     
     /**
      * The srs's that the WFS service will advertise in the capabilities document
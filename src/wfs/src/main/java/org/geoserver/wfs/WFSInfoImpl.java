@@ -106,6 +106,17 @@ public class WFSInfoImpl extends ServiceInfoImpl implements WFSInfo {
     public void setMaxNumberOfFeaturesForPreview(Integer maxNumberOfFeaturesForPreview) {
         getMetadata().put("maxNumberOfFeaturesForPreview", maxNumberOfFeaturesForPreview);
     }
+
+    @Override
+    public Integer getInsertBatchSize() {
+        Integer i = getMetadata().get("insertBatchSize", Integer.class);
+        return i != null ? i : 0;
+    }
+
+    @Override
+    public void setInsertBatchSize(Integer insertBatchSize) {
+        getMetadata().put("insertBatchSize", insertBatchSize);
+    }
     
     public List<String> getSRS() {
         return srs;
@@ -5,12 +5,10 @@
  */
 package org.geoserver.wfs.json;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
 import java.math.BigInteger;
+import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
@@ -108,9 +106,6 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
         if (request != null) {
             id_option = JSONType.getIdPolicy( request.getKvp() );
         }
-        // prepare to write out
-        OutputStreamWriter osw = null;
-        Writer outWriter = null;
         boolean hasGeom = false;
 
         // get feature count for request
@@ -119,15 +114,14 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
                 ? null : totalNumberOfFeatures;
 
         try {
-            osw = new OutputStreamWriter(output, gs.getGlobal().getSettings().getCharset());
-            outWriter = new BufferedWriter(osw);
+            Charset charset = Charset.forName(gs.getGlobal().getSettings().getCharset());
+            final StreamingGeoJSONWriter jsonWriter = new StreamingGeoJSONWriter(output, charset);
+            jsonWriter.setNumberOfDecimals(numDecimals);
 
             if (jsonp) {
-                outWriter.write(getCallbackFunction() + "(");
+                jsonWriter.raw(getCallbackFunction() + "(");
             }
-            
-            final GeoJSONBuilder jsonWriter = new GeoJSONBuilder(outWriter);
-            jsonWriter.setNumberOfDecimals(numDecimals);
+
             jsonWriter.object().key("type").value("FeatureCollection");
             if(featureCount != null) {
                 jsonWriter.key("totalFeatures").value(featureCount);
@@ -137,6 +131,10 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
             jsonWriter.key("features");
             jsonWriter.array();
 
+            // the encoded attribute names, computed once per feature type
+            SimpleFeatureType keysType = null;
+            byte[][] keys = null;
+
             // execute should of set all the header information
             // including the lockID
             //
@@ -159,6 +157,13 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
 
                         fType = feature.getFeatureType();
                         types = fType.getAttributeDescriptors();
+                        if (fType != keysType) {
+                            keys = new byte[types.size()][];
+                            for (int j = 0; j < keys.length; j++) {
+                                keys[j] = jsonWriter.encodeKey(types.get(j).getLocalName());
+                            }
+                            keysType = fType;
+                        }
 
                         if( id_option == null ){
                             jsonWriter.key("id").value(feature.getID());
@@ -190,7 +195,7 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
                             jsonWriter.writeGeom(aGeom);
                             hasGeom = true;
                         } else {
-                            jsonWriter.value(null);
+                            jsonWriter.nullValue();
                         }
                         if (defaultGeomType != null)
                             jsonWriter.key("geometry_name").value(defaultGeomType.getLocalName());
@@ -217,14 +222,14 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
                                     // Do nothing, we wrote it above
                                     // jsonWriter.value("geometry_name");
                                 } else if(value == null){
-                                    jsonWriter.key(ad.getLocalName());
-                                    jsonWriter.value(null);
+                                    jsonWriter.key(keys[j]);
+                                    jsonWriter.nullValue();
                                 } else {
-                                    jsonWriter.key(ad.getLocalName());
+                                    jsonWriter.key(keys[j]);
                                     jsonWriter.writeGeom((Geometry) value);
                                 }
                             } else {
-                                jsonWriter.key(ad.getLocalName());
+                                jsonWriter.key(keys[j]);
                                 jsonWriter.value(value);
                             }
                         }
@@ -277,10 +282,10 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
             jsonWriter.endObject(); // end featurecollection
 
             if (jsonp) {
-                outWriter.write(")");
+                jsonWriter.raw(")");
             }
 
-            outWriter.flush();
+            jsonWriter.flush();
 
         } catch (JSONException jsonException) {
             ServiceException serviceException = new ServiceException("Error: "
@@ -290,8 +295,8 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
         }
     }
 
-    private void writeCrs(final GeoJSONBuilder jsonWriter,
-            CoordinateReferenceSystem crs) throws FactoryException {
+    private void writeCrs(final StreamingGeoJSONWriter jsonWriter,
+            CoordinateReferenceSystem crs) throws FactoryException, IOException {
         if (crs != null) {
             String identifier = null;
             Integer code = CRS.lookupEpsgCode(crs, true);
@@ -314,13 +319,13 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
             jsonWriter.endObject(); // end crs
         } else {
             jsonWriter.key("crs");
-            jsonWriter.value(null);
+            jsonWriter.nullValue();
         }
     }
     
     // Doesn't follow spec, but GeoServer used to do this.
-    private void writeCrsLegacy(final GeoJSONBuilder jsonWriter,
-            CoordinateReferenceSystem crs) {
+    private void writeCrsLegacy(final StreamingGeoJSONWriter jsonWriter,
+            CoordinateReferenceSystem crs) throws IOException {
         // Coordinate Reference System, currently only if the namespace is
         // EPSG
         if (crs != null) {
@@ -0,0 +1,695 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Map;
+
+import org.geotools.geometry.jts.coordinatesequence.CoordinateSequences;
+import org.geotools.referencing.CRS;
+import org.geotools.util.Converters;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+/**
+ * A streaming GeoJSON writer, writing straight to an {@link OutputStream} through an internal
+ * byte buffer.
+ * <p>
+ * Compared to {@link GeoJSONBuilder} this class avoids the per value allocations of the generic
+ * JSON builder: rounded coordinates are formatted directly into the buffer, strings are encoded
+ * without intermediate copies when the charset is UTF-8, and keys can be pre-encoded with
+ * {@link #encodeKey(String)} and reused for each feature. The output is the same as
+ * {@link GeoJSONBuilder}, with the exception of very large and very small coordinates, that are
+ * written in plain decimal notation instead of the scientific one.
+ * </p>
+ * <p>
+ * Like {@link GeoJSONBuilder}, only the coordinates and bounding boxes are rounded to the
+ * configured number of decimals, attribute values are written with their full precision.
+ * </p>
+ */
+public class StreamingGeoJSONWriter {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static final byte[] NULL = ascii("null");
+
+    static final byte[] TRUE = ascii("true");
+
+    static final byte[] FALSE = ascii("false");
+
+    static final byte[] HEX = ascii("0123456789abcdef");
+
+    static final long[] POWERS_OF_TEN = new long[16];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    /**
+     * Above this value the scaled coordinates cannot be represented exactly as longs, and we fall
+     * back on the generic double formatting
+     */
+    static final double MAX_SCALED = 9e15;
+
+    static byte[] ascii(String s) {
+        return s.getBytes(UTF8);
+    }
+
+    final OutputStream out;
+
+    final Charset charset;
+
+    final boolean utf8;
+
+    final byte[] buffer;
+
+    int position;
+
+    /**
+     * Scratch space for formatting longs
+     */
+    final byte[] digits = new byte[20];
+
+    /**
+     * Scratch space for encoding strings in charsets other than UTF-8
+     */
+    StringBuilder scratch;
+
+    /**
+     * For each nesting level, whether a value has already been written (and thus a comma is
+     * needed before the next one)
+     */
+    boolean[] hasValue = new boolean[16];
+
+    int depth;
+
+    /**
+     * True right after a key has been written, the next value does not need a comma
+     */
+    boolean afterKey;
+
+    CRS.AxisOrder axisOrder = CRS.AxisOrder.EAST_NORTH;
+
+    int numDecimals = 6;
+
+    public StreamingGeoJSONWriter(OutputStream out, Charset charset) {
+        this(out, charset, 8192);
+    }
+
+    public StreamingGeoJSONWriter(OutputStream out, Charset charset, int bufferSize) {
+        this.out = out;
+        this.charset = charset;
+        this.utf8 = UTF8.equals(charset);
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Set the axis order to assume all input will be provided in. Has no effect on geometries
+     * that have already been written.
+     */
+    public void setAxisOrder(CRS.AxisOrder axisOrder) {
+        this.axisOrder = axisOrder;
+    }
+
+    public void setNumberOfDecimals(int numberOfDecimals) {
+        this.numDecimals = numberOfDecimals;
+    }
+
+    public StreamingGeoJSONWriter object() throws IOException {
+        beforeValue();
+        write('{');
+        push();
+        return this;
+    }
+
+    public StreamingGeoJSONWriter endObject() throws IOException {
+        pop();
+        write('}');
+        return this;
+    }
+
+    public StreamingGeoJSONWriter array() throws IOException {
+        beforeValue();
+        write('[');
+        push();
+        return this;
+    }
+
+    public StreamingGeoJSONWriter endArray() throws IOException {
+        pop();
+        write(']');
+        return this;
+    }
+
+    /**
+     * Writes a key
+     */
+    public StreamingGeoJSONWriter key(String key) throws IOException {
+        beforeValue();
+        writeString(key);
+        write(':');
+        afterKey = true;
+        return this;
+    }
+
+    /**
+     * Writes a key previously encoded with {@link #encodeKey(String)}
+     */
+    public StreamingGeoJSONWriter key(byte[] encodedKey) throws IOException {
+        beforeValue();
+        write(encodedKey, 0, encodedKey.length);
+        afterKey = true;
+        return this;
+    }
+
+    /**
+     * Encodes a key, quoted and followed by the colon, in the writer charset
+     */
+    public byte[] encodeKey(String key) {
+        StringBuilder sb = new StringBuilder(key.length() + 3);
+        sb.append('"');
+        escape(key, sb);
+        sb.append("\":");
+        return sb.toString().getBytes(charset);
+    }
+
+    /**
+     * Writes a raw piece of text, without any quoting or separator handling (used for JSONP
+     * callbacks)
+     */
+    public StreamingGeoJSONWriter raw(String text) throws IOException {
+        byte[] bytes = text.getBytes(charset);
+        write(bytes, 0, bytes.length);
+        return this;
+    }
+
+    public StreamingGeoJSONWriter nullValue() throws IOException {
+        beforeValue();
+        write(NULL, 0, NULL.length);
+        return this;
+    }
+
+    public StreamingGeoJSONWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+
+    public StreamingGeoJSONWriter value(long value) throws IOException {
+        beforeValue();
+        writeLong(value);
+        return this;
+    }
+
+    public StreamingGeoJSONWriter value(boolean value) throws IOException {
+        beforeValue();
+        byte[] bytes = value ? TRUE : FALSE;
+        write(bytes, 0, bytes.length);
+        return this;
+    }
+
+    /**
+     * Writes a generic value, encoding dates and calendars as ISO 8601 strings, numbers with their
+     * full precision, maps, collections and arrays as JSON objects and arrays, and anything else
+     * as a string
+     */
+    public StreamingGeoJSONWriter value(Object value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        } else if (value instanceof String) {
+            return value((String) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            return value(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            Number number = (Number) value;
+            if ((number instanceof Double && (((Double) number).isNaN() || ((Double) number)
+                    .isInfinite()))
+                    || (number instanceof Float && (((Float) number).isNaN() || ((Float) number)
+                            .isInfinite()))) {
+                throw new JSONException("JSON does not allow non-finite numbers.");
+            }
+            beforeValue();
+            writeAscii(numberToString(number));
+            return this;
+        } else if (value instanceof Boolean) {
+            return value(((Boolean) value).booleanValue());
+        } else if (value instanceof java.util.Date || value instanceof Calendar) {
+            return value(Converters.convert(value, String.class));
+        } else if (value instanceof Geometry) {
+            return writeGeom((Geometry) value);
+        } else if (value instanceof Map) {
+            beforeValue();
+            raw(JSONObject.fromObject(value).toString());
+            return this;
+        } else if (value instanceof Collection || value.getClass().isArray()) {
+            beforeValue();
+            raw(JSONArray.fromObject(value).toString());
+            return this;
+        } else {
+            return value(value.toString());
+        }
+    }
+
+    /**
+     * Writes a double rounded to the configured number of decimals
+     */
+    public StreamingGeoJSONWriter roundedValue(double value) throws IOException {
+        beforeValue();
+        writeRounded(value);
+        return this;
+    }
+
+    /**
+     * Writes any geometry object.
+     */
+    public StreamingGeoJSONWriter writeGeom(Geometry geometry) throws IOException {
+        object();
+        key("type");
+        value(GeoJSONBuilder.getGeometryName(geometry));
+
+        final int geometryType = GeoJSONBuilder.getGeometryType(geometry);
+
+        if (geometryType != GeoJSONBuilder.MULTIGEOMETRY) {
+            key("coordinates");
+
+            switch (geometryType) {
+            case GeoJSONBuilder.POINT:
+                Point point = (Point) geometry;
+                Coordinate c = point.getCoordinate();
+                writeCoordinate(c.x, c.y, c.z);
+                break;
+            case GeoJSONBuilder.LINESTRING:
+                writeCoordinates(((LineString) geometry).getCoordinateSequence());
+                break;
+            case GeoJSONBuilder.MULTIPOINT:
+                array();
+                for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                    Coordinate pc = ((Point) geometry.getGeometryN(i)).getCoordinate();
+                    writeCoordinate(pc.x, pc.y, pc.z);
+                }
+                endArray();
+                break;
+            case GeoJSONBuilder.POLYGON:
+                writePolygon((Polygon) geometry);
+                break;
+            case GeoJSONBuilder.MULTILINESTRING:
+                array();
+                for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                    writeCoordinates(((LineString) geometry.getGeometryN(i))
+                            .getCoordinateSequence());
+                }
+                endArray();
+                break;
+            case GeoJSONBuilder.MULTIPOLYGON:
+                array();
+                for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                    writePolygon((Polygon) geometry.getGeometryN(i));
+                }
+                endArray();
+                break;
+            }
+        } else {
+            GeometryCollection collection = (GeometryCollection) geometry;
+            key("geometries");
+            array();
+            for (int i = 0, n = collection.getNumGeometries(); i < n; i++) {
+                writeGeom(collection.getGeometryN(i));
+            }
+            endArray();
+        }
+
+        return endObject();
+    }
+
+    /**
+     * Turns an envelope into an array [minX,minY,maxX,maxY]
+     */
+    public StreamingGeoJSONWriter writeBoundingBox(Envelope env) throws IOException {
+        key("bbox");
+        array();
+        if (axisOrder == CRS.AxisOrder.NORTH_EAST) {
+            roundedValue(env.getMinY());
+            roundedValue(env.getMinX());
+            roundedValue(env.getMaxY());
+            roundedValue(env.getMaxX());
+        } else {
+            roundedValue(env.getMinX());
+            roundedValue(env.getMinY());
+            roundedValue(env.getMaxX());
+            roundedValue(env.getMaxY());
+        }
+        return endArray();
+    }
+
+    void writePolygon(Polygon polygon) throws IOException {
+        array();
+        writeCoordinates(polygon.getExteriorRing().getCoordinateSequence());
+        for (int i = 0, ii = polygon.getNumInteriorRing(); i < ii; i++) {
+            writeCoordinates(polygon.getInteriorRingN(i).getCoordinateSequence());
+        }
+        endArray();
+    }
+
+    void writeCoordinates(CoordinateSequence coords) throws IOException {
+        array();
+
+        // guess the dimension of the coordinate sequence
+        int dim = CoordinateSequences.coordinateDimension(coords);
+
+        final int coordCount = coords.size();
+        for (int i = 0; i < coordCount; i++) {
+            if (dim > 2) {
+                writeCoordinate(coords.getX(i), coords.getY(i), coords.getOrdinate(i, 2));
+            } else {
+                writeCoordinate(coords.getX(i), coords.getY(i), Double.NaN);
+            }
+        }
+
+        endArray();
+    }
+
+    void writeCoordinate(double x, double y, double z) throws IOException {
+        array();
+        if (axisOrder == CRS.AxisOrder.NORTH_EAST) {
+            roundedValue(y);
+            roundedValue(x);
+        } else {
+            roundedValue(x);
+            roundedValue(y);
+        }
+        if (!Double.isNaN(z)) {
+            roundedValue(z);
+        }
+        endArray();
+    }
+
+    /**
+     * Flushes the buffer to the output stream, and the output stream itself
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    // ---------------------------------------------------------------------------------------
+    // Low level encoding
+    // ---------------------------------------------------------------------------------------
+
+    void beforeValue() throws IOException {
+        if (afterKey) {
+            afterKey = false;
+        } else if (depth > 0) {
+            if (hasValue[depth]) {
+                write(',');
+            }
+            hasValue[depth] = true;
+        }
+    }
+
+    void push() {
+        depth++;
+        if (depth == hasValue.length) {
+            boolean[] grown = new boolean[hasValue.length * 2];
+            System.arraycopy(hasValue, 0, grown, 0, hasValue.length);
+            hasValue = grown;
+        }
+        hasValue[depth] = false;
+    }
+
+    void pop() {
+        if (depth == 0) {
+            throw new JSONException("Misplaced end of object or array");
+        }
+        depth--;
+    }
+
+    void writeRounded(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new JSONException("JSON does not allow non-finite numbers.");
+        }
+        double rounded = RoundingUtil.round(value, numDecimals);
+        if (numDecimals < 0 || numDecimals >= POWERS_OF_TEN.length) {
+            writeAscii(numberToString(rounded));
+            return;
+        }
+        long scale = POWERS_OF_TEN[numDecimals];
+        double scaled = Math.abs(rounded) * scale;
+        if (scaled >= MAX_SCALED) {
+            writeAscii(numberToString(rounded));
+            return;
+        }
+
+        long units = Math.round(scaled);
+        if (units == 0) {
+            write('0');
+            return;
+        }
+        if (rounded < 0) {
+            write('-');
+        }
+        writeLong(units / scale);
+        long fraction = units % scale;
+        if (fraction != 0) {
+            int decimals = numDecimals;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                decimals--;
+            }
+            write('.');
+            // zero padding
+            long limit = POWERS_OF_TEN[decimals - 1];
+            while (fraction < limit) {
+                write('0');
+                limit /= 10;
+            }
+            writeLong(fraction);
+        }
+    }
+
+    void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(String.valueOf(value));
+            return;
+        }
+        if (value < 0) {
+            write('-');
+            value = -value;
+        }
+        int i = digits.length;
+        do {
+            digits[--i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        write(digits, i, digits.length - i);
+    }
+
+    void writeAscii(String s) throws IOException {
+        for (int i = 0, n = s.length(); i < n; i++) {
+            write(s.charAt(i));
+        }
+    }
+
+    void writeString(String s) throws IOException {
+        if (!utf8) {
+            if (scratch == null) {
+                scratch = new StringBuilder();
+            }
+            scratch.setLength(0);
+            scratch.append('"');
+            escape(s, scratch);
+            scratch.append('"');
+            byte[] bytes = scratch.toString().getBytes(charset);
+            write(bytes, 0, bytes.length);
+            return;
+        }
+
+        write('"');
+        char previous = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"':
+            case '\\':
+                write('\\');
+                write(c);
+                break;
+            case '/':
+                if (previous == '<') {
+                    write('\\');
+                }
+                write(c);
+                break;
+            case '\b':
+                write('\\');
+                write('b');
+                break;
+            case '\t':
+                write('\\');
+                write('t');
+                break;
+            case '\n':
+                write('\\');
+                write('n');
+                break;
+            case '\f':
+                write('\\');
+                write('f');
+                break;
+            case '\r':
+                write('\\');
+                write('r');
+                break;
+            default:
+                if (c < ' ' || c == '\u2028' || c == '\u2029') {
+                    writeUnicodeEscape(c);
+                } else if (c < 0x80) {
+                    write(c);
+                } else if (c < 0x800) {
+                    write((char) (0xC0 | (c >> 6)));
+                    write((char) (0x80 | (c & 0x3F)));
+                } else if (Character.isHighSurrogate(c) && i + 1 < n
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    write((char) (0xF0 | (cp >> 18)));
+                    write((char) (0x80 | ((cp >> 12) & 0x3F)));
+                    write((char) (0x80 | ((cp >> 6) & 0x3F)));
+                    write((char) (0x80 | (cp & 0x3F)));
+                } else if (Character.isSurrogate(c)) {
+                    // unpaired surrogate, not representable
+                    write('?');
+                } else {
+                    write((char) (0xE0 | (c >> 12)));
+                    write((char) (0x80 | ((c >> 6) & 0x3F)));
+                    write((char) (0x80 | (c & 0x3F)));
+                }
+            }
+            previous = c;
+        }
+        write('"');
+    }
+
+    void writeUnicodeEscape(char c) throws IOException {
+        write('\\');
+        write('u');
+        write((char) HEX[(c >> 12) & 0xF]);
+        write((char) HEX[(c >> 8) & 0xF]);
+        write((char) HEX[(c >> 4) & 0xF]);
+        write((char) HEX[c & 0xF]);
+    }
+
+    /**
+     * Escapes a string the same way {@link #writeString(String)} does, for the charsets other
+     * than UTF-8 and for pre-encoded keys
+     */
+    static void escape(String s, StringBuilder sb) {
+        char previous = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"':
+            case '\\':
+                sb.append('\\').append(c);
+                break;
+            case '/':
+                if (previous == '<') {
+                    sb.append('\\');
+                }
+                sb.append(c);
+                break;
+            case '\b':
+                sb.append("\\b");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\f':
+                sb.append("\\f");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            default:
+                if (c < ' ' || c == '\u2028' || c == '\u2029') {
+                    sb.append("\\u");
+                    for (int shift = 12; shift >= 0; shift -= 4) {
+                        sb.append((char) HEX[(c >> shift) & 0xF]);
+                    }
+                } else {
+                    sb.append(c);
+                }
+            }
+            previous = c;
+        }
+    }
+
+    /**
+     * Formats a number like json-lib does, removing the trailing zeros of the decimal part
+     */
+    static String numberToString(Number number) {
+        String s = number.toString();
+        if (s.indexOf('.') > 0 && s.indexOf('e') < 0 && s.indexOf('E') < 0) {
+            int end = s.length();
+            while (s.charAt(end - 1) == '0') {
+                end--;
+            }
+            if (s.charAt(end - 1) == '.') {
+                end--;
+            }
+            s = s.substring(0, end);
+        }
+        return s;
+    }
+
+    void write(char c) throws IOException {
+        if (position == buffer.length) {
+            flushBuffer();
+        }
+        buffer[position++] = (byte) c;
+    }
+
+    void write(byte[] bytes, int offset, int length) throws IOException {
+        if (length > buffer.length - position) {
+            flushBuffer();
+            if (length > buffer.length) {
+                out.write(bytes, offset, length);
+                return;
+            }
+        }
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+    }
+
+    void flushBuffer() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+}
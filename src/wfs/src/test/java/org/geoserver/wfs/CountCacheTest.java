@@ -0,0 +1,159 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import net.opengis.wfs.TransactionType;
+import net.opengis.wfs.WfsFactory;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.data.test.CiteTestData;
+import org.geoserver.wfs.request.TransactionRequest;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.filter.text.ecql.ECQL;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class CountCacheTest extends WFSTestSupport {
+
+    @BeforeClass
+    public static void enableCache() {
+        System.setProperty(CountCache.CACHE_KEY, "true");
+    }
+
+    @AfterClass
+    public static void disableCache() {
+        System.clearProperty(CountCache.CACHE_KEY);
+    }
+
+    FeatureTypeInfo featureType() {
+        return getCatalog().getFeatureTypeByName(CiteTestData.FIFTEEN.getNamespaceURI(),
+                CiteTestData.FIFTEEN.getLocalPart());
+    }
+
+    @Test
+    public void testCachedCount() throws Exception {
+        CountCache cache = new CountCache(true, 0, 100, 0);
+        FeatureTypeInfo fti = featureType();
+        FeatureSource source = fti.getFeatureSource(null, null);
+
+        assertEquals(15, cache.getCount(fti, source, Query.ALL));
+        assertEquals(15, cache.getCount(fti, source, new Query(null, ECQL.toFilter("INCLUDE"))));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // a different filter is a different count
+        Query filtered = new Query(null, ECQL.toFilter("IN ('Fifteen.1', 'Fifteen.2')"));
+        assertEquals(2, cache.getCount(fti, source, filtered));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testTransactionInvalidates() throws Exception {
+        CountCache cache = new CountCache(true, 0, 100, 0);
+        FeatureTypeInfo fti = featureType();
+        FeatureSource source = fti.getFeatureSource(null, null);
+
+        cache.getCount(fti, source, Query.ALL);
+        cache.beforeTransaction(transaction());
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_INSERT, null,
+                CiteTestData.SEVEN, null));
+        cache.afterTransaction(transaction(), null, true);
+        cache.getCount(fti, source, Query.ALL);
+        assertEquals(1, cache.getHits());
+
+        cache.beforeTransaction(transaction());
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_INSERT, null,
+                CiteTestData.FIFTEEN, null));
+        cache.afterTransaction(transaction(), null, true);
+        cache.getCount(fti, source, Query.ALL);
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testCountBeforeCommit() throws Exception {
+        CountCache cache = new CountCache(true, 0, 100, 0);
+        FeatureTypeInfo fti = featureType();
+        FeatureSource source = fti.getFeatureSource(null, null);
+
+        cache.beforeTransaction(transaction());
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_INSERT, null,
+                CiteTestData.FIFTEEN, null));
+        // a count running between the change and the commit still sees the old data
+        cache.getCount(fti, source, Query.ALL);
+        cache.getCount(fti, source, Query.ALL);
+        assertEquals(1, cache.getHits());
+
+        // and is dropped once the transaction is committed
+        cache.afterTransaction(transaction(), null, true);
+        cache.getCount(fti, source, Query.ALL);
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testRollbackKeepsCounts() throws Exception {
+        CountCache cache = new CountCache(true, 0, 100, 0);
+        FeatureTypeInfo fti = featureType();
+        FeatureSource source = fti.getFeatureSource(null, null);
+
+        cache.getCount(fti, source, Query.ALL);
+        cache.beforeTransaction(transaction());
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_INSERT, null,
+                CiteTestData.FIFTEEN, null));
+        cache.afterTransaction(transaction(), null, false);
+        cache.getCount(fti, source, Query.ALL);
+        assertEquals(1, cache.getHits());
+    }
+
+    TransactionRequest transaction() {
+        TransactionType tx = WfsFactory.eINSTANCE.createTransactionType();
+        tx.setVersion("1.1.0");
+        return TransactionRequest.adapt(tx);
+    }
+
+    @Test
+    public void testWFS20Transaction() throws Exception {
+        CountCache cache = applicationContext.getBean(CountCache.class);
+        assertTrue(cache.isEnabled());
+        FeatureTypeInfo fti = getCatalog().getFeatureTypeByName(
+                CiteTestData.SEVEN.getNamespaceURI(), CiteTestData.SEVEN.getLocalPart());
+        FeatureSource source = fti.getFeatureSource(null, null);
+        int count = cache.getCount(fti, source, Query.ALL);
+
+        // WFS 2.0 transactions are not notified to the transaction plugins
+        String xml = "<wfs:Transaction service='WFS' version='2.0.0' "
+                + "xmlns:wfs='http://www.opengis.net/wfs/2.0' "
+                + "xmlns:fes='http://www.opengis.net/fes/2.0' "
+                + "xmlns:cdf='" + CiteTestData.CDF_URI + "'>"
+                + "<wfs:Delete typeName='cdf:Seven'>"
+                + "<fes:Filter><fes:ResourceId rid='Seven.1'/></fes:Filter>"
+                + "</wfs:Delete></wfs:Transaction>";
+        Document dom = postAsDOM("wfs", xml);
+        assertEquals("wfs:TransactionResponse", dom.getDocumentElement().getNodeName());
+
+        long misses = cache.getMisses();
+        assertEquals(count - 1, cache.getCount(fti, source, Query.ALL));
+        assertEquals(misses + 1, cache.getMisses());
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        CountCache cache = new CountCache(false, 0, 100, 0);
+        FeatureTypeInfo fti = featureType();
+        FeatureSource source = fti.getFeatureSource(null, null);
+
+        assertEquals(15, cache.getCount(fti, source, Query.ALL));
+        assertEquals(15, cache.getCount(fti, source, Query.ALL));
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+    }
+}
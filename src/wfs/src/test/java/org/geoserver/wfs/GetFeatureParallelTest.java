@@ -0,0 +1,65 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.xml.namespace.QName;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.data.test.CiteTestData;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class GetFeatureParallelTest extends WFSTestSupport {
+
+    ExecutorService executor;
+
+    @Before
+    public void setupExecutor() {
+        executor = Executors.newFixedThreadPool(2);
+        GetFeature.queryExecutor = executor;
+        GetFeature.queryExecutorInitialized = true;
+    }
+
+    @After
+    public void resetExecutor() {
+        GetFeature.queryExecutor = null;
+        GetFeature.queryExecutorInitialized = false;
+        executor.shutdown();
+    }
+
+    FeatureSource source(QName name) throws Exception {
+        FeatureTypeInfo fti = getCatalog().getFeatureTypeByName(name.getNamespaceURI(),
+                name.getLocalPart());
+        return fti.getFeatureSource(null, null);
+    }
+
+    @Test
+    public void testCountsKeepOrder() throws Exception {
+        int[] counts = GetFeature.getCounts(Arrays.asList(
+                new CountExecutor(source(CiteTestData.FIFTEEN), Query.ALL), new CountExecutor(3),
+                new CountExecutor(source(CiteTestData.SEVEN), Query.ALL)));
+        assertArrayEquals(new int[] { 15, 3, 7 }, counts);
+    }
+
+    @Test
+    public void testMultipleQueries() throws Exception {
+        Document dom = getAsDOM("wfs?request=GetFeature&typename=cdf:Fifteen,cdf:Seven"
+                + "&version=1.1.0&service=wfs");
+        assertEquals("22", dom.getDocumentElement().getAttribute("numberOfFeatures"));
+        assertEquals(15, dom.getElementsByTagName("cdf:Fifteen").getLength());
+        assertEquals(7, dom.getElementsByTagName("cdf:Seven").getLength());
+    }
+}
@@ -120,6 +120,51 @@ public class TransactionListenerTest extends WFSTestSupport {
         assertEquals(fid, inserted.getIdentifier().getID());
     }
 
+    @Test
+    public void testInsertBatches() throws Exception {
+        WFSInfo wfs = getWFS();
+        wfs.setInsertBatchSize(2);
+        getGeoServer().save(wfs);
+        try {
+            StringBuilder insert = new StringBuilder("<wfs:Transaction service=\"WFS\" version=\"1.0.0\" "
+                    + "xmlns:cgf=\"http://www.opengis.net/cite/geometry\" "
+                    + "xmlns:ogc=\"http://www.opengis.net/ogc\" "
+                    + "xmlns:wfs=\"http://www.opengis.net/wfs\" "
+                    + "xmlns:gml=\"http://www.opengis.net/gml\"> "
+                    + "<wfs:Insert > ");
+            for (int i = 0; i < 3; i++) {
+                insert.append("<cgf:Lines>"
+                    + "<cgf:lineStringProperty>"
+                    + "<gml:LineString>"
+                    + "<gml:coordinates decimal=\".\" cs=\",\" ts=\" \">"
+                    + "494475.71056415,5433016.8189323 494982.70115662,5435041.95096618"
+                    + "</gml:coordinates>" + "</gml:LineString>"
+                    + "</cgf:lineStringProperty>" + "<cgf:id>b000" + i + "</cgf:id>"
+                    + "</cgf:Lines>");
+            }
+            insert.append("</wfs:Insert>" + "</wfs:Transaction>");
+    
+            Document dom = postAsDOM("wfs", insert.toString());
+            assertEquals(3, dom.getElementsByTagName("ogc:FeatureId").getLength());
+            
+            // a batch of two features, then the remaining one
+            assertEquals(4, listener.events.size());
+            TransactionEventType[] types = new TransactionEventType[] {
+                    TransactionEventType.PRE_INSERT, TransactionEventType.POST_INSERT,
+                    TransactionEventType.PRE_INSERT, TransactionEventType.POST_INSERT };
+            for (int i = 0; i < types.length; i++) {
+                TransactionEvent event = (TransactionEvent) listener.events.get(i);
+                assertEquals(types[i], event.getType());
+                assertEquals(CiteTestData.LINES, event.getLayerName());
+            }
+            assertEquals(2, ((TransactionEvent) listener.events.get(1)).getAffectedFeatures().size());
+            assertEquals(1, ((TransactionEvent) listener.events.get(3)).getAffectedFeatures().size());
+        } finally {
+            wfs.setInsertBatchSize(0);
+            getGeoServer().save(wfs);
+        }
+    }
+
     @Test
     public void testUpdate() throws Exception {
         // perform an update
@@ -0,0 +1,136 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.json;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.geotools.referencing.CRS;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+
+import net.sf.json.JSONException;
+
+public class StreamingGeoJSONWriterTest {
+
+    ByteArrayOutputStream bos;
+
+    StreamingGeoJSONWriter writer;
+
+    @Before
+    public void setUp() {
+        bos = new ByteArrayOutputStream();
+        writer = new StreamingGeoJSONWriter(bos, StreamingGeoJSONWriter.UTF8, 16);
+    }
+
+    String output() throws Exception {
+        writer.flush();
+        return new String(bos.toByteArray(), "UTF-8");
+    }
+
+    String geom(String wkt) throws Exception {
+        Geometry g = new WKTReader().read(wkt);
+        writer.writeGeom(g);
+        return output();
+    }
+
+    @Test
+    public void testWriteGeometries() throws Exception {
+        assertEquals("{\"type\":\"MultiLineString\",\"coordinates\":[[[0,0],[1,1]]]}",
+                geom("MULTILINESTRING((0 0, 1 1))"));
+    }
+
+    @Test
+    public void testWritePolygonWithHole() throws Exception {
+        assertEquals("{\"type\":\"Polygon\",\"coordinates\":"
+                + "[[[0,0],[10,0],[10,10],[0,0]],[[1,1],[2,1],[2,2],[1,1]]]}",
+                geom("POLYGON((0 0, 10 0, 10 10, 0 0), (1 1, 2 1, 2 2, 1 1))"));
+    }
+
+    @Test
+    public void testWriteCollection() throws Exception {
+        assertEquals("{\"type\":\"GeometryCollection\",\"geometries\":["
+                + "{\"type\":\"Point\",\"coordinates\":[1,2,3]},"
+                + "{\"type\":\"MultiPoint\",\"coordinates\":[[1,2],[3,4]]}]}",
+                geom("GEOMETRYCOLLECTION(POINT(1 2 3), MULTIPOINT((1 2), (3 4)))"));
+    }
+
+    @Test
+    public void testRounding() throws Exception {
+        writer.setNumberOfDecimals(4);
+        writer.array();
+        writer.roundedValue(1.23456);
+        writer.roundedValue(-1.23456);
+        writer.roundedValue(0.00006);
+        writer.roundedValue(-0.00001);
+        writer.roundedValue(10.1);
+        writer.roundedValue(0.0102);
+        writer.roundedValue(123456789.5);
+        writer.roundedValue(1e30);
+        writer.endArray();
+        assertEquals("[1.2346,-1.2346,0.0001,0,10.1,0.0102,123456789.5,1.0E30]", output());
+    }
+
+    @Test
+    public void testAxisOrder() throws Exception {
+        writer.setAxisOrder(CRS.AxisOrder.NORTH_EAST);
+        writer.object();
+        writer.key("geometry");
+        writer.writeGeom(new WKTReader().read("POINT(1 2)"));
+        writer.writeBoundingBox(new Envelope(1, 3, 2, 4));
+        writer.endObject();
+        assertEquals("{\"geometry\":{\"type\":\"Point\",\"coordinates\":[2,1]},"
+                + "\"bbox\":[2,1,4,3]}", output());
+    }
+
+    @Test
+    public void testValues() throws Exception {
+        byte[] key = writer.encodeKey("n");
+        writer.object();
+        writer.key(key).value((Object) 12);
+        writer.key("d").value((Object) 1.50);
+        writer.key("b").value((Object) Boolean.TRUE);
+        writer.key("s").value("a\"b\\c</d\n\u00e8\u20ac");
+        writer.key("z").nullValue();
+        writer.endObject();
+        assertEquals("{\"n\":12,\"d\":1.5,\"b\":true,"
+                + "\"s\":\"a\\\"b\\\\c<\\/d\\n\u00e8\u20ac\",\"z\":null}", output());
+    }
+
+    @Test
+    public void testOtherCharset() throws Exception {
+        Charset latin1 = Charset.forName("ISO-8859-1");
+        writer = new StreamingGeoJSONWriter(bos, latin1);
+        writer.array().value("\u00e8").endArray();
+        writer.flush();
+        assertEquals("[\"\u00e8\"]", new String(bos.toByteArray(), latin1));
+    }
+
+    @Test
+    public void testWriteDate() throws Exception {
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+        cal.clear();
+        cal.set(Calendar.YEAR, 2011);
+        cal.set(Calendar.MONTH, 9);
+        cal.set(Calendar.DAY_OF_MONTH, 25);
+
+        java.sql.Date date = new java.sql.Date(cal.getTimeInMillis());
+        writer.object().key("date").value(date).endObject();
+        assertEquals("{\"date\":\"2011-10-25Z\"}", output());
+    }
+
+    @Test(expected = JSONException.class)
+    public void testNaN() throws Exception {
+        writer.array().roundedValue(Double.NaN);
+    }
+}
@@ -7,6 +7,8 @@ package org.geoserver.wfs.v2_0;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
 import java.text.SimpleDateFormat;
@@ -17,6 +19,7 @@ import java.util.Map;
 
 import javax.xml.namespace.QName;
 
+import org.apache.commons.codec.binary.Base64;
 import org.custommonkey.xmlunit.XMLAssert;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogBuilder;
@@ -24,6 +27,7 @@ import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.data.test.MockData;
 import org.geoserver.data.test.SystemTestData;
+import org.geoserver.wfs.KeysetPaging;
 import org.geotools.data.DataStore;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.FeatureSource;
@@ -215,6 +219,41 @@ public class GetFeatureJoinTest extends WFS20TestSupport {
         XMLAssert.assertXpathExists("wfs:FeatureCollection/wfs:member[position()=2]/wfs:Tuple//gs:Lakes/gs:NAME[text() = 'Green Lake']", dom);
     }
     
+    @Test
+    public void testSpatialJoinGETIgnoresCursor() throws Exception {
+        System.setProperty(KeysetPaging.ENABLED_KEY, "true");
+        try {
+            // joins cannot be keyset paged, the cursor must not replace the start index
+            Document dom = getAsDOM("wfs?service=WFS&version=2.0.0&request=getFeature"
+                    + "&typenames=gs:Forests,gs:Lakes&aliases=a,b&sortBy=NAME"
+                    + "&startIndex=1&count=1&" + KeysetPaging.CURSOR_KEY + "="
+                    + cursor("NAME", "Foo Forest", 0)
+                    + "&filter=%3CFilter%3E%3CIntersects%3E%3CValueReference%3Ea%2Fthe_geom"
+                    + "%3C%2FValueReference%3E%3CValueReference%3Eb%2Fthe_geom"
+                    + "%3C%2FValueReference%3E%3C%2FIntersects%3E%3C%2FFilter%3E");
+
+            XMLAssert.assertXpathEvaluatesTo("1", "count(//wfs:Tuple)", dom);
+            XMLAssert.assertXpathExists(
+                    "//wfs:Tuple/wfs:member/gs:Forests/gs:NAME[text() = 'Green Forest']", dom);
+        } finally {
+            System.clearProperty(KeysetPaging.ENABLED_KEY);
+        }
+    }
+
+    /**
+     * Encodes a single property keyset paging cursor
+     */
+    String cursor(String property, String value, int ties) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeInt(ties);
+        dos.writeInt(1);
+        dos.writeUTF(property);
+        dos.writeUTF(value);
+        dos.close();
+        return Base64.encodeBase64URLSafeString(bos.toByteArray());
+    }
+
     @Test
     public void testSpatialJoinPOSTWithPrimaryFilter() throws Exception {
         String xml = 
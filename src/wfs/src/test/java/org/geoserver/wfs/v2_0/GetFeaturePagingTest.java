@@ -9,9 +9,11 @@ import static org.junit.Assert.*;
 
 import java.io.ByteArrayInputStream;
 import java.net.URLDecoder;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -22,6 +24,7 @@ import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.ows.util.KvpMap;
+import org.geoserver.wfs.KeysetPaging;
 import org.geotools.data.DataStore;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.FeatureStore;
@@ -41,6 +44,8 @@ import org.opengis.filter.FilterFactory;
 import org.opengis.filter.Id;
 import org.opengis.filter.identity.Identifier;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 
 public class GetFeaturePagingTest extends WFS20TestSupport {
 
@@ -408,6 +413,54 @@ public class GetFeaturePagingTest extends WFS20TestSupport {
         assertFalse(doc.getDocumentElement().hasAttribute("next"));
     }
 
+    @Test
+    public void testKeysetPagingGET() throws Exception {
+        System.setProperty(KeysetPaging.ENABLED_KEY, "true");
+        try {
+            doTestKeysetPagingGET("gs:Fifteen");
+        } finally {
+            System.clearProperty(KeysetPaging.ENABLED_KEY);
+        }
+    }
+
+    void doTestKeysetPagingGET(String typeName) throws Exception {
+        List<String> ids = new ArrayList<String>();
+        List<Integer> nums = new ArrayList<Integer>();
+        String path = "wfs?request=GetFeature&version=2.0.0&service=wfs&typename=" + typeName
+                + "&sortBy=num+DESC&startIndex=0&count=4";
+        int pages = 0;
+        while (path != null) {
+            Document doc = getAsDOM(path);
+            assertEquals("15", doc.getDocumentElement().getAttribute("numberMatched"));
+            NodeList features = doc.getElementsByTagName(typeName);
+            for (int i = 0; i < features.getLength(); i++) {
+                ids.add(((Element) features.item(i)).getAttribute("gml:id"));
+            }
+            NodeList numbers = doc.getElementsByTagName("gs:num");
+            for (int i = 0; i < numbers.getLength(); i++) {
+                nums.add(Integer.valueOf(numbers.item(i).getTextContent()));
+            }
+            if (pages > 0) {
+                assertFalse(doc.getDocumentElement().hasAttribute("previous"));
+            }
+            if (doc.getDocumentElement().hasAttribute("next")) {
+                String next = doc.getDocumentElement().getAttribute("next");
+                assertTrue(next.contains(KeysetPaging.CURSOR_KEY + "="));
+                assertFalse(next.toUpperCase().contains("STARTINDEX="));
+                path = next.substring(next.indexOf("wfs?"));
+            } else {
+                path = null;
+            }
+            pages++;
+        }
+        assertEquals(4, pages);
+        assertEquals(15, ids.size());
+        assertEquals(15, new HashSet<String>(ids).size());
+        for (int i = 0; i < nums.size(); i++) {
+            assertEquals(Integer.valueOf(14 - i), nums.get(i));
+        }
+    }
+
     void assertStartIndexCount(Document doc, String att, int startIndex, int count) {
         assertTrue(doc.getDocumentElement().hasAttribute(att));
         String s = doc.getDocumentElement().getAttribute(att);
@@ -5,9 +5,13 @@
  */
 package org.geoserver.wms;
 
+import java.io.IOException;
+
 import org.geoserver.ows.Response;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.legendgraphic.BufferedImageLegendGraphic;
+import org.geoserver.wms.legendgraphic.EncodedLegendGraphic;
+import org.geoserver.wms.legendgraphic.LegendCache;
 import org.geotools.filter.function.EnvFunction;
 
 /**
@@ -19,10 +23,19 @@ public class GetLegendGraphic {
 
     private final WMS wms;
 
+    private LegendCache legendCache;
+
     public GetLegendGraphic(final WMS wms) {
         this.wms = wms;
     }
 
+    /**
+     * Sets the cache of the encoded legends, if any
+     */
+    public void setLegendCache(LegendCache legendCache) {
+        this.legendCache = legendCache;
+    }
+
     /**
      * Produces a representation of the map's legend graphic given by the {@code request} by means
      * of a {@link GetLegendGraphicOutputFormat}.
@@ -46,7 +59,28 @@ public class GetLegendGraphic {
             throw new ServiceException("There is no support for creating legends in "
                     + outputFormat + " format", "InvalidFormat");
         }
+        String key = legendCache != null ? legendCache.getKey(request) : null;
+        if (key != null) {
+            EncodedLegendGraphic cached = legendCache.get(key);
+            if (cached != null) {
+                legendCache.checkNotModified(cached);
+                return cached;
+            }
+        }
+
         Object legend = format.produceLegendGraphic(request);
+
+        if (key != null) {
+            try {
+                EncodedLegendGraphic encoded = legendCache.put(key, legend);
+                if (encoded != null) {
+                    legendCache.checkNotModified(encoded);
+                    return encoded;
+                }
+            } catch (IOException e) {
+                throw new ServiceException("Failed to encode the legend graphic", e);
+            }
+        }
         return legend;
     }
 
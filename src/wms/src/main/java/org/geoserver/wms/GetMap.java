@@ -14,6 +14,7 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
@@ -29,6 +30,7 @@ import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.map.MetatileMapOutputFormat;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.geoserver.wms.map.RenderedImageMapOutputFormat;
+import org.geoserver.wms.map.SharedFeatureCache;
 import org.geotools.coverage.grid.io.GridCoverage2DReader;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
@@ -310,6 +312,10 @@ public class GetMap {
         
         fireMapContentInit(mapContent);
 
+        // layers reading the same feature type will share the features loaded from the store
+        final SharedFeatureCache sharedFeatures = buildSharedFeatureCache(mapContent, layers,
+                styles);
+
         // track the external caching strategy for any map layers
         boolean cachingPossible = request.isGet();
         final String featureVersion = request.getFeatureVersion();
@@ -356,6 +362,12 @@ public class GetMap {
                 // /////////////////////////////////////////////////////////
                 try {
                     source = mapLayerInfo.getFeatureSource(true);
+                    if (sharedFeatures != null && source instanceof SimpleFeatureSource
+                            && isShareable(mapLayerInfo, layerStyle)
+                            && sharedFeatures.isShared(mapLayerInfo.getFeature().getId())) {
+                        source = sharedFeatures.share(mapLayerInfo.getFeature().getId(),
+                                (SimpleFeatureSource) source);
+                    }
 
                     // NOTE for the feature. Here there was some code that
                     // sounded like:
@@ -517,6 +529,61 @@ public class GetMap {
         return map;
     }
 
+    /**
+     * Sets up the sharing of features among the vector layers reading the same feature type, or
+     * returns null if there is nothing to share
+     */
+    SharedFeatureCache buildSharedFeatureCache(WMSMapContent map, List<MapLayerInfo> layers,
+            Style[] styles) {
+        Map<String, List<Style>> groups = new LinkedHashMap<String, List<Style>>();
+        for (int i = 0; i < layers.size(); i++) {
+            MapLayerInfo layer = layers.get(i);
+            if (!isShareable(layer, styles[i])) {
+                continue;
+            }
+            String id = layer.getFeature().getId();
+            List<Style> groupStyles = groups.get(id);
+            if (groupStyles == null) {
+                groupStyles = new ArrayList<Style>();
+                groups.put(id, groupStyles);
+            }
+            groupStyles.add(styles[i]);
+        }
+
+        SharedFeatureCache cache = null;
+        for (Map.Entry<String, List<Style>> group : groups.entrySet()) {
+            List<Style> groupStyles = group.getValue();
+            if (groupStyles.size() < 2) {
+                continue;
+            }
+            if (cache == null) {
+                cache = SharedFeatureCache.create(map.getMapWidth(), map.getMapHeight());
+                if (cache == null) {
+                    return null;
+                }
+            }
+            // with an explicit buffer all layers query the same area
+            int buffer = 0;
+            if (map.getBuffer() <= 0) {
+                final double scaleDenominator = map.getScaleDenominator(true);
+                for (Style style : groupStyles) {
+                    buffer = Math.max(buffer, computeLayerBuffer(style, scaleDenominator));
+                }
+            }
+            cache.addGroup(group.getKey(), groupStyles, buffer);
+        }
+        return cache;
+    }
+
+    /**
+     * Returns true if the layer can share its features with the other layers reading the same
+     * feature type
+     */
+    static boolean isShareable(MapLayerInfo layer, Style style) {
+        return layer.getType() == MapLayerInfo.TYPE_VECTOR && style != null
+                && SharedFeatureCache.isShareable(style);
+    }
+
     /**
      * Computes the rendering buffer in case the user did not specify one in the request, and the
      * admin setup some rendering buffer hints in the layer configurations
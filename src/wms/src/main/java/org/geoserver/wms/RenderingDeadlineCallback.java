@@ -0,0 +1,36 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.Service;
+
+/**
+ * Sets the {@link Request#getDeadline() deadline} of GetMap requests from the WMS max rendering
+ * time, as soon as the service is dispatched, so that the later steps, such as the control flow
+ * queues and the rendering itself, share the same time budget counted from the moment the request
+ * hit the server.
+ */
+public class RenderingDeadlineCallback extends AbstractDispatcherCallback {
+
+    WMS wms;
+
+    public RenderingDeadlineCallback(WMS wms) {
+        this.wms = wms;
+    }
+
+    @Override
+    public Service serviceDispatched(Request request, Service service) {
+        if ("WMS".equalsIgnoreCase(service.getId())
+                && "GetMap".equalsIgnoreCase(request.getRequest())) {
+            int maxRenderingTime = wms.getMaxRenderingTime();
+            if (maxRenderingTime > 0) {
+                request.setDeadline(request.getDeadline(maxRenderingTime * 1000L));
+            }
+        }
+        return service;
+    }
+}
@@ -0,0 +1,48 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.legendgraphic;
+
+/**
+ * A legend graphic already encoded in its output format, as held by the {@link LegendCache}
+ */
+public class EncodedLegendGraphic {
+
+    private final byte[] contents;
+
+    private final String mimeType;
+
+    private final String etag;
+
+    private final long lastModified;
+
+    public EncodedLegendGraphic(byte[] contents, String mimeType, String etag, long lastModified) {
+        this.contents = contents;
+        this.mimeType = mimeType;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    public byte[] getContents() {
+        return contents;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * The entity tag of the legend, a quoted hash of its contents
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * The time the legend has been produced
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+}
@@ -0,0 +1,50 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.legendgraphic;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.geoserver.ows.Response;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
+import org.springframework.util.Assert;
+
+/**
+ * Writes out the legends served by the {@link LegendCache}, along with their HTTP validators
+ */
+public class EncodedLegendGraphicResponse extends Response {
+
+    public EncodedLegendGraphicResponse() {
+        super(EncodedLegendGraphic.class);
+    }
+
+    @Override
+    public String getMimeType(Object value, Operation operation) throws ServiceException {
+        Assert.isInstanceOf(EncodedLegendGraphic.class, value);
+        return ((EncodedLegendGraphic) value).getMimeType();
+    }
+
+    @Override
+    public String[][] getHeaders(Object value, Operation operation) throws ServiceException {
+        EncodedLegendGraphic legend = (EncodedLegendGraphic) value;
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz",
+                Locale.ENGLISH);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return new String[][] { { "ETag", legend.getEtag() },
+                { "Last-Modified", format.format(new Date(legend.getLastModified())) } };
+    }
+
+    @Override
+    public void write(Object value, OutputStream output, Operation operation) throws IOException,
+            ServiceException {
+        Assert.isInstanceOf(EncodedLegendGraphic.class, value);
+        output.write(((EncodedLegendGraphic) value).getContents());
+    }
+}
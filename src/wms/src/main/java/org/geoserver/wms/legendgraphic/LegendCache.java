@@ -0,0 +1,300 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.legendgraphic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.GeoServerLifecycleHandler;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.HttpErrorCodeException;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.RequestKeys;
+import org.geoserver.ows.Response;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Operation;
+import org.geoserver.wms.GetLegendGraphicRequest;
+import org.geotools.util.logging.Logging;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Caches the encoded GetLegendGraphic outputs, so that the legends of a map viewer are not
+ * produced and encoded again on every page load.
+ * <p>
+ * Legends are keyed by all the parameters of the GetLegendGraphic request (layer, style, rule,
+ * size, format, LEGEND_OPTIONS and so on), the virtual service context, and the roles of the
+ * current user (the user name as well if a custom access manager is in use), as layer group
+ * legends only show the layers the user can see. The whole cache is dropped as soon as a style,
+ * layer, layer group or resource is added, modified or removed, or the catalog is reloaded. Requests
+ * using a remote SLD are never cached. Cached legends are served with an <code>ETag</code> and a
+ * <code>Last-Modified</code> header, and conditional requests matching them get a
+ * <code>304 Not Modified</code> response.
+ * </p>
+ * <p>
+ * The cache is disabled by default, it's controlled by the following system properties,
+ * environment or servlet context variables:
+ * <ul>
+ * <li>{@link #CACHE_KEY}: set to <code>true</code> to enable the cache</li>
+ * <li>{@link #MAX_SIZE_KEY}: the maximum total size, in bytes, of the cached legends, 16MB by
+ * default</li>
+ * </ul>
+ * </p>
+ */
+public class LegendCache implements CatalogListener, GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(LegendCache.class);
+
+    public static final String CACHE_KEY = "GEOSERVER_WMS_LEGEND_CACHE";
+
+    public static final String MAX_SIZE_KEY = "GEOSERVER_WMS_LEGEND_CACHE_MAX_SIZE";
+
+    static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+
+    private Catalog catalog;
+
+    boolean enabled;
+
+    Cache<String, EncodedLegendGraphic> legends;
+
+    AtomicLong hits = new AtomicLong();
+
+    AtomicLong misses = new AtomicLong();
+
+    Boolean roleBasedAccess;
+
+    public LegendCache(Catalog catalog) {
+        this(catalog, Boolean.valueOf(GeoServerExtensions.getProperty(CACHE_KEY)),
+                getMaxSize());
+    }
+
+    LegendCache(Catalog catalog, boolean enabled, long maxSize) {
+        this.catalog = catalog;
+        this.enabled = enabled && maxSize > 0;
+        if (this.enabled) {
+            this.legends = CacheBuilder.newBuilder().maximumWeight(maxSize)
+                    .weigher(new Weigher<String, EncodedLegendGraphic>() {
+
+                        @Override
+                        public int weigh(String key, EncodedLegendGraphic legend) {
+                            return key.length() + legend.getContents().length;
+                        }
+                    }).build();
+            this.catalog.addListener(this);
+        }
+    }
+
+    static long getMaxSize() {
+        String value = GeoServerExtensions.getProperty(MAX_SIZE_KEY);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value '" + value + "' for " + MAX_SIZE_KEY + ", using "
+                        + DEFAULT_MAX_SIZE);
+            }
+        }
+        return DEFAULT_MAX_SIZE;
+    }
+
+    /**
+     * Returns the key of the legend, or null if the request cannot be cached
+     */
+    public String getKey(GetLegendGraphicRequest request) {
+        Request dispatched = Dispatcher.REQUEST.get();
+        if (!enabled || request.getRawKvp() == null || dispatched == null
+                || dispatched.getOperation() == null) {
+            return null;
+        }
+        // the remote style might change at any time
+        for (String name : request.getRawKvp().keySet()) {
+            if ("SLD".equalsIgnoreCase(name)) {
+                return null;
+            }
+        }
+        return RequestKeys.build(dispatched, isRoleBasedAccess());
+    }
+
+    boolean isRoleBasedAccess() {
+        if (roleBasedAccess == null) {
+            roleBasedAccess = RequestKeys.isRoleBasedAccess();
+        }
+        return roleBasedAccess;
+    }
+
+    /**
+     * Returns the cached legend, or null if not found
+     */
+    public EncodedLegendGraphic get(String key) {
+        EncodedLegendGraphic legend = legends.getIfPresent(key);
+        if (legend != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return legend;
+    }
+
+    /**
+     * Encodes the legend with the response of the current request and caches it. Returns null if
+     * no response can encode the legend
+     */
+    public EncodedLegendGraphic put(String key, Object legend) throws IOException {
+        Operation operation = getOperation();
+        Response response = null;
+        for (Response r : GeoServerExtensions.extensions(Response.class)) {
+            if (r.getBinding().isInstance(legend) && r.canHandle(operation)) {
+                response = r;
+                break;
+            }
+        }
+        if (response == null) {
+            return null;
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        response.write(legend, bos, operation);
+        byte[] contents = bos.toByteArray();
+        String etag = "\"" + Hashing.sha1().hashBytes(contents).toString() + "\"";
+        // HTTP dates have a one second precision
+        long lastModified = System.currentTimeMillis() / 1000 * 1000;
+        EncodedLegendGraphic encoded = new EncodedLegendGraphic(contents,
+                response.getMimeType(legend, operation), etag, lastModified);
+        legends.put(key, encoded);
+        return encoded;
+    }
+
+    /**
+     * Throws a 304 error code if the current request is a conditional one, and the client copy of
+     * the legend is still valid
+     */
+    public void checkNotModified(EncodedLegendGraphic legend) throws HttpErrorCodeException {
+        Request request = Dispatcher.REQUEST.get();
+        HttpServletRequest httpRequest = request != null ? request.getHttpRequest() : null;
+        if (httpRequest == null) {
+            return;
+        }
+        String ifNoneMatch = httpRequest.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            if (ifNoneMatch.contains(legend.getEtag()) || ifNoneMatch.trim().equals("*")) {
+                throw new HttpErrorCodeException(304);
+            }
+            // If-Modified-Since is ignored when If-None-Match is present
+            return;
+        }
+        try {
+            long ifModifiedSince = httpRequest.getDateHeader("If-Modified-Since");
+            if (ifModifiedSince >= 0 && legend.getLastModified() <= ifModifiedSince) {
+                throw new HttpErrorCodeException(304);
+            }
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.FINE, "Invalid If-Modified-Since header", e);
+        }
+    }
+
+    Operation getOperation() {
+        Request request = Dispatcher.REQUEST.get();
+        return request != null ? request.getOperation() : null;
+    }
+
+    /**
+     * Drops all the cached legends
+     */
+    public void clear() {
+        if (enabled) {
+            legends.invalidateAll();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    boolean affectsLegends(Object source) {
+        return source instanceof StyleInfo || source instanceof LayerInfo
+                || source instanceof LayerGroupInfo || source instanceof ResourceInfo;
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        // a new layer or group can change what an unqualified name resolves to
+        if (affectsLegends(event.getSource())) {
+            clear();
+        }
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        if (affectsLegends(event.getSource())) {
+            clear();
+        }
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        if (affectsLegends(event.getSource())) {
+            clear();
+        }
+    }
+
+    @Override
+    public void reloaded() {
+        clear();
+    }
+
+    @Override
+    public void onReset() {
+        clear();
+    }
+
+    @Override
+    public void onDispose() {
+        if (enabled) {
+            catalog.removeListener(this);
+        }
+    }
+
+    @Override
+    public void beforeReload() {
+
+    }
+
+    @Override
+    public void onReload() {
+        clear();
+    }
+}
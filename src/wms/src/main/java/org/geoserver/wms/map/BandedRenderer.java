@@ -0,0 +1,408 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wms.SymbolizerFilteringVisitor;
+import org.geotools.filter.function.EnvFunction;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.map.FeatureLayer;
+import org.geotools.map.Layer;
+import org.geotools.map.MapContent;
+import org.geotools.renderer.RenderListener;
+import org.geotools.renderer.lite.RendererUtilities;
+import org.geotools.renderer.lite.StreamingRenderer;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.LineSymbolizer;
+import org.geotools.styling.PointSymbolizer;
+import org.geotools.styling.PolygonSymbolizer;
+import org.geotools.styling.RasterSymbolizer;
+import org.geotools.styling.Rule;
+import org.geotools.styling.Style;
+import org.geotools.styling.Symbolizer;
+import org.geotools.styling.TextSymbolizer;
+import org.geotools.util.logging.Logging;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * A {@link StreamingRenderer} splitting the rendering of large maps in horizontal bands, each one
+ * rendered concurrently by its own renderer, with its own drawing surface and a query restricted
+ * to the band area. The bands are then composited into the final image.
+ * <p>
+ * Labels are not rendered in the bands, so that they are not cut or duplicated at the band edges:
+ * once the bands are composited, a single renderer paints the labels of the whole map, with the
+ * usual conflict resolution. The bands are rendered at the scale denominator of the whole map, so
+ * that the same rules apply in all of them.
+ * </p>
+ * <p>
+ * Banded rendering is disabled by default, it's controlled by the following system properties,
+ * environment or servlet context variables:
+ * <ul>
+ * <li>{@link #THRESHOLD_KEY}: the number of pixels over which maps are rendered in bands</li>
+ * <li>{@link #THREADS_KEY}: the number of bands, and of threads rendering them, by default the
+ * number of available processors</li>
+ * </ul>
+ * </p>
+ */
+public class BandedRenderer extends StreamingRenderer {
+
+    static final Logger LOGGER = Logging.getLogger(BandedRenderer.class);
+
+    public static final String THRESHOLD_KEY = "GEOSERVER_WMS_BANDED_RENDERING_THRESHOLD";
+
+    public static final String THREADS_KEY = "GEOSERVER_WMS_BANDED_RENDERING_THREADS";
+
+    /**
+     * Bands smaller than this would cost more in repeated queries than they save in rendering
+     */
+    static final int MIN_BAND_HEIGHT = 256;
+
+    static ExecutorService executor;
+
+    static int threads;
+
+    static volatile boolean initialized;
+
+    /**
+     * Returns the pool rendering the bands, or null if banded rendering is disabled
+     */
+    static ExecutorService getExecutor() {
+        if (!initialized) {
+            synchronized (BandedRenderer.class) {
+                if (!initialized) {
+                    if (getProperty(THRESHOLD_KEY, 0) > 0) {
+                        threads = getProperty(THREADS_KEY, Runtime.getRuntime()
+                                .availableProcessors());
+                        if (threads > 1) {
+                            CustomizableThreadFactory factory = new CustomizableThreadFactory(
+                                    "GetMapBandRenderer-");
+                            factory.setDaemon(true);
+                            executor = Executors.newFixedThreadPool(threads, factory);
+                        }
+                    }
+                    initialized = true;
+                }
+            }
+        }
+        return executor;
+    }
+
+    static int getProperty(String key, int defaultValue) {
+        String value = GeoServerExtensions.getProperty(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value '" + value + "' for " + key + ", using "
+                        + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Returns true if the map is large enough to be rendered in bands, and it can be
+     *
+     * @param mapContent The map to be rendered
+     * @param width The image width
+     * @param height The image height
+     */
+    public static boolean isBandingEnabled(MapContent mapContent, int width, int height) {
+        if (getExecutor() == null || height < MIN_BAND_HEIGHT * 2
+                || (long) width * height < getProperty(THRESHOLD_KEY, 0)) {
+            return false;
+        }
+        // raster layers are already read and processed in tiles by JAI, and direct layers paint
+        // on the whole graphics
+        for (Layer layer : mapContent.layers()) {
+            if (!(layer instanceof FeatureLayer)) {
+                return false;
+            }
+            // rendering transformations (heatmaps, contours, ...) would run on each band grid
+            // separately, and leave seams between the bands
+            Style style = layer.getStyle();
+            if (style != null) {
+                for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+                    if (fts.getTransformation() != null) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes the text symbolizers
+     */
+    static class NoLabelsVisitor extends SymbolizerFilteringVisitor {
+
+        public void visit(TextSymbolizer ts) {
+            pages.push(null);
+        }
+    }
+
+    /**
+     * Keeps only the text symbolizers
+     */
+    static class LabelsOnlyVisitor extends SymbolizerFilteringVisitor {
+
+        public void visit(PointSymbolizer ps) {
+            pages.push(null);
+        }
+
+        public void visit(LineSymbolizer line) {
+            pages.push(null);
+        }
+
+        public void visit(PolygonSymbolizer poly) {
+            pages.push(null);
+        }
+
+        public void visit(RasterSymbolizer raster) {
+            pages.push(null);
+        }
+    }
+
+    final RenderedImageMapOutputFormat format;
+
+    final List<RenderListener> listeners = new ArrayList<RenderListener>();
+
+    final List<StreamingRenderer> renderers = new ArrayList<StreamingRenderer>();
+
+    ExecutorService threadPool;
+
+    volatile boolean stopped;
+
+    /**
+     * @param format The output format building the band renderers
+     */
+    public BandedRenderer(RenderedImageMapOutputFormat format) {
+        this.format = format;
+    }
+
+    @Override
+    public void setThreadPool(ExecutorService threadPool) {
+        super.setThreadPool(threadPool);
+        this.threadPool = threadPool;
+    }
+
+    @Override
+    public void addRenderListener(RenderListener listener) {
+        super.addRenderListener(listener);
+        listeners.add(listener);
+    }
+
+    @Override
+    public void stopRendering() {
+        super.stopRendering();
+        stopped = true;
+        synchronized (renderers) {
+            for (StreamingRenderer renderer : renderers) {
+                renderer.stopRendering();
+            }
+        }
+    }
+
+    @Override
+    public void paint(final Graphics2D graphics, final Rectangle paintArea,
+            final ReferencedEnvelope mapArea, final AffineTransform worldToScreen) {
+        // split the layers between the bands and the final labelling pass
+        final MapContent bandContent = new MapContent();
+        final MapContent labelContent = new MapContent();
+        for (Layer layer : getMapContent().layers()) {
+            FeatureLayer featureLayer = (FeatureLayer) layer;
+            if (hasLabels(featureLayer.getStyle())) {
+                bandContent.addLayer(copy(featureLayer, featureLayer.getStyle(),
+                        new NoLabelsVisitor()));
+                labelContent.addLayer(copy(featureLayer, featureLayer.getStyle(),
+                        new LabelsOnlyVisitor()));
+            } else {
+                bandContent.addLayer(copy(featureLayer, featureLayer.getStyle(), null));
+            }
+        }
+
+        // all bands use the scale of the whole map
+        Map<Object, Object> bandHints = new HashMap<Object, Object>(getRendererHints());
+        try {
+            bandHints.put("declaredScaleDenominator", computeScale(paintArea, mapArea,
+                    worldToScreen));
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not compute the map scale, bands will compute their "
+                    + "own", e);
+        }
+
+        final Map<String, Object> envValues = EnvFunction.getLocalValues();
+        final Request request = Dispatcher.REQUEST.get();
+        final RenderingHints java2dHints = graphics.getRenderingHints();
+        int bands = Math.min(threads, paintArea.height / MIN_BAND_HEIGHT);
+        int bandHeight = (int) Math.ceil(paintArea.height / (double) bands);
+        List<Future<BufferedImage>> futures = new ArrayList<Future<BufferedImage>>();
+        List<Integer> offsets = new ArrayList<Integer>();
+        try {
+            for (int y = 0; y < paintArea.height; y += bandHeight) {
+                final int offset = y;
+                final int height = Math.min(bandHeight, paintArea.height - y);
+                final StreamingRenderer renderer = buildRenderer(bandContent, bandHints);
+                offsets.add(offset);
+                futures.add(executor.submit(new Callable<BufferedImage>() {
+
+                    @Override
+                    public BufferedImage call() throws Exception {
+                        EnvFunction.setLocalValues(envValues);
+                        Dispatcher.REQUEST.set(request);
+                        try {
+                            return paintBand(renderer, java2dHints, paintArea, mapArea,
+                                    worldToScreen, offset, height);
+                        } finally {
+                            EnvFunction.clearLocalValues();
+                            Dispatcher.REQUEST.remove();
+                        }
+                    }
+                }));
+            }
+
+            // composite the bands in order
+            for (int i = 0; i < futures.size(); i++) {
+                BufferedImage band = futures.get(i).get();
+                if (band != null) {
+                    graphics.drawImage(band, paintArea.x, paintArea.y + offsets.get(i), null);
+                }
+            }
+
+            // paint the labels of the whole map
+            if (!stopped && !labelContent.layers().isEmpty()) {
+                buildRenderer(labelContent, getRendererHints()).paint(graphics, paintArea,
+                        mapArea, worldToScreen);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopRendering();
+        } catch (ExecutionException e) {
+            stopRendering();
+            Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause()
+                    : new RuntimeException(e.getCause());
+            for (RenderListener listener : listeners) {
+                listener.errorOccurred(cause);
+            }
+        } finally {
+            for (Future<BufferedImage> future : futures) {
+                future.cancel(false);
+            }
+            // the layers are copies, disposing them leaves the original ones untouched
+            bandContent.dispose();
+            labelContent.dispose();
+        }
+    }
+
+    BufferedImage paintBand(StreamingRenderer renderer, RenderingHints java2dHints,
+            Rectangle paintArea, ReferencedEnvelope mapArea, AffineTransform worldToScreen,
+            int offset, int height) throws NoninvertibleTransformException {
+        if (stopped) {
+            return null;
+        }
+        AffineTransform bandTransform = AffineTransform.getTranslateInstance(-paintArea.x,
+                -paintArea.y - offset);
+        bandTransform.concatenate(worldToScreen);
+        Rectangle bandArea = new Rectangle(0, 0, paintArea.width, height);
+        Rectangle2D world = bandTransform.createInverse().createTransformedShape(bandArea)
+                .getBounds2D();
+        ReferencedEnvelope bandEnvelope = new ReferencedEnvelope(world.getMinX(),
+                world.getMaxX(), world.getMinY(), world.getMaxY(),
+                mapArea.getCoordinateReferenceSystem());
+
+        BufferedImage band = new BufferedImage(paintArea.width, height,
+                BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D graphics = band.createGraphics();
+        try {
+            graphics.setRenderingHints(java2dHints);
+            renderer.paint(graphics, bandArea, bandEnvelope, bandTransform);
+        } finally {
+            graphics.dispose();
+        }
+        return band;
+    }
+
+    StreamingRenderer buildRenderer(MapContent content, Map<Object, Object> rendererHints) {
+        StreamingRenderer renderer = format.buildRenderer();
+        renderer.setThreadPool(threadPool);
+        renderer.setMapContent(content);
+        renderer.setJava2DHints(getJava2DHints());
+        renderer.setRendererHints(rendererHints);
+        for (RenderListener listener : listeners) {
+            renderer.addRenderListener(listener);
+        }
+        synchronized (renderers) {
+            renderers.add(renderer);
+        }
+        if (stopped) {
+            renderer.stopRendering();
+        }
+        return renderer;
+    }
+
+    double computeScale(Rectangle paintArea, ReferencedEnvelope mapArea,
+            AffineTransform worldToScreen) throws Exception {
+        Map<?, ?> hints = getRendererHints();
+        if (SCALE_OGC.equals(hints.get(SCALE_COMPUTATION_METHOD_KEY))) {
+            return RendererUtilities.calculateOGCScaleAffine(
+                    mapArea.getCoordinateReferenceSystem(), worldToScreen, hints);
+        }
+        return RendererUtilities.calculateScale(mapArea, paintArea.width, paintArea.height,
+                hints);
+    }
+
+    static boolean hasLabels(Style style) {
+        if (style == null) {
+            return false;
+        }
+        for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+            for (Rule rule : fts.rules()) {
+                for (Symbolizer symbolizer : rule.symbolizers()) {
+                    if (symbolizer instanceof TextSymbolizer) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies the layer, filtering the symbolizers of its style with the visitor, if any
+     */
+    static FeatureLayer copy(FeatureLayer layer, Style style, SymbolizerFilteringVisitor visitor) {
+        if (visitor != null) {
+            style.accept(visitor);
+            style = (Style) visitor.getCopy();
+        }
+        FeatureLayer copy = new FeatureLayer(layer.getFeatureSource(), style, layer.getTitle());
+        copy.setQuery(layer.getQuery());
+        copy.setVisible(layer.isVisible());
+        copy.getUserData().putAll(layer.getUserData());
+        return copy;
+    }
+}
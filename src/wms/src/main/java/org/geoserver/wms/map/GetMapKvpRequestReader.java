@@ -7,7 +7,6 @@ package org.geoserver.wms.map;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -32,7 +31,6 @@ import org.geoserver.catalog.MetadataMap;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.SLDHandler;
 import org.geoserver.catalog.StyleInfo;
-import org.geoserver.catalog.Styles;
 import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.util.ReaderDimensionsAccessor;
 import org.geoserver.ows.HttpServletRequestAware;
@@ -76,7 +74,6 @@ import org.opengis.filter.FilterFactory;
 import org.opengis.filter.expression.PropertyName;
 import org.opengis.filter.identity.FeatureId;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
-import org.vfny.geoserver.util.Requests;
 import org.vfny.geoserver.util.SLDValidator;
 import org.xml.sax.EntityResolver;
 import org.xml.sax.SAXException;
@@ -121,6 +118,11 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
      * EntityResolver provider, used in SLD parsing
      */
     EntityResolverProvider entityResolverProvider;
+
+    /**
+     * Cache of the styles parsed out of SLD and SLD_BODY
+     */
+    ParsedStyleCache styleCache = ParsedStyleCache.get();
     
     /**
      * This flags allows the kvp reader to go beyond the SLD library mode specification and match
@@ -290,19 +292,17 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
                 LOGGER.fine("Getting layers and styles from SLD_BODY");
             }
 
+            byte[] body = getMap.getSldBody().getBytes();
             if (getMap.getValidateSchema().booleanValue()) {
-                ByteArrayInputStream stream = new ByteArrayInputStream(getMap.getSldBody()
-                        .getBytes());
-                List errors = validateStyle(stream, getMap);
+                List errors = validateStyle(body, getMap);
 
                 if (errors.size() != 0) {
                     throw new ServiceException(SLDValidator.getErrorMessage(
-                            new ByteArrayInputStream(getMap.getSldBody().getBytes()), errors));
+                            new ByteArrayInputStream(body), errors));
                 }
             }
 
-            InputStream input = new ByteArrayInputStream(getMap.getSldBody().getBytes());
-            StyledLayerDescriptor sld = parseStyle(getMap, input);
+            StyledLayerDescriptor sld = parseStyle(getMap, body);
             processSld(getMap, requestedLayerInfos, sld, styleNameList);
 
             // set filter in, we'll check consistency later
@@ -314,31 +314,24 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
 
             URL styleUrl = getMap.getStyleUrl();
 
+            // JD: GEOS-420, the style cache fetches the sldUrl thru Requests.getInputStream
+            // in order to do compression
+            byte[] body = null;
             if (getMap.getValidateSchema().booleanValue()) {
-                InputStream input = Requests.getInputStream(styleUrl);
-                List errors = null;
-
-                try {
-                    errors = validateStyle(input, getMap);
-                } finally {
-                    input.close();
-                }
+                body = styleCache.fetch(styleUrl);
+                List errors = validateStyle(body, getMap);
 
                 if ((errors != null) && (errors.size() != 0)) {
-                    input = Requests.getInputStream(styleUrl);
-
-                    try {
-                        throw new ServiceException(SLDValidator.getErrorMessage(input, errors));
-                    } finally {
-                        input.close();
-                    }
+                    throw new ServiceException(SLDValidator.getErrorMessage(
+                            new ByteArrayInputStream(body), errors));
                 }
             }
 
-            // JD: GEOS-420, Wrap the sldUrl in getINputStream method in order
-            // to do compression
-            try(InputStream input = Requests.getInputStream(styleUrl);){
-                StyledLayerDescriptor sld = parseStyle(getMap, input);
+            try {
+                if (body == null) {
+                    body = styleCache.fetch(styleUrl);
+                }
+                StyledLayerDescriptor sld = parseStyle(getMap, body);
                 processSld(getMap, requestedLayerInfos, sld, styleNameList);
             } catch (Exception ex) {
                 final Level l = Level.WARNING;
@@ -647,12 +640,12 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
      * validates an style document.
      * 
      */
-    private List validateStyle(InputStream stream, GetMapRequest getMap) {
+    private List validateStyle(byte[] body, GetMapRequest getMap) {
         try {
             String language = getStyleFormat(getMap);
             EntityResolver entityResolver = entityResolverProvider.getEntityResolver();
 
-            return Styles.handler(language).validate(stream, getMap.styleVersion(), entityResolver);
+            return styleCache.validate(body, language, getMap.styleVersion(), entityResolver);
         } 
         catch (IOException e) {
             throw new ServiceException("Error validating style", e);
@@ -662,12 +655,12 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
     /**
      * Parses an style document.
      */
-    private StyledLayerDescriptor parseStyle(GetMapRequest getMap, InputStream stream) {
+    private StyledLayerDescriptor parseStyle(GetMapRequest getMap, byte[] body) {
         try {
             String format = getStyleFormat(getMap);
             EntityResolver entityResolver = entityResolverProvider.getEntityResolver();
 
-            return Styles.handler(format).parse(stream, getMap.styleVersion(), null, entityResolver);
+            return styleCache.parse(body, format, getMap.styleVersion(), entityResolver);
         }
         catch(IOException e) {
             throw new ServiceException("Error parsing style", e);
@@ -128,8 +128,19 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
         // to be used)
         QuickTileCache.MetaTileKey key = tileCache.getMetaTileKey(request);
 
+        // cache hits do not need to synchronize
+        RenderedImage tile = tileCache.getTile(key, request);
+        if (tile != null) {
+            if (LOGGER.isLoggable(Level.FINER)) {
+                LOGGER.finer("Looked for meta tile " + key.metaTileCoords.x + ", "
+                        + key.metaTileCoords.y + "in cache: hit!");
+            }
+            return new RenderedImageMap(mapContent, tile, getMimeType());
+        }
+
         synchronized (key) {
-            RenderedImage tile = tileCache.getTile(key, request);
+            // another thread might have built the meta tile while we were waiting
+            tile = tileCache.getTile(key, request);
             List<GridCoverage2D> renderedCoverages = null;
 
             if (LOGGER.isLoggable(Level.FINER)) {
@@ -0,0 +1,326 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+import org.geoserver.catalog.Styles;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.styling.StyledLayerDescriptor;
+import org.geotools.styling.visitor.DuplicatingStyleVisitor;
+import org.geotools.util.Version;
+import org.geotools.util.logging.Logging;
+import org.vfny.geoserver.util.Requests;
+import org.xml.sax.EntityResolver;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Caches the styles parsed out of the SLD and SLD_BODY GetMap parameters, along with their
+ * validation results, so that clients sending the same dynamic style with every request do not
+ * pay for its parsing every time.
+ * <p>
+ * Parsed styles and validation results are keyed by a hash of the style document, its format and
+ * version, and the entity resolver in use. Each lookup returns a copy of the cached style, so
+ * that requests never share mutable style objects. Remote styles are still fetched on each
+ * request, but the HTTP validators (<code>ETag</code> and <code>Last-Modified</code>) of the last
+ * response are sent along, and the last fetched document is reused when the server answers
+ * <code>304 Not Modified</code>.
+ * </p>
+ * <p>
+ * The cache is bounded by the total size of the style documents it refers to, and is controlled
+ * by the following system properties, environment or servlet context variables:
+ * <ul>
+ * <li>{@link #CACHE_KEY}: set to <code>false</code> to disable the cache</li>
+ * <li>{@link #MAX_SIZE_KEY}: the maximum total size, in bytes, of the style documents whose
+ * parsed styles are cached, 16MB by default</li>
+ * </ul>
+ * </p>
+ */
+public class ParsedStyleCache {
+
+    static final Logger LOGGER = Logging.getLogger(ParsedStyleCache.class);
+
+    public static final String CACHE_KEY = "GEOSERVER_WMS_STYLE_CACHE";
+
+    public static final String MAX_SIZE_KEY = "GEOSERVER_WMS_STYLE_CACHE_MAX_SIZE";
+
+    static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+
+    static ParsedStyleCache instance;
+
+    /**
+     * Returns the cache shared by all the GetMap readers
+     */
+    public static synchronized ParsedStyleCache get() {
+        if (instance == null) {
+            String enabled = GeoServerExtensions.getProperty(CACHE_KEY);
+            long maxSize = DEFAULT_MAX_SIZE;
+            String value = GeoServerExtensions.getProperty(MAX_SIZE_KEY);
+            if (value != null) {
+                try {
+                    maxSize = Long.parseLong(value.trim());
+                } catch (NumberFormatException e) {
+                    LOGGER.warning("Invalid value '" + value + "' for " + MAX_SIZE_KEY
+                            + ", using " + DEFAULT_MAX_SIZE);
+                }
+            }
+            instance = new ParsedStyleCache(enabled == null || Boolean.valueOf(enabled),
+                    maxSize);
+        }
+        return instance;
+    }
+
+    /**
+     * A cached value, along with the size of the style document it comes from, plus the size of
+     * the validation errors, if any
+     */
+    static class Entry {
+
+        final Object value;
+
+        final int weight;
+
+        Entry(Object value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * The last response of a remote style
+     */
+    static class Remote {
+
+        final String etag;
+
+        final long lastModified;
+
+        final byte[] body;
+
+        Remote(String etag, long lastModified, byte[] body) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.body = body;
+        }
+    }
+
+    boolean enabled;
+
+    Cache<Object, Entry> entries;
+
+    AtomicLong hits = new AtomicLong();
+
+    AtomicLong misses = new AtomicLong();
+
+    ParsedStyleCache(boolean enabled, long maxSize) {
+        this.enabled = enabled && maxSize > 0;
+        if (this.enabled) {
+            this.entries = CacheBuilder.newBuilder().maximumWeight(maxSize)
+                    .weigher(new Weigher<Object, Entry>() {
+
+                        @Override
+                        public int weigh(Object key, Entry entry) {
+                            return entry.weight;
+                        }
+                    }).build();
+        }
+    }
+
+    /**
+     * Parses the style document, or returns a copy of the style parsed for an identical document
+     */
+    public StyledLayerDescriptor parse(final byte[] body, final String format,
+            final Version version, final EntityResolver entityResolver) throws IOException {
+        if (!enabled) {
+            return Styles.handler(format).parse(new ByteArrayInputStream(body), version, null,
+                    entityResolver);
+        }
+
+        StyledLayerDescriptor sld = (StyledLayerDescriptor) lookup(
+                key("parse", body, format, version, entityResolver), body.length,
+                new Callable<Object>() {
+
+                    @Override
+                    public Object call() throws Exception {
+                        return Styles.handler(format).parse(new ByteArrayInputStream(body),
+                                version, null, entityResolver);
+                    }
+                });
+        DuplicatingStyleVisitor copier = new DuplicatingStyleVisitor();
+        sld.accept(copier);
+        return (StyledLayerDescriptor) copier.getCopy();
+    }
+
+    /**
+     * Validates the style document, or returns the validation errors of an identical document
+     */
+    @SuppressWarnings("rawtypes")
+    public List validate(final byte[] body, final String format, final Version version,
+            final EntityResolver entityResolver) throws IOException {
+        if (!enabled) {
+            return Styles.handler(format).validate(new ByteArrayInputStream(body), version,
+                    entityResolver);
+        }
+
+        return (List) lookup(key("validate", body, format, version, entityResolver),
+                body.length, new Callable<Object>() {
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Object call() throws Exception {
+                        List errors = Styles.handler(format).validate(
+                                new ByteArrayInputStream(body), version, entityResolver);
+                        return errors == null ? Collections.emptyList() : Collections
+                                .unmodifiableList(new ArrayList(errors));
+                    }
+                });
+    }
+
+    /**
+     * Reads the remote style document, revalidating the last response with its HTTP validators
+     * if possible
+     */
+    public byte[] fetch(URL url) throws IOException {
+        if (!enabled) {
+            return read(Requests.getInputStream(url));
+        }
+        URLConnection conn = url.openConnection();
+        if (!(conn instanceof HttpURLConnection)) {
+            conn.connect();
+            return read(Requests.getInputStream(conn));
+        }
+
+        HttpURLConnection http = (HttpURLConnection) conn;
+        String key = url.toExternalForm();
+        Entry entry = entries.getIfPresent(key);
+        Remote cached = entry != null ? (Remote) entry.value : null;
+        http.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        if (cached != null) {
+            if (cached.etag != null) {
+                http.setRequestProperty("If-None-Match", cached.etag);
+            }
+            if (cached.lastModified > 0) {
+                http.setIfModifiedSince(cached.lastModified);
+            }
+        }
+        http.connect();
+
+        if (cached != null && http.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            hits.incrementAndGet();
+            http.disconnect();
+            return cached.body;
+        }
+        byte[] body = read(Requests.getInputStream(http));
+        String etag = http.getHeaderField("ETag");
+        long lastModified = http.getLastModified();
+        if (etag != null || lastModified > 0) {
+            entries.put(key, new Entry(new Remote(etag, lastModified, body), body.length));
+        } else {
+            entries.invalidate(key);
+        }
+        return body;
+    }
+
+    byte[] read(InputStream input) throws IOException {
+        try {
+            return IOUtils.toByteArray(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    List<Object> key(String kind, byte[] body, String format, Version version,
+            EntityResolver entityResolver) {
+        String hash = Hashing.sha1().hashBytes(body).toString();
+        String resolver = entityResolver != null ? entityResolver.getClass().getName() : null;
+        return Arrays.<Object> asList(kind, hash, format, version, resolver);
+    }
+
+    Object lookup(Object key, int weight, final Callable<Object> loader) throws IOException {
+        Entry entry = entries.getIfPresent(key);
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry.value;
+        }
+        misses.incrementAndGet();
+        try {
+            // concurrent requests for the same style wait for a single parse
+            final int w = weight;
+            return entries.get(key, new Callable<Entry>() {
+
+                @Override
+                public Entry call() throws Exception {
+                    Object value = loader.call();
+                    return new Entry(value, w + weighErrors(value));
+                }
+            }).value;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Estimates the size of a list of validation errors, zero for anything else
+     */
+    @SuppressWarnings("rawtypes")
+    static int weighErrors(Object value) {
+        if (!(value instanceof List)) {
+            return 0;
+        }
+        long weight = 0;
+        for (Object error : (List) value) {
+            weight += 2 * String.valueOf(error).length();
+        }
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Drops all the cached styles
+     */
+    public void clear() {
+        if (enabled) {
+            entries.invalidateAll();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -7,14 +7,30 @@ package org.geoserver.wms.map;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
@@ -23,6 +39,7 @@ import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
 import org.geoserver.config.ServiceInfo;
 import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.TransactionEvent;
 import org.geoserver.wfs.TransactionListener;
@@ -32,10 +49,30 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.CRS.AxisOrder;
 import org.geotools.util.CanonicalSet;
+import org.geotools.util.logging.Logging;
 
 import com.vividsolutions.jts.geom.Envelope;
 
+/**
+ * Cache of the tiles split out of the meta-tiles built for <code>tiled=true</code> GetMap requests.
+ * <p>
+ * The tile pixels are kept off-heap, in direct buffers, and the cache is bounded by the amount of
+ * memory they use, evicting the least recently used meta-tiles first. The maximum size, in
+ * megabytes, is set with the {@link #MAX_SIZE_KEY} system variable, and defaults to
+ * {@value #DEFAULT_MAX_SIZE}. Setting it to zero disables the caching.
+ * </p>
+ */
 public class QuickTileCache implements TransactionListener, GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(QuickTileCache.class);
+
+    /**
+     * The maximum size of the cache, in megabytes
+     */
+    public static final String MAX_SIZE_KEY = "GEOSERVER_METATILE_CACHE_SIZE";
+
+    static final long DEFAULT_MAX_SIZE = 64;
+
     /**
      * Set of parameters that we can ignore, since they do not define a map, are either unrelated,
      * or define the tiling instead
@@ -59,22 +96,37 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      */
     private CanonicalSet<MetaTileKey> metaTileKeys = CanonicalSet.newInstance(MetaTileKey.class);
 
-    private WeakHashMap tileCache = new WeakHashMap();
+    /**
+     * The cached meta-tiles, in access order
+     */
+    private LinkedHashMap<MetaTileKey, CacheElement> tileCache = new LinkedHashMap<MetaTileKey, CacheElement>(
+            16, 0.75f, true);
+
+    /**
+     * The maximum amount of memory used by the cached tiles, in bytes
+     */
+    private long maxBytes;
+
+    /**
+     * The amount of memory currently used by the cached tiles, in bytes
+     */
+    private long bytes;
 
     public QuickTileCache(GeoServer geoServer) {
+        this();
         geoServer.addListener(new ConfigurationListenerAdapter() {
             public void handleGlobalChange(GeoServerInfo global, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                clear();
             }
 
             public void handleServiceChange(ServiceInfo service, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                clear();
             }
 
             public void reloaded() {
-                tileCache.clear();
+                clear();
             }
         });
     }
@@ -83,6 +135,41 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * For testing only
      */
     QuickTileCache() {
+        long maxSize = DEFAULT_MAX_SIZE;
+        String value = GeoServerExtensions.getProperty(MAX_SIZE_KEY);
+        if (value != null) {
+            try {
+                maxSize = Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + MAX_SIZE_KEY + ": " + value
+                        + ", using the default of " + DEFAULT_MAX_SIZE + "MB");
+            }
+        }
+        setMaxBytes(maxSize * 1024 * 1024);
+    }
+
+    /**
+     * Sets the maximum amount of memory used by the cached tiles, in bytes, evicting tiles as
+     * needed
+     */
+    synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+        evict();
+    }
+
+    /**
+     * Returns the amount of memory currently used by the cached tiles, in bytes
+     */
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Removes all the cached tiles
+     */
+    public synchronized void clear() {
+        tileCache.clear();
+        bytes = 0;
     }
 
     /**
@@ -335,14 +422,30 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @param request
      * @return
      */
-    public synchronized RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
-        CacheElement ce = (CacheElement) tileCache.get(key);
+    public RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
+        CacheElement ce;
+        synchronized (this) {
+            ce = tileCache.get(key);
+        }
 
         if (ce == null) {
             return null;
         }
 
-        return getTile(key, request, ce.tiles);
+        // the tile is rebuilt outside of the lock, the element stays valid even if evicted
+        // in the meantime
+        return ce.getTile(getTileIndex(key, request));
+    }
+
+    /**
+     * Gathers the tile at the given index of a cached meta-tile, if available
+     */
+    RenderedImage getTile(MetaTileKey key, int index) {
+        CacheElement ce;
+        synchronized (this) {
+            ce = tileCache.get(key);
+        }
+        return ce == null ? null : ce.getTile(index);
     }
 
     /**
@@ -353,6 +456,10 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @return
      */
     public RenderedImage getTile(MetaTileKey key, GetMapRequest request, RenderedImage[] tiles) {
+        return tiles[getTileIndex(key, request)];
+    }
+
+    int getTileIndex(MetaTileKey key, GetMapRequest request) {
         Envelope bbox = request.getBbox();
         if(CRS.getAxisOrder(request.getCrs()) == AxisOrder.NORTH_EAST) {
             bbox = new Envelope(bbox.getMinY(), bbox.getMaxY(), bbox.getMinX(), bbox.getMaxX());
@@ -360,26 +467,191 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         
         Point tileCoord = getTileOffsetsInMeta(bbox, key.getMetaTileEnvelope());
 
-        return tiles[tileCoord.x + (tileCoord.y * key.getMetaFactor())];
+        return tileCoord.x + (tileCoord.y * key.getMetaFactor());
     }
 
     /**
-     * Puts the specified tile array in the cache, and returns the tile the request was looking for
+     * Puts the specified tile array in the cache, copying the pixels off-heap, and evicting the
+     * least recently used meta-tiles if the cache goes over its maximum size
      * 
      * @param key
-     * @param request
      * @param tiles
-     * @return
      */
-    public synchronized void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
-        tileCache.put(key, new CacheElement(tiles));
+    public void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
+        synchronized (this) {
+            if (maxBytes == 0) {
+                return;
+            }
+        }
+
+        // copy the pixels outside of the lock
+        CacheElement ce;
+        try {
+            ce = CacheElement.create(tiles);
+        } catch (OutOfMemoryError e) {
+            // out of direct memory, make room for the next ones
+            LOGGER.log(Level.WARNING, "Could not allocate the off-heap meta-tile cache, "
+                    + "consider raising -XX:MaxDirectMemorySize or lowering " + MAX_SIZE_KEY, e);
+            clear();
+            return;
+        }
+        if (ce == null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (ce.size() > maxBytes) {
+                return;
+            }
+            CacheElement previous = tileCache.put(key, ce);
+            if (previous != null) {
+                bytes -= previous.size();
+            }
+            bytes += ce.size();
+            evict();
+        }
+    }
+
+    /**
+     * Drops the least recently used meta-tiles until the cache fits its maximum size
+     */
+    private void evict() {
+        Iterator<CacheElement> it = tileCache.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().size();
+            it.remove();
+        }
     }
 
-    class CacheElement {
-        RenderedImage[] tiles;
+    /**
+     * The tiles of a meta-tile, stored in a single direct buffer in the layout of a fresh raster
+     * compatible with the original tiles, from which the tiles can be rebuilt with a single copy
+     */
+    static class CacheElement {
+        final ColorModel colorModel;
+
+        final SampleModel sampleModel;
+
+        final ByteBuffer data;
+
+        final int tileBytes;
+
+        final int tileCount;
+
+        CacheElement(ColorModel colorModel, SampleModel sampleModel, ByteBuffer data,
+                int tileBytes, int tileCount) {
+            this.colorModel = colorModel;
+            this.sampleModel = sampleModel;
+            this.data = data;
+            this.tileBytes = tileBytes;
+            this.tileCount = tileCount;
+        }
+
+        /**
+         * Copies the tiles off-heap, returns null if the tiles cannot be stored
+         */
+        static CacheElement create(RenderedImage[] tiles) {
+            RenderedImage first = tiles[0];
+            ColorModel colorModel = first.getColorModel();
+            if (colorModel == null) {
+                return null;
+            }
+            SampleModel sampleModel = first.getSampleModel().createCompatibleSampleModel(
+                    first.getWidth(), first.getHeight());
+            WritableRaster scratch = Raster.createWritableRaster(sampleModel, null);
+            DataBuffer buffer = scratch.getDataBuffer();
+            int elementBytes = DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+            if (!isSupported(buffer)) {
+                return null;
+            }
+            int tileBytes = buffer.getSize() * buffer.getNumBanks() * elementBytes;
+
+            ByteBuffer data = ByteBuffer.allocateDirect(tileBytes * tiles.length).order(
+                    ByteOrder.nativeOrder());
+            for (RenderedImage tile : tiles) {
+                if (tile.getWidth() != first.getWidth() || tile.getHeight() != first.getHeight()) {
+                    return null;
+                }
+                tile.copyData(scratch.createWritableTranslatedChild(tile.getMinX(),
+                        tile.getMinY()));
+                write(buffer, data);
+            }
+            data.flip();
 
-        public CacheElement(RenderedImage[] tiles) {
-            this.tiles = tiles;
+            return new CacheElement(colorModel, sampleModel, data, tileBytes, tiles.length);
+        }
+
+        /**
+         * Rebuilds the tile at the specified index
+         */
+        RenderedImage getTile(int index) {
+            if (index < 0 || index >= tileCount) {
+                return null;
+            }
+            WritableRaster raster = Raster.createWritableRaster(sampleModel, null);
+            // duplicates are independent in position, but do not inherit the byte order
+            ByteBuffer source = data.duplicate().order(data.order());
+            source.position(index * tileBytes);
+            read(source, raster.getDataBuffer());
+            return new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
+        }
+
+        long size() {
+            return data.capacity();
+        }
+
+        static boolean isSupported(DataBuffer buffer) {
+            return buffer instanceof DataBufferByte || buffer instanceof DataBufferUShort
+                    || buffer instanceof DataBufferShort || buffer instanceof DataBufferInt
+                    || buffer instanceof DataBufferFloat || buffer instanceof DataBufferDouble;
+        }
+
+        static void write(DataBuffer buffer, ByteBuffer target) {
+            int size = buffer.getSize();
+            for (int bank = 0; bank < buffer.getNumBanks(); bank++) {
+                if (buffer instanceof DataBufferByte) {
+                    target.put(((DataBufferByte) buffer).getData(bank));
+                } else if (buffer instanceof DataBufferUShort) {
+                    target.asShortBuffer().put(((DataBufferUShort) buffer).getData(bank));
+                    target.position(target.position() + size * 2);
+                } else if (buffer instanceof DataBufferShort) {
+                    target.asShortBuffer().put(((DataBufferShort) buffer).getData(bank));
+                    target.position(target.position() + size * 2);
+                } else if (buffer instanceof DataBufferInt) {
+                    target.asIntBuffer().put(((DataBufferInt) buffer).getData(bank));
+                    target.position(target.position() + size * 4);
+                } else if (buffer instanceof DataBufferFloat) {
+                    target.asFloatBuffer().put(((DataBufferFloat) buffer).getData(bank));
+                    target.position(target.position() + size * 4);
+                } else {
+                    target.asDoubleBuffer().put(((DataBufferDouble) buffer).getData(bank));
+                    target.position(target.position() + size * 8);
+                }
+            }
+        }
+
+        static void read(ByteBuffer source, DataBuffer buffer) {
+            int size = buffer.getSize();
+            for (int bank = 0; bank < buffer.getNumBanks(); bank++) {
+                if (buffer instanceof DataBufferByte) {
+                    source.get(((DataBufferByte) buffer).getData(bank));
+                } else if (buffer instanceof DataBufferUShort) {
+                    source.asShortBuffer().get(((DataBufferUShort) buffer).getData(bank));
+                    source.position(source.position() + size * 2);
+                } else if (buffer instanceof DataBufferShort) {
+                    source.asShortBuffer().get(((DataBufferShort) buffer).getData(bank));
+                    source.position(source.position() + size * 2);
+                } else if (buffer instanceof DataBufferInt) {
+                    source.asIntBuffer().get(((DataBufferInt) buffer).getData(bank));
+                    source.position(source.position() + size * 4);
+                } else if (buffer instanceof DataBufferFloat) {
+                    source.asFloatBuffer().get(((DataBufferFloat) buffer).getData(bank));
+                    source.position(source.position() + size * 4);
+                } else {
+                    source.asDoubleBuffer().get(((DataBufferDouble) buffer).getData(bank));
+                    source.position(source.position() + size * 8);
+                }
+            }
         }
     }
 
@@ -388,18 +660,18 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         // contains a string with part of the map request where the layer
         // name is included, but we would have to parse it and consider
         // also that the namespace may be missing in the getmap request
-        tileCache.clear();
+        clear();
     }
 
     @Override
     public void onReset() {
         // data might have changed in the meantime
-        tileCache.clear();        
+        clear();        
     }
 
     @Override
     public void onDispose() {
-        tileCache.clear();
+        clear();
     }
 
     public void beforeReload() {
@@ -408,6 +680,6 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
 
     @Override
     public void onReload() {
-        tileCache.clear();
+        clear();
     }
 }
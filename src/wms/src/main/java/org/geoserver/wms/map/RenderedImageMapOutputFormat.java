@@ -44,6 +44,8 @@ import javax.media.jai.ROIShape;
 import javax.media.jai.operator.ConstantDescriptor;
 import javax.media.jai.operator.MosaicDescriptor;
 
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.platform.resource.Resource;
@@ -410,7 +412,15 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         graphic.setRenderingHints(hintsMap);
 
         RenderingHints hints = new RenderingHints(hintsMap);
-        StreamingRenderer renderer = buildRenderer();
+        StreamingRenderer renderer;
+        if (palette == null && mapContent.getAngle() == 0.0
+                && BandedRenderer.isBandingEnabled(mapContent, paintArea.width, paintArea.height)
+                && (maxMemory <= 0 || memory + 4L * paintArea.width * paintArea.height <= maxMemory)) {
+            // large map, render it in concurrent bands (which need another drawing surface)
+            renderer = buildBandedRenderer();
+        } else {
+            renderer = buildRenderer();
+        }
         renderer.setThreadPool(DefaultWebMapService.getRenderingPool());
         renderer.setMapContent(mapContent);
         renderer.setJava2DHints(hints);
@@ -527,15 +537,22 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
             }
         }
         int maxRenderingTime = getMaxRenderingTime(localMaxRenderingTime);
+        long renderingTimeout = getRenderingTimeout(maxRenderingTime);
+        if (renderingTimeout < 0) {
+            graphic.dispose();
+            throw new ServiceException(
+                    "This request used more time than allowed before rendering could start. "
+                            + "Max rendering time is " + (maxRenderingTime / 1000.0) + "s");
+        }
         
         ServiceException serviceException = null;
         boolean saveMap = (request.getRawKvp() != null && WMSServiceExceptionHandler
                 .isPartialMapExceptionType(request.getRawKvp().get("EXCEPTIONS")));
-        RenderingTimeoutEnforcer timeout = new RenderingTimeoutEnforcer(maxRenderingTime, renderer,
+        RenderingTimeoutEnforcer timeout = new RenderingTimeoutEnforcer(renderingTimeout, renderer,
                 graphic, saveMap) {
             
             /**
-             * Save the map before disposing of the graphics
+             * Save what got rendered before the timeout, called on the rendering thread
              */
             @Override
             public void saveMap() {
@@ -609,6 +626,16 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         return new StreamingRenderer();
     }
 
+    /**
+     * Creates the {@link BandedRenderer} used for large maps, the renderers of the single bands
+     * are still built by {@link #buildRenderer()}
+     * 
+     * @return
+     */
+    protected StreamingRenderer buildBandedRenderer() {
+        return new BandedRenderer(this);
+    }
+
     private boolean getFormatOptionAsBoolean(final GetMapRequest request, final String formatOptionKey) {
         if (request.getFormatOptions().get(formatOptionKey) != null) {
             String formatOptionValue = (String)request.getFormatOptions().get(formatOptionKey);
@@ -634,6 +661,27 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
                 preparedImage, hintsMap);
     }
     
+    /**
+     * Returns the time left for rendering, in milliseconds, given the max rendering time. The
+     * max rendering time is counted from the moment the request hit the server, so that the time
+     * spent waiting in the control flow queues is accounted for, and is further bound by the
+     * request {@link Request#getDeadline() deadline}, if any.
+     * 
+     * @return the time left, 0 if there is no limit, a negative value if no time is left
+     */
+    long getRenderingTimeout(int maxRenderingTime) {
+        Request request = Dispatcher.REQUEST.get();
+        if (request == null) {
+            return maxRenderingTime;
+        }
+        long deadline = request.getDeadline(maxRenderingTime);
+        if (deadline <= 0) {
+            return 0;
+        }
+        long left = deadline - System.currentTimeMillis();
+        return left > 0 ? left : -1;
+    }
+
     /**
      * Timeout on the smallest nonzero value of the WMS timeout and the timeout format option
      * If both are zero then there is no timeout
@@ -6,9 +6,8 @@
 package org.geoserver.wms.map;
 
 import java.awt.Graphics;
-import java.util.Timer;
-import java.util.TimerTask;
 
+import org.geoserver.ows.util.TimeoutScheduler;
 import org.geoserver.wms.WebMap;
 import org.geotools.renderer.GTRenderer;
 
@@ -16,6 +15,11 @@ import org.geotools.renderer.GTRenderer;
  * An utility class that can be used to set a strict timeout on rendering operations:
  * if the timeout elapses, the renderer will be asked to stop rendering and the graphics
  * will be disposed of to make extra sure the renderer cannot keep going on.
+ * <p>
+ * The timeouts are tracked by the shared {@link TimeoutScheduler}, no thread is created for each
+ * rendering. The scheduler thread only stops the renderer, when the map has to be saved
+ * {@link #saveMap()} is called by the rendering thread in {@link #stop()}.
+ * </p>
  * @author Andrea Aime - OpenGeo
  */
 public class RenderingTimeoutEnforcer {
@@ -23,8 +27,8 @@ public class RenderingTimeoutEnforcer {
     long timeout;
     GTRenderer renderer;
     Graphics graphics;
-    Timer timer;
-    boolean timedOut = false;
+    TimeoutScheduler.Timeout timer;
+    volatile boolean timedOut = false;
     boolean saveMap;
     WebMap map = null;
 
@@ -55,21 +59,21 @@ public class RenderingTimeoutEnforcer {
         
         if(timeout > 0) {
             timedOut = false;
-            timer = new Timer();
-            timer.schedule(new StopRenderingTask(), timeout);
+            timer = TimeoutScheduler.get().schedule(new StopRenderingTask(), timeout);
         }
     }
     
     /**
-     * Stops the timeout check
+     * Stops the timeout check, and saves the map if the rendering timed out
      */
     public void stop() {
         if(timer != null) {
             timer.cancel();
-            timer.purge();
-            // timer.getTheHellOutOfDodge();
             timer = null;
         }
+        if(timedOut && saveMap && map == null) {
+            saveMap();
+        }
     }
     
     /**
@@ -79,15 +83,12 @@ public class RenderingTimeoutEnforcer {
         return timedOut;
     }
     
-    class StopRenderingTask extends TimerTask {
+    class StopRenderingTask implements Runnable {
 
         @Override
         public void run() {
             // mark as timed out
             timedOut = true;
-            if (saveMap) {
-                saveMap();
-            }
             // ask gently...
             renderer.stopRendering();
             // ... but also be rude for extra measure (coverage rendering is
@@ -0,0 +1,535 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.RenderingHints.Key;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.security.decorators.DecoratingSimpleFeatureSource;
+import org.geotools.data.Query;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.factory.Hints;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleAttributeExtractor;
+import org.geotools.util.Utilities;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.And;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.spatial.BBOX;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Shares the features read by the layers of a single GetMap request that are backed by the same
+ * feature type, such as the same layer listed several times in a layer group with different
+ * styles, so that the store is queried once and the features are handed out to all of them.
+ * <p>
+ * The layers sharing a feature type are wrapped in a feature source that loads the features
+ * needed by the first query in memory, along with the attributes used by all the styles of the
+ * group and a bounding box enlarged by the largest rendering buffer of the group. Later queries
+ * asking for the same data, or for a subset of it in a smaller area, are answered by filtering the
+ * loaded features against its bounding box in memory, every other query goes straight to the
+ * store.
+ * </p>
+ * <p>
+ * The features kept by a request are bounded by their estimated size: when a load goes past it,
+ * the load is dropped and the queries hit the store as usual. The cache is controlled by the
+ * following system properties, environment or servlet context variables:
+ * <ul>
+ * <li>{@link #CACHE_KEY}: set to <code>false</code> to stop sharing features among layers</li>
+ * <li>{@link #MAX_SIZE_KEY}: the maximum estimated size, in bytes, of the features kept by a
+ * single request, 16MB by default</li>
+ * </ul>
+ * </p>
+ */
+public class SharedFeatureCache {
+
+    static final Logger LOGGER = Logging.getLogger(SharedFeatureCache.class);
+
+    public static final String CACHE_KEY = "GEOSERVER_WMS_SHARED_FEATURES";
+
+    public static final String MAX_SIZE_KEY = "GEOSERVER_WMS_SHARED_FEATURES_MAX_SIZE";
+
+    static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
+    /**
+     * Returns a cache for a new request, or null if features should not be shared
+     *
+     * @param mapWidth The width of the map, in pixels
+     * @param mapHeight The height of the map, in pixels
+     */
+    public static SharedFeatureCache create(int mapWidth, int mapHeight) {
+        if ("false".equalsIgnoreCase(GeoServerExtensions.getProperty(CACHE_KEY))) {
+            return null;
+        }
+        long maxSize = DEFAULT_MAX_SIZE;
+        String value = GeoServerExtensions.getProperty(MAX_SIZE_KEY);
+        if (value != null) {
+            try {
+                maxSize = Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value '" + value + "' for " + MAX_SIZE_KEY + ", using "
+                        + DEFAULT_MAX_SIZE);
+            }
+        }
+        if (maxSize <= 0) {
+            return null;
+        }
+        return new SharedFeatureCache(maxSize, mapWidth, mapHeight);
+    }
+
+    final long maxSize;
+
+    final int mapWidth;
+
+    final int mapHeight;
+
+    long size;
+
+    Map<String, Group> groups = new HashMap<String, Group>();
+
+    SharedFeatureCache(long maxSize, int mapWidth, int mapHeight) {
+        this.maxSize = maxSize;
+        this.mapWidth = mapWidth;
+        this.mapHeight = mapHeight;
+    }
+
+    /**
+     * Returns true if the style can be used by a shared layer, that is, it has no rendering
+     * transformations, which might change the query in unpredictable ways
+     */
+    public static boolean isShareable(Style style) {
+        for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+            if (fts.getTransformation() != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Declares a group of layers sharing their features
+     *
+     * @param key The group identifier, usually the feature type identifier
+     * @param styles The styles of all the layers in the group
+     * @param buffer The largest rendering buffer, in pixels, of the styles in the group
+     */
+    public void addGroup(String key, List<Style> styles, int buffer) {
+        StyleAttributeExtractor extractor = new StyleAttributeExtractor();
+        for (Style style : styles) {
+            style.accept(extractor);
+        }
+        groups.put(key, new Group(extractor.getAttributeNameSet(), buffer));
+    }
+
+    /**
+     * Returns true if a group has been declared with the specified key
+     */
+    public boolean isShared(String key) {
+        return groups.containsKey(key);
+    }
+
+    /**
+     * Wraps the feature source of a layer belonging to a group
+     */
+    public SimpleFeatureSource share(String key, SimpleFeatureSource source) {
+        Group group = groups.get(key);
+        if (group == null) {
+            return source;
+        }
+        return new SharedFeatureSource(source, group);
+    }
+
+    synchronized boolean reserve(long bytes) {
+        if (size + bytes > maxSize) {
+            return false;
+        }
+        size += bytes;
+        return true;
+    }
+
+    synchronized void release(long bytes) {
+        size -= bytes;
+    }
+
+    /**
+     * Rough estimate of the memory used by a feature
+     */
+    static long estimateSize(SimpleFeature feature) {
+        long size = 64;
+        for (Object value : feature.getAttributes()) {
+            if (value instanceof Geometry) {
+                size += 64 + 16L * ((Geometry) value).getNumPoints();
+            } else if (value instanceof String) {
+                size += 40 + 2L * ((String) value).length();
+            } else {
+                size += 16;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * A filter split into its top level bounding box and the rest of it
+     */
+    static class SplitFilter {
+
+        BBOX bbox;
+
+        ReferencedEnvelope envelope;
+
+        Set<Filter> others = new HashSet<Filter>();
+
+        /**
+         * Splits the filter, returns null if it does not have a single top level bounding box
+         */
+        static SplitFilter split(Filter filter) {
+            List<Filter> children;
+            if (filter instanceof And) {
+                children = ((And) filter).getChildren();
+            } else {
+                children = Collections.singletonList(filter);
+            }
+            SplitFilter result = new SplitFilter();
+            for (Filter child : children) {
+                if (child instanceof BBOX) {
+                    if (result.bbox != null) {
+                        return null;
+                    }
+                    result.bbox = (BBOX) child;
+                } else {
+                    result.others.add(child);
+                }
+            }
+            if (result.bbox == null || result.bbox.getBounds() == null) {
+                return null;
+            }
+            result.envelope = ReferencedEnvelope.reference(result.bbox.getBounds());
+            return result;
+        }
+
+        /**
+         * Returns true if the features matching this filter are a superset of the ones matching
+         * the other filter
+         */
+        boolean contains(SplitFilter other) {
+            return others.equals(other.others)
+                    && Utilities.equals(bbox.getExpression1(), other.bbox.getExpression1())
+                    && CRS.equalsIgnoreMetadata(envelope.getCoordinateReferenceSystem(),
+                            other.envelope.getCoordinateReferenceSystem())
+                    && envelope.contains((Envelope) other.envelope);
+        }
+
+        /**
+         * Returns a copy of the filter with the bounding box expanded by the specified amounts
+         */
+        Filter expand(double dx, double dy) {
+            ReferencedEnvelope expanded = new ReferencedEnvelope(envelope);
+            expanded.expandBy(dx, dy);
+            List<Filter> children = new ArrayList<Filter>(others);
+            children.add(FF.bbox(bbox.getExpression1(), expanded));
+            return children.size() == 1 ? children.get(0) : FF.and(children);
+        }
+    }
+
+    /**
+     * The features loaded for a query
+     */
+    static class Entry {
+
+        Query query;
+
+        SplitFilter filter;
+
+        SimpleFeatureType schema;
+
+        List<SimpleFeature> features;
+
+        long size;
+
+        final CountDownLatch loaded = new CountDownLatch(1);
+
+        Entry(Query query, SplitFilter filter) {
+            this.query = query;
+            this.filter = filter;
+        }
+
+        /**
+         * Loads the features, gives up and returns false if they go beyond the size limit
+         */
+        boolean load(SimpleFeatureSource source, SharedFeatureCache cache) throws IOException {
+            SimpleFeatureCollection collection = source.getFeatures(query);
+            List<SimpleFeature> result = new ArrayList<SimpleFeature>();
+            SimpleFeatureIterator it = collection.features();
+            try {
+                while (it.hasNext()) {
+                    SimpleFeature feature = it.next();
+                    long featureSize = estimateSize(feature);
+                    if (!cache.reserve(featureSize)) {
+                        cache.release(size);
+                        size = 0;
+                        if (LOGGER.isLoggable(Level.FINE)) {
+                            LOGGER.fine("Too many features to share for " + query
+                                    + ", querying the store for each layer");
+                        }
+                        return false;
+                    }
+                    size += featureSize;
+                    result.add(feature);
+                }
+            } finally {
+                it.close();
+            }
+            this.schema = collection.getSchema();
+            this.features = result;
+            return true;
+        }
+    }
+
+    /**
+     * The state shared by the layers of a group
+     */
+    class Group {
+
+        final Set<String> styleAttributes;
+
+        final int buffer;
+
+        final List<Entry> entries = new ArrayList<Entry>();
+
+        Set<String> sharedProperties;
+
+        boolean allProperties;
+
+        Group(Set<String> styleAttributes, int buffer) {
+            this.styleAttributes = styleAttributes;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Collects the attributes loaded for all the layers, or returns null if all of them are
+         * needed
+         */
+        synchronized Set<String> getProperties(SimpleFeatureType schema) {
+            if (sharedProperties == null && !allProperties) {
+                Set<String> result = new LinkedHashSet<String>(styleAttributes);
+                // the renderer always asks for the geometries it paints
+                for (AttributeDescriptor ad : schema.getAttributeDescriptors()) {
+                    if (ad instanceof GeometryDescriptor) {
+                        result.add(ad.getLocalName());
+                    }
+                }
+                // make sure all the names are known, otherwise just load everything
+                for (String property : result) {
+                    if (schema.getDescriptor(property) == null) {
+                        allProperties = true;
+                        return null;
+                    }
+                }
+                sharedProperties = result;
+            }
+            return sharedProperties;
+        }
+
+        /**
+         * Returns the features matching the query, or null if they have to be read from the store
+         */
+        SimpleFeatureCollection getFeatures(Query query, SimpleFeatureSource source)
+                throws IOException {
+            Set<String> properties = getProperties(source.getSchema());
+            if (!isShareable(query, properties)) {
+                return null;
+            }
+            SplitFilter filter = SplitFilter.split(query.getFilter());
+            if (filter == null) {
+                return null;
+            }
+
+            Entry entry = null;
+            boolean owner = false;
+            synchronized (entries) {
+                for (Entry e : entries) {
+                    if (sameRequest(e.query, query) && e.filter.contains(filter)) {
+                        entry = e;
+                        break;
+                    }
+                }
+                if (entry == null) {
+                    Query loadQuery = buildLoadQuery(query, filter, properties);
+                    SplitFilter loadFilter = SplitFilter.split(loadQuery.getFilter());
+                    if (loadFilter == null || !loadFilter.contains(filter)) {
+                        return null;
+                    }
+                    entry = new Entry(loadQuery, loadFilter);
+                    entries.add(entry);
+                    owner = true;
+                }
+            }
+
+            // load outside of the group lock, so that other areas can be loaded in parallel
+            if (owner) {
+                try {
+                    entry.load(source, SharedFeatureCache.this);
+                } finally {
+                    entry.loaded.countDown();
+                }
+            } else {
+                try {
+                    entry.loaded.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            // if the load failed or was too large, query the store
+            if (entry.features == null) {
+                return null;
+            }
+
+            // the rest of the filter is the same as the load one, and was already applied by
+            // the store: it might use attributes that have not been loaded
+            Filter bbox = filter.bbox;
+            List<SimpleFeature> matching = new ArrayList<SimpleFeature>();
+            for (SimpleFeature feature : entry.features) {
+                if (bbox.evaluate(feature)) {
+                    matching.add(feature);
+                }
+            }
+            return new ListFeatureCollection(entry.schema, matching);
+        }
+
+        boolean isShareable(Query query, Set<String> properties) {
+            if (query.getFilter() == null || !query.isMaxFeaturesUnlimited()
+                    || query.getStartIndex() != null
+                    || (query.getJoins() != null && !query.getJoins().isEmpty())) {
+                return false;
+            }
+            String[] names = query.getPropertyNames();
+            if (properties == null) {
+                return true;
+            } else if (names == null) {
+                return false;
+            }
+            return properties.containsAll(Arrays.asList(names));
+        }
+
+        Query buildLoadQuery(Query query, SplitFilter filter, Set<String> properties) {
+            Query result = new Query(query);
+            result.setPropertyNames(properties == null ? null : new ArrayList<String>(properties));
+            // the pixel size is slightly overestimated, as the query area already contains the
+            // buffer of the first layer, which is fine, it only has to contain all the others
+            double dx = filter.envelope.getWidth() / mapWidth * buffer;
+            double dy = filter.envelope.getHeight() / mapHeight * buffer;
+            result.setFilter(filter.expand(dx, dy));
+            return result;
+        }
+
+        boolean sameRequest(Query q1, Query q2) {
+            return Utilities.equals(q1.getTypeName(), q2.getTypeName())
+                    && Utilities.equals(q1.getVersion(), q2.getVersion())
+                    && Utilities.equals(q1.getCoordinateSystem(), q2.getCoordinateSystem())
+                    && Utilities.equals(q1.getCoordinateSystemReproject(),
+                            q2.getCoordinateSystemReproject())
+                    && Arrays.equals(q1.getSortBy(), q2.getSortBy())
+                    && sameHints(q1.getHints(), q2.getHints());
+        }
+
+        boolean sameHints(Hints h1, Hints h2) {
+            if (h1 == null || h2 == null) {
+                return h1 == h2;
+            }
+            if (!h1.keySet().equals(h2.keySet())) {
+                return false;
+            }
+            for (Object key : h1.keySet()) {
+                Object v1 = h1.get(key);
+                Object v2 = h2.get(key);
+                if (Utilities.equals(v1, v2)) {
+                    continue;
+                }
+                // the renderer creates new geometry factories for each query
+                if ((key == Hints.JTS_COORDINATE_SEQUENCE_FACTORY
+                        || key == Hints.JTS_GEOMETRY_FACTORY) && v1 != null && v2 != null
+                        && v1.getClass().equals(v2.getClass())) {
+                    continue;
+                }
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Feature source looking up features in the group before querying the store
+     */
+    class SharedFeatureSource extends DecoratingSimpleFeatureSource {
+
+        Group group;
+
+        SharedFeatureSource(SimpleFeatureSource delegate, Group group) {
+            super(delegate);
+            this.group = group;
+        }
+
+        @Override
+        public SimpleFeatureCollection getFeatures(Query query) throws IOException {
+            Query q = new Query(query);
+            if (q.getTypeName() == null) {
+                q.setTypeName(delegate.getSchema().getTypeName());
+            }
+            SimpleFeatureCollection features = group.getFeatures(q, delegate);
+            if (features != null) {
+                return features;
+            }
+            return delegate.getFeatures(query);
+        }
+
+        @Override
+        public Set<Key> getSupportedHints() {
+            // the screen map is specific to each layer, the store must not skip features based
+            // on it when loading features for several of them. The features are also handed out
+            // to several layers, possibly in parallel, so force the renderer to clone them
+            // before transforming the geometries
+            Set<Key> hints = delegate.getSupportedHints();
+            Set<Key> result;
+            if (hints == null) {
+                result = new HashSet<Key>();
+            } else {
+                result = new HashSet<Key>(hints);
+            }
+            result.remove(Hints.SCREENMAP);
+            result.remove(Hints.FEATURE_DETACHED);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.geoserver.catalog.SLDHandler;
+import org.geoserver.wms.WMSTestSupport;
+import org.geotools.styling.NamedLayer;
+import org.geotools.styling.StyledLayerDescriptor;
+import org.junit.Test;
+
+public class ParsedStyleCacheTest extends WMSTestSupport {
+
+    byte[] body() throws Exception {
+        InputStream input = GetMapKvpRequestReader.class
+                .getResourceAsStream("BasicPolygonsLibraryNoDefault.sld");
+        try {
+            return IOUtils.toByteArray(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    @Test
+    public void testParseCached() throws Exception {
+        ParsedStyleCache cache = new ParsedStyleCache(true, 1024 * 1024);
+        byte[] body = body();
+
+        StyledLayerDescriptor sld1 = cache.parse(body, SLDHandler.FORMAT, null, null);
+        StyledLayerDescriptor sld2 = cache.parse(body.clone(), SLDHandler.FORMAT, null, null);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+
+        // each request gets its own copy
+        assertNotSame(sld1, sld2);
+        assertEquals(sld1.getStyledLayers().length, sld2.getStyledLayers().length);
+        NamedLayer layer1 = (NamedLayer) sld1.getStyledLayers()[0];
+        NamedLayer layer2 = (NamedLayer) sld2.getStyledLayers()[0];
+        assertEquals(layer1.getName(), layer2.getName());
+        assertNotSame(layer1.getStyles()[0], layer2.getStyles()[0]);
+    }
+
+    @Test
+    public void testValidateCached() throws Exception {
+        ParsedStyleCache cache = new ParsedStyleCache(true, 1024 * 1024);
+        byte[] body = body();
+
+        List errors = cache.validate(body, SLDHandler.FORMAT, null, null);
+        assertTrue(errors.isEmpty());
+        assertTrue(cache.validate(body, SLDHandler.FORMAT, null, null).isEmpty());
+        assertEquals(1, cache.getHits());
+
+        // validation and parsing are cached separately
+        cache.parse(body, SLDHandler.FORMAT, null, null);
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testValidateWeight() throws Exception {
+        ParsedStyleCache cache = new ParsedStyleCache(true, 1024 * 1024);
+        byte[] invalid = "<StyledLayerDescriptor><Foo/></StyledLayerDescriptor>".getBytes();
+
+        List errors = cache.validate(invalid, SLDHandler.FORMAT, null, null);
+        assertFalse(errors.isEmpty());
+        // the entry accounts for both the document and its errors
+        ParsedStyleCache.Entry entry = cache.entries.asMap().values().iterator().next();
+        assertTrue(entry.weight > invalid.length);
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        ParsedStyleCache cache = new ParsedStyleCache(false, 1024 * 1024);
+        byte[] body = body();
+
+        cache.parse(body, SLDHandler.FORMAT, null, null);
+        cache.parse(body, SLDHandler.FORMAT, null, null);
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+    }
+
+    @Test
+    public void testFetchLocal() throws Exception {
+        ParsedStyleCache cache = new ParsedStyleCache(true, 1024 * 1024);
+        URL url = GetMapKvpRequestReader.class.getResource("BasicPolygonsLibraryNoDefault.sld");
+        assertArrayEquals(body(), cache.fetch(url));
+    }
+}
@@ -5,11 +5,18 @@
  */
 package org.geoserver.wms.map;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 
+import org.geoserver.wms.map.QuickTileCache.MapKey;
+import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
+import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.junit.Test;
 
 import com.vividsolutions.jts.geom.Envelope;
@@ -67,4 +74,92 @@ public class QuickTileCacheTest {
         assertEquals(new Point(0, 2), cache.getTileOffsetsInMeta(box1, meta));
         assertEquals(new Point(1, 2), cache.getTileOffsetsInMeta(box2, meta));
     }
+
+    MetaTileKey key(int x, int y) {
+        MapKey mapKey = new MapKey("layers=test", 1, new Point2D.Double(0, 0));
+        ReferencedEnvelope envelope = new ReferencedEnvelope(x, x + 768, y, y + 768, null);
+        return new MetaTileKey(mapKey, new Point(x, y), envelope);
+    }
+
+    RenderedImage[] tiles(int imageType) {
+        BufferedImage metaTile = new BufferedImage(768, 768, imageType);
+        Graphics2D graphics = metaTile.createGraphics();
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                graphics.setColor(new Color(i * 100, j * 100, 50));
+                graphics.fillRect(j * 256, i * 256, 256, 256);
+            }
+        }
+        graphics.dispose();
+
+        RenderedImage[] tiles = new RenderedImage[9];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                tiles[i * 3 + j] = metaTile.getSubimage(j * 256, i * 256, 256, 256);
+            }
+        }
+        return tiles;
+    }
+
+    void assertSameTiles(RenderedImage[] expected, MetaTileKey key) {
+        for (int i = 0; i < expected.length; i++) {
+            BufferedImage tile = (BufferedImage) cache.getTile(key, i);
+            assertNotNull(tile);
+            assertEquals(256, tile.getWidth());
+            assertEquals(256, tile.getHeight());
+            BufferedImage original = (BufferedImage) expected[i];
+            for (int y = 0; y < 256; y += 51) {
+                for (int x = 0; x < 256; x += 51) {
+                    assertEquals(original.getRGB(x, y), tile.getRGB(x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testStoreAndGet() {
+        int[] types = new int[] { BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_ARGB,
+                BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_INDEXED };
+        for (int i = 0; i < types.length; i++) {
+            MetaTileKey key = key(i * 768, 0);
+            assertNull(cache.getTile(key, 0));
+            RenderedImage[] tiles = tiles(types[i]);
+            cache.storeTiles(key, tiles);
+            assertSameTiles(tiles, key);
+        }
+    }
+
+    @Test
+    public void testEviction() {
+        RenderedImage[] tiles = tiles(BufferedImage.TYPE_4BYTE_ABGR);
+        long metaTileSize = 9 * 256 * 256 * 4;
+        cache.setMaxBytes(metaTileSize * 2);
+
+        MetaTileKey k1 = key(0, 0);
+        MetaTileKey k2 = key(768, 0);
+        MetaTileKey k3 = key(1536, 0);
+        cache.storeTiles(k1, tiles);
+        cache.storeTiles(k2, tiles);
+        assertEquals(metaTileSize * 2, cache.getBytes());
+
+        // touch the first, the second becomes the least recently used
+        assertNotNull(cache.getTile(k1, 0));
+        cache.storeTiles(k3, tiles);
+        assertEquals(metaTileSize * 2, cache.getBytes());
+        assertNotNull(cache.getTile(k1, 0));
+        assertNull(cache.getTile(k2, 0));
+        assertNotNull(cache.getTile(k3, 0));
+
+        cache.clear();
+        assertEquals(0, cache.getBytes());
+        assertNull(cache.getTile(k1, 0));
+    }
+
+    @Test
+    public void testDisabled() {
+        cache.setMaxBytes(0);
+        MetaTileKey key = key(0, 0);
+        cache.storeTiles(key, tiles(BufferedImage.TYPE_4BYTE_ABGR));
+        assertNull(cache.getTile(key, 0));
+    }
 }
@@ -9,6 +9,8 @@ import com.vividsolutions.jts.geom.Envelope;
 import org.geoserver.catalog.*;
 import org.geoserver.data.test.MockData;
 import org.geoserver.data.test.SystemTestData;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.security.decorators.DecoratingFeatureSource;
 import org.geoserver.wms.*;
@@ -26,6 +28,7 @@ import org.geotools.image.test.ImageAssert;
 import org.geotools.map.FeatureLayer;
 import org.geotools.map.Layer;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.renderer.lite.StreamingRenderer;
 import org.geotools.resources.coverage.FeatureUtilities;
 import org.geotools.styling.Style;
 import org.geotools.styling.StyleBuilder;
@@ -48,9 +51,12 @@ import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -118,6 +124,91 @@ public class RenderedImageMapOutputFormatTest extends WMSTestSupport {
         assertNotBlank("testSimpleGetMapQuery", image);
     }
 
+    @Test
+    public void testBandedRendering() throws Exception {
+        Catalog catalog = getCatalog();
+        final FeatureSource fs = catalog.getFeatureTypeByName(MockData.BASIC_POLYGONS.getPrefix(),
+                MockData.BASIC_POLYGONS.getLocalPart()).getFeatureSource(null, null);
+        Style basicStyle = catalog.getStyleByName("Default").getStyle();
+        // centered on the first polygon, whose label ends up across the seam of the two bands
+        Style labelStyle = catalog.getStyleByName("bandLabels").getStyle();
+        ReferencedEnvelope bounds = new ReferencedEnvelope(-3, 3, -3, 3,
+                DefaultGeographicCRS.WGS84);
+
+        BandCountingMapProducer producer = new BandCountingMapProducer(getWMS());
+        BufferedImage expected = renderBanded(producer, fs, basicStyle, bounds);
+        BufferedImage expectedLabels = renderBanded(producer, fs, labelStyle, bounds);
+        assertEquals(0, producer.bandedRenderers);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        System.setProperty(BandedRenderer.THRESHOLD_KEY, "1");
+        BandedRenderer.executor = executor;
+        BandedRenderer.threads = 2;
+        BandedRenderer.initialized = true;
+        try {
+            BufferedImage banded = renderBanded(producer, fs, basicStyle, bounds);
+            assertEquals(1, producer.bandedRenderers);
+            assertNotBlank("testBandedRendering", banded);
+            ImageAssert.assertEquals(expected, banded, 100);
+
+            BufferedImage bandedLabels = renderBanded(producer, fs, labelStyle, bounds);
+            assertEquals(2, producer.bandedRenderers);
+            ImageAssert.assertEquals(expectedLabels, bandedLabels, 100);
+        } finally {
+            System.clearProperty(BandedRenderer.THRESHOLD_KEY);
+            BandedRenderer.executor = null;
+            BandedRenderer.initialized = false;
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBandingSkipsTransformations() throws Exception {
+        Catalog catalog = getCatalog();
+        final FeatureSource fs = catalog.getFeatureTypeByName(MockData.BASIC_POLYGONS.getPrefix(),
+                MockData.BASIC_POLYGONS.getLocalPart()).getFeatureSource(null, null);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        System.setProperty(BandedRenderer.THRESHOLD_KEY, "1");
+        BandedRenderer.executor = executor;
+        BandedRenderer.threads = 2;
+        BandedRenderer.initialized = true;
+        WMSMapContent map = new WMSMapContent();
+        try {
+            map.addLayer(new FeatureLayer(fs, catalog.getStyleByName("Default").getStyle()));
+            assertTrue(BandedRenderer.isBandingEnabled(map, 600, 600));
+
+            map.addLayer(new FeatureLayer(fs, catalog.getStyleByName("bandHeatmap").getStyle()));
+            assertFalse(BandedRenderer.isBandingEnabled(map, 600, 600));
+        } finally {
+            map.dispose();
+            System.clearProperty(BandedRenderer.THRESHOLD_KEY);
+            BandedRenderer.executor = null;
+            BandedRenderer.initialized = false;
+            executor.shutdown();
+        }
+    }
+
+    private BufferedImage renderBanded(RenderedImageMapOutputFormat producer, FeatureSource fs,
+            Style style, ReferencedEnvelope bounds) throws Exception {
+        GetMapRequest request = new GetMapRequest();
+        final WMSMapContent map = new WMSMapContent();
+        map.getViewport().setBounds(bounds);
+        map.setMapWidth(600);
+        map.setMapHeight(600);
+        map.setBgColor(Color.white);
+        map.setTransparent(false);
+        map.setRequest(request);
+        map.addLayer(new FeatureLayer(fs, style));
+
+        request.setFormat(getMapFormat());
+        RenderedImageMap imageMap = producer.produceMap(map);
+        try {
+            return (BufferedImage) imageMap.getImage();
+        } finally {
+            imageMap.dispose();
+        }
+    }
+
     /**
      * Test to make sure the "direct" raster path and the "nondirect" raster path
      * produce matching results. This test was originally created after fixes to GEOS-7270
@@ -275,6 +366,8 @@ public class RenderedImageMapOutputFormatTest extends WMSTestSupport {
     protected void onSetUp(SystemTestData testData) throws Exception {
         super.onSetUp(testData);
         testData.addDefaultRasterLayer(MockData.TASMANIA_DEM, getCatalog());
+        testData.addStyle("bandLabels", "BasicPolygonsLabels.sld", getClass(), getCatalog());
+        testData.addStyle("bandHeatmap", "HeatmapTransform.sld", getClass(), getCatalog());
     }
 
     
@@ -489,6 +582,32 @@ public class RenderedImageMapOutputFormatTest extends WMSTestSupport {
         return image;
     }
 
+    @Test
+    public void testRenderingTimeoutSubtractsElapsedTime() throws Exception {
+        Request request = new Request();
+        request.setTimestamp(new Date(System.currentTimeMillis() - 4000));
+        Dispatcher.REQUEST.set(request);
+        try {
+            // the time already spent on the request is subtracted
+            long timeout = rasterMapProducer.getRenderingTimeout(10000);
+            assertTrue("Unexpected timeout " + timeout, timeout > 0 && timeout <= 6000);
+
+            // no time left
+            assertTrue(rasterMapProducer.getRenderingTimeout(3000) < 0);
+
+            // an earlier request deadline wins
+            request.setDeadline(System.currentTimeMillis() + 1000);
+            timeout = rasterMapProducer.getRenderingTimeout(10000);
+            assertTrue("Unexpected timeout " + timeout, timeout > 0 && timeout <= 1000);
+
+            // neither a limit nor a deadline
+            request.setDeadline(0);
+            assertEquals(0, rasterMapProducer.getRenderingTimeout(0));
+        } finally {
+            Dispatcher.REQUEST.remove();
+        }
+    }
+
     /**
      * This dummy producer adds no functionality to DefaultRasterMapOutputFormat, just implements a
      * void formatImageOutputStream to have a concrete class over which test that
@@ -503,4 +622,19 @@ public class RenderedImageMapOutputFormatTest extends WMSTestSupport {
             super("image/gif", new String[] { "image/gif" }, wms);
         }
     }
+
+    private static class BandCountingMapProducer extends DummyRasterMapProducer {
+
+        int bandedRenderers;
+
+        public BandCountingMapProducer(WMS wms) {
+            super(wms);
+        }
+
+        @Override
+        protected StreamingRenderer buildBandedRenderer() {
+            bandedRenderers++;
+            return super.buildBandedRenderer();
+        }
+    }
 }
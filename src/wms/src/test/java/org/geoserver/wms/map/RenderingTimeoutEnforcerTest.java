@@ -0,0 +1,60 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.*;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.geotools.renderer.lite.StreamingRenderer;
+import org.junit.Test;
+
+public class RenderingTimeoutEnforcerTest {
+
+    @Test
+    public void testSaveMapOnRenderingThread() throws Exception {
+        BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        final Thread[] savingThread = new Thread[1];
+        RenderingTimeoutEnforcer enforcer = new RenderingTimeoutEnforcer(10,
+                new StreamingRenderer(), graphics, true) {
+            @Override
+            public void saveMap() {
+                savingThread[0] = Thread.currentThread();
+            }
+        };
+        enforcer.start();
+        long limit = System.currentTimeMillis() + 5000;
+        while (!enforcer.isTimedOut() && System.currentTimeMillis() < limit) {
+            Thread.sleep(10);
+        }
+        assertTrue(enforcer.isTimedOut());
+        // the scheduler thread only stops the rendering
+        assertNull(savingThread[0]);
+
+        enforcer.stop();
+        assertSame(Thread.currentThread(), savingThread[0]);
+    }
+
+    @Test
+    public void testNoSaveWithoutTimeout() throws Exception {
+        BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        final boolean[] saved = new boolean[1];
+        RenderingTimeoutEnforcer enforcer = new RenderingTimeoutEnforcer(60000,
+                new StreamingRenderer(), graphics, true) {
+            @Override
+            public void saveMap() {
+                saved[0] = true;
+            }
+        };
+        enforcer.start();
+        enforcer.stop();
+        assertFalse(enforcer.isTimedOut());
+        assertFalse(saved[0]);
+        graphics.dispose();
+    }
+}
@@ -0,0 +1,361 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.RenderingHints.Key;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogBuilder;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.data.test.SystemTestData;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.security.decorators.DecoratingSimpleFeatureSource;
+import org.geoserver.wms.GetMap;
+import org.geoserver.wms.GetMapCallback;
+import org.geoserver.wms.GetMapCallbackAdapter;
+import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.WMSTestSupport;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.factory.Hints;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.image.test.ImageAssert;
+import org.geotools.map.FeatureLayer;
+import org.geotools.map.Layer;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+public class SharedFeatureCacheTest extends WMSTestSupport {
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
+    SimpleFeatureSource source;
+
+    CountingFeatureSource counting;
+
+    static class CountingFeatureSource extends DecoratingSimpleFeatureSource {
+
+        int queries;
+
+        public CountingFeatureSource(SimpleFeatureSource delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public SimpleFeatureCollection getFeatures(Query query) throws IOException {
+            queries++;
+            return super.getFeatures(query);
+        }
+    }
+
+    static final String SHARED_GROUP = "sharedGroup";
+
+    static final String TRANSFORM_GROUP = "sharedTransformGroup";
+
+    static final String BUILDINGS_GROUP = "sharedBuildingsGroup";
+
+    static final String GETMAP = "wms?service=WMS&version=1.1.1&request=GetMap&styles="
+            + "&format=image/png&srs=EPSG:4326&bbox=-2.5,-1.5,2.5,6.5&width=250&height=400"
+            + "&layers=";
+
+    /**
+     * Collects the layers of the map being rendered
+     */
+    static class LayerCollector extends GetMapCallbackAdapter {
+
+        List<Layer> layers = new ArrayList<Layer>();
+
+        @Override
+        public synchronized Layer beforeLayer(WMSMapContent mapContent, Layer layer) {
+            layers.add(layer);
+            return layer;
+        }
+
+        int countShared() {
+            int count = 0;
+            for (Layer layer : layers) {
+                if (layer instanceof FeatureLayer && ((FeatureLayer) layer)
+                        .getFeatureSource() instanceof SharedFeatureCache.SharedFeatureSource) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    GetMap getMap;
+
+    LayerCollector collector;
+
+    @Override
+    protected void onSetUp(SystemTestData testData) throws Exception {
+        super.onSetUp(testData);
+        Catalog catalog = getCatalog();
+        testData.addStyle("sharedLabels", "BasicPolygonsLabels.sld", getClass(), catalog);
+        testData.addStyle("sharedHeatmap", "HeatmapTransform.sld", getClass(), catalog);
+
+        // the same layer listed twice with different styles
+        LayerInfo polygons = catalog.getLayerByName(getLayerId(MockData.BASIC_POLYGONS));
+        LayerGroupInfo group = catalog.getFactory().createLayerGroup();
+        group.setName(SHARED_GROUP);
+        group.getLayers().add(polygons);
+        group.getStyles().add(null);
+        group.getLayers().add(polygons);
+        group.getStyles().add(catalog.getStyleByName("sharedLabels"));
+        CatalogBuilder cb = new CatalogBuilder(catalog);
+        cb.calculateLayerGroupBounds(group);
+        catalog.add(group);
+
+        // and once more with a rendering transformation
+        LayerGroupInfo transform = catalog.getFactory().createLayerGroup();
+        transform.setName(TRANSFORM_GROUP);
+        transform.getLayers().addAll(group.getLayers());
+        transform.getStyles().addAll(group.getStyles());
+        transform.getLayers().add(polygons);
+        transform.getStyles().add(catalog.getStyleByName("sharedHeatmap"));
+        cb.calculateLayerGroupBounds(transform);
+        catalog.add(transform);
+
+        // a layer whose styles use no attributes
+        LayerInfo buildings = catalog.getLayerByName(getLayerId(MockData.BUILDINGS));
+        LayerGroupInfo plain = catalog.getFactory().createLayerGroup();
+        plain.setName(BUILDINGS_GROUP);
+        plain.getLayers().add(buildings);
+        plain.getStyles().add(null);
+        plain.getLayers().add(buildings);
+        plain.getStyles().add(null);
+        cb.calculateLayerGroupBounds(plain);
+        catalog.add(plain);
+    }
+
+    @Before
+    public void setupCallbacks() {
+        getMap = applicationContext.getBean(GetMap.class);
+        collector = new LayerCollector();
+        getMap.setGetMapCallbacks(Arrays.asList((GetMapCallback) collector));
+    }
+
+    @After
+    public void resetCallbacks() {
+        getMap.setGetMapCallbacks(GeoServerExtensions.extensions(GetMapCallback.class));
+        System.clearProperty(SharedFeatureCache.CACHE_KEY);
+    }
+
+    @Before
+    public void setupSource() throws Exception {
+        source = (SimpleFeatureSource) getCatalog().getFeatureTypeByName(
+                getLayerId(MockData.BASIC_POLYGONS)).getFeatureSource(null, null);
+        counting = new CountingFeatureSource(source);
+    }
+
+    Query bboxQuery(ReferencedEnvelope envelope, Filter extra) {
+        String geometry = source.getSchema().getGeometryDescriptor().getLocalName();
+        Filter filter = FF.bbox(FF.property(geometry), envelope);
+        if (extra != null) {
+            filter = FF.and(extra, filter);
+        }
+        Query query = new Query(source.getSchema().getTypeName(), filter);
+        query.setPropertyNames(new String[] { geometry });
+        return query;
+    }
+
+    SharedFeatureCache buildCache(long maxSize) {
+        SharedFeatureCache cache = new SharedFeatureCache(maxSize, 256, 256);
+        cache.addGroup("basic", Collections.<Style> emptyList(), 4);
+        return cache;
+    }
+
+    @Test
+    public void testShareContainedArea() throws Exception {
+        SharedFeatureCache cache = buildCache(1024 * 1024);
+        SimpleFeatureSource shared1 = cache.share("basic", counting);
+        SimpleFeatureSource shared2 = cache.share("basic", counting);
+
+        ReferencedEnvelope bounds = source.getBounds();
+        Query q1 = bboxQuery(bounds, null);
+        assertEquals(source.getFeatures(q1).size(), shared1.getFeatures(q1).size());
+        assertEquals(1, counting.queries);
+
+        // a smaller area is filtered out of the loaded features
+        ReferencedEnvelope half = new ReferencedEnvelope(bounds.getMinX(), bounds.getMedian(0),
+                bounds.getMinY(), bounds.getMedian(1), bounds.getCoordinateReferenceSystem());
+        Query q2 = bboxQuery(half, null);
+        int expected = source.getFeatures(q2).size();
+        assertTrue(expected < source.getFeatures(q1).size());
+        assertEquals(expected, shared2.getFeatures(q2).size());
+        assertEquals(1, counting.queries);
+    }
+
+    @Test
+    public void testDifferentFilter() throws Exception {
+        SharedFeatureCache cache = buildCache(1024 * 1024);
+        SimpleFeatureSource shared = cache.share("basic", counting);
+
+        ReferencedEnvelope bounds = source.getBounds();
+        shared.getFeatures(bboxQuery(bounds, null));
+        Filter id = FF.id(Collections.singleton(FF.featureId("BasicPolygons.1107531493630")));
+        Query query = bboxQuery(bounds, id);
+        assertEquals(source.getFeatures(query).size(), shared.getFeatures(query).size());
+        assertEquals(2, counting.queries);
+    }
+
+    @Test
+    public void testTooManyFeatures() throws Exception {
+        SharedFeatureCache cache = buildCache(1);
+        SimpleFeatureSource shared = cache.share("basic", counting);
+
+        Query query = bboxQuery(source.getBounds(), null);
+        int expected = source.getFeatures(query).size();
+        assertEquals(expected, shared.getFeatures(query).size());
+        assertEquals(expected, shared.getFeatures(query).size());
+        // one aborted load, and two direct queries
+        assertEquals(3, counting.queries);
+        assertEquals(0, cache.size);
+    }
+
+    @Test
+    public void testAttributeUnion() throws Exception {
+        StyleBuilder sb = new StyleBuilder();
+        Style labels = sb.createStyle(sb.createTextSymbolizer(Color.BLACK,
+                sb.createFont("Serif", 10), "ID"));
+        SharedFeatureCache cache = new SharedFeatureCache(1024 * 1024, 256, 256);
+        cache.addGroup("basic", Arrays.asList(labels, sb.createStyle(sb.createPolygonSymbolizer())),
+                0);
+        SimpleFeatureSource shared = cache.share("basic", counting);
+
+        // the load asks for the attributes of all the styles
+        ReferencedEnvelope bounds = source.getBounds();
+        shared.getFeatures(bboxQuery(bounds, null));
+        Query loaded = cache.groups.get("basic").entries.get(0).query;
+        String geometry = source.getSchema().getGeometryDescriptor().getLocalName();
+        assertEquals(new HashSet<String>(Arrays.asList("ID", geometry)),
+                new HashSet<String>(Arrays.asList(loaded.getPropertyNames())));
+
+        // so the labelling layer is served from memory
+        Query query = bboxQuery(bounds, null);
+        query.setPropertyNames(new String[] { geometry, "ID" });
+        assertEquals(source.getFeatures(query).size(), shared.getFeatures(query).size());
+        assertEquals(1, counting.queries);
+
+        // but not a layer asking for everything
+        query.setPropertyNames(Query.ALL_NAMES);
+        shared.getFeatures(query);
+        assertEquals(2, counting.queries);
+    }
+
+    @Test
+    public void testBufferExpansion() throws Exception {
+        SharedFeatureCache cache = new SharedFeatureCache(1024 * 1024, 100, 100);
+        cache.addGroup("basic", Collections.<Style> emptyList(), 10);
+        SimpleFeatureSource shared = cache.share("basic", counting);
+
+        ReferencedEnvelope bounds = new ReferencedEnvelope(-1, 1, -1, 1,
+                source.getBounds().getCoordinateReferenceSystem());
+        shared.getFeatures(bboxQuery(bounds, null));
+        // 10 pixels of 0.02 each
+        ReferencedEnvelope loaded = cache.groups.get("basic").entries.get(0).filter.envelope;
+        assertEquals(-1.2, loaded.getMinX(), 1e-9);
+        assertEquals(1.2, loaded.getMaxY(), 1e-9);
+
+        // a layer with a larger buffer still reads from memory
+        ReferencedEnvelope larger = new ReferencedEnvelope(bounds);
+        larger.expandBy(0.1);
+        shared.getFeatures(bboxQuery(larger, null));
+        assertEquals(1, counting.queries);
+
+        // but not one going past the largest buffer
+        larger.expandBy(0.2);
+        shared.getFeatures(bboxQuery(larger, null));
+        assertEquals(2, counting.queries);
+    }
+
+    @Test
+    public void testSupportedHints() throws Exception {
+        SharedFeatureCache cache = buildCache(1024 * 1024);
+        SimpleFeatureSource detached = new DecoratingSimpleFeatureSource(source) {
+            @Override
+            public Set<Key> getSupportedHints() {
+                return new HashSet<Key>(Arrays.asList(Hints.FEATURE_DETACHED, Hints.SCREENMAP,
+                        Hints.FEATURE_2D));
+            }
+        };
+        // features are shared, the renderer must clone them and not use the screen map
+        Set<Key> hints = cache.share("basic", detached).getSupportedHints();
+        assertEquals(Collections.singleton(Hints.FEATURE_2D), hints);
+
+        SimpleFeatureSource none = new DecoratingSimpleFeatureSource(source) {
+            @Override
+            public Set<Key> getSupportedHints() {
+                return null;
+            }
+        };
+        assertTrue(cache.share("basic", none).getSupportedHints().isEmpty());
+    }
+
+    @Test
+    public void testLayerGroupRepeatedLayer() throws Exception {
+        BufferedImage shared = getAsImage(GETMAP + SHARED_GROUP, "image/png");
+        assertEquals(2, collector.countShared());
+
+        System.setProperty(SharedFeatureCache.CACHE_KEY, "false");
+        collector.layers.clear();
+        BufferedImage unshared = getAsImage(GETMAP + SHARED_GROUP, "image/png");
+        assertEquals(0, collector.countShared());
+
+        assertNotBlank("testLayerGroupRepeatedLayer", shared);
+        ImageAssert.assertEquals(unshared, shared, 0);
+    }
+
+    @Test
+    public void testLayerGroupFilterOnUnstyledAttribute() throws Exception {
+        // the filter uses an attribute the styles do not need
+        String request = "wms?service=WMS&version=1.1.1&request=GetMap&styles="
+                + "&format=image/png&srs=EPSG:4326&bbox=0.0005,0.0003,0.0027,0.0012"
+                + "&width=440&height=180&CQL_FILTER=FID='113'&layers=" + BUILDINGS_GROUP;
+        BufferedImage shared = getAsImage(request, "image/png");
+        assertEquals(2, collector.countShared());
+
+        System.setProperty(SharedFeatureCache.CACHE_KEY, "false");
+        collector.layers.clear();
+        BufferedImage unshared = getAsImage(request, "image/png");
+        assertEquals(0, collector.countShared());
+
+        assertNotBlank("testLayerGroupFilterOnUnstyledAttribute", shared);
+        ImageAssert.assertEquals(unshared, shared, 0);
+    }
+
+    @Test
+    public void testTransformedLayerNotShared() throws Exception {
+        getAsServletResponse(GETMAP + TRANSFORM_GROUP);
+        assertEquals(3, collector.layers.size());
+        // the two plain layers share their features, the transformed one reads on its own
+        assertEquals(2, collector.countShared());
+        FeatureLayer transformed = (FeatureLayer) collector.layers.get(2);
+        assertFalse(transformed
+                .getFeatureSource() instanceof SharedFeatureCache.SharedFeatureSource);
+    }
+}
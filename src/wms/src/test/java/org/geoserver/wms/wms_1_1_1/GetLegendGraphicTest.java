@@ -6,6 +6,8 @@
 package org.geoserver.wms.wms_1_1_1;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.awt.Color;
@@ -17,20 +19,29 @@ import javax.imageio.ImageIO;
 import javax.xml.namespace.QName;
 
 import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogBuilder;
+import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LegendInfo;
+import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.impl.LegendInfoImpl;
 import org.geoserver.data.test.MockData;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.platform.resource.Resource;
+import org.geoserver.security.AccessMode;
+import org.geoserver.wms.GetLegendGraphic;
 import org.geoserver.wms.WMSTestSupport;
+import org.geoserver.wms.legendgraphic.LegendCache;
 import org.geotools.util.Converters;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.w3c.dom.Document;
 
+import com.mockrunner.mock.web.MockHttpServletRequest;
 import com.mockrunner.mock.web.MockHttpServletResponse;
 
 public class GetLegendGraphicTest extends WMSTestSupport {
+
+    static final String LEGEND_GROUP = "legendGroup";
    
     
     @Override
@@ -58,6 +69,15 @@ public class GetLegendGraphicTest extends WMSTestSupport {
         File file = getResourceLoader().createFile("styles","legend.png");        
         getResourceLoader().copyFromClassPath( "../legend.png", file,  getClass() );
         testData.addStyle(null, "custom", "point_test.sld", getClass(), catalog, legend);
+
+        // a group whose legend depends on the layers the user can see
+        LayerGroupInfo group = catalog.getFactory().createLayerGroup();
+        group.setName(LEGEND_GROUP);
+        group.getLayers().add(catalog.getLayerByName(getLayerId(MockData.LAKES)));
+        group.getLayers().add(catalog.getLayerByName(getLayerId(MockData.LINES)));
+        new CatalogBuilder(catalog).calculateLayerGroupBounds(group);
+        catalog.add(group);
+        addLayerAccessRule(MockData.CGF_PREFIX, "*", AccessMode.READ, "ROLE_CGF");
     }
     
     /**
@@ -94,6 +114,110 @@ public class GetLegendGraphicTest extends WMSTestSupport {
         assertPixel(image, 10, 10, Converters.convert("#FF0000", Color.class));
     }
     
+    @Test
+    public void testCachedLegend() throws Exception {
+        GetLegendGraphic getLegendGraphic = applicationContext.getBean(GetLegendGraphic.class);
+        LegendCache cache = new LegendCache(getCatalog(), true, 1024 * 1024);
+        getLegendGraphic.setLegendCache(cache);
+        try {
+            String path = "wms?service=WMS&version=1.1.1&request=GetLegendGraphic" + "&layer="
+                    + getLayerId(MockData.LAKES) + "&style=Lakes"
+                    + "&format=image/png&width=20&height=20";
+            BufferedImage image = getAsImage(path, "image/png");
+            assertPixel(image, 10, 10, Converters.convert("#4040C0", Color.class));
+            MockHttpServletResponse response = getAsServletResponse(path);
+            assertEquals("image/png", response.getContentType());
+            assertEquals(1, cache.getHits());
+            String etag = response.getHeader("ETag");
+            assertNotNull(etag);
+            assertNotNull(response.getHeader("Last-Modified"));
+
+            // conditional request
+            MockHttpServletRequest request = createRequest(path);
+            request.addHeader("If-None-Match", etag);
+            assertEquals(304, dispatch(request).getErrorCode());
+
+            // modifying the style drops the cached legends
+            StyleInfo style = getCatalog().getStyleByName("Lakes");
+            getCatalog().save(style);
+            getAsServletResponse(path);
+            assertEquals(2, cache.getMisses());
+        } finally {
+            cache.onDispose();
+            getLegendGraphic.setLegendCache(applicationContext.getBean(LegendCache.class));
+        }
+    }
+
+    @Test
+    public void testCachedLegendVirtualService() throws Exception {
+        GetLegendGraphic getLegendGraphic = applicationContext.getBean(GetLegendGraphic.class);
+        LegendCache cache = new LegendCache(getCatalog(), true, 1024 * 1024);
+        getLegendGraphic.setLegendCache(cache);
+        try {
+            String query = "wms?service=WMS&version=1.1.1&request=GetLegendGraphic"
+                    + "&layer=Lakes&style=Lakes&format=image/png&width=20&height=20";
+            BufferedImage image = getAsImage(MockData.CITE_PREFIX + "/" + query, "image/png");
+            assertPixel(image, 10, 10, Converters.convert("#4040C0", Color.class));
+            assertEquals(1, cache.getMisses());
+
+            // the same name in another workspace does not resolve to the cached legend
+            MockHttpServletResponse response = getAsServletResponse(MockData.SF_PREFIX + "/"
+                    + query);
+            assertFalse("image/png".equals(response.getContentType()));
+            assertEquals(0, cache.getHits());
+
+            // adding to the catalog drops the cached legends
+            getAsImage(MockData.CITE_PREFIX + "/" + query, "image/png");
+            assertEquals(1, cache.getHits());
+            Catalog catalog = getCatalog();
+            StyleInfo style = catalog.getFactory().createStyle();
+            style.setName("legendCacheAdded");
+            style.setFilename("legendCacheAdded.sld");
+            catalog.add(style);
+            try {
+                getAsImage(MockData.CITE_PREFIX + "/" + query, "image/png");
+                assertEquals(1, cache.getHits());
+                assertEquals(2, cache.getMisses());
+            } finally {
+                catalog.remove(style);
+            }
+        } finally {
+            cache.onDispose();
+            getLegendGraphic.setLegendCache(applicationContext.getBean(LegendCache.class));
+        }
+    }
+
+    @Test
+    public void testCachedLegendRoles() throws Exception {
+        GetLegendGraphic getLegendGraphic = applicationContext.getBean(GetLegendGraphic.class);
+        LegendCache cache = new LegendCache(getCatalog(), true, 1024 * 1024);
+        getLegendGraphic.setLegendCache(cache);
+        try {
+            String path = "wms?service=WMS&version=1.1.1&request=GetLegendGraphic" + "&layer="
+                    + LEGEND_GROUP + "&format=image/png&width=20&height=20";
+            login("cgfUser", "cgfUser", "ROLE_CGF");
+            BufferedImage full = getAsImage(path, "image/png");
+
+            // this user cannot see the lines, the legend must not come from the cache
+            login("otherUser", "otherUser", "ROLE_OTHER");
+            BufferedImage restricted = getAsImage(path, "image/png");
+            assertEquals(0, cache.getHits());
+            assertEquals(2, cache.getMisses());
+            assertTrue(restricted.getHeight() < full.getHeight());
+
+            // each user gets back their own legend
+            login("cgfUser", "cgfUser", "ROLE_CGF");
+            assertEquals(full.getHeight(), getAsImage(path, "image/png").getHeight());
+            login("otherUser", "otherUser", "ROLE_OTHER");
+            assertEquals(restricted.getHeight(), getAsImage(path, "image/png").getHeight());
+            assertEquals(2, cache.getHits());
+        } finally {
+            logout();
+            cache.onDispose();
+            getLegendGraphic.setLegendCache(applicationContext.getBean(LegendCache.class));
+        }
+    }
+
     /**
      * Tests an custom legend graphic
      */
@@ -0,0 +1,128 @@
+/* (c) 2016 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.wms_1_3;
+
+import static org.custommonkey.xmlunit.XMLAssert.assertXpathEvaluatesTo;
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.data.test.SystemTestData;
+import org.geoserver.ows.CapabilitiesCacheCallback;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.security.AccessMode;
+import org.geoserver.wms.WMSTestSupport;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class CapabilitiesCacheTest extends WMSTestSupport {
+
+    static final String CAPABILITIES = "wms?service=WMS&request=GetCapabilities&version=1.3.0";
+
+    @BeforeClass
+    public static void enableCache() {
+        System.setProperty(CapabilitiesCacheCallback.CACHE_KEY, "true");
+    }
+
+    @AfterClass
+    public static void disableCache() {
+        System.clearProperty(CapabilitiesCacheCallback.CACHE_KEY);
+    }
+
+    @Override
+    protected void onSetUp(SystemTestData testData) throws Exception {
+        super.onSetUp(testData);
+        addLayerAccessRule(MockData.CDF_PREFIX, "*", AccessMode.READ, "ROLE_CDF");
+        addLayerAccessRule(MockData.CGF_PREFIX, "*", AccessMode.READ, "ROLE_CGF");
+    }
+
+    @Override
+    protected void registerNamespaces(Map<String, String> namespaces) {
+        namespaces.put("wms", "http://www.opengis.net/wms");
+    }
+
+    CapabilitiesCacheCallback getCache() {
+        return GeoServerExtensions.bean(CapabilitiesCacheCallback.class);
+    }
+
+    @Test
+    public void testCacheHit() throws Exception {
+        CapabilitiesCacheCallback cache = getCache();
+        cache.invalidate();
+        String first = getAsString(CAPABILITIES);
+        long hits = cache.getHits();
+        String second = getAsString(CAPABILITIES);
+        assertEquals(hits + 1, cache.getHits());
+        assertEquals(first, second);
+
+        // different parameters, different document
+        long misses = cache.getMisses();
+        getAsString(CAPABILITIES + "&namespace=cite");
+        assertEquals(misses + 1, cache.getMisses());
+    }
+
+    @Test
+    public void testInvalidateOnChange() throws Exception {
+        CapabilitiesCacheCallback cache = getCache();
+        getAsDOM(CAPABILITIES);
+
+        Catalog catalog = getCatalog();
+        FeatureTypeInfo ft = catalog.getFeatureTypeByName(getLayerId(MockData.BUILDINGS));
+        ft.setTitle("Cached buildings");
+        catalog.save(ft);
+
+        long misses = cache.getMisses();
+        Document dom = getAsDOM(CAPABILITIES);
+        assertEquals(misses + 1, cache.getMisses());
+        assertXpathEvaluatesTo("1",
+                "count(//wms:Layer[wms:Title='Cached buildings'])", dom);
+    }
+
+    @Test
+    public void testUsersWithDifferentRoles() throws Exception {
+        CapabilitiesCacheCallback cache = getCache();
+        String cdfLayer = "count(//wms:Layer[wms:Name='" + getLayerId(MockData.FIFTEEN) + "'])";
+        String cgfLayer = "count(//wms:Layer[wms:Name='" + getLayerId(MockData.LINES) + "'])";
+
+        login("cdfUser", "cdfUser", "ROLE_CDF");
+        Document dom = getAsDOM(CAPABILITIES);
+        assertXpathEvaluatesTo("1", cdfLayer, dom);
+        assertXpathEvaluatesTo("0", cgfLayer, dom);
+
+        // same request, but the user sees other layers, the document must be built again
+        login("cgfUser", "cgfUser", "ROLE_CGF");
+        long misses = cache.getMisses();
+        dom = getAsDOM(CAPABILITIES);
+        assertEquals(misses + 1, cache.getMisses());
+        assertXpathEvaluatesTo("0", cdfLayer, dom);
+        assertXpathEvaluatesTo("1", cgfLayer, dom);
+
+        // each user gets back its own document from the cache
+        login("cdfUser", "cdfUser", "ROLE_CDF");
+        long hits = cache.getHits();
+        dom = getAsDOM(CAPABILITIES);
+        assertEquals(hits + 1, cache.getHits());
+        assertXpathEvaluatesTo("1", cdfLayer, dom);
+        assertXpathEvaluatesTo("0", cgfLayer, dom);
+
+        login("cgfUser", "cgfUser", "ROLE_CGF");
+        hits = cache.getHits();
+        dom = getAsDOM(CAPABILITIES);
+        assertEquals(hits + 1, cache.getHits());
+        assertXpathEvaluatesTo("0", cdfLayer, dom);
+        assertXpathEvaluatesTo("1", cgfLayer, dom);
+
+        // and anonymous users see neither
+        logout();
+        dom = getAsDOM(CAPABILITIES);
+        assertXpathEvaluatesTo("0", cdfLayer, dom);
+        assertXpathEvaluatesTo("0", cgfLayer, dom);
+    }
+}